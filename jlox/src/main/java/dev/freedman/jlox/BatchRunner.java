@@ -0,0 +1,175 @@
+package dev.freedman.jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs a whole batch of scripts inside one JVM instead of paying for a fresh
+ * JVM (and a cold JIT) per script. Each script gets its own
+ * {@link Interpreter} and its own output buffer, so scripts can't see each
+ * other's variables or interleave their output.
+ * <p>
+ * Scripts are spread over a work-stealing {@link ForkJoinPool}, which by
+ * default uses every available core. Results always come back in the order
+ * the scripts were given, regardless of which one finished first.
+ * </p>
+ */
+public class BatchRunner {
+    private final int parallelism;
+    private final PreludeSnapshot prelude;
+
+    public BatchRunner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchRunner(final int parallelism) {
+        this(parallelism, null);
+    }
+
+    /**
+     * Creates a runner whose scripts all start with the globals from
+     * {@code prelude} (which may be {@code null} for none).
+     */
+    public BatchRunner(final int parallelism, final PreludeSnapshot prelude) {
+        this.parallelism = parallelism;
+        this.prelude = prelude;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Expands the given arguments into the list of scripts to run. Directories
+     * are searched recursively for {@code .lox} files (sorted so the order is
+     * stable between runs), anything else is treated as a script path.
+     */
+    public static List<Path> collectScripts(final List<String> arguments) throws IOException {
+        final List<Path> scripts = new ArrayList<>();
+        for (final String argument : arguments) {
+            final Path path = Paths.get(argument);
+            if (Files.isDirectory(path)) {
+                try (final Stream<Path> files = Files.walk(path)) {
+                    scripts.addAll(files
+                            .filter(Files::isRegularFile)
+                            .filter((file) -> file.getFileName().toString().endsWith(".lox"))
+                            .sorted()
+                            .collect(Collectors.toList()));
+                }
+            } else {
+                scripts.add(path);
+            }
+        }
+        return scripts;
+    }
+
+    public BatchReport run(final List<Path> scripts) {
+        final long start = System.nanoTime();
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            final List<Future<ScriptResult>> futures = new ArrayList<>();
+            for (final Path script : scripts) {
+                futures.add(pool.submit(() -> runScript(script, prelude)));
+            }
+            final List<ScriptResult> results = new ArrayList<>();
+            for (final Future<ScriptResult> future : futures) {
+                results.add(future.get());
+            }
+            return new BatchReport(results, System.nanoTime() - start, parallelism);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (final ExecutionException e) {
+            // runScript catches everything a script can throw, so this
+            // really shouldn't happen
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Runs a single script to completion. Nothing a script does is allowed to
+     * escape this method, otherwise one bad script would take down the whole
+     * batch.
+     */
+    static ScriptResult runScript(final Path script, final PreludeSnapshot prelude) {
+        final long start = System.nanoTime();
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final PrintStream output = new PrintStream(buffer, true, Charset.defaultCharset());
+        List<InterpreterIssue> errors = Collections.emptyList();
+        String failure = null;
+        int exitCode = 0;
+        try {
+            final JLox.ScriptOutcome outcome = JLox.executeScript(script, output, prelude);
+            errors = outcome.errors();
+            exitCode = outcome.exitCode();
+        } catch (final IOException e) {
+            failure = "Could not read script: " + e.getMessage();
+            exitCode = 66; // EX_NOINPUT
+        } catch (final RuntimeException | StackOverflowError e) {
+            failure = "Internal error: " + e;
+            exitCode = 70; // EX_SOFTWARE
+        }
+        output.flush();
+        return new ScriptResult(script, exitCode, buffer.toString(Charset.defaultCharset()), errors, failure,
+                System.nanoTime() - start);
+    }
+
+    /**
+     * Everything that happened while running a single script. {@code failure}
+     * is only set when the script couldn't be run at all (as opposed to
+     * producing Lox errors, which go in {@code errors}).
+     */
+    public record ScriptResult(Path script, int exitCode, String output, List<InterpreterIssue> errors,
+            String failure, long elapsedNanos) {
+        public boolean succeeded() {
+            return exitCode == 0;
+        }
+    }
+
+    public record BatchReport(List<ScriptResult> results, long elapsedNanos, int parallelism) {
+        public long failures() {
+            return results.stream().filter((result) -> !result.succeeded()).count();
+        }
+
+        public int exitCode() {
+            return failures() == 0 ? 0 : 65; // EX_DATAERR
+        }
+
+        public void print(final PrintStream out) {
+            for (final ScriptResult result : results) {
+                out.printf("== %s (exit %d, %.2f ms)\n", result.script(), result.exitCode(),
+                        result.elapsedNanos() / 1_000_000.0);
+                out.print(result.output());
+                if (!result.errors().isEmpty()) {
+                    out.println("The following errors occurred:");
+                    for (final InterpreterIssue error : result.errors()) {
+                        out.println(error);
+                    }
+                }
+                if (result.failure() != null) {
+                    out.println(result.failure());
+                }
+            }
+            final double seconds = elapsedNanos / 1_000_000_000.0;
+            out.printf("Ran %d scripts in %.2f ms on %d workers (%.1f scripts/sec): %d succeeded, %d failed\n",
+                    results.size(), elapsedNanos / 1_000_000.0, parallelism,
+                    seconds > 0 ? results.size() / seconds : 0.0,
+                    results.size() - failures(), failures());
+        }
+    }
+}
@@ -0,0 +1,562 @@
+package dev.freedman.jlox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * Runs benchmarks end to end and checks them against a stored baseline. Where
+ * the happy path tests make sure the interpreter gets things right, this makes
+ * sure it stays fast.
+ * <p>
+ * A benchmark is anything implementing {@link Case}. Most are Lox programs
+ * (see {@link #script}), which get scanned, parsed and run in a fresh
+ * interpreter on every iteration, just like a real run of {@code jlox}. The
+ * built-in corpus lives in the {@code benchmarks} resource folder and covers
+ * recursion, closures, string building, nested loops, numeric code and maps.
+ * Cases written in Java are for comparing a part of the interpreter against
+ * something outside of it, like {@link LoxMap} against {@link HashMap}, or for
+ * measuring a single phase like parsing on its own.
+ * </p>
+ * <p>
+ * Cases that work through a file also report their throughput in MB/s. The
+ * record cases (see {@link #recordCases}) are the main ones: each decodes the
+ * same generated records once with the JSON and CSV natives and once with a
+ * naive decoder written in Lox.
+ * </p>
+ * <p>
+ * Each case runs a number of untimed warmup iterations first, so the JVM has
+ * compiled the interpreter by the time it's measured. Allocation is measured
+ * with the current thread's allocation counter where the JVM has one.
+ * </p>
+ */
+public class BenchmarkRunner {
+    static final List<String> CORPUS = List.of("recursion", "closures", "strings", "nested_loops", "numeric",
+            "maps");
+    /**
+     * How many keys the Java-level map cases put in and look up.
+     */
+    static final int MAP_CASE_KEYS = 100_000;
+    /**
+     * How many statements the generated source of the parser case has.
+     */
+    static final int PARSE_CASE_STATEMENTS = 20_000;
+    /**
+     * How deeply the deep parser case nests things, and how many times over
+     * it does so.
+     */
+    static final int DEEP_PARSE_CASE_DEPTH = 400;
+    static final int DEEP_PARSE_CASE_REPEATS = 100;
+    /**
+     * How many records the record cases' files hold.
+     */
+    static final int RECORD_CASE_ROWS = 5_000;
+    static final List<String> RECORD_CASES = List.of("records_json", "records_json_naive", "records_csv",
+            "records_csv_naive");
+    private static final List<String> COUNTRIES = List.of("NZ", "AU", "US", "GB", "DE", "JP", "BR", "IN");
+    static final int DEFAULT_WARMUP_ITERATIONS = 10;
+    static final int DEFAULT_MEASURED_ITERATIONS = 20;
+    /**
+     * How much slower than the baseline (in percent) a case may get before it
+     * counts as a regression.
+     */
+    static final double DEFAULT_THRESHOLD = 10.0;
+
+    /**
+     * A single benchmark. {@link #run()} is one iteration and gets called many
+     * times, so it must not depend on state left over from earlier calls.
+     */
+    public interface Case {
+        String name();
+
+        void run() throws Exception;
+
+        /**
+         * How many bytes of input an iteration works through, for cases that
+         * are measured in MB/s as well. 0 for the rest.
+         */
+        default long bytesPerIteration() {
+            return 0;
+        }
+    }
+
+    private final int warmupIterations;
+    private final int measuredIterations;
+
+    public BenchmarkRunner() {
+        this(DEFAULT_WARMUP_ITERATIONS, DEFAULT_MEASURED_ITERATIONS);
+    }
+
+    public BenchmarkRunner(final int warmupIterations, final int measuredIterations) {
+        this.warmupIterations = warmupIterations;
+        this.measuredIterations = measuredIterations;
+    }
+
+    /**
+     * A case that runs a Lox program from scratch, throwing away whatever it
+     * prints. The program failing fails the benchmark, so the corpus doubles
+     * as a (slow) correctness check.
+     */
+    public static Case script(final String name, final String source) {
+        return script(name, source, Path.of(""), 0);
+    }
+
+    /**
+     * A {@link #script} that opens files in {@code directory} and reads
+     * {@code bytesPerIteration} bytes of them per run.
+     */
+    static Case script(final String name, final String source, final Path directory,
+            final long bytesPerIteration) {
+        final PrintStream output = new PrintStream(OutputStream.nullOutputStream());
+        return new Case() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public void run() throws InterpreterException {
+                final Interpreter interpreter = new Interpreter(output);
+                interpreter.setModuleDirectory(directory);
+                for (final Statement statement : JLox.getExecutableStatements(source)) {
+                    interpreter.execute(statement);
+                }
+            }
+
+            @Override
+            public long bytesPerIteration() {
+                return bytesPerIteration;
+            }
+        };
+    }
+
+    /**
+     * The Lox programs that ship with jlox.
+     */
+    public static List<Case> corpus() throws IOException {
+        final List<Case> cases = new ArrayList<>();
+        for (final String name : CORPUS) {
+            cases.add(script(name, benchmarkSource(name)));
+        }
+        return cases;
+    }
+
+    static String benchmarkSource(final String name) throws IOException {
+        try (final InputStream resource = BenchmarkRunner.class.getResourceAsStream("/benchmarks/" + name + ".lox")) {
+            if (resource == null) {
+                throw new IOException("Missing benchmark " + name);
+            }
+            return new String(resource.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Everything {@code jlox --bench} runs when it isn't given any scripts.
+     */
+    public static List<Case> builtInCases() throws IOException {
+        final List<Case> cases = corpus();
+        cases.add(parseCase());
+        cases.add(deepParseCase());
+        cases.addAll(mapCases());
+        final Path records = Files.createTempDirectory("jlox-records");
+        records.toFile().deleteOnExit();
+        cases.addAll(recordCases(records));
+        // these get deleted before the directory, which has to be empty by then
+        try (final Stream<Path> files = Files.list(records)) {
+            files.forEach((file) -> file.toFile().deleteOnExit());
+        }
+        return cases;
+    }
+
+    /**
+     * Parses a large generated source full of expressions that use every
+     * precedence level. The source is scanned once up front, so only the
+     * parser is measured.
+     */
+    public static Case parseCase() {
+        final StringBuilder source = new StringBuilder();
+        for (int i = 0; i < PARSE_CASE_STATEMENTS; ++i) {
+            source.append("var x").append(i).append(" = (a + b * ").append(i % 97)
+                    .append(" - -c) / d == e or f(1, g, \"s\") and !h <= 3;\n");
+        }
+        final List<Token> tokens;
+        try {
+            tokens = new Scanner(source.toString()).scanTokens();
+        } catch (final InterpreterException e) {
+            throw new IllegalStateException("Generated source doesn't scan", e);
+        }
+        return new Case() {
+            @Override
+            public String name() {
+                return "parse/generated";
+            }
+
+            @Override
+            public void run() throws InterpreterException {
+                new Parser(tokens).parse();
+            }
+        };
+    }
+
+    /**
+     * Parses a generated source made of deeply nested groupings, operands on
+     * the right, unary operators, calls, blocks and ifs, i.e. what generated
+     * code tends to look like. Like {@link #parseCase()}, only the parser is
+     * measured.
+     */
+    public static Case deepParseCase() {
+        final int depth = DEEP_PARSE_CASE_DEPTH;
+        final StringBuilder source = new StringBuilder();
+        for (int i = 0; i < DEEP_PARSE_CASE_REPEATS; ++i) {
+            source.append("print ").append("(".repeat(depth)).append(i).append(")".repeat(depth)).append(";\n");
+            // two levels each
+            source.append("print ").append("a + (".repeat(depth / 2)).append(i).append(")".repeat(depth / 2))
+                    .append(";\n");
+            source.append("print ").append("-!".repeat(depth / 2)).append(i).append(";\n");
+            source.append("print ").append("f(a, ".repeat(depth)).append(i).append(")".repeat(depth)).append(";\n");
+            source.append("{\n".repeat(depth)).append("print ").append(i).append(";\n").append("}\n".repeat(depth));
+            source.append("if (a) ".repeat(depth)).append("print ").append(i).append(";\n");
+        }
+        final List<Token> tokens;
+        try {
+            tokens = new Scanner(source.toString()).scanTokens();
+        } catch (final InterpreterException e) {
+            throw new IllegalStateException("Generated source doesn't scan", e);
+        }
+        return new Case() {
+            @Override
+            public String name() {
+                return "parse/deep";
+            }
+
+            @Override
+            public void run() throws InterpreterException {
+                new Parser(tokens).parse();
+            }
+        };
+    }
+
+    /**
+     * The same workload, half string keys and half number keys, run against
+     * {@link LoxMap} and against {@link HashMap} as the baseline to beat.
+     * Each iteration fills a new map, looks every key up twice (once as a
+     * miss) and removes a quarter of them.
+     */
+    public static List<Case> mapCases() {
+        final Object[] keys = new Object[MAP_CASE_KEYS];
+        final Object[] missingKeys = new Object[MAP_CASE_KEYS];
+        for (int i = 0; i < MAP_CASE_KEYS; ++i) {
+            keys[i] = i % 2 == 0 ? "key" + i : (double) i;
+            missingKeys[i] = i % 2 == 0 ? "missing" + i : i + 0.5;
+        }
+        return List.of(new Case() {
+            @Override
+            public String name() {
+                return "map/LoxMap";
+            }
+
+            @Override
+            public void run() {
+                final LoxMap map = new LoxMap();
+                for (final Object key : keys) {
+                    map.put(key, key);
+                }
+                for (int i = 0; i < keys.length; ++i) {
+                    if (map.get(keys[i]) != keys[i] || map.get(missingKeys[i]) != null) {
+                        throw new IllegalStateException("LoxMap lost " + keys[i]);
+                    }
+                }
+                for (int i = 0; i < keys.length; i += 4) {
+                    map.remove(keys[i]);
+                }
+            }
+        }, new Case() {
+            @Override
+            public String name() {
+                return "map/HashMap";
+            }
+
+            @Override
+            public void run() {
+                final Map<Object, Object> map = new HashMap<>();
+                for (final Object key : keys) {
+                    map.put(key, key);
+                }
+                for (int i = 0; i < keys.length; ++i) {
+                    if (map.get(keys[i]) != keys[i] || map.get(missingKeys[i]) != null) {
+                        throw new IllegalStateException("HashMap lost " + keys[i]);
+                    }
+                }
+                for (int i = 0; i < keys.length; i += 4) {
+                    map.remove(keys[i]);
+                }
+            }
+        });
+    }
+
+    /**
+     * The same job, totalling up {@link #RECORD_CASE_ROWS} records, done on
+     * JSON lines and on CSV, each with the record natives and with a naive
+     * decoder written in Lox (see the {@code records_*} benchmarks). The
+     * records are written to {@code directory} first.
+     */
+    public static List<Case> recordCases(final Path directory) throws IOException {
+        final long jsonBytes = Files.size(writeRecords(directory, "records.jsonl", false));
+        final long csvBytes = Files.size(writeRecords(directory, "records.csv", true));
+        final List<Case> cases = new ArrayList<>();
+        for (final String name : RECORD_CASES) {
+            cases.add(script(name, benchmarkSource(name), directory,
+                    name.startsWith("records_json") ? jsonBytes : csvBytes));
+        }
+        return cases;
+    }
+
+    /**
+     * Writes the records the record cases read, the same ones every time.
+     */
+    static Path writeRecords(final Path directory, final String fileName, final boolean csv) throws IOException {
+        final StringBuilder records = new StringBuilder(csv ? "id,name,score,country\n" : "");
+        for (int i = 0; i < RECORD_CASE_ROWS; ++i) {
+            final double score = (i * 37 % 1000 - 200) / 10.0;
+            final String country = COUNTRIES.get(i % COUNTRIES.size());
+            if (csv) {
+                records.append(i).append(",user").append(i).append(',').append(score).append(',').append(country);
+            } else {
+                records.append("{\"id\": ").append(i).append(", \"name\": \"user").append(i)
+                        .append("\", \"score\": ").append(score).append(", \"country\": \"").append(country)
+                        .append("\"}");
+            }
+            records.append('\n');
+        }
+        return Files.writeString(directory.resolve(fileName), records, StandardCharsets.UTF_8);
+    }
+
+    public Report run(final List<Case> cases) throws Exception {
+        final List<Result> results = new ArrayList<>();
+        for (final Case benchmark : cases) {
+            results.add(run(benchmark));
+        }
+        return new Report(results);
+    }
+
+    public Result run(final Case benchmark) throws Exception {
+        for (int i = 0; i < warmupIterations; ++i) {
+            benchmark.run();
+        }
+        final long[] times = new long[measuredIterations];
+        final long allocatedBefore = allocatedBytes();
+        long total = 0;
+        for (int i = 0; i < measuredIterations; ++i) {
+            final long start = System.nanoTime();
+            benchmark.run();
+            times[i] = System.nanoTime() - start;
+            total += times[i];
+        }
+        final long allocatedAfter = allocatedBytes();
+        Arrays.sort(times);
+        final long allocatedPerIteration = allocatedBefore < 0 || measuredIterations == 0 ? -1
+                : (allocatedAfter - allocatedBefore) / measuredIterations;
+        return new Result(benchmark.name(), measuredIterations,
+                total == 0 ? 0 : measuredIterations / (total / 1e9),
+                percentile(times, 0.50), percentile(times, 0.90), percentile(times, 0.99),
+                allocatedPerIteration, benchmark.bytesPerIteration());
+    }
+
+    private static long percentile(final long[] sortedTimes, final double percentile) {
+        if (sortedTimes.length == 0) {
+            return 0;
+        }
+        // nearest rank
+        final int rank = (int) Math.ceil(percentile * sortedTimes.length);
+        return sortedTimes[Math.max(0, rank - 1)];
+    }
+
+    /**
+     * Returns how many bytes the current thread has allocated so far, or -1 if
+     * the JVM can't tell.
+     */
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+            return threads.getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
+    /**
+     * How a single case did. Times are in nanoseconds and
+     * {@code allocatedBytesPerIteration} is -1 when it couldn't be measured.
+     * {@code bytesPerIteration} is the case's {@link Case#bytesPerIteration()}.
+     */
+    public record Result(String name, int iterations, double opsPerSecond, long p50Nanos, long p90Nanos,
+            long p99Nanos, long allocatedBytesPerIteration, long bytesPerIteration) {
+        public Result(final String name, final int iterations, final double opsPerSecond, final long p50Nanos,
+                final long p90Nanos, final long p99Nanos, final long allocatedBytesPerIteration) {
+            this(name, iterations, opsPerSecond, p50Nanos, p90Nanos, p99Nanos, allocatedBytesPerIteration, 0);
+        }
+
+        /**
+         * Throughput in megabytes (of 10^6 bytes) per second, or 0 if the
+         * case doesn't say how much it reads.
+         */
+        public double megabytesPerSecond() {
+            return opsPerSecond * bytesPerIteration / 1e6;
+        }
+    }
+
+    public record Report(List<Result> results) {
+        /**
+         * Returns the cases that got more than {@code threshold} percent
+         * slower than their baseline. Cases missing from the baseline are
+         * never regressions.
+         */
+        public List<Result> regressions(final Map<String, Double> baseline, final double threshold) {
+            final List<Result> regressions = new ArrayList<>();
+            for (final Result result : results) {
+                final Double expected = baseline.get(result.name());
+                if (expected != null && change(result, expected) < -threshold) {
+                    regressions.add(result);
+                }
+            }
+            return regressions;
+        }
+
+        public void print(final PrintStream output, final Map<String, Double> baseline) {
+            output.printf("%-24s %12s %8s %10s %10s %10s %14s %10s%n", "benchmark", "ops/sec", "MB/s", "p50 ms",
+                    "p90 ms", "p99 ms", "alloc/op", "baseline");
+            for (final Result result : results) {
+                final Double expected = baseline.get(result.name());
+                output.printf("%-24s %12.2f %8s %10.3f %10.3f %10.3f %14s %10s%n",
+                        result.name(),
+                        result.opsPerSecond(),
+                        result.bytesPerIteration() == 0 ? "-" : String.format("%.2f", result.megabytesPerSecond()),
+                        result.p50Nanos() / 1e6,
+                        result.p90Nanos() / 1e6,
+                        result.p99Nanos() / 1e6,
+                        result.allocatedBytesPerIteration() < 0 ? "n/a"
+                                : String.format("%,d B", result.allocatedBytesPerIteration()),
+                        expected == null ? "-" : String.format("%+.1f%%", change(result, expected)));
+            }
+        }
+
+        public Map<String, Double> toBaseline() {
+            final Map<String, Double> baseline = new LinkedHashMap<>();
+            for (final Result result : results) {
+                baseline.put(result.name(), result.opsPerSecond());
+            }
+            return baseline;
+        }
+
+        private static double change(final Result result, final double expectedOpsPerSecond) {
+            return (result.opsPerSecond() - expectedOpsPerSecond) / expectedOpsPerSecond * 100;
+        }
+    }
+
+    // region Baseline files
+
+    /**
+     * Reads a baseline written by {@link #writeBaseline}: a properties file
+     * mapping each case's name to its ops/sec.
+     */
+    public static Map<String, Double> readBaseline(final Path path) throws IOException {
+        final Properties properties = new Properties();
+        try (final Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        final Map<String, Double> baseline = new LinkedHashMap<>();
+        for (final String name : properties.stringPropertyNames()) {
+            try {
+                baseline.put(name, Double.parseDouble(properties.getProperty(name)));
+            } catch (final NumberFormatException e) {
+                throw new IOException("Invalid baseline for " + name + " in " + path, e);
+            }
+        }
+        return baseline;
+    }
+
+    public static void writeBaseline(final Path path, final Map<String, Double> baseline) throws IOException {
+        final Properties properties = new Properties();
+        for (final Map.Entry<String, Double> entry : baseline.entrySet()) {
+            properties.setProperty(entry.getKey(), Double.toString(entry.getValue()));
+        }
+        try (final Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            properties.store(writer, "jlox benchmark baseline (ops/sec)");
+        }
+    }
+    // endregion
+
+    /**
+     * Implements {@code jlox --bench}. Returns the exit code: 0 if everything
+     * ran and nothing regressed, 1 if something regressed, 64 (EX_USAGE) for
+     * bad arguments and 65 (EX_DATAERR) if a benchmark failed.
+     */
+    static int runFromCommandLine(final List<String> arguments, final PrintStream output) throws IOException {
+        int warmup = DEFAULT_WARMUP_ITERATIONS;
+        int iterations = DEFAULT_MEASURED_ITERATIONS;
+        double threshold = DEFAULT_THRESHOLD;
+        Path baselineFile = null;
+        Path saveBaselineFile = null;
+        final List<String> scripts = new ArrayList<>();
+        try {
+            for (int i = 0; i < arguments.size(); ++i) {
+                switch (arguments.get(i)) {
+                    case "--warmup" -> warmup = Integer.parseInt(arguments.get(++i));
+                    case "--iterations" -> iterations = Integer.parseInt(arguments.get(++i));
+                    case "--threshold" -> threshold = Double.parseDouble(arguments.get(++i));
+                    case "--baseline" -> baselineFile = Path.of(arguments.get(++i));
+                    case "--save-baseline" -> saveBaselineFile = Path.of(arguments.get(++i));
+                    default -> scripts.add(arguments.get(i));
+                }
+            }
+        } catch (final IndexOutOfBoundsException | NumberFormatException e) {
+            output.println("Usage: jlox --bench [--warmup <n>] [--iterations <n>] [--baseline <file>]");
+            output.println("                    [--save-baseline <file>] [--threshold <percent>]");
+            output.println("                    [directory | script]...");
+            return 64; // EX_USAGE
+        }
+        final List<Case> cases;
+        if (scripts.isEmpty()) {
+            cases = builtInCases();
+        } else {
+            cases = new ArrayList<>();
+            for (final Path script : BatchRunner.collectScripts(scripts)) {
+                cases.add(script(script.toString(),
+                        new String(Files.readAllBytes(script), Charset.defaultCharset())));
+            }
+        }
+        final Report report;
+        try {
+            report = new BenchmarkRunner(warmup, iterations).run(cases);
+        } catch (final Exception e) {
+            output.println("Benchmark failed: " + e);
+            return 65; // EX_DATAERR
+        }
+        final Map<String, Double> baseline = baselineFile == null ? Map.of() : readBaseline(baselineFile);
+        report.print(output, baseline);
+        if (saveBaselineFile != null) {
+            writeBaseline(saveBaselineFile, report.toBaseline());
+        }
+        final List<Result> regressions = report.regressions(baseline, threshold);
+        for (final Result regression : regressions) {
+            output.printf("REGRESSION: %s is more than %.1f%% slower than its baseline%n", regression.name(),
+                    threshold);
+        }
+        return regressions.isEmpty() ? 0 : 1;
+    }
+}
@@ -0,0 +1,638 @@
+package dev.freedman.jlox;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Syntax trees flattened into a couple of arrays, for code that has to stay
+ * in memory for a long time but mostly isn't running, like the functions in a
+ * {@link PreludeSnapshot}. The records the parser builds cost an object per
+ * node and per token, plus a copy of an identifier's name everywhere it
+ * appears. Here a node is a few ints, and names and literals are stored once
+ * however often they're used.
+ * <p>
+ * Every node is a run of ints in {@code nodes} and is referred to by where
+ * that run starts. It begins with a header holding the node's {@link Kind}
+ * and how many tokens and children it has. Then come two ints per token (its
+ * kind and line, then where its name or value is in {@code constants}, if it
+ * has one), the positions of its children ({@link #NONE} for missing ones,
+ * like an if without an else) and finally a few ints only some kinds have
+ * (see {@link Kind}). Children can be shared: a function that was added on
+ * its own and also appears in another function's body is only stored once.
+ * </p>
+ * <p>
+ * Tooling can walk a tree with {@link #kind}, {@link #token} and
+ * {@link #child}. The interpreter turns it back into records instead, one
+ * function at a time: {@link #function} only decodes a function's body once
+ * it's first called (see {@link FunctionBody}), and always returns the same
+ * declaration for the same node, so functions keep sharing their caches and
+ * profiles.
+ * </p>
+ */
+final class CompactTree implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The position of a child that isn't there.
+     */
+    static final int NONE = -1;
+
+    /**
+     * What a node is. Most kinds are named after the record they stand for
+     * and have that record's tokens and children, in the same order.
+     */
+    enum Kind {
+        PRINT,
+        EXPRESSION_STATEMENT,
+        VARIABLE_DECLARATION,
+        BLOCK,
+        IF,
+        WHILE_LOOP,
+        /**
+         * Tokens are the name and then the parameters, the only child is the
+         * body. Followed by the number of free variables and their names'
+         * positions in the constants.
+         */
+        FUNCTION,
+        RETURN,
+        ASSERT,
+        IMPORT,
+        YIELD,
+        BINARY,
+        GROUPING,
+        LITERAL,
+        UNARY,
+        VARIABLE,
+        ASSIGNMENT,
+        LOGICAL,
+        /**
+         * The token is the closing parenthesis, the children are the callee
+         * and then the arguments.
+         */
+        CALL,
+        /**
+         * The only child is the call. Followed by the position of the
+         * function it calls, or {@link #NONE} if that function isn't in the
+         * tree.
+         */
+        DIRECT_CALL,
+        /**
+         * Like {@link #DIRECT_CALL}, with the inlined body as a second child.
+         */
+        INLINED_CALL,
+        /**
+         * Followed by the index of the argument it refers to.
+         */
+        INLINED_PARAMETER
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+    private static final int KIND_BITS = 5;
+    private static final int TOKEN_COUNT_BITS = 9;
+    private static final int MAX_TOKENS = (1 << TOKEN_COUNT_BITS) - 1;
+    private static final int MAX_CHILDREN = (1 << (32 - KIND_BITS - TOKEN_COUNT_BITS)) - 1;
+    private static final int MAX_LINE = (1 << (32 - KIND_BITS - 1)) - 1;
+
+    private final int[] nodes;
+    private final Object[] constants;
+    private final int[] roots;
+    private transient Map<Integer, Statement.Function> functions = new ConcurrentHashMap<>();
+
+    private CompactTree(final int[] nodes, final Object[] constants, final int[] roots) {
+        this.nodes = nodes;
+        this.constants = constants;
+        this.roots = roots;
+    }
+
+    static CompactTree of(final List<Statement> statements) {
+        final Builder builder = new Builder();
+        for (final Statement statement : statements) {
+            builder.add(statement);
+        }
+        return builder.build();
+    }
+
+    // region Walking
+
+    /**
+     * How many statements were added to the tree, not counting ones that were
+     * already part of another.
+     */
+    int rootCount() {
+        return roots.length;
+    }
+
+    int root(final int index) {
+        return roots[index];
+    }
+
+    Kind kind(final int node) {
+        return KINDS[nodes[node] & ((1 << KIND_BITS) - 1)];
+    }
+
+    int tokenCount(final int node) {
+        return (nodes[node] >>> KIND_BITS) & MAX_TOKENS;
+    }
+
+    int childCount(final int node) {
+        return nodes[node] >>> (KIND_BITS + TOKEN_COUNT_BITS);
+    }
+
+    /**
+     * A new token equal to the one the node was built from.
+     */
+    Token token(final int node, final int index) {
+        final int position = node + 1 + 2 * Objects.checkIndex(index, tokenCount(node));
+        final int kindAndLine = nodes[position];
+        final int constant = nodes[position + 1];
+        return TokenKind.KINDS[kindAndLine & ((1 << KIND_BITS) - 1)].decode(kindAndLine >>> KIND_BITS,
+                constant == NONE ? null : constants[constant]);
+    }
+
+    /**
+     * The position of the node's {@code index}th child, or {@link #NONE}.
+     */
+    int child(final int node, final int index) {
+        return nodes[node + 1 + 2 * tokenCount(node) + Objects.checkIndex(index, childCount(node))];
+    }
+
+    /**
+     * The position of the function a {@link Kind#DIRECT_CALL} or {@link
+     * Kind#INLINED_CALL} calls, or {@link #NONE}.
+     */
+    int target(final int node) {
+        return extra(node, 0);
+    }
+
+    /**
+     * The argument index of an {@link Kind#INLINED_PARAMETER}.
+     */
+    int parameterIndex(final int node) {
+        return extra(node, 0);
+    }
+
+    List<String> freeVariables(final int node) {
+        final String[] names = new String[extra(node, 0)];
+        for (int i = 0; i < names.length; ++i) {
+            names[i] = (String) constants[extra(node, i + 1)];
+        }
+        return List.of(names);
+    }
+
+    private int extra(final int node, final int index) {
+        return nodes[node + 1 + 2 * tokenCount(node) + childCount(node) + index];
+    }
+    // endregion
+
+    // region Decoding
+
+    /**
+     * The statement at {@code node} as records, or {@code null} for
+     * {@link #NONE}.
+     */
+    Statement statement(final int node) {
+        if (node != NONE && !isStatement(kind(node))) {
+            throw new IllegalArgumentException(kind(node) + " at " + node + " isn't a statement");
+        }
+        return (Statement) decode(node);
+    }
+
+    /**
+     * The function declared at {@code node}, with its body left to be decoded
+     * when it's first needed. Every call for the same node returns the same
+     * declaration.
+     */
+    Statement.Function function(final int node) {
+        return functions.computeIfAbsent(node, this::decodeFunction);
+    }
+
+    private Statement.Function decodeFunction(final int node) {
+        if (kind(node) != Kind.FUNCTION) {
+            throw new IllegalArgumentException(kind(node) + " at " + node + " isn't a function");
+        }
+        final List<Token.Identifier> parameters = new ArrayList<>(tokenCount(node) - 1);
+        for (int i = 1; i < tokenCount(node); ++i) {
+            parameters.add((Token.Identifier) token(node, i));
+        }
+        final int body = child(node, 0);
+        return new Statement.Function((Token.Identifier) token(node, 0), parameters,
+                FunctionBody.deferred(List.of(), () -> (Statement.Block) decode(body)), freeVariables(node),
+                new FunctionProfile());
+    }
+
+    /**
+     * The expression at {@code node} as records, or {@code null} for
+     * {@link #NONE}.
+     */
+    Expression expression(final int node) {
+        if (node != NONE && isStatement(kind(node))) {
+            throw new IllegalArgumentException(kind(node) + " at " + node + " isn't an expression");
+        }
+        return (Expression) decode(node);
+    }
+
+    private static boolean isStatement(final Kind kind) {
+        return kind.ordinal() < Kind.BINARY.ordinal();
+    }
+
+    /**
+     * Decodes the node at {@code root} and everything in it. Trees can nest
+     * far deeper than the Java stack goes, so rather than recursing this
+     * works from a stack of positions: a node comes off it once to line up
+     * its children, and once more (as {@code -2 - node}, since
+     * {@link #NONE} is -1) to be built from what they decoded to.
+     */
+    private Object decode(final int root) {
+        final ArrayDeque<Integer> pending = new ArrayDeque<>();
+        // the decoded children of the nodes waiting to be built, in order
+        final List<Object> decoded = new ArrayList<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            final int entry = pending.pop();
+            if (entry == NONE) {
+                decoded.add(null);
+            } else if (entry < NONE) {
+                final int node = -2 - entry;
+                final List<Object> children = decoded.subList(decoded.size() - childCount(node), decoded.size());
+                final Object built = build(node, children);
+                children.clear();
+                decoded.add(built);
+            } else if (kind(entry) == Kind.FUNCTION) {
+                // the body waits until the function is called
+                decoded.add(function(entry));
+            } else {
+                pending.push(-2 - entry);
+                for (int i = childCount(entry) - 1; i >= 0; --i) {
+                    pending.push(child(entry, i));
+                }
+            }
+        }
+        return decoded.get(0);
+    }
+
+    /**
+     * The record for {@code node}, given what its children decoded to.
+     */
+    private Object build(final int node, final List<Object> children) {
+        return switch (kind(node)) {
+            case PRINT -> new Statement.Print((Expression) children.get(0));
+            case EXPRESSION_STATEMENT -> new Statement.ExpressionStatement((Expression) children.get(0));
+            case VARIABLE_DECLARATION -> new Statement.VariableDeclaration((Token.Identifier) token(node, 0),
+                    (Expression) children.get(0));
+            // a desugared for loop without an initializer holds a null
+            case BLOCK -> new Statement.Block(Arrays.asList(children.toArray(new Statement[0])));
+            case IF -> new Statement.If((Expression) children.get(0), (Statement) children.get(1),
+                    (Statement) children.get(2));
+            case WHILE_LOOP -> new Statement.WhileLoop((Expression) children.get(0), (Statement) children.get(1));
+            case FUNCTION -> function(node);
+            case RETURN -> new Statement.Return((Token.Return) token(node, 0), (Expression) children.get(0));
+            case ASSERT -> new Statement.Assert((Token.Assert) token(node, 0), (Expression) children.get(0));
+            case IMPORT -> new Statement.Import((Token.Import) token(node, 0), (Token.StringLiteral) token(node, 1));
+            case YIELD -> new Statement.Yield((Token.Yield) token(node, 0), (Expression) children.get(0));
+            case BINARY -> new Expression.Binary((Expression) children.get(0), (Token.BinaryOperator) token(node, 0),
+                    (Expression) children.get(1));
+            case GROUPING -> new Expression.Grouping((Expression) children.get(0));
+            case LITERAL -> new Expression.Literal((Token.Literal) token(node, 0));
+            case UNARY -> new Expression.Unary((Token.UnaryOperator) token(node, 0), (Expression) children.get(0));
+            case VARIABLE -> new Expression.Variable((Token.Identifier) token(node, 0));
+            case ASSIGNMENT -> new Expression.Assignment((Token.Identifier) token(node, 0),
+                    (Expression) children.get(0));
+            case LOGICAL -> new Expression.Logical((Expression) children.get(0), (Token.Logical) token(node, 0),
+                    (Expression) children.get(1));
+            case CALL -> {
+                final List<Expression> arguments = new ArrayList<>(children.size() - 1);
+                for (int i = 1; i < children.size(); ++i) {
+                    arguments.add((Expression) children.get(i));
+                }
+                yield new Expression.Call((Expression) children.get(0), (Token.RightParenthesis) token(node, 0),
+                        arguments);
+            }
+            case DIRECT_CALL -> {
+                final Expression.Call call = (Expression.Call) children.get(0);
+                // without the function there's nothing to bind to, which
+                // only costs the shortcut
+                yield target(node) == NONE ? call
+                        : new Expression.DirectCall(new FunctionBinding(function(target(node)).name()), call);
+            }
+            case INLINED_CALL -> {
+                final Expression.Call call = (Expression.Call) children.get(0);
+                yield target(node) == NONE ? call
+                        : new Expression.InlinedCall(new FunctionBinding(function(target(node)).name()), call,
+                                (Expression) children.get(1));
+            }
+            case INLINED_PARAMETER -> new Expression.InlinedParameter(parameterIndex(node),
+                    (Token.Identifier) token(node, 0));
+        };
+    }
+    // endregion
+
+    private void readObject(final ObjectInputStream input) throws IOException, ClassNotFoundException {
+        input.defaultReadObject();
+        functions = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * The tokens that can end up in a syntax tree. Identifiers and literals
+     * keep what they hold in the constants, the rest always have the same
+     * lexeme so only their line is stored.
+     */
+    private enum TokenKind {
+        IDENTIFIER(Token.Identifier.class, (line, constant) -> new Token.Identifier((String) constant, line)),
+        STRING(Token.StringLiteral.class, (line, constant) -> {
+            final Token.StringLiteral literal = (Token.StringLiteral) constant;
+            return new Token.StringLiteral(literal.lexeme(), line, literal.value());
+        }),
+        NUMBER(Token.Number.class, (line, constant) -> {
+            final Token.Number number = (Token.Number) constant;
+            return new Token.Number(number.lexeme(), line, number.value());
+        }),
+        TRUE(Token.True.class, (line, constant) -> new Token.True("true", line)),
+        FALSE(Token.False.class, (line, constant) -> new Token.False("false", line)),
+        NIL(Token.Nil.class, (line, constant) -> new Token.Nil("nil", line)),
+        AND(Token.And.class, (line, constant) -> new Token.And("and", line)),
+        OR(Token.Or.class, (line, constant) -> new Token.Or("or", line)),
+        MINUS(Token.Minus.class, (line, constant) -> new Token.Minus('-', line)),
+        PLUS(Token.Plus.class, (line, constant) -> new Token.Plus('+', line)),
+        SLASH(Token.Slash.class, (line, constant) -> new Token.Slash('/', line)),
+        STAR(Token.Star.class, (line, constant) -> new Token.Star('*', line)),
+        BANG(Token.Bang.class, (line, constant) -> new Token.Bang('!', line)),
+        BANG_EQUAL(Token.BangEqual.class, (line, constant) -> new Token.BangEqual("!=", line)),
+        EQUAL_EQUAL(Token.EqualEqual.class, (line, constant) -> new Token.EqualEqual("==", line)),
+        GREATER(Token.Greater.class, (line, constant) -> new Token.Greater('>', line)),
+        GREATER_EQUAL(Token.GreaterEqual.class, (line, constant) -> new Token.GreaterEqual(">=", line)),
+        LESS(Token.Less.class, (line, constant) -> new Token.Less('<', line)),
+        LESS_EQUAL(Token.LessEqual.class, (line, constant) -> new Token.LessEqual("<=", line)),
+        RIGHT_PARENTHESIS(Token.RightParenthesis.class, (line, constant) -> new Token.RightParenthesis(')', line)),
+        RETURN(Token.Return.class, (line, constant) -> new Token.Return("return", line)),
+        ASSERT(Token.Assert.class, (line, constant) -> new Token.Assert("assert", line)),
+        IMPORT(Token.Import.class, (line, constant) -> new Token.Import("import", line)),
+        YIELD(Token.Yield.class, (line, constant) -> new Token.Yield("yield", line));
+
+        private static final TokenKind[] KINDS = values();
+        private static final Map<Class<?>, TokenKind> BY_CLASS = new HashMap<>();
+
+        static {
+            for (final TokenKind kind : KINDS) {
+                BY_CLASS.put(kind.type, kind);
+            }
+        }
+
+        private final Class<? extends Token> type;
+        private final Decoder decoder;
+
+        TokenKind(final Class<? extends Token> type, final Decoder decoder) {
+            this.type = type;
+            this.decoder = decoder;
+        }
+
+        Token decode(final int line, final Object constant) {
+            return decoder.decode(line, constant);
+        }
+
+        @FunctionalInterface
+        private interface Decoder {
+            Token decode(int line, Object constant);
+        }
+    }
+
+    /**
+     * Flattens statements into a tree. Adding the same function declaration
+     * (the same object, that is) more than once only stores it once.
+     */
+    static final class Builder {
+        private int[] nodes = new int[256];
+        private int size;
+        private final List<Object> constants = new ArrayList<>();
+        private final Map<Object, Integer> constantPositions = new HashMap<>();
+        private final List<Integer> roots = new ArrayList<>();
+        private final Map<Statement.Function, Integer> functions = new IdentityHashMap<>();
+        private final Map<Token.Identifier, Integer> functionNames = new IdentityHashMap<>();
+        // direct and inlined calls, filled in by build() once every function
+        // they might call has been added
+        private final Map<Integer, Token.Identifier> calls = new HashMap<>();
+        private final ArrayDeque<PendingChild> pendingChildren = new ArrayDeque<>();
+
+        /**
+         * A child that still has to be encoded, and where in {@code nodes}
+         * its position goes.
+         */
+        private record PendingChild(Object child, int slot) {
+        }
+
+        /**
+         * Adds {@code statement} and returns its node.
+         *
+         * @throws IllegalArgumentException if it's a function (or contains
+         *                                  one) whose body has syntax errors,
+         *                                  or is too big to store
+         */
+        int add(final Statement statement) {
+            if (statement instanceof Statement.Function function && functions.containsKey(function)) {
+                return functions.get(function);
+            }
+            final int node = encodeTree(statement);
+            roots.add(node);
+            return node;
+        }
+
+        CompactTree build() {
+            for (final Map.Entry<Integer, Token.Identifier> call : calls.entrySet()) {
+                setExtra(call.getKey(), 0, functionNames.getOrDefault(call.getValue(), NONE));
+            }
+            return new CompactTree(Arrays.copyOf(nodes, size), constants.toArray(),
+                    roots.stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        /**
+         * Encodes {@code statement} and everything in it. Trees can nest far
+         * deeper than the Java stack goes, so {@link #node} doesn't recurse
+         * into a node's children but leaves them on a stack for this to work
+         * through, which still stores them in the same order.
+         */
+        private int encodeTree(final Statement statement) {
+            // left over if the last statement couldn't be stored
+            pendingChildren.clear();
+            final int root = encode(statement);
+            while (!pendingChildren.isEmpty()) {
+                final PendingChild pending = pendingChildren.pop();
+                // encoding the child can grow the array, so don't index into it until afterwards
+                final int childNode = pending.child() instanceof Expression expression ? encode(expression)
+                        : encode((Statement) pending.child());
+                nodes[pending.slot()] = childNode;
+            }
+            return root;
+        }
+
+        private int encode(final Statement statement) {
+            if (statement == null) {
+                return NONE;
+            } else if (statement instanceof Statement.Print print) {
+                return node(Kind.PRINT, List.of(), Arrays.asList(print.expression()), 0);
+            } else if (statement instanceof Statement.ExpressionStatement expressionStatement) {
+                return node(Kind.EXPRESSION_STATEMENT, List.of(), Arrays.asList(expressionStatement.expression()), 0);
+            } else if (statement instanceof Statement.VariableDeclaration declaration) {
+                return node(Kind.VARIABLE_DECLARATION, List.of(declaration.identifier()),
+                        Arrays.asList(declaration.expression()), 0);
+            } else if (statement instanceof Statement.Block block) {
+                return node(Kind.BLOCK, List.of(), block.statements(), 0);
+            } else if (statement instanceof Statement.If ifStatement) {
+                return node(Kind.IF, List.of(), Arrays.asList(ifStatement.condition(), ifStatement.thenBranch(),
+                        ifStatement.elseBranch()), 0);
+            } else if (statement instanceof Statement.WhileLoop whileLoop) {
+                return node(Kind.WHILE_LOOP, List.of(), Arrays.asList(whileLoop.condition(), whileLoop.body()), 0);
+            } else if (statement instanceof Statement.Function function) {
+                return encode(function);
+            } else if (statement instanceof Statement.Return returnStatement) {
+                return node(Kind.RETURN, List.of(returnStatement.returnKeyword()),
+                        Arrays.asList(returnStatement.value()), 0);
+            } else if (statement instanceof Statement.Assert assertStatement) {
+                return node(Kind.ASSERT, List.of(assertStatement.assertKeyword()),
+                        Arrays.asList(assertStatement.expression()), 0);
+            } else if (statement instanceof Statement.Yield yieldStatement) {
+                return node(Kind.YIELD, List.of(yieldStatement.yieldKeyword()), Arrays.asList(yieldStatement.value()),
+                        0);
+            }
+            final Statement.Import importStatement = (Statement.Import) statement;
+            return node(Kind.IMPORT, List.of(importStatement.importKeyword(), importStatement.path()), List.of(), 0);
+        }
+
+        private int encode(final Statement.Function function) {
+            final Integer existing = functions.get(function);
+            if (existing != null) {
+                return existing;
+            }
+            final Statement.Block body;
+            try {
+                body = function.body().get();
+            } catch (final InterpreterException e) {
+                throw new IllegalArgumentException("Can't store function " + function.name().lexeme()
+                        + ", its body has syntax errors: " + e.getErrors(), e);
+            }
+            final List<Token> tokens = new ArrayList<>(1 + function.parameters().size());
+            tokens.add(function.name());
+            tokens.addAll(function.parameters());
+            final List<String> freeVariables = function.freeVariables();
+            final int node = node(Kind.FUNCTION, tokens, List.of(body), 1 + freeVariables.size());
+            setExtra(node, 0, freeVariables.size());
+            for (int i = 0; i < freeVariables.size(); ++i) {
+                setExtra(node, i + 1, constant(freeVariables.get(i)));
+            }
+            functions.put(function, node);
+            functionNames.put(function.name(), node);
+            return node;
+        }
+
+        private int encode(final Expression expression) {
+            if (expression == null) {
+                return NONE;
+            } else if (expression instanceof Expression.Binary binary) {
+                return node(Kind.BINARY, List.of(binary.operator()), List.of(binary.left(), binary.right()), 0);
+            } else if (expression instanceof Expression.Grouping grouping) {
+                return node(Kind.GROUPING, List.of(), List.of(grouping.expression()), 0);
+            } else if (expression instanceof Expression.Literal literal) {
+                return node(Kind.LITERAL, List.of(literal.value()), List.of(), 0);
+            } else if (expression instanceof Expression.Unary unary) {
+                return node(Kind.UNARY, List.of(unary.operator()), List.of(unary.right()), 0);
+            } else if (expression instanceof Expression.Variable variable) {
+                return node(Kind.VARIABLE, List.of(variable.identifier()), List.of(), 0);
+            } else if (expression instanceof Expression.Assignment assignment) {
+                return node(Kind.ASSIGNMENT, List.of(assignment.identifier()), List.of(assignment.assignee()), 0);
+            } else if (expression instanceof Expression.Logical logical) {
+                return node(Kind.LOGICAL, List.of(logical.operator()), List.of(logical.left(), logical.right()), 0);
+            } else if (expression instanceof Expression.Call call) {
+                final List<Expression> children = new ArrayList<>(1 + call.arguments().size());
+                children.add(call.callee());
+                children.addAll(call.arguments());
+                return node(Kind.CALL, List.of(call.closingParen()), children, 0);
+            } else if (expression instanceof Expression.DirectCall directCall) {
+                final int node = node(Kind.DIRECT_CALL, List.of(), List.of(directCall.call()), 1);
+                calls.put(node, directCall.binding().name());
+                return node;
+            } else if (expression instanceof Expression.InlinedCall inlinedCall) {
+                final int node = node(Kind.INLINED_CALL, List.of(),
+                        List.of(inlinedCall.call(), inlinedCall.body()), 1);
+                calls.put(node, inlinedCall.binding().name());
+                return node;
+            }
+            final Expression.InlinedParameter parameter = (Expression.InlinedParameter) expression;
+            final int node = node(Kind.INLINED_PARAMETER, List.of(parameter.identifier()), List.of(), 1);
+            setExtra(node, 0, parameter.index());
+            return node;
+        }
+
+        /**
+         * Stores a node with its tokens, leaving room for its children and
+         * {@code extras} more ints, and returns its position.
+         */
+        private int node(final Kind kind, final List<? extends Token> tokens, final List<?> children,
+                final int extras) {
+            if (tokens.size() > MAX_TOKENS || children.size() > MAX_CHILDREN) {
+                throw new IllegalArgumentException("Can't store a " + kind + " with " + tokens.size()
+                        + " tokens and " + children.size() + " children");
+            }
+            final int node = allocate(1 + 2 * tokens.size() + children.size() + extras);
+            nodes[node] = kind.ordinal() | tokens.size() << KIND_BITS
+                    | children.size() << (KIND_BITS + TOKEN_COUNT_BITS);
+            int position = node + 1;
+            for (final Token token : tokens) {
+                final TokenKind tokenKind = TokenKind.BY_CLASS.get(token.getClass());
+                if (tokenKind == null || token.line() < 0 || token.line() > MAX_LINE) {
+                    throw new IllegalArgumentException("Can't store " + token);
+                }
+                nodes[position++] = tokenKind.ordinal() | token.line() << KIND_BITS;
+                nodes[position++] = constantOf(token);
+            }
+            // the children go in the slots that follow once encodeTree gets
+            // to them, the first one first
+            for (int i = children.size() - 1; i >= 0; --i) {
+                pendingChildren.push(new PendingChild(children.get(i), position + i));
+            }
+            return node;
+        }
+
+        private int allocate(final int length) {
+            if (size + length > nodes.length) {
+                nodes = Arrays.copyOf(nodes, Math.max(nodes.length * 2, size + length));
+            }
+            final int node = size;
+            size += length;
+            return node;
+        }
+
+        private void setExtra(final int node, final int index, final int value) {
+            final int header = nodes[node];
+            final int tokens = (header >>> KIND_BITS) & MAX_TOKENS;
+            nodes[node + 1 + 2 * tokens + (header >>> (KIND_BITS + TOKEN_COUNT_BITS)) + index] = value;
+        }
+
+        private int constantOf(final Token token) {
+            // literals are kept without their line, so every use of the same
+            // one on any line shares a constant
+            if (token instanceof Token.Identifier identifier) {
+                return constant(identifier.lexeme());
+            } else if (token instanceof Token.StringLiteral literal) {
+                return constant(new Token.StringLiteral(literal.lexeme(), 0, literal.value()));
+            } else if (token instanceof Token.Number number) {
+                return constant(new Token.Number(number.lexeme(), 0, number.value()));
+            }
+            return NONE;
+        }
+
+        private int constant(final Object value) {
+            return constantPositions.computeIfAbsent(value, key -> {
+                constants.add(key);
+                return constants.size() - 1;
+            });
+        }
+    }
+}
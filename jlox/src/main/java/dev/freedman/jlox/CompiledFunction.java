@@ -0,0 +1,64 @@
+package dev.freedman.jlox;
+
+/**
+ * Superclass of the hidden classes {@link JitCompiler} generates for hot Lox
+ * functions. Each generated class overrides the single entry point matching
+ * its function's arity; the rest are never called.
+ * <p>
+ * {@code closure} is the environment the function was declared in. Compiled
+ * code keeps parameters and local variables in JVM locals and only goes
+ * through {@code closure} for names declared outside the function.
+ * </p>
+ */
+abstract class CompiledFunction {
+    /**
+     * Objects the generated code needs but can't express as bytecode
+     * constants, such as tokens (for error reporting) and boxed numbers.
+     */
+    protected final Object[] constants;
+
+    protected CompiledFunction(final Object[] constants) {
+        this.constants = constants;
+    }
+
+    Object invoke0(final Interpreter interpreter, final Environment closure) throws InterpreterException {
+        throw new IllegalStateException("Compiled function does not take 0 arguments");
+    }
+
+    Object invoke1(final Interpreter interpreter, final Environment closure, final Object argument0)
+            throws InterpreterException {
+        throw new IllegalStateException("Compiled function does not take 1 argument");
+    }
+
+    Object invoke2(final Interpreter interpreter, final Environment closure, final Object argument0,
+            final Object argument1) throws InterpreterException {
+        throw new IllegalStateException("Compiled function does not take 2 arguments");
+    }
+
+    Object invoke3(final Interpreter interpreter, final Environment closure, final Object argument0,
+            final Object argument1, final Object argument2) throws InterpreterException {
+        throw new IllegalStateException("Compiled function does not take 3 arguments");
+    }
+
+    Object invoke(final Interpreter interpreter, final Environment closure, final Object[] arguments)
+            throws InterpreterException {
+        throw new IllegalStateException("Compiled function does not take " + arguments.length + " arguments");
+    }
+
+    // region Runtime helpers called from generated code
+
+    static Object assign(final Environment environment, final Token.Identifier identifier, final Object value)
+            throws InterpreterException {
+        environment.assign(identifier, value);
+        return value;
+    }
+
+    static void checkAssertion(final Object value, final Statement.Assert assertStatement)
+            throws InterpreterException {
+        if (!Token.isTruthy(value)) {
+            throw new InterpreterException(
+                    new InterpreterIssue.AssertionError(assertStatement.assertKeyword(), assertStatement.expression()));
+        }
+    }
+    // endregion
+}
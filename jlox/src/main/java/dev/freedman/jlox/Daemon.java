@@ -0,0 +1,215 @@
+package dev.freedman.jlox;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps one JVM running and runs scripts sent to it over a Unix domain socket,
+ * so each script starts on already warmed up (and JIT compiled) interpreter
+ * code instead of a cold JVM. {@link #send} is the client side.
+ * <p>
+ * The protocol is deliberately tiny. A connection carries one script: the
+ * client sends the absolute path of the script's directory and then its
+ * source, each as an int length followed by that many UTF-8 bytes. Imports
+ * and files the script opens are relative to that directory, just like when
+ * the script is run directly. The daemon answers with a series of frames, each
+ * a type byte followed by an int:
+ * </p>
+ * <ul>
+ * <li>{@code 'O'}: that many bytes of the script's output follow. Output is
+ * sent a line at a time while the script runs.</li>
+ * <li>{@code 'X'}: the script finished and the int is the exit code
+ * {@link JLox} would have exited with. This is always the last frame.</li>
+ * </ul>
+ * <p>
+ * Every connection is served by a thread from a fixed pool and gets its own
+ * {@link Interpreter}, so concurrent scripts are as isolated from each other as
+ * they are in {@link BatchRunner}.
+ * </p>
+ */
+public class Daemon implements Closeable {
+    static final byte OUTPUT_FRAME = 'O';
+    static final byte EXIT_FRAME = 'X';
+    /**
+     * Sources bigger than this are turned away instead of being read into
+     * memory.
+     */
+    static final int MAX_SOURCE_BYTES = 64 * 1024 * 1024;
+
+    private final Path socket;
+    private final PreludeSnapshot prelude;
+    private final ServerSocketChannel server;
+    private final ExecutorService workers;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Binds the socket, replacing a stale socket file left behind by a daemon
+     * that didn't shut down cleanly. Scripts aren't accepted until
+     * {@link #serve()} is called.
+     */
+    public Daemon(final Path socket, final int threads, final PreludeSnapshot prelude) throws IOException {
+        this.socket = socket;
+        this.prelude = prelude;
+        Files.deleteIfExists(socket);
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+        workers = Executors.newFixedThreadPool(threads, (runnable) -> {
+            final Thread thread = new Thread(runnable, "jlox-daemon-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Accepts connections until the daemon is closed.
+     */
+    public void serve() throws IOException {
+        while (true) {
+            final SocketChannel client;
+            try {
+                client = server.accept();
+            } catch (final ClosedChannelException e) {
+                return;
+            }
+            workers.execute(() -> handle(client));
+        }
+    }
+
+    private void handle(final SocketChannel client) {
+        try (client) {
+            final DataInputStream request = new DataInputStream(Channels.newInputStream(client));
+            final DataOutputStream response = new DataOutputStream(Channels.newOutputStream(client));
+            final String directory = readString(request);
+            final String source = directory == null ? null : readString(request);
+            if (source == null) {
+                response.writeByte(EXIT_FRAME);
+                response.writeInt(64); // EX_USAGE
+                return;
+            }
+            // auto flush sends every line as soon as it's printed
+            final PrintStream output = new PrintStream(new FrameOutputStream(response), true,
+                    StandardCharsets.UTF_8);
+            int exitCode;
+            try {
+                exitCode = JLox.runScript(source, Path.of(directory), output, prelude);
+            } catch (final RuntimeException | StackOverflowError e) {
+                // one broken script must not take the daemon down with it
+                output.println("Internal error: " + e);
+                exitCode = 70; // EX_SOFTWARE
+            }
+            output.flush();
+            response.writeByte(EXIT_FRAME);
+            response.writeInt(exitCode);
+            response.flush();
+        } catch (final IOException e) {
+            // the client went away, there's nobody left to tell
+        }
+    }
+
+    /**
+     * Reads a length and that many UTF-8 bytes, or returns {@code null} if
+     * the length is out of bounds.
+     */
+    private static String readString(final DataInputStream request) throws IOException {
+        final int length = request.readInt();
+        if (length < 0 || length > MAX_SOURCE_BYTES) {
+            return null;
+        }
+        return new String(request.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Stops accepting scripts, waits a little for running ones and removes
+     * the socket file. Only the first call does anything, so it's fine for
+     * both a shutdown hook and the code that served to close the daemon.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        server.close();
+        workers.shutdown();
+        try {
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Files.deleteIfExists(socket);
+    }
+
+    /**
+     * Sends a script to the daemon listening on {@code socket}, copies its
+     * output to {@code output} as it arrives and returns its exit code. The
+     * script's imports and files are relative to {@code directory}.
+     */
+    public static int send(final Path socket, final Path directory, final String source, final OutputStream output)
+            throws IOException {
+        try (final SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            final DataOutputStream request = new DataOutputStream(Channels.newOutputStream(channel));
+            writeString(request, directory.toAbsolutePath().toString());
+            writeString(request, source);
+            request.flush();
+            final DataInputStream response = new DataInputStream(Channels.newInputStream(channel));
+            while (true) {
+                final byte type = response.readByte();
+                final int value = response.readInt();
+                if (type == EXIT_FRAME) {
+                    return value;
+                }
+                output.write(response.readNBytes(value));
+                output.flush();
+            }
+        }
+    }
+
+    private static void writeString(final DataOutputStream request, final String string) throws IOException {
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        request.writeInt(bytes.length);
+        request.write(bytes);
+    }
+
+    /**
+     * Wraps everything written to it in output frames.
+     */
+    private static final class FrameOutputStream extends OutputStream {
+        private final DataOutputStream response;
+
+        private FrameOutputStream(final DataOutputStream response) {
+            this.response = response;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            response.writeByte(OUTPUT_FRAME);
+            response.writeInt(length);
+            response.write(bytes, offset, length);
+            response.flush();
+        }
+    }
+}
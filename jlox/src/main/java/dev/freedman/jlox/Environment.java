@@ -1,8 +1,10 @@
 package dev.freedman.jlox;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 /**
  * Contains variables for a specific scope. Variables can be accessed from the
@@ -11,41 +13,155 @@ import java.util.Objects;
  */
 public class Environment {
     private final Map<String, Object> variables;
-    private final Environment enclosingEnvironment;
+    private Environment enclosingEnvironment;
+    /**
+     * Names that something has bound to directly (see {@link FunctionBinding})
+     * and the number of times any of them has been assigned since. Bindings
+     * compare {@code version} to tell if they're still good.
+     */
+    private Set<String> watchedNames;
+    private int version;
+    /**
+     * Where the globals get any variable they don't have yet when the
+     * interpreter started from a {@link PreludeSnapshot}. Only ever set on the
+     * globals.
+     */
+    private PreludeSnapshot.Restorer prelude;
 
     public Environment(final Environment enclosingEnvironment) {
         this.enclosingEnvironment = enclosingEnvironment;
         this.variables = new HashMap<>();
     }
 
+    /**
+     * Creates an environment that's sized up front to hold the given number of
+     * variables without ever having to grow.
+     */
+    public Environment(final Environment enclosingEnvironment, final int expectedVariables) {
+        this.enclosingEnvironment = enclosingEnvironment;
+        this.variables = new HashMap<>((int) (expectedVariables / 0.75f) + 1);
+    }
+
     public Environment() {
         this(null);
     }
 
+    /**
+     * Empties this environment so it can be handed out again for another
+     * scope. Only safe once nothing (like a closure) can still refer to it.
+     */
+    void recycle() {
+        variables.clear();
+        enclosingEnvironment = null;
+    }
+
+    /**
+     * Puts a recycled environment back into use underneath a new enclosing
+     * environment.
+     */
+    void reuse(final Environment enclosingEnvironment) {
+        this.enclosingEnvironment = enclosingEnvironment;
+    }
+
+    /**
+     * Backs this (global) environment with a snapshot. Variables are copied
+     * out of it the first time they're used, and from then on this environment
+     * has its own copy, so the snapshot itself never changes.
+     */
+    void restoreFrom(final PreludeSnapshot.Restorer prelude) {
+        this.prelude = prelude;
+    }
+
+    private boolean restoreFromPrelude(final String name) {
+        if (Objects.isNull(prelude) || !prelude.contains(name)) {
+            return false;
+        }
+        variables.put(name, prelude.restore(name));
+        return true;
+    }
+
+    /**
+     * Returns the names of every variable in this scope, including the ones
+     * still waiting in a prelude snapshot.
+     */
+    Set<String> names() {
+        final Set<String> names = new HashSet<>(variables.keySet());
+        if (Objects.nonNull(prelude)) {
+            names.addAll(prelude.names());
+        }
+        return names;
+    }
+
+    /**
+     * Starts counting assignments to the given name in {@link #version}.
+     */
+    void watch(final String name) {
+        if (Objects.isNull(watchedNames)) {
+            watchedNames = new HashSet<>();
+        }
+        watchedNames.add(name);
+    }
+
+    int version() {
+        return version;
+    }
+
+    /**
+     * Looks up a variable in this scope only, without any errors. Returns
+     * {@code null} both for {@code nil} and for names that aren't here.
+     */
+    Object lookUpLocally(final String name) {
+        if (!variables.containsKey(name)) {
+            restoreFromPrelude(name);
+        }
+        return variables.get(name);
+    }
+
     public void declare(final Token.Identifier identifier, final Object value) throws InterpreterException {
-        if (variables.containsKey(identifier.lexeme())) {
+        if (variables.containsKey(identifier.lexeme())
+                || (Objects.nonNull(prelude) && prelude.contains(identifier.lexeme()))) {
             throw new InterpreterException(
                     new InterpreterIssue.VariableAlreadyDefined(identifier.lexeme(), identifier.line()));
         }
         variables.put(identifier.lexeme(), value);
     }
 
+    /**
+     * Like {@link #declare}, but without checking for an existing variable.
+     * Only meant for binding names that are known to be unique up front, like
+     * function parameters in a brand new environment.
+     */
+    void define(final Token.Identifier identifier, final Object value) {
+        variables.put(identifier.lexeme(), value);
+    }
+
     public void assign(final Token.Identifier identifier, final Object value) throws InterpreterException {
-        if (!variables.containsKey(identifier.lexeme())) {
+        if (!variables.containsKey(identifier.lexeme()) && !restoreFromPrelude(identifier.lexeme())) {
             // if we can't find it AND this is the root environment,
             // the variable does not exist
             if (Objects.isNull(enclosingEnvironment)) {
                 throw new InterpreterException(
                         new InterpreterIssue.VariableNotDefined(identifier.lexeme(), identifier.line()));
             }
-            // otherwise, search in higher environments for this variable
+            // otherwise, search in higher environments for this variable.
+            // it must not also be put in this scope, or it would shadow the
+            // variable that was actually assigned from then on
             enclosingEnvironment.assign(identifier, value);
+            return;
+        }
+        if (Objects.nonNull(watchedNames) && watchedNames.contains(identifier.lexeme())) {
+            version++;
+        }
+        if (variables.get(identifier.lexeme()) instanceof Upvalue upvalue) {
+            // a closure captured this variable, so it has to see the change too
+            upvalue.value = value;
+        } else {
+            variables.put(identifier.lexeme(), value);
         }
-        variables.put(identifier.lexeme(), value);
     }
 
     public Object retrieve(final Token.Identifier identifier) throws InterpreterException {
-        if (!variables.containsKey(identifier.lexeme())) {
+        if (!variables.containsKey(identifier.lexeme()) && !restoreFromPrelude(identifier.lexeme())) {
             // if we can't find it AND this is the root environment,
             // the variable does not exist
             if (Objects.isNull(enclosingEnvironment)) {
@@ -55,6 +171,45 @@ public class Environment {
             // otherwise, search in higher environments for this variable
             return enclosingEnvironment.retrieve(identifier);
         }
-        return variables.get(identifier.lexeme());
+        final Object value = variables.get(identifier.lexeme());
+        return value instanceof Upvalue upvalue ? upvalue.value : value;
+    }
+
+    /**
+     * Finds the variable with the given name in this scope or an enclosing
+     * one below {@code outermost}, and turns it into an {@link Upvalue} (if it
+     * isn't one already) that a closure can share with this scope. Returns
+     * {@code null} if no scope below {@code outermost} has the variable.
+     */
+    Upvalue capture(final String name, final Environment outermost) {
+        for (Environment scope = this; scope != outermost && Objects.nonNull(scope);
+                scope = scope.enclosingEnvironment) {
+            if (scope.variables.containsKey(name)) {
+                final Object value = scope.variables.get(name);
+                if (value instanceof Upvalue upvalue) {
+                    return upvalue;
+                }
+                final Upvalue upvalue = new Upvalue(value);
+                scope.variables.put(name, upvalue);
+                return upvalue;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the captured variable with the given name from a closure's
+     * environment.
+     */
+    Upvalue upvalue(final String name) {
+        return (Upvalue) variables.get(name);
+    }
+
+    /**
+     * Adds a variable captured from another scope to this one, which has to be
+     * a closure's environment.
+     */
+    void defineUpvalue(final String name, final Upvalue upvalue) {
+        variables.put(name, upvalue);
     }
 }
@@ -1,8 +1,9 @@
 package dev.freedman.jlox;
 
+import java.io.Serializable;
 import java.util.List;
 
-public sealed interface Expression {
+public sealed interface Expression extends Serializable {
     public record Binary(Expression left, Token.BinaryOperator operator, Expression right)
             implements Expression {
     }
@@ -25,7 +26,39 @@ public sealed interface Expression {
     public record Logical(Expression left, Token.Logical operator, Expression right) implements Expression {
     }
 
-    public record Call(Expression callee, Token.RightParenthesis closingParen, List<Expression> arguments)
-            implements Expression {
+    /**
+     * {@code cache} remembers what this particular call has called before (see
+     * {@link InlineCache}). It isn't syntax, so it never affects equality.
+     */
+    public record Call(Expression callee, Token.RightParenthesis closingParen, List<Expression> arguments,
+            InlineCache cache) implements Expression {
+        public Call(final Expression callee, final Token.RightParenthesis closingParen,
+                final List<Expression> arguments) {
+            this(callee, closingParen, arguments, new InlineCache());
+        }
+    }
+
+    /**
+     * A call to a global function that's never reassigned, with the right
+     * number of arguments (see {@link GlobalFunctionOptimizer}). Only the
+     * optimizer creates these; {@code call} is the original call, which runs
+     * instead whenever {@code binding} can't vouch for the function.
+     */
+    public record DirectCall(FunctionBinding binding, Call call) implements Expression {
+    }
+
+    /**
+     * Like {@link DirectCall}, but for a function small enough to run its body
+     * in place of the call. {@code body} is the expression the function
+     * returns, with its parameters replaced by {@link InlinedParameter}s.
+     */
+    public record InlinedCall(FunctionBinding binding, Call call, Expression body) implements Expression {
+    }
+
+    /**
+     * An inlined function's parameter, which refers to the value of the
+     * call's {@code index}th argument.
+     */
+    public record InlinedParameter(int index, Token.Identifier identifier) implements Expression {
     }
 }
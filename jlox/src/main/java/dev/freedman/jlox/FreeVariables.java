@@ -0,0 +1,185 @@
+package dev.freedman.jlox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Works out which names a function refers to without declaring them itself,
+ * i.e. the variables a closure made from it has to capture. Names are only
+ * counted as declared from the point of their declaration on, matching what
+ * the environment looks like when the code runs, so in
+ * <pre>
+ * fun f() {
+ *     print a;
+ *     var a = 1;
+ * }
+ * </pre>
+ * the first {@code a} is free. A nested function's free variables are free in
+ * the enclosing function too, unless the enclosing function declared them
+ * before the nested one.
+ */
+final class FreeVariables {
+    /**
+     * Marks the end of a block in {@link #visit(Object)}.
+     */
+    private static final Object END_OF_SCOPE = new Object();
+
+    private final Deque<Set<String>> scopes = new ArrayDeque<>();
+    private final Set<String> free = new LinkedHashSet<>();
+
+    private FreeVariables() {
+    }
+
+    /**
+     * A variable declared once its initializer has been visited.
+     */
+    private record Declaration(String name) {
+    }
+
+    /**
+     * A name assigned to once the value has been visited.
+     */
+    private record Reference(String name) {
+    }
+
+    static List<String> of(final List<Token.Identifier> parameters, final FunctionBody body) {
+        final Statement.Block block = body.parsed();
+        if (block == null) {
+            return guess(parameters, body.tokens());
+        }
+        return of(parameters, block);
+    }
+
+    static List<String> of(final List<Token.Identifier> parameters, final Statement.Block body) {
+        final FreeVariables analysis = new FreeVariables();
+        // parameters and the body's own declarations share one scope, just
+        // like they share one environment when the function is called
+        final Set<String> functionScope = new HashSet<>();
+        for (final Token.Identifier parameter : parameters) {
+            functionScope.add(parameter.lexeme());
+        }
+        analysis.scopes.push(functionScope);
+        for (final Statement statement : body.statements()) {
+            analysis.visit(statement);
+        }
+        return List.copyOf(analysis.free);
+    }
+
+    /**
+     * For a body that hasn't been parsed yet: every name in it other than the
+     * parameters. That's more than the real answer whenever the body declares
+     * names of its own, but capturing a variable the function never uses only
+     * costs a little memory.
+     */
+    private static List<String> guess(final List<Token.Identifier> parameters, final List<Token> tokens) {
+        final Set<String> names = new LinkedHashSet<>();
+        for (final Token token : tokens) {
+            if (token instanceof Token.Identifier identifier) {
+                names.add(identifier.lexeme());
+            }
+        }
+        for (final Token.Identifier parameter : parameters) {
+            names.remove(parameter.lexeme());
+        }
+        return List.copyOf(names);
+    }
+
+    /**
+     * Visits a statement or an expression and everything in it, in the order
+     * it would run. Generated code can nest far deeper than the Java stack
+     * goes, so rather than recursing this keeps what's left on a stack, and
+     * whatever has to happen once a node's children are done (declaring a
+     * variable, leaving a block) goes underneath them as a marker.
+     */
+    private void visit(final Object root) {
+        final List<Object> pending = new ArrayList<>();
+        pending.add(root);
+        while (!pending.isEmpty()) {
+            final Object node = pending.remove(pending.size() - 1);
+            if (node == END_OF_SCOPE) {
+                scopes.pop();
+            } else if (node instanceof Declaration declaration) {
+                scopes.peek().add(declaration.name());
+            } else if (node instanceof Reference referenced) {
+                reference(referenced.name());
+            } else if (node instanceof Statement.Print print) {
+                pending.add(print.expression());
+            } else if (node instanceof Statement.ExpressionStatement expressionStatement) {
+                pending.add(expressionStatement.expression());
+            } else if (node instanceof Statement.VariableDeclaration variableDeclaration) {
+                pending.add(new Declaration(variableDeclaration.identifier().lexeme()));
+                pending.add(variableDeclaration.expression());
+            } else if (node instanceof Statement.Block block) {
+                scopes.push(new HashSet<>());
+                pending.add(END_OF_SCOPE);
+                pushInOrder(pending, block.statements());
+            } else if (node instanceof Statement.If ifStatement) {
+                pending.add(ifStatement.elseBranch());
+                pending.add(ifStatement.thenBranch());
+                pending.add(ifStatement.condition());
+            } else if (node instanceof Statement.WhileLoop whileLoop) {
+                pending.add(whileLoop.body());
+                pending.add(whileLoop.condition());
+            } else if (node instanceof Statement.Function function) {
+                // the name is declared before the closure captures anything,
+                // so a function can refer to itself
+                scopes.peek().add(function.name().lexeme());
+                for (final String name : function.freeVariables()) {
+                    reference(name);
+                }
+            } else if (node instanceof Statement.Return returnStatement) {
+                pending.add(returnStatement.value());
+            } else if (node instanceof Statement.Yield yieldStatement) {
+                pending.add(yieldStatement.value());
+            } else if (node instanceof Statement.Assert assertStatement) {
+                pending.add(assertStatement.expression());
+            } else if (node instanceof Expression.Variable variable) {
+                reference(variable.identifier().lexeme());
+            } else if (node instanceof Expression.Assignment assignment) {
+                pending.add(new Reference(assignment.identifier().lexeme()));
+                pending.add(assignment.assignee());
+            } else if (node instanceof Expression.Binary binary) {
+                pending.add(binary.right());
+                pending.add(binary.left());
+            } else if (node instanceof Expression.Logical logical) {
+                pending.add(logical.right());
+                pending.add(logical.left());
+            } else if (node instanceof Expression.Grouping grouping) {
+                pending.add(grouping.expression());
+            } else if (node instanceof Expression.Unary unary) {
+                pending.add(unary.right());
+            } else if (node instanceof Expression.Call call) {
+                pushInOrder(pending, call.arguments());
+                pending.add(call.callee());
+            } else if (node instanceof Expression.DirectCall directCall) {
+                pending.add(directCall.call());
+            } else if (node instanceof Expression.InlinedCall inlinedCall) {
+                // the inlined body only refers to the callee's parameters
+                pending.add(inlinedCall.call());
+            }
+        }
+    }
+
+    /**
+     * Pushes {@code nodes} so the first one comes off the stack first.
+     */
+    private static void pushInOrder(final List<Object> pending, final List<?> nodes) {
+        for (int i = nodes.size() - 1; i >= 0; --i) {
+            pending.add(nodes.get(i));
+        }
+    }
+
+    private void reference(final String name) {
+        for (final Set<String> scope : scopes) {
+            if (scope.contains(name)) {
+                return;
+            }
+        }
+        free.add(name);
+    }
+}
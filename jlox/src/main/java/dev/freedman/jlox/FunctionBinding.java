@@ -0,0 +1,76 @@
+package dev.freedman.jlox;
+
+import java.io.Serializable;
+
+/**
+ * Ties calls to a global function that {@link GlobalFunctionOptimizer} proved
+ * is never reassigned straight to that function, so they don't have to look
+ * the name up every time.
+ * <p>
+ * The analysis only covers the program it saw, though. The REPL runs each line
+ * as its own program against the same globals, so a later line can still
+ * assign something else to the name, and before the declaration runs the name
+ * doesn't exist at all. So a binding only trusts a function it found in the
+ * globals itself, and only for as long as the globals' {@link
+ * Environment#version()} says nothing watched was assigned since. Whenever it
+ * can't vouch for the function, {@link #resolve} returns {@code null} and the
+ * caller falls back to an ordinary call, errors and all.
+ * </p>
+ * <p>
+ * The same syntax tree can be run by more than one interpreter, each with its
+ * own globals, so the resolved function is remembered together with the
+ * interpreter it belongs to.
+ * </p>
+ */
+final class FunctionBinding implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The name token from the function's declaration. Tokens are never shared
+     * between declarations, so it identifies the declaration, and unlike the
+     * declaration itself it doesn't form a cycle with the calls in its body.
+     */
+    private final Token.Identifier name;
+    private transient Resolved resolved;
+
+    private record Resolved(Interpreter interpreter, int version, LoxFunction function) {
+    }
+
+    FunctionBinding(final Token.Identifier name) {
+        this.name = name;
+    }
+
+    Token.Identifier name() {
+        return name;
+    }
+
+    LoxFunction resolve(final Interpreter interpreter) {
+        final Environment globals = interpreter.globals;
+        final Resolved current = resolved;
+        if (current != null && current.interpreter() == interpreter && current.version() == globals.version()) {
+            return current.function();
+        }
+        final Object value = globals.lookUpLocally(name.lexeme());
+        if (value instanceof LoxFunction function && function.declaration().name() == name) {
+            globals.watch(name.lexeme());
+            resolved = new Resolved(interpreter, globals.version(), function);
+            return function;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        return other instanceof FunctionBinding binding && binding.name.lexeme().equals(name.lexeme());
+    }
+
+    @Override
+    public int hashCode() {
+        return name.lexeme().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "FunctionBinding[" + name.lexeme() + "]";
+    }
+}
@@ -0,0 +1,196 @@
+package dev.freedman.jlox;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.function.UnaryOperator;
+
+/**
+ * The body of a {@link Statement.Function}, which may not have been parsed
+ * yet. When the parser is asked to defer function bodies (see
+ * {@link Parser.FunctionBodies}), it only matches up a body's braces and
+ * leaves the actual parsing for later: the first call, or a background thread
+ * if one gets there first. A body that turns out to have syntax errors
+ * reports them from {@link #get()}, i.e. from whatever call needed it.
+ * <p>
+ * Until it's parsed, a body only offers its {@link #tokens()}, which is
+ * enough for the analyses that have to look at every function up front
+ * ({@link FreeVariables} and {@link GlobalFunctionOptimizer}) to make a
+ * conservative guess instead.
+ * </p>
+ * <p>
+ * Bodies are compared by what they parse to, so a deferred body is equal to
+ * the same body parsed eagerly. Serializing one parses it first.
+ * </p>
+ */
+final class FunctionBody implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private volatile Statement.Block block;
+    // only needed until the body has been parsed
+    private transient FutureTask<Statement.Block> parse;
+    private transient List<Token> tokens;
+    // whether the body yields: 0 until it's been worked out, then 1 for no
+    // and 2 for yes. threads racing to work it out all get the same answer
+    private transient volatile int generator;
+
+    private FunctionBody(final Statement.Block block, final FutureTask<Statement.Block> parse,
+            final List<Token> tokens) {
+        this.block = block;
+        this.parse = parse;
+        this.tokens = tokens;
+    }
+
+    static FunctionBody of(final Statement.Block block) {
+        return new FunctionBody(block, null, List.of());
+    }
+
+    /**
+     * A body that {@code parse} parses from {@code tokens}, the ones between
+     * its braces. {@link CompactTree} decodes bodies this way too, but has no
+     * tokens to offer, so its functions come with their free variables
+     * already worked out.
+     */
+    static FunctionBody deferred(final List<Token> tokens, final Callable<Statement.Block> parse) {
+        return new FunctionBody(null, new FutureTask<>(parse), tokens);
+    }
+
+    /**
+     * Parses the body, if that hasn't happened yet, and returns it. If another
+     * thread is already parsing it, this waits for that thread instead.
+     */
+    Statement.Block get() throws InterpreterException {
+        final Statement.Block parsed = block;
+        if (parsed != null) {
+            return parsed;
+        }
+        final FutureTask<Statement.Block> task = parse;
+        // running a task that has already started (or finished) does nothing
+        task.run();
+        try {
+            block = task.get();
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof InterpreterException syntaxErrors) {
+                throw syntaxErrors;
+            }
+            throw new IllegalStateException("Parsing a function body failed", e.getCause());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while parsing a function body", e);
+        }
+        return block;
+    }
+
+    /**
+     * The body if it's been parsed (without errors) already, otherwise
+     * {@code null}.
+     */
+    Statement.Block parsed() {
+        return block;
+    }
+
+    /**
+     * Whether the body has a {@code yield} of its own (not counting nested
+     * functions), which makes calling its function start a
+     * {@link LoxGenerator} instead of running it. Parses the body if that
+     * hasn't happened yet.
+     */
+    boolean isGenerator() throws InterpreterException {
+        if (generator == 0) {
+            generator = yields(get().statements()) ? 2 : 1;
+        }
+        return generator == 2;
+    }
+
+    private static boolean yields(final List<Statement> statements) {
+        // statements nest as deeply as the parser lets them, so they're
+        // walked from a stack rather than by recursing
+        final List<Statement> pending = new ArrayList<>(statements);
+        while (!pending.isEmpty()) {
+            final Statement statement = pending.remove(pending.size() - 1);
+            if (statement instanceof Statement.Yield) {
+                return true;
+            } else if (statement instanceof Statement.Block block) {
+                pending.addAll(block.statements());
+            } else if (statement instanceof Statement.If ifStatement) {
+                pending.add(ifStatement.thenBranch());
+                pending.add(ifStatement.elseBranch());
+            } else if (statement instanceof Statement.WhileLoop whileLoop) {
+                pending.add(whileLoop.body());
+            }
+            // yields in a nested function belong to that function
+        }
+        return false;
+    }
+
+    /**
+     * The unparsed body's tokens, or an empty list once it's been parsed.
+     */
+    List<Token> tokens() {
+        return block != null ? List.of() : tokens;
+    }
+
+    /**
+     * Starts parsing the body on {@code executor}. Calling {@link #get()}
+     * before it's done waits for it, or parses the body right there if the
+     * executor hasn't got to it yet.
+     */
+    void parseOn(final Executor executor) {
+        if (block == null) {
+            executor.execute(parse);
+        }
+    }
+
+    /**
+     * A body that's this one with {@code rewrite} applied, as soon as it's
+     * been parsed.
+     */
+    FunctionBody map(final UnaryOperator<Statement.Block> rewrite) {
+        final Statement.Block parsed = block;
+        if (parsed != null) {
+            return of(rewrite.apply(parsed));
+        }
+        return deferred(tokens, () -> rewrite.apply(get()));
+    }
+
+    private Object contents() {
+        try {
+            return get();
+        } catch (final InterpreterException e) {
+            return e.getErrors();
+        }
+    }
+
+    private void writeObject(final ObjectOutputStream output) throws IOException {
+        try {
+            get();
+        } catch (final InterpreterException e) {
+            throw new InvalidObjectException("Function body has syntax errors: " + e.getErrors());
+        }
+        output.defaultWriteObject();
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        return other instanceof FunctionBody body && Objects.equals(contents(), body.contents());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(contents());
+    }
+
+    @Override
+    public String toString() {
+        final Statement.Block parsed = block;
+        return parsed != null ? parsed.toString() : "FunctionBody[unparsed]";
+    }
+}
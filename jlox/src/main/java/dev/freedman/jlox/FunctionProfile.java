@@ -0,0 +1,81 @@
+package dev.freedman.jlox;
+
+import java.io.Serializable;
+
+/**
+ * Runtime bookkeeping for a single function declaration: how often functions
+ * made from it have been called, and the JVM bytecode compiled for it once it
+ * got hot (see {@link JitCompiler}).
+ * <p>
+ * Every closure created from the same {@link Statement.Function} shares one
+ * profile, so a function only has to warm up and be compiled once no matter
+ * how many times its declaration runs. The call counter isn't synchronized on
+ * purpose: losing the odd increment just means compiling slightly later.
+ * </p>
+ * <p>
+ * Profiles hang off the syntax tree but aren't syntax, so all profiles are
+ * equal to each other. That keeps two parses of the same source equal.
+ * </p>
+ */
+final class FunctionProfile implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private transient int calls;
+    private transient volatile CompiledFunction compiled;
+    private transient volatile boolean notCompilable;
+
+    /**
+     * Records a call and returns the compiled code for the function, if there
+     * is any. Compiles the function if this call takes it past
+     * {@code threshold}; a negative threshold disables compilation entirely.
+     */
+    CompiledFunction recordCall(final Statement.Function declaration, final int threshold) {
+        if (threshold < 0) {
+            return null;
+        }
+        final CompiledFunction compiledFunction = compiled;
+        if (compiledFunction != null || notCompilable) {
+            return compiledFunction;
+        }
+        if (++calls < threshold) {
+            return null;
+        }
+        return compile(declaration);
+    }
+
+    private synchronized CompiledFunction compile(final Statement.Function declaration) {
+        if (compiled == null && !notCompilable) {
+            compiled = JitCompiler.compile(declaration);
+            // the compiler doesn't handle everything yet. if it can't compile
+            // this function, don't keep trying on every call
+            notCompilable = compiled == null;
+        }
+        return compiled;
+    }
+
+    boolean isCompiled() {
+        return compiled != null;
+    }
+
+    /**
+     * What was learned at runtime doesn't carry over to a deserialized tree.
+     */
+    private Object readResolve() {
+        return new FunctionProfile();
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        return other instanceof FunctionProfile;
+    }
+
+    @Override
+    public int hashCode() {
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "FunctionProfile";
+    }
+}
@@ -0,0 +1,391 @@
+package dev.freedman.jlox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A whole-program pass that runs between parsing and interpreting. It finds
+ * global functions that are declared exactly once and never assigned to or
+ * shadowed anywhere in the program, then rewrites calls to them that pass the
+ * right number of arguments:
+ * <ul>
+ * <li>into an {@link Expression.InlinedCall} if the function's body is just a
+ * small {@code return} of its parameters, literals and operators, which can't
+ * recurse since it doesn't call anything, or</li>
+ * <li>into an {@link Expression.DirectCall} otherwise.</li>
+ * </ul>
+ * <p>
+ * Either way the callee doesn't need to be looked up or checked, and an
+ * inlined call doesn't even need a scope. Since the REPL can still change the
+ * name later, each rewritten call keeps the original call to fall back on
+ * (see {@link FunctionBinding}).
+ * </p>
+ * <p>
+ * Calls with the wrong number of arguments are left alone so they keep
+ * failing at runtime like they always have.
+ * </p>
+ */
+final class GlobalFunctionOptimizer {
+    /**
+     * The biggest expression, counted in nodes, that gets inlined.
+     */
+    static final int MAX_INLINED_SIZE = 16;
+
+    private final Map<String, FunctionBinding> bindings = new HashMap<>();
+    private final Map<String, Integer> arities = new HashMap<>();
+    private final Map<String, Expression> inlinedBodies = new HashMap<>();
+
+    private GlobalFunctionOptimizer() {
+    }
+
+    static List<Statement> optimize(final List<Statement> program) {
+        final GlobalFunctionOptimizer optimizer = new GlobalFunctionOptimizer();
+        optimizer.findCandidates(program);
+        if (optimizer.bindings.isEmpty()) {
+            return program;
+        }
+        final List<Statement> optimized = new ArrayList<>(program.size());
+        for (final Statement statement : program) {
+            optimized.add((Statement) optimizer.rewrite(statement));
+        }
+        return optimized;
+    }
+
+    // region Analysis
+
+    private void findCandidates(final List<Statement> program) {
+        final Map<String, Statement.Function> functions = new HashMap<>();
+        final Set<String> disqualified = new HashSet<>();
+        for (final Statement statement : program) {
+            if (statement instanceof Statement.Function function) {
+                final String name = function.name().lexeme();
+                if (functions.put(name, function) != null) {
+                    disqualified.add(name);
+                }
+                for (final Token.Identifier parameter : function.parameters()) {
+                    disqualified.add(parameter.lexeme());
+                }
+                collectDisqualified(function.body(), disqualified);
+            } else if (statement instanceof Statement.VariableDeclaration variableDeclaration) {
+                disqualified.add(variableDeclaration.identifier().lexeme());
+                collectDisqualified(variableDeclaration.expression(), disqualified);
+            } else {
+                collectDisqualified(statement, disqualified);
+            }
+        }
+        for (final Statement.Function function : functions.values()) {
+            final String name = function.name().lexeme();
+            if (disqualified.contains(name)) {
+                continue;
+            }
+            bindings.put(name, new FunctionBinding(function.name()));
+            arities.put(name, function.parameters().size());
+            final Expression body = inlinableBody(function);
+            if (body != null) {
+                inlinedBodies.put(name, body);
+            }
+        }
+    }
+
+    /**
+     * Adds every name declared or assigned to in {@code root}, a statement or
+     * an expression, since a call to any of those might not reach the global
+     * function of the same name. Generated code can nest far deeper than the
+     * Java stack goes, so the nodes still to look at are kept on a stack of
+     * their own.
+     */
+    private static void collectDisqualified(final Object root, final Set<String> names) {
+        final List<Object> pending = new ArrayList<>();
+        pending.add(root);
+        while (!pending.isEmpty()) {
+            final Object node = pending.remove(pending.size() - 1);
+            if (node instanceof Statement.Print print) {
+                pending.add(print.expression());
+            } else if (node instanceof Statement.ExpressionStatement expressionStatement) {
+                pending.add(expressionStatement.expression());
+            } else if (node instanceof Statement.VariableDeclaration variableDeclaration) {
+                names.add(variableDeclaration.identifier().lexeme());
+                pending.add(variableDeclaration.expression());
+            } else if (node instanceof Statement.Block block) {
+                pending.addAll(block.statements());
+            } else if (node instanceof Statement.If ifStatement) {
+                pending.add(ifStatement.condition());
+                pending.add(ifStatement.thenBranch());
+                pending.add(ifStatement.elseBranch());
+            } else if (node instanceof Statement.WhileLoop whileLoop) {
+                pending.add(whileLoop.condition());
+                pending.add(whileLoop.body());
+            } else if (node instanceof Statement.Function function) {
+                names.add(function.name().lexeme());
+                for (final Token.Identifier parameter : function.parameters()) {
+                    names.add(parameter.lexeme());
+                }
+                final Statement.Block body = function.body().parsed();
+                if (body != null) {
+                    pending.add(body);
+                } else {
+                    collectDisqualified(function.body(), names);
+                }
+            } else if (node instanceof Statement.Return returnStatement) {
+                pending.add(returnStatement.value());
+            } else if (node instanceof Statement.Yield yieldStatement) {
+                pending.add(yieldStatement.value());
+            } else if (node instanceof Statement.Assert assertStatement) {
+                pending.add(assertStatement.expression());
+            } else if (node instanceof Expression.Assignment assignment) {
+                names.add(assignment.identifier().lexeme());
+                pending.add(assignment.assignee());
+            } else if (node instanceof Expression.Binary binary) {
+                pending.add(binary.left());
+                pending.add(binary.right());
+            } else if (node instanceof Expression.Logical logical) {
+                pending.add(logical.left());
+                pending.add(logical.right());
+            } else if (node instanceof Expression.Grouping grouping) {
+                pending.add(grouping.expression());
+            } else if (node instanceof Expression.Unary unary) {
+                pending.add(unary.right());
+            } else if (node instanceof Expression.Call call) {
+                pending.add(call.callee());
+                pending.addAll(call.arguments());
+            }
+        }
+    }
+
+    /**
+     * A body that hasn't been parsed yet (see {@link FunctionBody}) has to do
+     * with a guess from its tokens: every name that isn't called, plus the
+     * names of nested functions. That covers every name it could declare or
+     * assign to, and then some.
+     */
+    private static void collectDisqualified(final FunctionBody body, final Set<String> names) {
+        final Statement.Block block = body.parsed();
+        if (block != null) {
+            collectDisqualified((Object) block, names);
+            return;
+        }
+        final List<Token> tokens = body.tokens();
+        for (int i = 0; i < tokens.size(); ++i) {
+            if (tokens.get(i) instanceof Token.Identifier identifier
+                    && (i + 1 == tokens.size() || !(tokens.get(i + 1) instanceof Token.LeftParenthesis)
+                            || (i > 0 && tokens.get(i - 1) instanceof Token.Fun))) {
+                names.add(identifier.lexeme());
+            }
+        }
+    }
+
+    /**
+     * Returns the function's return value with its parameters swapped out for
+     * {@link Expression.InlinedParameter}s, or {@code null} if the function
+     * isn't a good fit for inlining.
+     */
+    private static Expression inlinableBody(final Statement.Function function) {
+        final Statement.Block body = function.body().parsed();
+        if (body == null) {
+            // the parser only defers bodies too big to inline anyway
+            return null;
+        }
+        final List<Statement> statements = body.statements();
+        if (statements.size() != 1 || !(statements.get(0) instanceof Statement.Return returnStatement)
+                || returnStatement.value() == null) {
+            return null;
+        }
+        final int[] size = { 0 };
+        return substituteParameters(returnStatement.value(), function.parameters(), size);
+    }
+
+    private static Expression substituteParameters(final Expression expression,
+            final List<Token.Identifier> parameters, final int[] size) {
+        if (++size[0] > MAX_INLINED_SIZE) {
+            return null;
+        }
+        if (expression instanceof Expression.Literal) {
+            return expression;
+        } else if (expression instanceof Expression.Variable variable) {
+            for (int i = 0; i < parameters.size(); ++i) {
+                if (parameters.get(i).lexeme().equals(variable.identifier().lexeme())) {
+                    return new Expression.InlinedParameter(i, variable.identifier());
+                }
+            }
+            // anything else would have to be looked up in the function's
+            // closure, not the caller's scope
+            return null;
+        } else if (expression instanceof Expression.Grouping grouping) {
+            final Expression inner = substituteParameters(grouping.expression(), parameters, size);
+            return inner == null ? null : new Expression.Grouping(inner);
+        } else if (expression instanceof Expression.Unary unary) {
+            final Expression right = substituteParameters(unary.right(), parameters, size);
+            return right == null ? null : new Expression.Unary(unary.operator(), right);
+        } else if (expression instanceof Expression.Binary binary) {
+            final Expression left = substituteParameters(binary.left(), parameters, size);
+            final Expression right = substituteParameters(binary.right(), parameters, size);
+            return left == null || right == null ? null : new Expression.Binary(left, binary.operator(), right);
+        } else if (expression instanceof Expression.Logical logical) {
+            final Expression left = substituteParameters(logical.left(), parameters, size);
+            final Expression right = substituteParameters(logical.right(), parameters, size);
+            return left == null || right == null ? null : new Expression.Logical(left, logical.operator(), right);
+        }
+        // calls (which could recurse) and assignments stay out of inlined code
+        return null;
+    }
+    // endregion
+
+    // region Rewriting
+
+    /**
+     * A node whose children have been lined up to be rewritten, waiting to be
+     * rebuilt from them once they are.
+     */
+    private record Rebuild(Object node, int childCount) {
+    }
+
+    /**
+     * Rewrites {@code root}, a statement or an expression, the way
+     * {@link #collectDisqualified(Object, Set)} walks it: from a stack of its
+     * own. Every node with children is visited twice, once to line up its
+     * children and once more to rebuild it from what they were rewritten
+     * into.
+     */
+    private Object rewrite(final Object root) {
+        final List<Object> pending = new ArrayList<>();
+        // the rewritten children of the nodes waiting to be rebuilt, in order
+        final List<Object> rewritten = new ArrayList<>();
+        pending.add(root);
+        while (!pending.isEmpty()) {
+            final Object node = pending.remove(pending.size() - 1);
+            if (node instanceof Rebuild rebuild) {
+                final List<Object> children = rewritten.subList(rewritten.size() - rebuild.childCount(),
+                        rewritten.size());
+                final Object rebuilt = rebuild(rebuild.node(), children);
+                children.clear();
+                rewritten.add(rebuilt);
+                continue;
+            }
+            final List<?> children = children(node);
+            if (children.isEmpty()) {
+                rewritten.add(leaf(node));
+                continue;
+            }
+            pending.add(new Rebuild(node, children.size()));
+            for (int i = children.size() - 1; i >= 0; --i) {
+                pending.add(children.get(i));
+            }
+        }
+        return rewritten.get(0);
+    }
+
+    private static List<?> children(final Object node) {
+        if (node instanceof Statement.Print print) {
+            return Arrays.asList(print.expression());
+        } else if (node instanceof Statement.ExpressionStatement expressionStatement) {
+            return Arrays.asList(expressionStatement.expression());
+        } else if (node instanceof Statement.VariableDeclaration variableDeclaration) {
+            return Arrays.asList(variableDeclaration.expression());
+        } else if (node instanceof Statement.Block block) {
+            return block.statements();
+        } else if (node instanceof Statement.If ifStatement) {
+            return Arrays.asList(ifStatement.condition(), ifStatement.thenBranch(), ifStatement.elseBranch());
+        } else if (node instanceof Statement.WhileLoop whileLoop) {
+            return Arrays.asList(whileLoop.condition(), whileLoop.body());
+        } else if (node instanceof Statement.Return returnStatement) {
+            return Arrays.asList(returnStatement.value());
+        } else if (node instanceof Statement.Yield yieldStatement) {
+            return Arrays.asList(yieldStatement.value());
+        } else if (node instanceof Statement.Assert assertStatement) {
+            return Arrays.asList(assertStatement.expression());
+        } else if (node instanceof Expression.Binary binary) {
+            return Arrays.asList(binary.left(), binary.right());
+        } else if (node instanceof Expression.Grouping grouping) {
+            return Arrays.asList(grouping.expression());
+        } else if (node instanceof Expression.Unary unary) {
+            return Arrays.asList(unary.right());
+        } else if (node instanceof Expression.Assignment assignment) {
+            return Arrays.asList(assignment.assignee());
+        } else if (node instanceof Expression.Logical logical) {
+            return Arrays.asList(logical.left(), logical.right());
+        } else if (node instanceof Expression.Call call) {
+            final List<Expression> children = new ArrayList<>(1 + call.arguments().size());
+            children.add(call.callee());
+            children.addAll(call.arguments());
+            return children;
+        }
+        return List.of();
+    }
+
+    private Object leaf(final Object node) {
+        if (node instanceof Statement.Function function) {
+            // the body gets its own walk, whenever it's parsed
+            return new Statement.Function(function.name(), function.parameters(),
+                    function.body().map(body -> (Statement.Block) rewrite(body)));
+        } else if (node instanceof Statement.Block block) {
+            return new Statement.Block(new ArrayList<>(), block.declarationCount());
+        }
+        // imports, literals, variables and null (like a for loop without an
+        // initializer) stay as they are
+        return node;
+    }
+
+    private Object rebuild(final Object node, final List<Object> children) {
+        if (node instanceof Statement.Print) {
+            return new Statement.Print((Expression) children.get(0));
+        } else if (node instanceof Statement.ExpressionStatement) {
+            return new Statement.ExpressionStatement((Expression) children.get(0));
+        } else if (node instanceof Statement.VariableDeclaration variableDeclaration) {
+            return new Statement.VariableDeclaration(variableDeclaration.identifier(), (Expression) children.get(0));
+        } else if (node instanceof Statement.Block block) {
+            final List<Statement> statements = new ArrayList<>(children.size());
+            for (final Object statement : children) {
+                statements.add((Statement) statement);
+            }
+            return new Statement.Block(statements, block.declarationCount());
+        } else if (node instanceof Statement.If) {
+            return new Statement.If((Expression) children.get(0), (Statement) children.get(1),
+                    (Statement) children.get(2));
+        } else if (node instanceof Statement.WhileLoop) {
+            return new Statement.WhileLoop((Expression) children.get(0), (Statement) children.get(1));
+        } else if (node instanceof Statement.Return returnStatement) {
+            return new Statement.Return(returnStatement.returnKeyword(), (Expression) children.get(0));
+        } else if (node instanceof Statement.Yield yieldStatement) {
+            return new Statement.Yield(yieldStatement.yieldKeyword(), (Expression) children.get(0));
+        } else if (node instanceof Statement.Assert assertStatement) {
+            return new Statement.Assert(assertStatement.assertKeyword(), (Expression) children.get(0));
+        } else if (node instanceof Expression.Binary binary) {
+            return new Expression.Binary((Expression) children.get(0), binary.operator(),
+                    (Expression) children.get(1));
+        } else if (node instanceof Expression.Grouping) {
+            return new Expression.Grouping((Expression) children.get(0));
+        } else if (node instanceof Expression.Unary unary) {
+            return new Expression.Unary(unary.operator(), (Expression) children.get(0));
+        } else if (node instanceof Expression.Assignment assignment) {
+            return new Expression.Assignment(assignment.identifier(), (Expression) children.get(0));
+        } else if (node instanceof Expression.Logical logical) {
+            return new Expression.Logical((Expression) children.get(0), logical.operator(),
+                    (Expression) children.get(1));
+        }
+        final Expression.Call call = (Expression.Call) node;
+        final List<Expression> arguments = new ArrayList<>(children.size() - 1);
+        for (int i = 1; i < children.size(); ++i) {
+            arguments.add((Expression) children.get(i));
+        }
+        final Expression.Call rewritten = new Expression.Call((Expression) children.get(0), call.closingParen(),
+                arguments);
+        if (!(call.callee() instanceof Expression.Variable variable)) {
+            return rewritten;
+        }
+        final FunctionBinding binding = bindings.get(variable.identifier().lexeme());
+        if (binding == null || arguments.size() != arities.get(variable.identifier().lexeme())) {
+            return rewritten;
+        }
+        final Expression inlinedBody = inlinedBodies.get(variable.identifier().lexeme());
+        if (inlinedBody != null) {
+            return new Expression.InlinedCall(binding, rewritten, inlinedBody);
+        }
+        return new Expression.DirectCall(binding, rewritten);
+    }
+    // endregion
+}
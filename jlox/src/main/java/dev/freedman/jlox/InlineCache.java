@@ -0,0 +1,89 @@
+package dev.freedman.jlox;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A per-call-site cache of the callables a single {@link Expression.Call} has
+ * called before. When the callee matches one of them, the call can skip
+ * checking that the value is callable and that the argument count matches.
+ * <p>
+ * Entries are keyed by "shape" rather than identity: a {@link LoxFunction}'s
+ * shape is its declaration, since every closure created from the same
+ * declaration takes the same arguments. Any other callable is its own shape.
+ * A site starts out empty, becomes monomorphic after its first call and
+ * polymorphic after that, up to {@link #MAX_ENTRIES} shapes. Past that the
+ * site is megamorphic and simply stops caching.
+ * </p>
+ * <p>
+ * The entries array is replaced rather than modified, so a cache shared by
+ * several threads can at worst miss, never return a wrong answer. Like
+ * {@link FunctionProfile}, caches aren't syntax and are all equal to each
+ * other.
+ * </p>
+ */
+final class InlineCache implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    static final int MAX_ENTRIES = 4;
+    private static final Object[] EMPTY = new Object[0];
+
+    private transient Object[] shapes = EMPTY;
+
+    LoxCallable lookup(final Object callee, final int numberOfArguments, final Expression.Call call)
+            throws InterpreterException {
+        final Object shape = shapeOf(callee);
+        final Object[] cachedShapes = shapes;
+        for (final Object cachedShape : cachedShapes) {
+            if (cachedShape == shape) {
+                return (LoxCallable) callee;
+            }
+        }
+        // miss: do the full checks, which throw if this call is invalid, and
+        // only remember callees that passed them
+        final LoxCallable callable = Interpreter.checkCallable(callee, numberOfArguments, call);
+        if (cachedShapes.length < MAX_ENTRIES) {
+            final Object[] newShapes = Arrays.copyOf(cachedShapes, cachedShapes.length + 1);
+            newShapes[cachedShapes.length] = shape;
+            shapes = newShapes;
+        }
+        return callable;
+    }
+
+    static Object shapeOf(final Object callee) {
+        if (callee instanceof LoxFunction function) {
+            return function.declaration();
+        }
+        return callee;
+    }
+
+    boolean isMegamorphic() {
+        return shapes.length >= MAX_ENTRIES;
+    }
+
+    int size() {
+        return shapes.length;
+    }
+
+    /**
+     * What was learned at runtime doesn't carry over to a deserialized tree.
+     */
+    private Object readResolve() {
+        return new InlineCache();
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        return other instanceof InlineCache;
+    }
+
+    @Override
+    public int hashCode() {
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "InlineCache";
+    }
+}
@@ -1,8 +1,19 @@
 package dev.freedman.jlox;
 
-import java.util.ArrayList;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 /**
  * Last step of the interpreter, the thing that actually runs the source code!
@@ -11,40 +22,285 @@ import java.util.Objects;
  * a full file and for the REPL.
  */
 public class Interpreter {
+    private static final int MAX_POOLED_FRAMES = 64;
+    /**
+     * How many calls it takes before a function gets compiled to JVM bytecode,
+     * unless overridden by the {@code jlox.jit.threshold} system property.
+     */
+    private static final int DEFAULT_JIT_THRESHOLD = Integer.getInteger("jlox.jit.threshold", 1000);
+    /**
+     * How many bytes a script may allocate before it's aborted (see
+     * {@link #setMemoryLimit}), unless overridden by the
+     * {@code jlox.memory.limit} system property. Zero means no limit.
+     */
+    private static final long DEFAULT_MEMORY_LIMIT = Long.getLong("jlox.memory.limit", 0);
+    /**
+     * How big, in bytes, the explicit stacks may get when statements run on
+     * a {@link StackMachine}, unless overridden by the
+     * {@code jlox.heapStack.limit} system property. Zero means statements run
+     * on the Java stack instead.
+     */
+    private static final long DEFAULT_HEAP_STACK_LIMIT = Long.getLong("jlox.heapStack.limit", 0);
+
+    // rough sizes of what the interpreter allocates on a 64-bit JVM with
+    // compressed pointers. they only need to be in the right ballpark
+    static final long STRING_BYTES = 40;
+    static final long ENVIRONMENT_BYTES = 96;
+    static final long VARIABLE_BYTES = 48;
+    static final long FUNCTION_BYTES = 40;
+    static final long UPVALUE_BYTES = 16;
+
     final Environment globals;
+    private final PrintStream output;
+    private final Map<String, LoxCallable> natives = new HashMap<>();
     private Environment environment;
+    /**
+     * Scopes from blocks that have finished running and that nothing else can
+     * refer to anymore, kept around so loops don't allocate a new scope every
+     * iteration.
+     */
+    private final ArrayDeque<Environment> framePool = new ArrayDeque<>();
+    private int jitThreshold = DEFAULT_JIT_THRESHOLD;
+    /**
+     * Argument values of the inlined call whose body is being evaluated, which
+     * is where {@link Expression.InlinedParameter}s read from.
+     */
+    private Object[] inlinedArguments;
+    private long memoryLimit;
+    private long allocatedBytes;
+    private long peakAllocatedBytes;
+    /**
+     * Real paths of the modules this interpreter has imported, or started to.
+     */
+    private final Set<Path> importedModules = new HashSet<>();
+    /**
+     * Readers and writers the script opened and hasn't closed yet, which
+     * {@link #closeFiles()} closes for it, with what's counted against the
+     * budget for each of them.
+     */
+    private final Map<Closeable, OpenFile> openFiles = new LinkedHashMap<>();
+    /**
+     * What relative imports are relative to: the directory of the module
+     * that's running, or of the script if it's none of them.
+     */
+    private Path moduleDirectory = Path.of("");
+    /**
+     * Runs top level statements when they're meant to stay off the Java
+     * stack, otherwise {@code null}.
+     */
+    private StackMachine heapStack;
 
     public Interpreter() {
+        this(System.out);
+    }
+
+    /**
+     * Creates an interpreter whose {@code print} statements write to the given
+     * stream instead of stdout. This lets a host capture each script's output
+     * separately, e.g. when running many scripts at once.
+     */
+    public Interpreter(final PrintStream output) {
+        this(output, null);
+    }
+
+    /**
+     * Creates an interpreter whose globals start out as the ones captured in
+     * {@code prelude}, without running the prelude again. The snapshot is only
+     * read, so any number of interpreters can start from it at the same time.
+     */
+    public Interpreter(final PrintStream output, final PreludeSnapshot prelude) {
+        this.output = output;
+        setMemoryLimit(DEFAULT_MEMORY_LIMIT);
+        setHeapStackLimit(DEFAULT_HEAP_STACK_LIMIT);
         globals = new Environment();
         environment = globals;
-        try {
-            globals.declare(new Token.Identifier("clock", 0), new LoxCallable() {
-                @Override
-                public int arity() {
-                    return 0;
-                }
+        for (final NativeFunction function : Natives.ALL) {
+            natives.put(function.name(), function);
+            globals.define(new Token.Identifier(function.name(), 0), function);
+        }
+        if (Objects.nonNull(prelude)) {
+            globals.restoreFrom(prelude.restorer(this));
+        }
+    }
 
-                @Override
-                public Object call(Interpreter interpreter, List<Object> arguments) {
-                    final double currentTime = (double) System.currentTimeMillis();
-                    return currentTime / 1000.0;
-                }
+    /**
+     * Returns the native function this interpreter declared under the given
+     * name at startup, regardless of what the global holds now.
+     */
+    LoxCallable nativeFunction(final String name) {
+        return natives.get(name);
+    }
 
-                @Override
-                public String toString() {
-                    return "<native fun clock>";
-                }
-            });
-        } catch (final InterpreterException e) {
-            // convert to an unchecked exception because there's nothing that
-            // can be done if this operation fails!
-            throw new RuntimeException(e);
+    /**
+     * Returns the name {@code value} was declared under if it's one of this
+     * interpreter's native functions, otherwise {@code null}.
+     */
+    String nativeName(final Object value) {
+        for (final Map.Entry<String, LoxCallable> entry : natives.entrySet()) {
+            if (entry.getValue() == value) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    public int getJitThreshold() {
+        return jitThreshold;
+    }
+
+    /**
+     * Sets how many calls it takes before a function is compiled to JVM
+     * bytecode (see {@link JitCompiler}). Zero compiles functions on their
+     * first call and a negative number turns compilation off.
+     */
+    public void setJitThreshold(final int jitThreshold) {
+        this.jitThreshold = jitThreshold;
+    }
+
+    /**
+     * Gives the script a budget, in bytes, for the values it allocates.
+     * Going over it aborts execution with a {@link
+     * InterpreterIssue.MemoryLimitExceeded}. Zero or less turns the budget and
+     * the bookkeeping behind it off, which is the default; a host that only
+     * wants to watch allocations can set a budget of {@link Long#MAX_VALUE}.
+     * <p>
+     * The count is an estimate the interpreter keeps itself. Whatever it
+     * controls the lifetime of is only counted while it's live: scopes while
+     * they're running, readers and writers while they're open, and the
+     * strings and records a reader makes from its current line until it moves
+     * on to the next one. So streaming a file of any size a line at a time
+     * only needs room for its longest line. Everything else (strings made by
+     * {@code +} and natives, closures, arrays and maps) is counted from the
+     * moment it's made until the end of the run, since the interpreter can't
+     * tell when it becomes garbage.
+     * </p>
+     */
+    public void setMemoryLimit(final long memoryLimit) {
+        this.memoryLimit = memoryLimit > 0 ? memoryLimit : 0;
+    }
+
+    /**
+     * Sets the directory that relative {@code import}s in the code run
+     * directly (as opposed to in modules) are relative to, which should be
+     * the script's own directory. It's the working directory by default.
+     */
+    public void setModuleDirectory(final Path moduleDirectory) {
+        this.moduleDirectory = moduleDirectory;
+    }
+
+    /**
+     * Runs statements on a {@link StackMachine}, which keeps Lox calls and
+     * the values being computed on stacks in the heap instead of on the Java
+     * stack, whose stacks may take up at most {@code limitBytes}. So deep
+     * recursion fails with a {@link InterpreterIssue.StackLimitExceeded}
+     * (that the script can be told about) once it reaches the limit, rather
+     * than with a {@link StackOverflowError} at whatever depth the thread's
+     * stack allows. Zero or less goes back to running statements on the Java
+     * stack, which is the default and faster, since functions can be compiled
+     * there.
+     */
+    public void setHeapStackLimit(final long limitBytes) {
+        heapStack = limitBytes > 0 ? new StackMachine(this, limitBytes) : null;
+    }
+
+    public long getHeapStackLimit() {
+        return Objects.nonNull(heapStack) ? heapStack.limitBytes() : 0;
+    }
+
+    /**
+     * The {@link StackMachine} statements run on, or {@code null} if they run
+     * on the Java stack.
+     */
+    StackMachine heapStack() {
+        return heapStack;
+    }
+
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * Returns the estimated number of bytes counted against the budget right
+     * now (see {@link #setMemoryLimit}), or zero when there's no budget.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * The most {@link #getAllocatedBytes()} has been.
+     */
+    public long getPeakAllocatedBytes() {
+        return peakAllocatedBytes;
+    }
+
+    /**
+     * Counts {@code bytes} against the budget, if there is one. {@code line}
+     * is reported as where the allocation happened.
+     */
+    void allocate(final long bytes, final int line) throws InterpreterException {
+        if (memoryLimit == 0) {
+            return;
+        }
+        final long allocated = allocatedBytes + bytes;
+        if (allocated > memoryLimit) {
+            throw new InterpreterException(new InterpreterIssue.MemoryLimitExceeded(memoryLimit, allocated, line));
+        }
+        allocatedBytes = allocated;
+        if (allocated > peakAllocatedBytes) {
+            peakAllocatedBytes = allocated;
+        }
+    }
+
+    /**
+     * Gives back bytes counted by {@link #allocate} for something that's no
+     * longer live, like a scope that's finished running.
+     */
+    void release(final long bytes) {
+        if (memoryLimit != 0) {
+            allocatedBytes -= bytes;
         }
     }
 
+    /**
+     * Counts the value against the budget if it's a newly made string,
+     * then returns it. Called with the result of every {@code +}.
+     */
+    Object allocated(final Object value, final int line) throws InterpreterException {
+        if (memoryLimit != 0 && value instanceof String string) {
+            allocate(STRING_BYTES + 2L * string.length(), line);
+        }
+        return value;
+    }
+
+    /**
+     * Natives can't tell which line called them, so they report running into
+     * the budget on line 0, and the call they were made from fills in its
+     * {@code line} here on the way out.
+     */
+    static InterpreterException calledFrom(final InterpreterException exception, final int line) {
+        if (exception.getErrors().size() == 1
+                && exception.getErrors().get(0) instanceof InterpreterIssue.MemoryLimitExceeded issue
+                && issue.line() == 0) {
+            return new InterpreterException(
+                    new InterpreterIssue.MemoryLimitExceeded(issue.limitBytes(), issue.requestedBytes(), line));
+        }
+        return exception;
+    }
+
+    static long environmentBytes(final int variables) {
+        return ENVIRONMENT_BYTES + VARIABLE_BYTES * variables;
+    }
+
     public void execute(final Statement statement) throws InterpreterException {
+        // statements that natives run on the machine's behalf (by calling back
+        // into Lox) recurse as usual
+        if (Objects.nonNull(heapStack) && !heapStack.isBusy()) {
+            heapStack.execute(statement);
+            return;
+        }
         if (statement instanceof Statement.Print printStatement) {
-            System.out.printf("%s\n", this.executeExpression(printStatement.expression()));
+            print(this.executeExpression(printStatement.expression()));
         } else if (statement instanceof Statement.ExpressionStatement expressionStatement) {
             this.executeExpression(expressionStatement.expression());
         } else if (statement instanceof Statement.VariableDeclaration variableDeclaration) {
@@ -52,7 +308,22 @@ public class Interpreter {
             final Object resolvedValue = Objects.nonNull(expression) ? this.executeExpression(expression) : null;
             environment.declare(variableDeclaration.identifier(), resolvedValue);
         } else if (statement instanceof Statement.Block block) {
-            executeBlock(block, new Environment(environment));
+            if (block.declarationCount() == 0) {
+                // the block can't introduce any names, so giving it its own
+                // scope would be pure overhead. run it in the enclosing one
+                for (final Statement nestedStatement : block.statements()) {
+                    execute(nestedStatement);
+                }
+            } else {
+                // closures only hold onto the variables they captured, never
+                // the scope itself, so the scope can always be recycled
+                final Environment frame = acquireFrame(block.declarationCount());
+                try {
+                    executeBlock(block, frame);
+                } finally {
+                    releaseFrame(frame);
+                }
+            }
         } else if (statement instanceof Statement.If ifStatement) {
             final boolean condition = Token.isTruthy(executeExpression(ifStatement.condition()));
             if (condition) {
@@ -65,7 +336,9 @@ public class Interpreter {
                 execute(whileLoop.body());
             }
         } else if (statement instanceof Statement.Function function) {
-            environment.declare(function.name(), new LoxFunction(function, environment));
+            // declare the name first so the function can capture itself
+            environment.declare(function.name(), null);
+            environment.assign(function.name(), new LoxFunction(function, closureFor(function)));
         } else if (statement instanceof Statement.Return returnStatement) {
             final Object value;
             if (Objects.nonNull(returnStatement.value())) {
@@ -74,6 +347,12 @@ public class Interpreter {
                 value = null;
             }
             throw new Return(value, returnStatement.returnKeyword());
+        } else if (statement instanceof Statement.Yield yieldStatement) {
+            // generators run on a machine of their own, so any yield that
+            // gets here isn't in a function
+            throw new InterpreterException(new InterpreterIssue.YieldOutsideGenerator(yieldStatement.yieldKeyword()));
+        } else if (statement instanceof Statement.Import importStatement) {
+            importModule(importStatement);
         } else if (statement instanceof Statement.Assert assertStatement) {
             final Object value = executeExpression(assertStatement.expression());
             if (!Token.isTruthy(value)) {
@@ -90,22 +369,11 @@ public class Interpreter {
         } else if (expr instanceof Expression.Grouping groupingExpr) {
             return executeExpression(groupingExpr.expression());
         } else if (expr instanceof Expression.Literal literalExpr) {
-            final Token.Literal literal = literalExpr.value();
-            if (literal instanceof Token.Nil) {
-                return null;
-            } else if (literal instanceof Token.Number number) {
-                return number.value();
-            } else if (literal instanceof Token.StringLiteral string) {
-                return string.value();
-            } else if (literal instanceof Token.True) {
-                return true;
-            } else if (literal instanceof Token.False) {
-                return false;
-            }
+            return literalValue(literalExpr.value());
         } else if (expr instanceof Expression.Binary binaryExpr) {
             final Object left = executeExpression(binaryExpr.left());
             final Object right = executeExpression(binaryExpr.right());
-            return binaryExpr.operator().evaluateBinaryOperation(left, right);
+            return evaluateBinary(binaryExpr.operator(), left, right);
         } else if (expr instanceof Expression.Variable variable) {
             return environment.retrieve(variable.identifier());
         } else if (expr instanceof Expression.Assignment assignment) {
@@ -122,22 +390,331 @@ public class Interpreter {
             return executeExpression(logical.right());
         } else if (expr instanceof Expression.Call call) {
             final Object callee = executeExpression(call.callee());
-            final List<Object> arguments = new ArrayList<>();
-            for (final Expression argument : call.arguments()) {
-                arguments.add(this.executeExpression(argument));
-            }
-            if (callee instanceof LoxCallable loxCallable) {
-                if (loxCallable.arity() != arguments.size()) {
-                    throw new InterpreterException(new InterpreterIssue.InvalidNumberOfArguments(arguments.size(),
-                            loxCallable.arity(), call.closingParen()));
+            final List<Expression> arguments = call.arguments();
+            try {
+                // dispatch on the number of arguments so the common cases can pass
+                // them straight through without building a list or array first. the
+                // call site's inline cache takes care of checking the callee
+                switch (arguments.size()) {
+                    case 0 -> {
+                        return call.cache().lookup(callee, 0, call).call0(this);
+                    }
+                    case 1 -> {
+                        final Object argument0 = executeExpression(arguments.get(0));
+                        return call.cache().lookup(callee, 1, call).call1(this, argument0);
+                    }
+                    case 2 -> {
+                        final Object argument0 = executeExpression(arguments.get(0));
+                        final Object argument1 = executeExpression(arguments.get(1));
+                        return call.cache().lookup(callee, 2, call).call2(this, argument0, argument1);
+                    }
+                    case 3 -> {
+                        final Object argument0 = executeExpression(arguments.get(0));
+                        final Object argument1 = executeExpression(arguments.get(1));
+                        final Object argument2 = executeExpression(arguments.get(2));
+                        return call.cache().lookup(callee, 3, call).call3(this, argument0, argument1, argument2);
+                    }
+                    default -> {
+                        final Object[] values = new Object[arguments.size()];
+                        for (int i = 0; i < values.length; ++i) {
+                            values[i] = executeExpression(arguments.get(i));
+                        }
+                        return call.cache().lookup(callee, values.length, call).call(this, values);
+                    }
                 }
-                return loxCallable.call(this, arguments);
+            } catch (final InterpreterException e) {
+                throw calledFrom(e, call.closingParen().line());
+            }
+        } else if (expr instanceof Expression.DirectCall directCall) {
+            final LoxFunction function = directCall.binding().resolve(this);
+            if (Objects.isNull(function)) {
+                return executeExpression(directCall.call());
+            }
+            // the optimizer already made sure the number of arguments matches
+            final List<Expression> arguments = directCall.call().arguments();
+            switch (arguments.size()) {
+                case 0 -> {
+                    return function.call0(this);
+                }
+                case 1 -> {
+                    return function.call1(this, executeExpression(arguments.get(0)));
+                }
+                case 2 -> {
+                    final Object argument0 = executeExpression(arguments.get(0));
+                    final Object argument1 = executeExpression(arguments.get(1));
+                    return function.call2(this, argument0, argument1);
+                }
+                case 3 -> {
+                    final Object argument0 = executeExpression(arguments.get(0));
+                    final Object argument1 = executeExpression(arguments.get(1));
+                    final Object argument2 = executeExpression(arguments.get(2));
+                    return function.call3(this, argument0, argument1, argument2);
+                }
+                default -> {
+                    final Object[] values = new Object[arguments.size()];
+                    for (int i = 0; i < values.length; ++i) {
+                        values[i] = executeExpression(arguments.get(i));
+                    }
+                    return function.call(this, values);
+                }
+            }
+        } else if (expr instanceof Expression.InlinedCall inlinedCall) {
+            if (Objects.isNull(inlinedCall.binding().resolve(this))) {
+                return executeExpression(inlinedCall.call());
+            }
+            final List<Expression> arguments = inlinedCall.call().arguments();
+            final Object[] values = new Object[arguments.size()];
+            for (int i = 0; i < values.length; ++i) {
+                values[i] = executeExpression(arguments.get(i));
+            }
+            final Object[] previous = inlinedArguments;
+            try {
+                inlinedArguments = values;
+                return executeExpression(inlinedCall.body());
+            } finally {
+                inlinedArguments = previous;
             }
-            throw new InterpreterException(new InterpreterIssue.ValueNotCallable(callee, call.closingParen()));
+        } else if (expr instanceof Expression.InlinedParameter parameter) {
+            return inlinedArguments[parameter.index()];
         }
         return null;
     }
 
+    static Object literalValue(final Token.Literal literal) {
+        if (literal instanceof Token.Number number) {
+            return number.value();
+        } else if (literal instanceof Token.StringLiteral string) {
+            return string.value();
+        } else if (literal instanceof Token.True) {
+            return true;
+        } else if (literal instanceof Token.False) {
+            return false;
+        }
+        // nil
+        return null;
+    }
+
+    Object evaluateBinary(final Token.BinaryOperator operator, final Object left, final Object right)
+            throws InterpreterException {
+        if (operator instanceof Token.Plus) {
+            // the only operator that can make a new string
+            return allocated(operator.evaluateBinaryOperation(left, right), operator.line());
+        }
+        return operator.evaluateBinaryOperation(left, right);
+    }
+
+    static LoxCallable checkCallable(final Object callee, final int numberOfArguments,
+            final Expression.Call call) throws InterpreterException {
+        if (callee instanceof LoxCallable loxCallable) {
+            if (loxCallable.arity() != numberOfArguments) {
+                throw new InterpreterException(new InterpreterIssue.InvalidNumberOfArguments(numberOfArguments,
+                        loxCallable.arity(), call.closingParen()));
+            }
+            return loxCallable;
+        }
+        throw new InterpreterException(new InterpreterIssue.ValueNotCallable(callee, call.closingParen()));
+    }
+
+    /**
+     * Builds the environment a function declared in the current scope closes
+     * over. Rather than the whole chain of scopes, it only gets the variables
+     * the function actually uses, shared through {@link Upvalue}s, with the
+     * globals behind them. Names that aren't declared anywhere local yet are
+     * globals as far as the function is concerned, even if a local with the
+     * same name shows up later.
+     */
+    Environment closureFor(final Statement.Function function) throws InterpreterException {
+        allocate(FUNCTION_BYTES, function.name().line());
+        if (environment == globals) {
+            return globals;
+        }
+        Environment closure = null;
+        for (final String name : function.freeVariables()) {
+            final Upvalue upvalue = environment.capture(name, globals);
+            if (Objects.nonNull(upvalue)) {
+                if (Objects.isNull(closure)) {
+                    allocate(environmentBytes(function.freeVariables().size()), function.name().line());
+                    closure = new Environment(globals, function.freeVariables().size());
+                }
+                allocate(UPVALUE_BYTES, function.name().line());
+                closure.defineUpvalue(name, upvalue);
+            }
+        }
+        return Objects.nonNull(closure) ? closure : globals;
+    }
+
+    /**
+     * Runs the imported module in the global scope, unless this interpreter
+     * already did. The module itself comes from the {@link ModuleCache}, so
+     * it's only read and parsed once no matter how many interpreters import
+     * it. A module that imports one of the modules importing it gets nothing,
+     * since that one counts as imported from the moment it starts running.
+     */
+    void importModule(final Statement.Import importStatement) throws InterpreterException {
+        final ModuleCache.Module module = beginImport(importStatement);
+        if (Objects.isNull(module)) {
+            return;
+        }
+        final Environment previousEnvironment = environment;
+        final Path previousDirectory = moduleDirectory;
+        environment = globals;
+        moduleDirectory = module.path().getParent();
+        try {
+            for (final Statement statement : module.statements()) {
+                execute(statement);
+            }
+        } finally {
+            environment = previousEnvironment;
+            moduleDirectory = previousDirectory;
+        }
+    }
+
+    /**
+     * Loads the imported module and counts it as imported, or returns
+     * {@code null} if it already was.
+     */
+    ModuleCache.Module beginImport(final Statement.Import importStatement) throws InterpreterException {
+        final Token.Import keyword = importStatement.importKeyword();
+        final ModuleCache.Module module;
+        try {
+            final Path file = moduleDirectory.resolve(importStatement.path().value());
+            if (importedModules.contains(file.toRealPath())) {
+                return null;
+            }
+            module = ModuleCache.SHARED.load(file);
+        } catch (final NoSuchFileException e) {
+            throw new InterpreterException(new InterpreterIssue.ModuleNotReadable(keyword,
+                    importStatement.path().value(), "no such file"));
+        } catch (final IOException | InvalidPathException e) {
+            throw new InterpreterException(new InterpreterIssue.ModuleNotReadable(keyword,
+                    importStatement.path().value(), e.getMessage()));
+        } catch (final InterpreterException e) {
+            throw new InterpreterException(new InterpreterIssue.InvalidModule(keyword,
+                    importStatement.path().value(), e.getErrors()));
+        }
+        importedModules.add(module.path());
+        return module;
+    }
+
+    Environment environment() {
+        return environment;
+    }
+
+    void setEnvironment(final Environment environment) {
+        this.environment = environment;
+    }
+
+    Object[] inlinedArguments() {
+        return inlinedArguments;
+    }
+
+    void setInlinedArguments(final Object[] inlinedArguments) {
+        this.inlinedArguments = inlinedArguments;
+    }
+
+    /**
+     * Remembers a file the script opened, so it's closed by
+     * {@link #closeFiles()} if the script doesn't close it itself, and counts
+     * its {@code bytes} against the budget until it's closed.
+     */
+    void opened(final Closeable file, final long bytes, final int line) throws InterpreterException {
+        openFiles.put(file, new OpenFile());
+        chargeFile(file, bytes, line);
+    }
+
+    /**
+     * Counts {@code bytes} more against the budget for an open file, e.g.
+     * when a reader's buffer grows to fit a long line.
+     */
+    void chargeFile(final Closeable file, final long bytes, final int line) throws InterpreterException {
+        final OpenFile open = openFiles.get(file);
+        if (Objects.nonNull(open)) {
+            allocate(bytes, line);
+            open.bytes += bytes;
+        }
+    }
+
+    /**
+     * Counts {@code bytes} against the budget for a string or record made
+     * from {@code reader}'s current line, until the reader moves on (see
+     * {@link #releaseLine}) or is closed.
+     */
+    void chargeLine(final LoxReader reader, final long bytes, final int line) throws InterpreterException {
+        final OpenFile open = openFiles.get(reader);
+        if (Objects.nonNull(open)) {
+            allocate(bytes, line);
+            open.lineBytes += bytes;
+        }
+    }
+
+    /**
+     * Gives back what {@link #chargeLine} counted for {@code reader}'s
+     * current line, since it's about to move past it.
+     */
+    void releaseLine(final LoxReader reader) {
+        final OpenFile open = openFiles.get(reader);
+        if (Objects.nonNull(open)) {
+            release(open.lineBytes);
+            open.lineBytes = 0;
+        }
+    }
+
+    /**
+     * Forgets a file that's been closed and gives back everything counted
+     * for it.
+     */
+    void closed(final Closeable file) {
+        final OpenFile open = openFiles.remove(file);
+        if (Objects.nonNull(open)) {
+            release(open.bytes + open.lineBytes);
+        }
+    }
+
+    /**
+     * Closes every reader and writer the script left open, which writes out
+     * whatever writers still had buffered. Hosts call this once a script is
+     * done, whether it finished or failed, so its output isn't lost and its
+     * files aren't left open until they're garbage collected. Files that
+     * can't be closed are skipped, since there's nobody left to tell; a script
+     * that needs to know its output was written should close its writers
+     * itself.
+     */
+    public void closeFiles() {
+        for (final Map.Entry<Closeable, OpenFile> entry : openFiles.entrySet()) {
+            try {
+                entry.getKey().close();
+            } catch (final IOException e) {
+                // see above
+            }
+            release(entry.getValue().bytes + entry.getValue().lineBytes);
+        }
+        openFiles.clear();
+    }
+
+    Path moduleDirectory() {
+        return moduleDirectory;
+    }
+
+    void print(final Object value) {
+        output.printf("%s\n", value);
+    }
+
+    private Environment acquireFrame(final int expectedVariables) {
+        final Environment frame = framePool.pollFirst();
+        if (Objects.isNull(frame)) {
+            return new Environment(environment, expectedVariables);
+        }
+        frame.reuse(environment);
+        return frame;
+    }
+
+    private void releaseFrame(final Environment frame) {
+        frame.recycle();
+        if (framePool.size() < MAX_POOLED_FRAMES) {
+            framePool.push(frame);
+        }
+    }
+
     void executeBlock(final Statement.Block block, final Environment environment) throws InterpreterException {
         final Environment previous = this.environment;
         try {
@@ -149,4 +726,14 @@ public class Interpreter {
             this.environment = previous;
         }
     }
+
+    /**
+     * What's counted against the budget for a file the script has open.
+     */
+    private static final class OpenFile {
+        // the reader's or writer's own buffers
+        long bytes;
+        // strings and records made from a reader's current line
+        long lineBytes;
+    }
 }
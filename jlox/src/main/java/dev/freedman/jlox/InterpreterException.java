@@ -3,11 +3,23 @@ package dev.freedman.jlox;
 import java.util.Collections;
 import java.util.List;
 
+/**
+ * Carries every {@link InterpreterIssue} found by a phase of the interpreter.
+ * <p>
+ * These exceptions describe problems in the Lox program, not in the
+ * interpreter, so by default they don't capture a Java stack trace and their
+ * message is only rendered when someone asks for it. Debug mode (the
+ * {@code jlox.debug} system property, or {@link #setCaptureStackTraces}) turns
+ * stack traces back on for working on the interpreter itself.
+ * </p>
+ */
 public class InterpreterException extends Exception {
+    private static volatile boolean captureStackTraces = Boolean.getBoolean("jlox.debug");
+
     private final List<InterpreterIssue> errors;
 
     public InterpreterException(final List<InterpreterIssue> errors) {
-        super(errors.toString());
+        super(null, null, false, captureStackTraces);
         this.errors = errors;
     }
 
@@ -18,4 +30,17 @@ public class InterpreterException extends Exception {
     public List<InterpreterIssue> getErrors() {
         return errors;
     }
+
+    @Override
+    public String getMessage() {
+        return errors.toString();
+    }
+
+    public static boolean isCapturingStackTraces() {
+        return captureStackTraces;
+    }
+
+    public static void setCaptureStackTraces(final boolean capture) {
+        captureStackTraces = capture;
+    }
 }
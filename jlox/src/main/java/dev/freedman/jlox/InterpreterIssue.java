@@ -8,8 +8,8 @@ import java.util.List;
  * the interpreter: scanning, parsing, and actual execution issues are all
  * contained in this type.
  * <p>
- * In one way or another, the line in which the error occurred is stored in each
- * record. Sometimes that is directly, other times it's through storing
+ * In one way or another, the line in which the error occurred is stored in
+ * almost every record. Sometimes that is directly, other times it's through storing
  * the {@link Token}.
  * </p>
  */
@@ -29,9 +29,16 @@ public sealed interface InterpreterIssue {
         public record UnexpectedToken(Token token) implements InterpreterIssue {
         }
 
+        /**
+         * {@code receivedValues} holds the actual operands rather than their text.
+         * Rendering them is deferred until the issue is reported, which keeps
+         * failing operations cheap for hosts that catch and discard errors.
+         */
         public record InvalidTypesForOperation(String operation, List<String> supportedTypes,
-                        List<String> receivedValues,
+                        List<Object> receivedValues,
                         int line) implements InterpreterIssue {
+                public static final List<String> NUMBERS = List.of("numbers");
+                public static final List<String> NUMBERS_OR_STRINGS = List.of("numbers", "strings");
         }
 
         public record FeatureNotSupportedYet(String featureName, int line) implements InterpreterIssue {
@@ -61,10 +68,92 @@ public sealed interface InterpreterIssue {
         public record DanglingComma(Token.Comma comma) implements InterpreterIssue {
         }
 
+        /**
+         * {@code token} starts something nested more than {@code maxDepth}
+         * levels deep, which the parser refuses rather than risk running out of
+         * stack or heap (see {@link Parser#DEFAULT_MAX_DEPTH} and
+         * {@link Parser#MAX_STATEMENT_DEPTH}).
+         */
+        public record NestingTooDeep(Token token, int maxDepth) implements InterpreterIssue {
+        }
+
+        public record DuplicateParameter(Token.Identifier parameter) implements InterpreterIssue {
+        }
+
         public record ReturnOutsideFunction(Token.Return returnToken) implements InterpreterIssue {
         }
 
+        /**
+         * A {@code yield} that isn't in a function at all. One in a function
+         * makes that function a generator (see {@link LoxGenerator}).
+         */
+        public record YieldOutsideGenerator(Token.Yield yieldKeyword) implements InterpreterIssue {
+        }
+
+        /**
+         * {@code requestedBytes} is the estimated number of bytes the
+         * allocation on {@code line} would have brought the script's
+         * allocations to, which is more than its budget of {@code limitBytes}.
+         */
+        public record MemoryLimitExceeded(long limitBytes, long requestedBytes, int line)
+                        implements InterpreterIssue {
+        }
+
+        /**
+         * The explicit stacks of {@link StackMachine} needed more than
+         * {@code limitBytes}, with {@code callDepth} Lox calls running. {@code
+         * line} is where the innermost of those calls was made, or 0 if there
+         * weren't any.
+         */
+        public record StackLimitExceeded(long limitBytes, int callDepth, int line) implements InterpreterIssue {
+        }
+
+        /**
+         * Raised by native functions. Natives can't tell which line called
+         * them, so this, {@link IndexOutOfBounds} and {@link FileFailed} are
+         * the only issues without one.
+         */
+        public record InvalidArgument(String functionName, String expected, Object receivedValue)
+                        implements InterpreterIssue {
+        }
+
+        public record IndexOutOfBounds(String functionName, Object index, int length) implements InterpreterIssue {
+        }
+
+        /**
+         * A file native couldn't open, read or write {@code path}, for the
+         * {@code reason} the operating system gave.
+         */
+        public record FileFailed(String functionName, String path, String reason) implements InterpreterIssue {
+        }
+
+        /**
+         * A JSON or CSV record a native was decoding didn't have what was
+         * {@code expected} at {@code column} (in bytes, from 1) of
+         * {@code line}. The line is the file's line for a record read from a
+         * file and 1 otherwise.
+         */
+        public record MalformedRecord(String functionName, String expected, long line, int column)
+                        implements InterpreterIssue {
+        }
+
         public record AssertionError(Token.Assert assertKeyword, Expression falsyExpression) implements InterpreterIssue {
         }
 
+        /**
+         * {@code reason} is why the file couldn't be read, as reported by the
+         * operating system.
+         */
+        public record ModuleNotReadable(Token.Import importKeyword, String path, String reason)
+                        implements InterpreterIssue {
+        }
+
+        /**
+         * The scanner's and parser's {@code errors} for an imported file. Their
+         * lines are lines of that file.
+         */
+        public record InvalidModule(Token.Import importKeyword, String path, List<InterpreterIssue> errors)
+                        implements InterpreterIssue {
+        }
+
 }
@@ -3,38 +3,131 @@ package dev.freedman.jlox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * This is the entrypoint for the interpreter and the main executable that
  * brings all the pieces together.
  */
 public class JLox {
-    public static void main(final String[] args) throws IOException {
-        if (args.length > 1) {
+    /**
+     * Script files at least this big are scanned straight from a memory
+     * mapping (see {@link MappedScanner}) instead of being read into a
+     * {@code String} first, unless overridden by the
+     * {@code jlox.mmap.threshold} system property.
+     */
+    private static final long MAPPED_SCAN_THRESHOLD = Long.getLong("jlox.mmap.threshold", 16 * 1024 * 1024);
+    /**
+     * Sources at least this many chars long are scanned on several threads
+     * (see {@link ParallelScanner}) when there's more than one processor,
+     * unless overridden by the {@code jlox.scan.parallelThreshold} system
+     * property.
+     */
+    private static final int PARALLEL_SCAN_THRESHOLD = Integer.getInteger("jlox.scan.parallelThreshold",
+            4 * 1024 * 1024);
+    /**
+     * When function bodies get parsed (see {@link Parser.FunctionBodies}),
+     * set by the {@code jlox.parse.functions} system property: {@code eager}
+     * (the default), {@code lazy}, {@code background} or {@code strict}.
+     */
+    private static final Parser.FunctionBodies FUNCTION_BODIES = Parser.FunctionBodies
+            .valueOf(System.getProperty("jlox.parse.functions", "eager").toUpperCase(Locale.ROOT));
+
+    public static void main(final String[] arguments) throws IOException {
+        // --debug can prefix any other usage. it brings back Java stack traces
+        // on interpreter errors, which is only useful when working on jlox itself
+        String[] args;
+        if (arguments.length >= 1 && arguments[0].equals("--debug")) {
+            InterpreterException.setCaptureStackTraces(true);
+            args = Arrays.copyOfRange(arguments, 1, arguments.length);
+        } else {
+            args = arguments;
+        }
+        // --prelude <file> runs (or restores) library code before anything else
+        PreludeSnapshot prelude = null;
+        if (args.length >= 1 && args[0].equals("--prelude")) {
+            if (args.length == 1) {
+                printUsage();
+                System.exit(64); // EX_USAGE
+            }
+            prelude = loadPrelude(Paths.get(args[1]));
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        if (args.length >= 1 && args[0].equals("--snapshot")) {
+            if (args.length != 3) {
+                printUsage();
+                System.exit(64); // EX_USAGE
+            }
+            loadPrelude(Paths.get(args[1])).write(Paths.get(args[2]));
+        } else if (args.length >= 1 && args[0].equals("--daemon")) {
+            if (args.length != 2) {
+                printUsage();
+                System.exit(64); // EX_USAGE
+            }
+            // stay up and run scripts sent by --connect in this JVM
+            final Daemon daemon = new Daemon(Paths.get(args[1]), Runtime.getRuntime().availableProcessors(),
+                    prelude);
+            // closing stops serve(), whether that's from ^C or anything else
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    daemon.close();
+                } catch (final IOException e) {
+                    // exiting anyway
+                }
+            }));
+            try {
+                daemon.serve();
+            } finally {
+                daemon.close();
+            }
+        } else if (args.length >= 1 && args[0].equals("--connect")) {
+            if (args.length != 3) {
+                printUsage();
+                System.exit(64); // EX_USAGE
+            }
+            final Path script = Paths.get(args[2]);
+            final byte[] bytes = Files.readAllBytes(script);
+            final int exitCode;
+            try {
+                exitCode = Daemon.send(Paths.get(args[1]), script.toAbsolutePath().getParent(),
+                        new String(bytes, Charset.defaultCharset()), System.out);
+            } catch (final IOException e) {
+                System.out.println("Could not reach the jlox daemon: " + e.getMessage());
+                System.exit(69); // EX_UNAVAILABLE
+                return;
+            }
+            System.exit(exitCode);
+        } else if (args.length >= 1 && args[0].equals("--bench")) {
+            System.exit(BenchmarkRunner.runFromCommandLine(Arrays.asList(args).subList(1, args.length), System.out));
+        } else if (args.length >= 1 && args[0].equals("--batch")) {
+            if (args.length == 1) {
+                printUsage();
+                System.exit(64); // EX_USAGE
+            }
+            // run every script in one warm JVM rather than one JVM per script
+            final BatchRunner runner = new BatchRunner(Runtime.getRuntime().availableProcessors(), prelude);
+            final BatchRunner.BatchReport report = runner
+                    .run(BatchRunner.collectScripts(Arrays.asList(args).subList(1, args.length)));
+            report.print(System.out);
+            System.exit(report.exitCode());
+        } else if (args.length > 1) {
             // invalid usage, bail
-            System.out.println("Usage: jlox [script]");
+            printUsage();
             System.exit(64); // EX_USAGE
         } else if (args.length == 1) {
             // read code from a file and run that file
-            final byte[] bytes = Files.readAllBytes(Paths.get(args[0]));
-            try {
-                final List<Statement> statements = getExecutableStatements(new String(bytes, Charset.defaultCharset()));
-                final Interpreter interpreter = new Interpreter();
-                for (final Statement statement : statements) {
-                    interpreter.execute(statement);
-                }
-            } catch (final InterpreterException e) {
-                reportError(e.getErrors());
-                System.exit(65); // EX_DATAERR
-            } catch (final Return returnStatement) {
-                reportError(Collections
-                        .singletonList(new InterpreterIssue.ReturnOutsideFunction(returnStatement.getToken())));
-                System.exit(65); // EX_DATAERR
+            final int exitCode = runScript(Paths.get(args[0]), System.out, prelude);
+            if (exitCode != 0) {
+                System.exit(exitCode);
             }
         } else {
             // otherwise, read-evaluate-print loop (REPL)
@@ -45,7 +138,7 @@ public class JLox {
             // line that gets read by the REPL. This way, variables are maintained
             // across each line. this goes against the Lox spec, but I like this more,
             // so god dammit I'm going to do it
-            final Interpreter interpreter = new Interpreter();
+            final Interpreter interpreter = new Interpreter(System.out, prelude);
             while (true) {
                 System.out.print("> ");
                 final String line = reader.readLine();
@@ -53,6 +146,7 @@ public class JLox {
                     // print a new line before exiting so my Maven output
                     // doesn't look ugly
                     System.out.println();
+                    interpreter.closeFiles();
                     break;
                 }
                 try {
@@ -61,7 +155,7 @@ public class JLox {
                         interpreter.execute(statement);
                     }
                 } catch (final InterpreterException e) {
-                    reportError(e.getErrors());
+                    reportError(e);
                 } catch (final Return returnStatement) {
                     reportError(Collections
                             .singletonList(new InterpreterIssue.ReturnOutsideFunction(returnStatement.getToken())));
@@ -70,17 +164,176 @@ public class JLox {
         }
     }
 
-    private static List<Statement> getExecutableStatements(final String source) throws InterpreterException {
-        final Scanner scanner = new Scanner(source);
-        final List<Token> tokens = scanner.scanTokens();
-        final Parser parser = new Parser(tokens);
-        return parser.parse();
+    private static void printUsage() {
+        System.out.println("Usage: jlox [--debug] [--prelude <prelude>] [script]");
+        System.out.println("       jlox [--debug] [--prelude <prelude>] --batch <directory | script>...");
+        System.out.println("       jlox [--debug] --snapshot <prelude> <snapshot file>");
+        System.out.println("       jlox [--debug] [--prelude <prelude>] --daemon <socket>");
+        System.out.println("       jlox --connect <socket> <script>");
+        System.out.println("       jlox --bench [options] [directory | script]...");
+        System.out.println("A prelude is either Lox source (ending in .lox) or a snapshot file.");
+    }
+
+    /**
+     * Loads a prelude, either by running Lox source or by reading a snapshot
+     * written by {@code --snapshot}. Exits if that fails, since nothing else
+     * should run without the prelude it asked for.
+     */
+    private static PreludeSnapshot loadPrelude(final Path path) throws IOException {
+        if (!path.getFileName().toString().endsWith(".lox")) {
+            return PreludeSnapshot.read(path);
+        }
+        try {
+            return PreludeSnapshot.of(new String(Files.readAllBytes(path), Charset.defaultCharset()));
+        } catch (final InterpreterException e) {
+            reportError(e);
+            System.exit(65); // EX_DATAERR
+            return null;
+        } catch (final Return returnStatement) {
+            reportError(Collections
+                    .singletonList(new InterpreterIssue.ReturnOutsideFunction(returnStatement.getToken())));
+            System.exit(65); // EX_DATAERR
+            return null;
+        }
+    }
+
+    static List<Statement> getExecutableStatements(final String source) throws InterpreterException {
+        return getExecutableStatements(scanTokens(source));
+    }
+
+    /**
+     * Scans {@code source} with whichever scanner suits its size. Both give
+     * the same tokens and issues.
+     */
+    static List<Token> scanTokens(final String source) throws InterpreterException {
+        if (source.length() >= PARALLEL_SCAN_THRESHOLD && Runtime.getRuntime().availableProcessors() > 1) {
+            return new ParallelScanner(source).scanTokens();
+        }
+        return new Scanner(source).scanTokens();
+    }
+
+    static List<Statement> getExecutableStatements(final List<Token> tokens) throws InterpreterException {
+        final Parser parser = new Parser(tokens, FUNCTION_BODIES);
+        return GlobalFunctionOptimizer.optimize(parser.parse());
+    }
+
+    /**
+     * Either kind of scanner, so running a script doesn't care where its
+     * tokens came from.
+     */
+    @FunctionalInterface
+    private interface TokenSource {
+        List<Token> scanTokens() throws InterpreterException;
+    }
+
+    /**
+     * How running a whole script went: the exit code jlox uses for it, 0 or
+     * 65 (EX_DATAERR) if the script had errors, and those errors.
+     */
+    record ScriptOutcome(int exitCode, List<InterpreterIssue> errors) {
+        static final ScriptOutcome SUCCEEDED = new ScriptOutcome(0, Collections.emptyList());
+    }
+
+    /**
+     * Runs a whole script, writing what it prints and any errors to
+     * {@code output}, and returns the exit code jlox uses for the result (see
+     * {@link ScriptOutcome}). The script's imports are relative to
+     * {@code directory}, which should be the one it came from.
+     */
+    static int runScript(final String source, final Path directory, final PrintStream output,
+            final PreludeSnapshot prelude) {
+        return reported(output, executeScript(() -> scanTokens(source), directory, output, prelude));
+    }
+
+    /**
+     * Like {@link #runScript(String, Path, PrintStream, PreludeSnapshot)}, but
+     * reads the script from a file (see {@link #executeScript(Path,
+     * PrintStream, PreludeSnapshot)}).
+     */
+    static int runScript(final Path script, final PrintStream output, final PreludeSnapshot prelude)
+            throws IOException {
+        return reported(output, executeScript(script, output, prelude));
+    }
+
+    /**
+     * Runs a whole script from a file, writing what it prints to
+     * {@code output}, and returns how it went without reporting any errors.
+     * Big files are scanned without reading them into memory, as long as the
+     * platform's charset is UTF-8 or plain ASCII (in which case anything
+     * outside of ASCII was most likely meant as UTF-8 anyway). The script's
+     * imports are relative to its own directory. This is what both running a
+     * single script and {@link BatchRunner} come down to.
+     */
+    static ScriptOutcome executeScript(final Path script, final PrintStream output, final PreludeSnapshot prelude)
+            throws IOException {
+        final Charset charset = Charset.defaultCharset();
+        final Path directory = script.toAbsolutePath().getParent();
+        if (Files.size(script) < MAPPED_SCAN_THRESHOLD
+                || !(charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII))) {
+            final String source = new String(Files.readAllBytes(script), charset);
+            return executeScript(() -> scanTokens(source), directory, output, prelude);
+        }
+        final MappedScanner scanner = new MappedScanner(script);
+        return executeScript(scanner::scanTokens, directory, output, prelude);
+    }
+
+    private static ScriptOutcome executeScript(final TokenSource tokens, final Path directory,
+            final PrintStream output, final PreludeSnapshot prelude) {
+        Interpreter interpreter = null;
+        try {
+            final List<Statement> statements = getExecutableStatements(tokens.scanTokens());
+            interpreter = new Interpreter(output, prelude);
+            interpreter.setModuleDirectory(directory);
+            for (final Statement statement : statements) {
+                interpreter.execute(statement);
+            }
+            return ScriptOutcome.SUCCEEDED;
+        } catch (final InterpreterException e) {
+            if (InterpreterException.isCapturingStackTraces()) {
+                e.printStackTrace();
+            }
+            return new ScriptOutcome(65, e.getErrors()); // EX_DATAERR
+        } catch (final Return returnStatement) {
+            final List<InterpreterIssue> errors = Collections
+                    .singletonList(new InterpreterIssue.ReturnOutsideFunction(returnStatement.getToken()));
+            return new ScriptOutcome(65, errors); // EX_DATAERR
+        } finally {
+            if (interpreter != null) {
+                interpreter.closeFiles();
+            }
+        }
+    }
+
+    /**
+     * Writes the outcome's errors, if any, to {@code output} and returns its
+     * exit code.
+     */
+    private static int reported(final PrintStream output, final ScriptOutcome outcome) {
+        if (!outcome.errors().isEmpty()) {
+            reportError(output, outcome.errors());
+        }
+        return outcome.exitCode();
+    }
+
+    private static void reportError(final InterpreterException exception) {
+        reportError(System.out, exception);
     }
 
     private static void reportError(final List<InterpreterIssue> errors) {
-        System.out.println("The following errors occurred:");
+        reportError(System.out, errors);
+    }
+
+    private static void reportError(final PrintStream output, final InterpreterException exception) {
+        reportError(output, exception.getErrors());
+        if (InterpreterException.isCapturingStackTraces()) {
+            exception.printStackTrace();
+        }
+    }
+
+    private static void reportError(final PrintStream output, final List<InterpreterIssue> errors) {
+        output.println("The following errors occurred:");
         for (final InterpreterIssue error : errors) {
-            System.out.println(error);
+            output.println(error);
         }
     }
 }
\ No newline at end of file
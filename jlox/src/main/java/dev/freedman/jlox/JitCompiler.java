@@ -0,0 +1,416 @@
+package dev.freedman.jlox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Translates the body of a hot Lox function into JVM bytecode, so HotSpot can
+ * optimize the Lox code itself rather than the interpreter running it.
+ * <p>
+ * The generated class extends {@link CompiledFunction} and is loaded as a
+ * hidden class, which means it can be unloaded again once nothing uses it.
+ * Parameters and local variables live in JVM locals; every other name is
+ * looked up through the function's closure exactly like the interpreter
+ * would. Operators, calls and assertions call back into the same code the
+ * interpreter uses, so values and errors come out identical. Calls go through
+ * invokedynamic, with a {@link LoxCallSite} caching each site's callees.
+ * </p>
+ * <p>
+ * Functions that declare nested functions (closures need real environments
+ * to capture) or that would redeclare a variable at runtime aren't handled
+ * yet. For those, {@link #compile} returns {@code null} and the function just
+ * keeps running in the interpreter.
+ * </p>
+ */
+final class JitCompiler {
+    private static final String INTERPRETER = Type.getInternalName(Interpreter.class);
+    private static final String ENVIRONMENT = Type.getInternalName(Environment.class);
+    private static final String COMPILED_FUNCTION = Type.getInternalName(CompiledFunction.class);
+    private static final String OBJECT = Type.getInternalName(Object.class);
+    private static final String OBJECT_DESCRIPTOR = Type.getDescriptor(Object.class);
+    private static final String CALL_DESCRIPTOR = Type.getDescriptor(Expression.Call.class);
+    private static final Handle CALL_SITE_BOOTSTRAP = new Handle(Opcodes.H_INVOKESTATIC,
+            Type.getInternalName(LoxCallSite.class), "bootstrap", LoxCallSite.BOOTSTRAP_DESCRIPTOR, false);
+
+    // fixed local variable slots of every generated method
+    private static final int THIS_SLOT = 0;
+    private static final int INTERPRETER_SLOT = 1;
+    private static final int CLOSURE_SLOT = 2;
+    private static final int FIRST_ARGUMENT_SLOT = 3;
+
+    private final Statement.Function declaration;
+    private final List<Object> constants;
+    private final Map<Object, Integer> constantIndexes;
+    private final ArrayDeque<Map<String, Integer>> scopes;
+    private MethodVisitor method;
+    private int nextSlot;
+
+    private JitCompiler(final Statement.Function declaration) {
+        this.declaration = declaration;
+        this.constants = new ArrayList<>();
+        this.constantIndexes = new IdentityHashMap<>();
+        this.scopes = new ArrayDeque<>();
+    }
+
+    /**
+     * Compiles the given function, or returns {@code null} if it uses
+     * something the compiler can't handle yet.
+     */
+    static CompiledFunction compile(final Statement.Function declaration) {
+        try {
+            declaration.body().get();
+        } catch (final InterpreterException e) {
+            // the interpreter reports these when it falls back to the body
+            return null;
+        }
+        final JitCompiler compiler = new JitCompiler(declaration);
+        try {
+            final byte[] classFile = compiler.generateClass();
+            final MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+            return (CompiledFunction) lookup
+                    .findConstructor(lookup.lookupClass(), MethodType.methodType(void.class, Object[].class))
+                    .invoke(compiler.constants.toArray());
+        } catch (final UnsupportedFeature e) {
+            return null;
+        } catch (final Throwable e) {
+            // generated code that won't load is a bug in here, but the
+            // interpreter can still run the function correctly
+            if (InterpreterException.isCapturingStackTraces()) {
+                e.printStackTrace();
+            }
+            return null;
+        }
+    }
+
+    private byte[] generateClass() {
+        final ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS) {
+            @Override
+            protected String getCommonSuperClass(final String type1, final String type2) {
+                // every Lox value is handled as a plain Object, so that's always
+                // a good enough answer (and it avoids loading classes)
+                return OBJECT;
+            }
+        };
+        final String className = Type.getInternalName(JitCompiler.class) + "$" + declaration.name().lexeme();
+        classWriter.visit(Opcodes.V17, Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, className, null, COMPILED_FUNCTION,
+                null);
+
+        final MethodVisitor constructor = classWriter.visitMethod(0, "<init>", "([Ljava/lang/Object;)V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitVarInsn(Opcodes.ALOAD, 1);
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, COMPILED_FUNCTION, "<init>", "([Ljava/lang/Object;)V",
+                false);
+        constructor.visitInsn(Opcodes.RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        final List<Token.Identifier> parameters = declaration.parameters();
+        final boolean usesArgumentArray = parameters.size() > 3;
+        final StringBuilder descriptor = new StringBuilder("(L" + INTERPRETER + ";L" + ENVIRONMENT + ";");
+        if (usesArgumentArray) {
+            descriptor.append("[").append(OBJECT_DESCRIPTOR);
+        } else {
+            descriptor.append(OBJECT_DESCRIPTOR.repeat(parameters.size()));
+        }
+        descriptor.append(")").append(OBJECT_DESCRIPTOR);
+        method = classWriter.visitMethod(0, usesArgumentArray ? "invoke" : "invoke" + parameters.size(),
+                descriptor.toString(), null, null);
+        method.visitCode();
+
+        // parameters share a scope with the top level of the body, just like
+        // they share an environment in the interpreter
+        scopes.push(new HashMap<>());
+        if (usesArgumentArray) {
+            nextSlot = FIRST_ARGUMENT_SLOT + 1;
+            for (int i = 0; i < parameters.size(); ++i) {
+                method.visitVarInsn(Opcodes.ALOAD, FIRST_ARGUMENT_SLOT);
+                pushInt(i);
+                method.visitInsn(Opcodes.AALOAD);
+                method.visitVarInsn(Opcodes.ASTORE, declare(parameters.get(i)));
+            }
+        } else {
+            nextSlot = FIRST_ARGUMENT_SLOT;
+            for (final Token.Identifier parameter : parameters) {
+                declare(parameter);
+            }
+        }
+        for (final Statement statement : declaration.body().parsed().statements()) {
+            compileStatement(statement);
+        }
+        scopes.pop();
+        // falling off the end of a function returns nil
+        method.visitInsn(Opcodes.ACONST_NULL);
+        method.visitInsn(Opcodes.ARETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+
+    private void compileStatement(final Statement statement) {
+        if (Objects.isNull(statement)) {
+            // the for loop desugaring leaves a hole where a missing initializer goes
+            return;
+        }
+        if (statement instanceof Statement.Print printStatement) {
+            method.visitVarInsn(Opcodes.ALOAD, INTERPRETER_SLOT);
+            compileExpression(printStatement.expression());
+            method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, INTERPRETER, "print", "(" + OBJECT_DESCRIPTOR + ")V",
+                    false);
+        } else if (statement instanceof Statement.ExpressionStatement expressionStatement) {
+            compileExpression(expressionStatement.expression());
+            method.visitInsn(Opcodes.POP);
+        } else if (statement instanceof Statement.VariableDeclaration variableDeclaration) {
+            // evaluate first so the initializer still sees any outer variable
+            // with the same name
+            if (Objects.nonNull(variableDeclaration.expression())) {
+                compileExpression(variableDeclaration.expression());
+            } else {
+                method.visitInsn(Opcodes.ACONST_NULL);
+            }
+            method.visitVarInsn(Opcodes.ASTORE, declare(variableDeclaration.identifier()));
+        } else if (statement instanceof Statement.Block block) {
+            scopes.push(new HashMap<>());
+            for (final Statement nestedStatement : block.statements()) {
+                compileStatement(nestedStatement);
+            }
+            scopes.pop();
+        } else if (statement instanceof Statement.If ifStatement) {
+            final Label elseBranch = new Label();
+            final Label end = new Label();
+            compileCondition(ifStatement.condition());
+            method.visitJumpInsn(Opcodes.IFEQ, elseBranch);
+            compileStatement(ifStatement.thenBranch());
+            method.visitJumpInsn(Opcodes.GOTO, end);
+            method.visitLabel(elseBranch);
+            compileStatement(ifStatement.elseBranch());
+            method.visitLabel(end);
+        } else if (statement instanceof Statement.WhileLoop whileLoop) {
+            final Label condition = new Label();
+            final Label end = new Label();
+            method.visitLabel(condition);
+            compileCondition(whileLoop.condition());
+            method.visitJumpInsn(Opcodes.IFEQ, end);
+            compileStatement(whileLoop.body());
+            method.visitJumpInsn(Opcodes.GOTO, condition);
+            method.visitLabel(end);
+        } else if (statement instanceof Statement.Return returnStatement) {
+            if (Objects.nonNull(returnStatement.value())) {
+                compileExpression(returnStatement.value());
+            } else {
+                method.visitInsn(Opcodes.ACONST_NULL);
+            }
+            method.visitInsn(Opcodes.ARETURN);
+        } else if (statement instanceof Statement.Assert assertStatement) {
+            compileExpression(assertStatement.expression());
+            pushConstant(assertStatement, Statement.Assert.class);
+            method.visitMethodInsn(Opcodes.INVOKESTATIC, COMPILED_FUNCTION, "checkAssertion",
+                    "(" + OBJECT_DESCRIPTOR + Type.getDescriptor(Statement.Assert.class) + ")V", false);
+        } else {
+            throw new UnsupportedFeature();
+        }
+    }
+
+    private void compileExpression(final Expression expression) {
+        if (expression instanceof Expression.Literal literalExpression) {
+            final Token.Literal literal = literalExpression.value();
+            if (literal instanceof Token.Nil) {
+                method.visitInsn(Opcodes.ACONST_NULL);
+            } else if (literal instanceof Token.Number number) {
+                // box once up front rather than on every evaluation
+                pushConstant(number.value(), Double.class);
+            } else if (literal instanceof Token.StringLiteral string) {
+                method.visitLdcInsn(string.value());
+            } else if (literal instanceof Token.True) {
+                method.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/Boolean", "TRUE", "Ljava/lang/Boolean;");
+            } else if (literal instanceof Token.False) {
+                method.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/Boolean", "FALSE", "Ljava/lang/Boolean;");
+            }
+        } else if (expression instanceof Expression.Grouping grouping) {
+            compileExpression(grouping.expression());
+        } else if (expression instanceof Expression.Unary unary) {
+            pushConstant(unary.operator(), Token.UnaryOperator.class);
+            compileExpression(unary.right());
+            method.visitMethodInsn(Opcodes.INVOKEINTERFACE, Type.getInternalName(Token.UnaryOperator.class),
+                    "evaluateUnaryOperation", "(" + OBJECT_DESCRIPTOR + ")" + OBJECT_DESCRIPTOR, true);
+        } else if (expression instanceof Expression.Binary binary) {
+            // each of these call sites only ever sees one operator, so HotSpot
+            // can inline straight through the interface call
+            pushConstant(binary.operator(), Token.BinaryOperator.class);
+            compileExpression(binary.left());
+            compileExpression(binary.right());
+            method.visitMethodInsn(Opcodes.INVOKEINTERFACE, Type.getInternalName(Token.BinaryOperator.class),
+                    "evaluateBinaryOperation", "(" + OBJECT_DESCRIPTOR + OBJECT_DESCRIPTOR + ")" + OBJECT_DESCRIPTOR,
+                    true);
+            if (binary.operator() instanceof Token.Plus) {
+                // strings made by compiled code count against the memory
+                // limit too: interpreter.allocated(result, line)
+                method.visitVarInsn(Opcodes.ALOAD, INTERPRETER_SLOT);
+                method.visitInsn(Opcodes.SWAP);
+                pushInt(binary.operator().line());
+                method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, INTERPRETER, "allocated",
+                        "(" + OBJECT_DESCRIPTOR + "I)" + OBJECT_DESCRIPTOR, false);
+            }
+        } else if (expression instanceof Expression.Variable variable) {
+            final Integer slot = resolve(variable.identifier());
+            if (Objects.nonNull(slot)) {
+                method.visitVarInsn(Opcodes.ALOAD, slot);
+            } else {
+                method.visitVarInsn(Opcodes.ALOAD, CLOSURE_SLOT);
+                pushConstant(variable.identifier(), Token.Identifier.class);
+                method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, ENVIRONMENT, "retrieve",
+                        "(" + Type.getDescriptor(Token.Identifier.class) + ")" + OBJECT_DESCRIPTOR, false);
+            }
+        } else if (expression instanceof Expression.Assignment assignment) {
+            final Integer slot = resolve(assignment.identifier());
+            if (Objects.nonNull(slot)) {
+                compileExpression(assignment.assignee());
+                method.visitInsn(Opcodes.DUP);
+                method.visitVarInsn(Opcodes.ASTORE, slot);
+            } else {
+                method.visitVarInsn(Opcodes.ALOAD, CLOSURE_SLOT);
+                pushConstant(assignment.identifier(), Token.Identifier.class);
+                compileExpression(assignment.assignee());
+                method.visitMethodInsn(Opcodes.INVOKESTATIC, COMPILED_FUNCTION, "assign", "(L" + ENVIRONMENT + ";"
+                        + Type.getDescriptor(Token.Identifier.class) + OBJECT_DESCRIPTOR + ")" + OBJECT_DESCRIPTOR,
+                        false);
+            }
+        } else if (expression instanceof Expression.Logical logical) {
+            final int leftSlot = nextSlot++;
+            final Label end = new Label();
+            compileExpression(logical.left());
+            method.visitVarInsn(Opcodes.ASTORE, leftSlot);
+            method.visitVarInsn(Opcodes.ALOAD, leftSlot);
+            method.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Token.class), "isTruthy",
+                    "(" + OBJECT_DESCRIPTOR + ")Z", true);
+            final Label shortCircuit = new Label();
+            // "and" stops at the first falsy value, "or" at the first truthy one
+            method.visitJumpInsn(logical.operator() instanceof Token.And ? Opcodes.IFEQ : Opcodes.IFNE, shortCircuit);
+            compileExpression(logical.right());
+            method.visitJumpInsn(Opcodes.GOTO, end);
+            method.visitLabel(shortCircuit);
+            method.visitVarInsn(Opcodes.ALOAD, leftSlot);
+            method.visitLabel(end);
+        } else if (expression instanceof Expression.Call call) {
+            // every call gets its own invokedynamic site, which caches the
+            // callees it has seen (see LoxCallSite)
+            method.visitVarInsn(Opcodes.ALOAD, INTERPRETER_SLOT);
+            compileExpression(call.callee());
+            final List<Expression> arguments = call.arguments();
+            final String argumentsDescriptor;
+            if (arguments.size() <= 3) {
+                for (final Expression argument : arguments) {
+                    compileExpression(argument);
+                }
+                argumentsDescriptor = OBJECT_DESCRIPTOR.repeat(arguments.size());
+            } else {
+                pushInt(arguments.size());
+                method.visitTypeInsn(Opcodes.ANEWARRAY, OBJECT);
+                for (int i = 0; i < arguments.size(); ++i) {
+                    method.visitInsn(Opcodes.DUP);
+                    pushInt(i);
+                    compileExpression(arguments.get(i));
+                    method.visitInsn(Opcodes.AASTORE);
+                }
+                argumentsDescriptor = "[" + OBJECT_DESCRIPTOR;
+            }
+            pushConstant(call, Expression.Call.class);
+            method.visitInvokeDynamicInsn("call" + arguments.size(),
+                    "(L" + INTERPRETER + ";" + OBJECT_DESCRIPTOR + argumentsDescriptor + CALL_DESCRIPTOR + ")"
+                            + OBJECT_DESCRIPTOR,
+                    CALL_SITE_BOOTSTRAP);
+        } else if (expression instanceof Expression.DirectCall directCall) {
+            // a warmed up invokedynamic site already calls the function
+            // directly, and it doesn't need a fallback if the name changes
+            compileExpression(directCall.call());
+        } else if (expression instanceof Expression.InlinedCall inlinedCall) {
+            // HotSpot does its own inlining through the call site
+            compileExpression(inlinedCall.call());
+        } else {
+            throw new UnsupportedFeature();
+        }
+    }
+
+    /**
+     * Leaves the truthiness of the condition on the stack as an int.
+     */
+    private void compileCondition(final Expression condition) {
+        compileExpression(condition);
+        method.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Token.class), "isTruthy",
+                "(" + OBJECT_DESCRIPTOR + ")Z", true);
+    }
+
+    private int declare(final Token.Identifier identifier) {
+        final Map<String, Integer> scope = scopes.peek();
+        if (scope.containsKey(identifier.lexeme())) {
+            // this is a runtime error in the interpreter. leave it to the
+            // interpreter to report it at the right moment
+            throw new UnsupportedFeature();
+        }
+        final int slot = nextSlot++;
+        scope.put(identifier.lexeme(), slot);
+        return slot;
+    }
+
+    private Integer resolve(final Token.Identifier identifier) {
+        for (final Map<String, Integer> scope : scopes) {
+            final Integer slot = scope.get(identifier.lexeme());
+            if (Objects.nonNull(slot)) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    private void pushConstant(final Object constant, final Class<?> type) {
+        final Integer index = constantIndexes.computeIfAbsent(constant, (key) -> {
+            constants.add(key);
+            return constants.size() - 1;
+        });
+        method.visitVarInsn(Opcodes.ALOAD, THIS_SLOT);
+        method.visitFieldInsn(Opcodes.GETFIELD, COMPILED_FUNCTION, "constants", "[" + OBJECT_DESCRIPTOR);
+        pushInt(index);
+        method.visitInsn(Opcodes.AALOAD);
+        method.visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(type));
+    }
+
+    private void pushInt(final int value) {
+        if (value >= -1 && value <= 5) {
+            method.visitInsn(Opcodes.ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            method.visitIntInsn(Opcodes.BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            method.visitIntInsn(Opcodes.SIPUSH, value);
+        } else {
+            method.visitLdcInsn(value);
+        }
+    }
+
+    /**
+     * Thrown while generating code for something the compiler doesn't support,
+     * which just means the function stays in the interpreter.
+     */
+    private static final class UnsupportedFeature extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedFeature() {
+            super(null, null, false, false);
+        }
+    }
+}
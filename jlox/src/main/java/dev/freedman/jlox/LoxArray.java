@@ -0,0 +1,284 @@
+package dev.freedman.jlox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Lox's array type. Lox code makes and uses arrays through natives like
+ * {@code array} and {@code arrayGet} (see {@link Natives}), which check their
+ * arguments before calling in here, so the methods of this class assume they
+ * get valid indexes.
+ * <p>
+ * Most arrays only ever hold numbers, so while that's true the elements are
+ * kept unboxed in a {@code double[]} and bulk operations like {@link #fill},
+ * {@link #sort} and {@link #sum} are plain loops over it. The first element
+ * that isn't a number moves everything over to an {@code Object[]}, which is
+ * where the array stays until {@link #fill} overwrites every element with a
+ * number again.
+ * </p>
+ * <p>
+ * Like functions, arrays are compared by identity: {@code a == b} only if
+ * they're the same array. An array is always truthy, even when it's empty.
+ * </p>
+ */
+public final class LoxArray {
+    private static final int MIN_CAPACITY = 8;
+    /**
+     * The biggest array that can be made, which leaves the JVM some room for
+     * the array header.
+     */
+    static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+    /**
+     * How deeply nested arrays and maps are printed before the rest is left
+     * out, so printing one can't run the Java stack out.
+     */
+    static final int MAX_PRINT_DEPTH = 500;
+
+    // exactly one of these is non-null
+    private double[] numbers;
+    private Object[] values;
+    private int size;
+
+    private LoxArray(final double[] numbers, final Object[] values, final int size) {
+        this.numbers = numbers;
+        this.values = values;
+        this.size = size;
+    }
+
+    /**
+     * Makes an array of {@code length} copies of {@code value}.
+     */
+    static LoxArray filled(final int length, final Object value) {
+        final int capacity = capacityFor(length);
+        if (value instanceof Double number) {
+            final double[] numbers = new double[capacity];
+            Arrays.fill(numbers, 0, length, number);
+            return new LoxArray(numbers, null, length);
+        }
+        final Object[] values = new Object[capacity];
+        Arrays.fill(values, 0, length, value);
+        return new LoxArray(null, values, length);
+    }
+
+    /**
+     * Makes an empty array with room for {@code capacity} elements, whose
+     * {@link #estimatedBytes()} is {@link #estimatedBytes(int)
+     * estimatedBytes(capacity)}.
+     */
+    static LoxArray withCapacity(final int capacity) {
+        return new LoxArray(new double[capacityFor(capacity)], null, 0);
+    }
+
+    public int length() {
+        return size;
+    }
+
+    /**
+     * Whether the elements are currently kept unboxed, i.e. the array holds
+     * nothing but numbers.
+     */
+    boolean isNumeric() {
+        return numbers != null;
+    }
+
+    /**
+     * A rough estimate of how much memory the array takes up, for {@link
+     * Interpreter#allocate}.
+     */
+    long estimatedBytes() {
+        return bytesFor(capacity());
+    }
+
+    /**
+     * What {@link #estimatedBytes()} will be for a new array of
+     * {@code length} elements, so it can be charged before anything is
+     * allocated.
+     */
+    static long estimatedBytes(final int length) {
+        return bytesFor(capacityFor(length));
+    }
+
+    /**
+     * How much {@link #estimatedBytes()} goes up by if {@link #push} is
+     * called next, which is nothing unless the array is full.
+     */
+    long pushBytes() {
+        final int capacity = capacity();
+        return size == capacity ? bytesFor(grownCapacity(capacity)) - bytesFor(capacity) : 0;
+    }
+
+    private int capacity() {
+        return numbers != null ? numbers.length : values.length;
+    }
+
+    private static int capacityFor(final int length) {
+        return Math.max(length, MIN_CAPACITY);
+    }
+
+    private static int grownCapacity(final int capacity) {
+        // grow by half, like ArrayList
+        return (int) Math.min(MAX_LENGTH, capacity + (capacity >> 1) + 1L);
+    }
+
+    private static long bytesFor(final int capacity) {
+        return 16 + 8L * capacity;
+    }
+
+    public Object get(final int index) {
+        return numbers != null ? (Object) numbers[index] : values[index];
+    }
+
+    public void set(final int index, final Object value) {
+        if (numbers != null) {
+            if (value instanceof Double number) {
+                numbers[index] = number;
+                return;
+            }
+            box();
+        }
+        values[index] = value;
+    }
+
+    public void push(final Object value) {
+        final int capacity = capacity();
+        if (size == capacity) {
+            final int newCapacity = grownCapacity(capacity);
+            if (numbers != null) {
+                numbers = Arrays.copyOf(numbers, newCapacity);
+            } else {
+                values = Arrays.copyOf(values, newCapacity);
+            }
+        }
+        ++size;
+        set(size - 1, value);
+    }
+
+    /**
+     * Returns a new array holding the elements from {@code from} up to, but
+     * not including, {@code to}.
+     */
+    public LoxArray slice(final int from, final int to) {
+        final int length = to - from;
+        final int capacity = capacityFor(length);
+        if (numbers != null) {
+            return new LoxArray(Arrays.copyOfRange(numbers, from, from + capacity), null, length);
+        }
+        final Object[] sliced = new Object[capacity];
+        System.arraycopy(values, from, sliced, 0, length);
+        return new LoxArray(null, sliced, length);
+    }
+
+    /**
+     * Overwrites every element with {@code value}. Filling with a number
+     * makes the array numeric again.
+     */
+    public void fill(final Object value) {
+        if (value instanceof Double number) {
+            if (numbers == null) {
+                numbers = new double[values.length];
+                values = null;
+            }
+            Arrays.fill(numbers, 0, size, number);
+        } else {
+            if (numbers != null) {
+                values = new Object[numbers.length];
+                numbers = null;
+            }
+            Arrays.fill(values, 0, size, value);
+        }
+    }
+
+    /**
+     * Sorts the array in place: numbers in ascending order, strings in
+     * lexicographic order. Anything else, or a mix of the two, can't be
+     * sorted.
+     */
+    public void sort() throws InterpreterException {
+        if (numbers != null) {
+            Arrays.sort(numbers, 0, size);
+            return;
+        }
+        final Class<?> type = size == 0 || values[0] == null ? null : values[0].getClass();
+        for (int i = 0; i < size; ++i) {
+            if (values[i] == null || values[i].getClass() != type
+                    || !(values[i] instanceof Double || values[i] instanceof String)) {
+                throw new InterpreterException(new InterpreterIssue.InvalidArgument("arraySort",
+                        "an array of only numbers or only strings", values[i]));
+            }
+        }
+        Arrays.sort(values, 0, size);
+    }
+
+    public double sum() throws InterpreterException {
+        double sum = 0;
+        if (numbers != null) {
+            for (int i = 0; i < size; ++i) {
+                sum += numbers[i];
+            }
+            return sum;
+        }
+        for (int i = 0; i < size; ++i) {
+            if (!(values[i] instanceof Double number)) {
+                throw new InterpreterException(
+                        new InterpreterIssue.InvalidArgument("arraySum", "an array of numbers", values[i]));
+            }
+            sum += number;
+        }
+        return sum;
+    }
+
+    /**
+     * Moves the elements over to an {@code Object[]} so non-numbers can be
+     * stored.
+     */
+    private void box() {
+        values = new Object[numbers.length];
+        for (int i = 0; i < size; ++i) {
+            values[i] = numbers[i];
+        }
+        numbers = null;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        appendValue(builder, this, Collections.newSetFromMap(new IdentityHashMap<>()));
+        return builder.toString();
+    }
+
+    /**
+     * Appends {@code value} the way {@code print} shows it. Arrays and maps
+     * already being printed further out, i.e. ones that end up holding
+     * themselves, are shown as {@code [...]} or {@code {...}} rather than
+     * printed forever, and so is anything nested deeper than
+     * {@link #MAX_PRINT_DEPTH}. Shared with {@link LoxMap#toString()}.
+     */
+    static void appendValue(final StringBuilder builder, final Object value, final Set<Object> enclosing) {
+        if (value instanceof LoxArray array) {
+            if (enclosing.size() >= MAX_PRINT_DEPTH || !enclosing.add(array)) {
+                builder.append("[...]");
+                return;
+            }
+            builder.append('[');
+            for (int i = 0; i < array.size; ++i) {
+                if (i > 0) {
+                    builder.append(", ");
+                }
+                appendValue(builder, array.get(i), enclosing);
+            }
+            builder.append(']');
+            enclosing.remove(array);
+        } else if (value instanceof LoxMap map) {
+            if (enclosing.size() >= MAX_PRINT_DEPTH || !enclosing.add(map)) {
+                builder.append("{...}");
+                return;
+            }
+            map.appendEntries(builder, enclosing);
+            enclosing.remove(map);
+        } else {
+            builder.append(value);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package dev.freedman.jlox;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+
+/**
+ * The invokedynamic call site behind every call expression in code generated
+ * by {@link JitCompiler}. It's the bytecode counterpart of {@link InlineCache}:
+ * each call it sees with a new callee shape (see {@link InlineCache#shapeOf})
+ * gets checked once, and then a guard for that shape is chained in front of
+ * the current target that jumps straight into the callee. Since these are
+ * plain method handles, HotSpot can inline the guard and the call into the
+ * compiled Lox function.
+ * <p>
+ * After {@link InlineCache#MAX_ENTRIES} shapes the site stops adding guards
+ * and every other callee goes through the (still correct) slow path.
+ * </p>
+ * <p>
+ * The site's type is {@code (Interpreter, Object callee, arguments...,
+ * Expression.Call)Object}, where calls with more than three arguments pass
+ * them as a single {@code Object[]}. The call expression is only there to
+ * report errors. The number of arguments is encoded in the method name, e.g.
+ * {@code call2}.
+ * </p>
+ */
+final class LoxCallSite extends MutableCallSite {
+    static final String BOOTSTRAP_DESCRIPTOR = MethodType.methodType(CallSite.class, MethodHandles.Lookup.class,
+            String.class, MethodType.class).toMethodDescriptorString();
+
+    private static final MethodHandle SLOW_PATH;
+    private static final MethodHandle HAS_SHAPE;
+    private static final MethodHandle[] FIXED_ARITY_INVOKERS;
+    private static final MethodHandle ARRAY_INVOKER;
+    private static final MethodHandle CALLED_FROM;
+
+    static {
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            SLOW_PATH = lookup.findVirtual(LoxCallSite.class, "slowPath",
+                    MethodType.methodType(Object.class, Object[].class));
+            HAS_SHAPE = lookup.findStatic(LoxCallSite.class, "hasShape",
+                    MethodType.methodType(boolean.class, Object.class, Object.class));
+            FIXED_ARITY_INVOKERS = new MethodHandle[4];
+            for (int i = 0; i < FIXED_ARITY_INVOKERS.length; ++i) {
+                final MethodType type = MethodType.genericMethodType(i).insertParameterTypes(0, Interpreter.class);
+                FIXED_ARITY_INVOKERS[i] = lookup.findVirtual(LoxCallable.class, "call" + i, type);
+            }
+            ARRAY_INVOKER = lookup.findVirtual(LoxCallable.class, "call",
+                    MethodType.methodType(Object.class, Interpreter.class, Object[].class));
+            CALLED_FROM = lookup.findStatic(LoxCallSite.class, "calledFrom",
+                    MethodType.methodType(Object.class, InterpreterException.class, Expression.Call.class));
+        } catch (final ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final int numberOfArguments;
+    private int entries;
+
+    private LoxCallSite(final MethodType type, final int numberOfArguments) {
+        super(type);
+        this.numberOfArguments = numberOfArguments;
+        setTarget(SLOW_PATH.bindTo(this).asCollector(Object[].class, type.parameterCount()).asType(type));
+    }
+
+    static CallSite bootstrap(final MethodHandles.Lookup lookup, final String name, final MethodType type) {
+        return new LoxCallSite(type, Integer.parseInt(name.substring("call".length())));
+    }
+
+    private Object slowPath(final Object[] siteArguments) throws InterpreterException {
+        final Interpreter interpreter = (Interpreter) siteArguments[0];
+        final Object callee = siteArguments[1];
+        final Expression.Call call = (Expression.Call) siteArguments[siteArguments.length - 1];
+        // throws if the call isn't valid, in which case nothing gets cached
+        final LoxCallable callable = Interpreter.checkCallable(callee, numberOfArguments, call);
+        if (entries < InlineCache.MAX_ENTRIES) {
+            entries++;
+            setTarget(MethodHandles.guardWithTest(
+                    MethodHandles.dropArguments(HAS_SHAPE.bindTo(InlineCache.shapeOf(callee)), 0, Interpreter.class),
+                    directInvoker(callable instanceof NativeFunction),
+                    getTarget()));
+        }
+        try {
+            return switch (numberOfArguments) {
+                case 0 -> callable.call0(interpreter);
+                case 1 -> callable.call1(interpreter, siteArguments[2]);
+                case 2 -> callable.call2(interpreter, siteArguments[2], siteArguments[3]);
+                case 3 -> callable.call3(interpreter, siteArguments[2], siteArguments[3], siteArguments[4]);
+                default -> callable.call(interpreter, (Object[]) siteArguments[2]);
+            };
+        } catch (final InterpreterException e) {
+            throw Interpreter.calledFrom(e, call.closingParen().line());
+        }
+    }
+
+    /**
+     * Builds a handle of this site's type that calls the callee without any
+     * checks, for use behind a guard that already established its shape.
+     * Calls to natives also fill in the call's line on the memory limit
+     * errors they throw (see {@link Interpreter#calledFrom}).
+     */
+    private MethodHandle directInvoker(final boolean callsNative) {
+        final MethodType type = type();
+        final MethodHandle invoker = numberOfArguments < FIXED_ARITY_INVOKERS.length
+                ? FIXED_ARITY_INVOKERS[numberOfArguments]
+                : ARRAY_INVOKER;
+        // the invoker takes (LoxCallable, Interpreter, arguments...). drop the
+        // call expression off the end and swap the first two parameters
+        final MethodHandle withCall = MethodHandles.dropArguments(
+                invoker.asType(invoker.type().changeParameterType(0, Object.class)),
+                invoker.type().parameterCount(), Expression.Call.class);
+        final int[] reorder = new int[withCall.type().parameterCount()];
+        for (int i = 0; i < reorder.length; ++i) {
+            reorder[i] = i;
+        }
+        reorder[0] = 1;
+        reorder[1] = 0;
+        final MethodHandle invokeCallee = MethodHandles.permuteArguments(withCall, type, reorder);
+        if (!callsNative) {
+            return invokeCallee;
+        }
+        final MethodHandle handler = MethodHandles.dropArguments(CALLED_FROM, 1,
+                type.parameterList().subList(0, type.parameterCount() - 1));
+        return MethodHandles.catchException(invokeCallee, InterpreterException.class, handler);
+    }
+
+    private static Object calledFrom(final InterpreterException exception, final Expression.Call call)
+            throws InterpreterException {
+        throw Interpreter.calledFrom(exception, call.closingParen().line());
+    }
+
+    private static boolean hasShape(final Object shape, final Object callee) {
+        return InlineCache.shapeOf(callee) == shape;
+    }
+}
@@ -1,9 +1,39 @@
 package dev.freedman.jlox;
 
-import java.util.List;
-
+/**
+ * Anything that can be called from Lox code.
+ * <p>
+ * Calls with up to three arguments go through the fixed-arity entry points
+ * ({@link #call0} through {@link #call3}) so the interpreter never has to
+ * collect the arguments into a list or array. Everything else goes through
+ * the array-based {@link #call(Interpreter, Object[])}, which is also what the
+ * fixed-arity methods fall back to unless an implementation overrides them.
+ * The interpreter has already checked the argument count against
+ * {@link #arity()} before any of these are called.
+ * </p>
+ */
 public interface LoxCallable {
+    Object[] NO_ARGUMENTS = new Object[0];
+
     int arity();
 
-    Object call(Interpreter interpreter, List<Object> arguments) throws InterpreterException;
+    Object call(Interpreter interpreter, Object[] arguments) throws InterpreterException;
+
+    default Object call0(final Interpreter interpreter) throws InterpreterException {
+        return call(interpreter, NO_ARGUMENTS);
+    }
+
+    default Object call1(final Interpreter interpreter, final Object argument0) throws InterpreterException {
+        return call(interpreter, new Object[] { argument0 });
+    }
+
+    default Object call2(final Interpreter interpreter, final Object argument0, final Object argument1)
+            throws InterpreterException {
+        return call(interpreter, new Object[] { argument0, argument1 });
+    }
+
+    default Object call3(final Interpreter interpreter, final Object argument0, final Object argument1,
+            final Object argument2) throws InterpreterException {
+        return call(interpreter, new Object[] { argument0, argument1, argument2 });
+    }
 }
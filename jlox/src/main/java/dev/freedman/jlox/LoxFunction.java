@@ -5,29 +5,147 @@ import java.util.List;
 public class LoxFunction implements LoxCallable {
     private final Statement.Function functionDeclaration;
     private final Environment closure;
+    private final List<Token.Identifier> parameters;
+    // worked out on the first call, since the body may not be parsed before
+    private int frameSize = -1;
+    private boolean generator;
+    private final FunctionProfile profile;
 
     public LoxFunction(final Statement.Function functionDeclaration, final Environment closure) {
         this.functionDeclaration = functionDeclaration;
         this.closure = closure;
+        this.parameters = functionDeclaration.parameters();
+        this.profile = functionDeclaration.profile();
+    }
+
+    Statement.Function declaration() {
+        return functionDeclaration;
+    }
+
+    Environment closure() {
+        return closure;
     }
 
     @Override
     public int arity() {
-        return functionDeclaration.parameters().size();
+        return parameters.size();
+    }
+
+    // each entry point first checks whether the function has been compiled to
+    // bytecode (which may happen on this very call). otherwise, it binds the
+    // arguments into a fresh environment and interprets the body, unless the
+    // function is a generator (which the compiler never compiles), whose body
+    // only starts once something asks it for a value. the parser rejects
+    // duplicate parameter names, so the parameters can be bound without
+    // checking for redeclarations
+
+    @Override
+    public Object call0(final Interpreter interpreter) throws InterpreterException {
+        final CompiledFunction compiled = profile.recordCall(functionDeclaration, interpreter.getJitThreshold());
+        if (compiled != null) {
+            return compiled.invoke0(interpreter, closure);
+        }
+        if (isGenerator()) {
+            return new LoxGenerator(this, NO_ARGUMENTS);
+        }
+        return invoke(interpreter, new Environment(closure, frameSize()));
+    }
+
+    @Override
+    public Object call1(final Interpreter interpreter, final Object argument0) throws InterpreterException {
+        final CompiledFunction compiled = profile.recordCall(functionDeclaration, interpreter.getJitThreshold());
+        if (compiled != null) {
+            return compiled.invoke1(interpreter, closure, argument0);
+        }
+        if (isGenerator()) {
+            return new LoxGenerator(this, new Object[] { argument0 });
+        }
+        final Environment environment = new Environment(closure, frameSize());
+        environment.define(parameters.get(0), argument0);
+        return invoke(interpreter, environment);
+    }
+
+    @Override
+    public Object call2(final Interpreter interpreter, final Object argument0, final Object argument1)
+            throws InterpreterException {
+        final CompiledFunction compiled = profile.recordCall(functionDeclaration, interpreter.getJitThreshold());
+        if (compiled != null) {
+            return compiled.invoke2(interpreter, closure, argument0, argument1);
+        }
+        if (isGenerator()) {
+            return new LoxGenerator(this, new Object[] { argument0, argument1 });
+        }
+        final Environment environment = new Environment(closure, frameSize());
+        environment.define(parameters.get(0), argument0);
+        environment.define(parameters.get(1), argument1);
+        return invoke(interpreter, environment);
     }
 
     @Override
-    public Object call(final Interpreter interpreter, final List<Object> arguments) throws InterpreterException {
-        final Environment environment = new Environment(closure);
-        for (int i = 0; i < functionDeclaration.parameters().size(); ++i) {
-            final Token.Identifier parameter = functionDeclaration.parameters().get(i);
-            final Object argument = arguments.get(i);
-            environment.declare(parameter, argument);
+    public Object call3(final Interpreter interpreter, final Object argument0, final Object argument1,
+            final Object argument2) throws InterpreterException {
+        final CompiledFunction compiled = profile.recordCall(functionDeclaration, interpreter.getJitThreshold());
+        if (compiled != null) {
+            return compiled.invoke3(interpreter, closure, argument0, argument1, argument2);
+        }
+        if (isGenerator()) {
+            return new LoxGenerator(this, new Object[] { argument0, argument1, argument2 });
+        }
+        final Environment environment = new Environment(closure, frameSize());
+        environment.define(parameters.get(0), argument0);
+        environment.define(parameters.get(1), argument1);
+        environment.define(parameters.get(2), argument2);
+        return invoke(interpreter, environment);
+    }
+
+    @Override
+    public Object call(final Interpreter interpreter, final Object[] arguments) throws InterpreterException {
+        final CompiledFunction compiled = profile.recordCall(functionDeclaration, interpreter.getJitThreshold());
+        if (compiled != null) {
+            return compiled.invoke(interpreter, closure, arguments);
+        }
+        if (isGenerator()) {
+            return new LoxGenerator(this, arguments);
         }
+        final Environment environment = new Environment(closure, frameSize());
+        for (int i = 0; i < arguments.length; ++i) {
+            environment.define(parameters.get(i), arguments[i]);
+        }
+        return invoke(interpreter, environment);
+    }
+
+    /**
+     * Parses the body if this is the first call, which reports any syntax
+     * errors it has.
+     */
+    int frameSize() throws InterpreterException {
+        if (frameSize < 0) {
+            generator = functionDeclaration.body().isGenerator();
+            frameSize = parameters.size() + functionDeclaration.body().get().declarationCount();
+        }
+        return frameSize;
+    }
+
+    /**
+     * Whether calling this function makes a {@link LoxGenerator}. Parses the
+     * body if this is the first call, like {@link #frameSize()}.
+     */
+    boolean isGenerator() throws InterpreterException {
+        frameSize();
+        return generator;
+    }
+
+    private Object invoke(final Interpreter interpreter, final Environment environment) throws InterpreterException {
+        // the frame only counts against the memory limit while it's running,
+        // since closures never hold onto it
+        final long frameBytes = Interpreter.environmentBytes(frameSize);
+        interpreter.allocate(frameBytes, functionDeclaration.name().line());
         try {
-            interpreter.executeBlock(functionDeclaration.body(), environment);
+            interpreter.executeBlock(functionDeclaration.body().get(), environment);
         } catch (final Return returnValue) {
             return returnValue.getValue();
+        } finally {
+            interpreter.release(frameBytes);
         }
         return null;
     }
@@ -0,0 +1,136 @@
+package dev.freedman.jlox;
+
+/**
+ * What calling a generator function (one with a {@code yield} in its body)
+ * returns: the call, paused before the body's first statement. Scripts pull
+ * values out of it with the {@code generatorNext} and {@code generatorDone}
+ * natives (see {@link Natives}), each of which runs the body up to its next
+ * {@code yield} if it isn't already paused at one. The body ends the
+ * generator by returning or running off its end; whatever it returns is
+ * ignored.
+ * <p>
+ * The Java stack can't be put aside halfway through a call, so a generator's
+ * body runs on a {@link StackMachine} of its own, which keeps everything about
+ * the call on its own stacks and can stop after any step. Pausing just leaves
+ * the stacks as they are and puts back the scope (and inlined arguments) of
+ * whoever asked for the value, which keeps a round trip through a
+ * {@code yield} about as cheap as a few statements.
+ * </p>
+ * <p>
+ * An error in the body ends the generator and is reported by the native that
+ * resumed it. A generator can't resume itself, directly or not, while it's
+ * running.
+ * </p>
+ */
+public final class LoxGenerator {
+    /**
+     * How big, in bytes, a generator's stacks may get, unless overridden by
+     * the {@code jlox.generator.stackLimit} system property. An interpreter
+     * whose statements run on a {@link StackMachine} anyway gives generators
+     * the same limit as its own machine instead.
+     */
+    private static final long DEFAULT_STACK_LIMIT = Long.getLong("jlox.generator.stackLimit", 16 << 20);
+
+    private enum State {
+        NOT_STARTED,
+        PAUSED,
+        RUNNING,
+        DONE
+    }
+
+    private final LoxFunction function;
+    // only needed until the body starts
+    private Object[] arguments;
+    private StackMachine machine;
+    private State state = State.NOT_STARTED;
+    // the generator's scope and inlined arguments while it's paused
+    private Environment environment;
+    private Object[] inlinedArguments;
+    // a yielded value that nobody has taken yet
+    private boolean hasValue;
+    private Object value;
+
+    LoxGenerator(final LoxFunction function, final Object[] arguments) {
+        this.function = function;
+        this.arguments = arguments;
+    }
+
+    /**
+     * Whether the body has finished, running it up to its next {@code yield}
+     * first if that's needed to find out.
+     */
+    boolean isDone(final Interpreter interpreter) throws InterpreterException {
+        return isDone(interpreter, "generatorDone");
+    }
+
+    /**
+     * Takes the next value the body yields.
+     */
+    Object next(final Interpreter interpreter) throws InterpreterException {
+        if (isDone(interpreter, "generatorNext")) {
+            throw new InterpreterException(new InterpreterIssue.InvalidArgument("generatorNext",
+                    "a generator with values left", this));
+        }
+        final Object next = value;
+        hasValue = false;
+        value = null;
+        return next;
+    }
+
+    private boolean isDone(final Interpreter interpreter, final String functionName) throws InterpreterException {
+        if (!hasValue && state != State.DONE) {
+            resume(interpreter, functionName);
+        }
+        return !hasValue;
+    }
+
+    private void resume(final Interpreter interpreter, final String functionName) throws InterpreterException {
+        if (state == State.RUNNING) {
+            throw new InterpreterException(new InterpreterIssue.InvalidArgument(functionName,
+                    "a generator that isn't running", this));
+        }
+        final Environment callerEnvironment = interpreter.environment();
+        final Object[] callerInlinedArguments = interpreter.inlinedArguments();
+        try {
+            if (state == State.NOT_STARTED) {
+                final long limit = interpreter.getHeapStackLimit();
+                machine = new StackMachine(interpreter, limit > 0 ? limit : DEFAULT_STACK_LIMIT, true);
+                state = State.RUNNING;
+                machine.startCall(function, arguments);
+                arguments = null;
+            } else {
+                state = State.RUNNING;
+                interpreter.setEnvironment(environment);
+                interpreter.setInlinedArguments(inlinedArguments);
+            }
+            if (machine.run(Long.MAX_VALUE)) {
+                finish();
+            } else {
+                value = machine.takeYielded();
+                hasValue = true;
+                environment = interpreter.environment();
+                inlinedArguments = interpreter.inlinedArguments();
+                state = State.PAUSED;
+            }
+        } catch (final InterpreterException | RuntimeException e) {
+            finish();
+            throw e;
+        } finally {
+            interpreter.setEnvironment(callerEnvironment);
+            interpreter.setInlinedArguments(callerInlinedArguments);
+        }
+    }
+
+    private void finish() {
+        state = State.DONE;
+        machine = null;
+        arguments = null;
+        environment = null;
+        inlinedArguments = null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<generator %s>", function.declaration().name().lexeme());
+    }
+}
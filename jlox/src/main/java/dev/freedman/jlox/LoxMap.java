@@ -0,0 +1,382 @@
+package dev.freedman.jlox;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Lox's map type, made and used through natives like {@code map} and
+ * {@code mapGet} (see {@link Natives}). Keys are compared the way {@code ==}
+ * compares them, so numbers and strings by value and everything else by
+ * identity. {@code nil} can't be a key, since {@code mapGet} returns
+ * {@code nil} for missing keys.
+ * <p>
+ * The entries are kept in insertion order in a set of parallel arrays, and a
+ * separate open addressing table (with linear probing) maps hashes to entry
+ * indexes, the same layout CPython uses for its dicts. That keeps iteration in
+ * insertion order for free and keeps the table itself a compact
+ * {@code long[]}. Every slot holds the hash of its entry's key next to the
+ * entry's index, so probing only touches an entry once the hashes match, and
+ * growing the table never hashes anything again.
+ * Number keys are stored unboxed in their own {@code double[]}.
+ * </p>
+ * <p>
+ * Removing an entry only marks it as removed; its slot in the table keeps
+ * pointing at it so probes carry on past it. Dead entries are dropped the next
+ * time the table is rebuilt.
+ * </p>
+ */
+public final class LoxMap {
+    private static final int MIN_TABLE_SIZE = 8;
+    /**
+     * Marks an entry whose key is in {@link #numberKeys}.
+     */
+    private static final Object NUMBER_KEY = new Object();
+    private static final Object REMOVED = new Object();
+
+    // the key's hash in the high half and entry index + 1 in the low half
+    // for every used slot, 0 for empty ones. the length is a power of two, at
+    // most two thirds of which is ever used
+    private long[] table;
+    // only read when the table is rebuilt
+    private int[] hashes;
+    private Object[] keys;
+    private double[] numberKeys;
+    private Object[] values;
+    // entries handed out so far, removed ones included
+    private int entryCount;
+    private int size;
+
+    public LoxMap() {
+        allocate(MIN_TABLE_SIZE);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * A rough estimate of how much memory the map takes up, for {@link
+     * Interpreter#allocate}.
+     */
+    long estimatedBytes() {
+        return bytesFor(table.length);
+    }
+
+    /**
+     * How much {@link #estimatedBytes()} goes up by if {@code key} is put in
+     * next, which is nothing unless it's a new key and the entries are full.
+     */
+    long putBytes(final Object key) {
+        if (entryCount < keys.length || containsKey(key)) {
+            return 0;
+        }
+        return bytesFor(rebuiltTableSize()) - bytesFor(table.length);
+    }
+
+    private static long bytesFor(final int tableSize) {
+        // the table plus hash, key, number key and value per entry
+        return 32 + 8L * tableSize + 24L * entriesFor(tableSize);
+    }
+
+    // region Lookups
+
+    /**
+     * Returns the value stored under {@code key}, or {@code null} if there
+     * isn't one.
+     */
+    public Object get(final Object key) {
+        if (key instanceof Double number) {
+            return get(number.doubleValue());
+        }
+        final int entry = find(key);
+        return entry < 0 ? null : values[entry];
+    }
+
+    public Object get(final double key) {
+        final long bits = Double.doubleToLongBits(key);
+        final long used = table[probe(bits, hash(bits))];
+        return used == 0 ? null : values[(int) used - 1];
+    }
+
+    public boolean containsKey(final Object key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Returns the index of the entry for {@code key}, or -1 if there isn't
+     * one.
+     */
+    private int find(final Object key) {
+        if (key == null) {
+            // never stored
+            return -1;
+        }
+        final long used;
+        if (key instanceof Double number) {
+            final long bits = Double.doubleToLongBits(number);
+            used = table[probe(bits, hash(bits))];
+        } else {
+            used = table[probe(key, hash(key))];
+        }
+        return (int) used - 1;
+    }
+
+    /**
+     * Returns the slot of the entry for {@code key}, or the empty slot it
+     * would go in.
+     */
+    private int probe(final Object key, final int hash) {
+        final int mask = table.length - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            final long used = table[slot];
+            if (used == 0) {
+                return slot;
+            }
+            final int entry = (int) used - 1;
+            if ((int) (used >>> 32) == hash && (keys[entry] == key || key.equals(keys[entry]))) {
+                return slot;
+            }
+        }
+    }
+
+    private int probe(final long numberBits, final int hash) {
+        final int mask = table.length - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            final long used = table[slot];
+            if (used == 0) {
+                return slot;
+            }
+            final int entry = (int) used - 1;
+            if ((int) (used >>> 32) == hash && keys[entry] == NUMBER_KEY
+                    && Double.doubleToLongBits(numberKeys[entry]) == numberBits) {
+                return slot;
+            }
+        }
+    }
+    // endregion
+
+    // region Updates
+
+    public void put(final Object key, final Object value) {
+        Objects.requireNonNull(key);
+        if (key instanceof Double number) {
+            put(number.doubleValue(), value);
+            return;
+        }
+        final int hash = hash(key);
+        final int slot = probe(key, hash);
+        if (table[slot] != 0) {
+            values[(int) table[slot] - 1] = value;
+            return;
+        }
+        append(slot, hash, key, 0, value);
+    }
+
+    public void put(final double key, final Object value) {
+        final long bits = Double.doubleToLongBits(key);
+        final int hash = hash(bits);
+        final int slot = probe(bits, hash);
+        if (table[slot] != 0) {
+            values[(int) table[slot] - 1] = value;
+            return;
+        }
+        append(slot, hash, NUMBER_KEY, key, value);
+    }
+
+    /**
+     * Returns whether there was anything to remove.
+     */
+    public boolean remove(final Object key) {
+        final int entry = find(key);
+        if (entry < 0) {
+            return false;
+        }
+        keys[entry] = REMOVED;
+        values[entry] = null;
+        --size;
+        return true;
+    }
+
+    /**
+     * Adds a new entry, which goes in {@code slot} unless the table has to be
+     * rebuilt first.
+     */
+    private void append(final int slot, final int hash, final Object key, final double numberKey,
+            final Object value) {
+        int target = slot;
+        if (entryCount == keys.length) {
+            rebuild(rebuiltTableSize());
+            target = emptySlot(hash);
+        }
+        final int entry = entryCount++;
+        hashes[entry] = hash;
+        keys[entry] = key;
+        numberKeys[entry] = numberKey;
+        values[entry] = value;
+        ++size;
+        table[target] = (long) hash << 32 | (entry + 1);
+    }
+
+    private int emptySlot(final int hash) {
+        final int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void allocate(final int tableSize) {
+        table = new long[tableSize];
+        final int entries = entriesFor(tableSize);
+        hashes = new int[entries];
+        keys = new Object[entries];
+        numberKeys = new double[entries];
+        values = new Object[entries];
+    }
+
+    private static int entriesFor(final int tableSize) {
+        return tableSize / 3 * 2;
+    }
+
+    private int rebuiltTableSize() {
+        // only grow if the dead entries aren't worth reclaiming
+        return size >= entryCount / 2 ? table.length * 2 : table.length;
+    }
+
+    /**
+     * Moves the live entries, still in order, into fresh arrays and a fresh
+     * table of the given size.
+     */
+    private void rebuild(final int tableSize) {
+        final int[] oldHashes = hashes;
+        final Object[] oldKeys = keys;
+        final double[] oldNumberKeys = numberKeys;
+        final Object[] oldValues = values;
+        final int oldEntryCount = entryCount;
+        allocate(tableSize);
+        entryCount = 0;
+        size = 0;
+        for (int entry = 0; entry < oldEntryCount; ++entry) {
+            if (oldKeys[entry] != REMOVED) {
+                append(emptySlot(oldHashes[entry]), oldHashes[entry], oldKeys[entry], oldNumberKeys[entry],
+                        oldValues[entry]);
+            }
+        }
+    }
+    // endregion
+
+    // region Iteration
+
+    /**
+     * The keys, in the order they were first put in.
+     */
+    public LoxArray keys() {
+        final LoxArray array = LoxArray.withCapacity(size);
+        for (int entry = 0; entry < entryCount; ++entry) {
+            if (keys[entry] != REMOVED) {
+                array.push(key(entry));
+            }
+        }
+        return array;
+    }
+
+    /**
+     * The values, in the same order as {@link #keys()}.
+     */
+    public LoxArray values() {
+        final LoxArray array = LoxArray.withCapacity(size);
+        for (int entry = 0; entry < entryCount; ++entry) {
+            if (keys[entry] != REMOVED) {
+                array.push(values[entry]);
+            }
+        }
+        return array;
+    }
+
+    /**
+     * Calls {@code action} with every key and value, in insertion order.
+     */
+    void forEach(final BiConsumer<Object, Object> action) {
+        for (int entry = 0; entry < entryCount; ++entry) {
+            if (keys[entry] != REMOVED) {
+                action.accept(key(entry), values[entry]);
+            }
+        }
+    }
+
+    /**
+     * How many entries have been added, removed ones included. Walking them
+     * with {@link #keyAt} and {@link #valueAt} visits the map in insertion
+     * order, like {@link #forEach} but for callers that can fail.
+     */
+    int entryCount() {
+        return entryCount;
+    }
+
+    /**
+     * The key of {@code entry}, or {@code null} if it's been removed.
+     */
+    Object keyAt(final int entry) {
+        return keys[entry] == REMOVED ? null : key(entry);
+    }
+
+    Object valueAt(final int entry) {
+        return values[entry];
+    }
+
+    private Object key(final int entry) {
+        return keys[entry] == NUMBER_KEY ? (Object) numberKeys[entry] : keys[entry];
+    }
+    // endregion
+
+    private static int hash(final Object key) {
+        // strings cache their own hash codes
+        return spread(key.hashCode());
+    }
+
+    private static int hash(final long numberBits) {
+        return spread((int) (numberBits ^ (numberBits >>> 32)));
+    }
+
+    /**
+     * Mixes the high bits into the low ones, which are the only ones the
+     * table looks at. Whole numbers in particular only differ in their high
+     * bits.
+     */
+    private static int spread(final int hash) {
+        final int mixed = hash * 0x9E3779B9;
+        return mixed ^ (mixed >>> 16);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        LoxArray.appendValue(builder, this, Collections.newSetFromMap(new IdentityHashMap<>()));
+        return builder.toString();
+    }
+
+    /**
+     * Appends the entries in braces, for {@link LoxArray#appendValue}.
+     */
+    void appendEntries(final StringBuilder builder, final Set<Object> enclosing) {
+        builder.append('{');
+        boolean first = true;
+        for (int entry = 0; entry < entryCount; ++entry) {
+            if (keys[entry] == REMOVED) {
+                continue;
+            }
+            if (!first) {
+                builder.append(", ");
+            }
+            first = false;
+            LoxArray.appendValue(builder, key(entry), enclosing);
+            builder.append(": ");
+            LoxArray.appendValue(builder, values[entry], enclosing);
+        }
+        builder.append('}');
+    }
+}
@@ -0,0 +1,229 @@
+package dev.freedman.jlox;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A file being read a line at a time, made and used through natives like
+ * {@code fileReader} and {@code readerNext} (see {@link Natives}). Lines end
+ * at {@code \n} or {@code \r\n}, and the file is read as UTF-8.
+ * <p>
+ * Reading goes through a {@link FileChannel} into one buffer that's reused for
+ * the whole file, so a file of any size is read in the memory it takes to
+ * hold its longest line. Memory mapping was the other option, but it maps at
+ * most 2GB at a time and leaves the pages it touched charged to the process,
+ * which is the opposite of what streaming a huge file wants.
+ * </p>
+ * <p>
+ * Moving to the next line only finds where it ends: the line isn't turned
+ * into a string until {@link #line()} asks for it, so skipping lines costs
+ * next to nothing. The file is closed as soon as its last line has been read.
+ * </p>
+ */
+public final class LoxReader implements Closeable {
+    /**
+     * How many bytes are read at a time, unless overridden by the
+     * {@code jlox.reader.bufferBytes} system property. The buffer only grows
+     * past this for a longer line.
+     */
+    static final int BUFFER_BYTES = Integer.getInteger("jlox.reader.bufferBytes", 64 << 10);
+
+    private final String path;
+    // null once the file has been closed
+    private FileChannel channel;
+    private byte[] bytes;
+    private ByteBuffer buffer;
+    // bytes[position, limit) haven't been handed out as lines yet, and up to
+    // scanned of them are known to not be a \n
+    private int position;
+    private int limit;
+    private int scanned;
+    private boolean endOfFile;
+    // the current line is bytes[lineStart, lineEnd), or there isn't one if
+    // lineStart is -1
+    private int lineStart = -1;
+    private int lineEnd;
+    private String line;
+    // how many lines have been handed out so far
+    private long lineNumber;
+    // made the first time a record is decoded
+    private RecordDecoder decoder;
+
+    private LoxReader(final String path, final FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+        this.bytes = new byte[BUFFER_BYTES];
+        this.buffer = ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Opens {@code file}, which {@code path} is reported as.
+     */
+    static LoxReader open(final String path, final Path file) throws IOException {
+        return new LoxReader(path, FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    String path() {
+        return path;
+    }
+
+    /**
+     * Moves to the next line, returning {@code false} (and closing the file)
+     * if there aren't any left.
+     */
+    boolean next() throws IOException {
+        line = null;
+        while (true) {
+            final int newline = indexOfNewline();
+            if (newline >= 0) {
+                setLine(position, newline);
+                position = newline + 1;
+                scanned = position;
+                return true;
+            }
+            if (endOfFile) {
+                break;
+            }
+            fill();
+        }
+        if (position < limit) {
+            // the last line has no \n
+            setLine(position, limit);
+            position = limit;
+            return true;
+        }
+        lineStart = -1;
+        close();
+        return false;
+    }
+
+    /**
+     * The current line without its line ending, or {@code null} if
+     * {@link #next()} hasn't found one.
+     */
+    String line() {
+        if (line == null && lineStart >= 0) {
+            line = new String(bytes, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+        }
+        return line;
+    }
+
+    /**
+     * Whether {@link #line()} has already made a string of the current line,
+     * which it hands out again rather than making another.
+     */
+    boolean hasLineString() {
+        return line != null;
+    }
+
+    /**
+     * The buffer holding the current line. Only valid until the next call to
+     * {@link #next()}.
+     */
+    byte[] lineBytes() {
+        return bytes;
+    }
+
+    int lineStart() {
+        return lineStart;
+    }
+
+    int lineEnd() {
+        return lineEnd;
+    }
+
+    /**
+     * The current line's number, counting from 1.
+     */
+    long lineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * The decoder for records read from this file, which keeps its buffers
+     * and interned keys from one record to the next.
+     */
+    RecordDecoder decoder() {
+        if (decoder == null) {
+            decoder = new RecordDecoder();
+        }
+        return decoder;
+    }
+
+    boolean isClosed() {
+        return channel == null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        final FileChannel open = channel;
+        if (open != null) {
+            channel = null;
+            endOfFile = true;
+            // drop whatever was read but not handed out
+            position = limit;
+            lineStart = -1;
+            line = null;
+            open.close();
+        }
+    }
+
+    /**
+     * A rough estimate of how much memory the reader takes up, for {@link
+     * Interpreter#allocate}.
+     */
+    long estimatedBytes() {
+        return 64 + bytes.length;
+    }
+
+    private void setLine(final int start, final int end) {
+        ++lineNumber;
+        lineStart = start;
+        lineEnd = end > start && bytes[end - 1] == '\r' ? end - 1 : end;
+    }
+
+    private int indexOfNewline() {
+        for (int i = scanned; i < limit; ++i) {
+            if (bytes[i] == '\n') {
+                return i;
+            }
+        }
+        scanned = limit;
+        return -1;
+    }
+
+    /**
+     * Reads more of the file after whatever hasn't been handed out yet,
+     * making room for it first.
+     */
+    private void fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(bytes, position, bytes, 0, limit - position);
+            limit -= position;
+            scanned -= position;
+            position = 0;
+        } else if (limit == bytes.length) {
+            // one line fills the whole buffer
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            buffer = ByteBuffer.wrap(bytes);
+        }
+        buffer.limit(bytes.length).position(limit);
+        final int read = channel.read(buffer);
+        if (read < 0) {
+            endOfFile = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<reader %s>", path);
+    }
+}
@@ -0,0 +1,149 @@
+package dev.freedman.jlox;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file being written, made and used through natives like
+ * {@code fileWriter} and {@code writerWrite} (see {@link Natives}). Text is
+ * written as UTF-8.
+ * <p>
+ * Writes are collected in one buffer that's reused for the whole file and
+ * handed to a {@link FileChannel} whenever it fills up, so writing a line
+ * usually comes down to copying its characters. Text that's all ASCII, which
+ * is nearly all of it in practice, is copied a character at a time without
+ * encoding it into a byte array first. Whatever is still in the buffer is
+ * only written when the writer is closed, either by the script or, for
+ * writers it left open, by {@link Interpreter#closeFiles()} once it's done.
+ * </p>
+ */
+public final class LoxWriter implements Closeable {
+    /**
+     * How many bytes are collected before they're written, unless overridden
+     * by the {@code jlox.writer.bufferBytes} system property.
+     */
+    static final int BUFFER_BYTES = Integer.getInteger("jlox.writer.bufferBytes", 64 << 10);
+
+    private final String path;
+    // null once the file has been closed
+    private FileChannel channel;
+    private final byte[] bytes;
+    private final ByteBuffer buffer;
+    private int limit;
+    // made the first time a record is encoded
+    private RecordEncoder encoder;
+
+    private LoxWriter(final String path, final FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+        this.bytes = new byte[BUFFER_BYTES];
+        this.buffer = ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Opens {@code file}, which {@code path} is reported as, replacing
+     * whatever it had in it.
+     */
+    static LoxWriter open(final String path, final Path file) throws IOException {
+        return new LoxWriter(path, FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    String path() {
+        return path;
+    }
+
+    /**
+     * The encoder for records written to this file, which keeps its buffer
+     * from one record to the next.
+     */
+    RecordEncoder encoder() {
+        if (encoder == null) {
+            encoder = new RecordEncoder();
+        }
+        return encoder;
+    }
+
+    boolean isClosed() {
+        return channel == null;
+    }
+
+    void write(final String text) throws IOException {
+        final int length = text.length();
+        for (int i = 0; i < length; ++i) {
+            final char c = text.charAt(i);
+            if (c >= 0x80) {
+                final byte[] encoded = text.substring(i).getBytes(StandardCharsets.UTF_8);
+                write(encoded, 0, encoded.length);
+                return;
+            }
+            if (limit == bytes.length) {
+                flush();
+            }
+            bytes[limit++] = (byte) c;
+        }
+    }
+
+    void write(final byte b) throws IOException {
+        if (limit == bytes.length) {
+            flush();
+        }
+        bytes[limit++] = b;
+    }
+
+    void write(final byte[] source, final int offset, final int length) throws IOException {
+        if (length > bytes.length - limit) {
+            flush();
+            if (length > bytes.length) {
+                // not worth copying through the buffer
+                writeFully(ByteBuffer.wrap(source, offset, length));
+                return;
+            }
+        }
+        System.arraycopy(source, offset, bytes, limit, length);
+        limit += length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        final FileChannel open = channel;
+        if (open != null) {
+            try {
+                flush();
+            } finally {
+                channel = null;
+                open.close();
+            }
+        }
+    }
+
+    /**
+     * A rough estimate of how much memory the writer takes up, for {@link
+     * Interpreter#allocate}.
+     */
+    long estimatedBytes() {
+        return 64 + bytes.length;
+    }
+
+    private void flush() throws IOException {
+        buffer.limit(limit).position(0);
+        writeFully(buffer);
+        limit = 0;
+    }
+
+    private void writeFully(final ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<writer %s>", path);
+    }
+}
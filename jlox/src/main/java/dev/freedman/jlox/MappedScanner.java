@@ -0,0 +1,270 @@
+package dev.freedman.jlox;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link Scanner} for source files too big to comfortably read into a
+ * {@code String}. Instead of reading the file and decoding it, which takes
+ * twice the file's size on the heap before scanning even starts, it maps the
+ * file into memory and scans the UTF-8 bytes in place. Only the parts that
+ * end up in tokens get decoded: identifiers, numbers and the contents of
+ * string literals. For a well-formed UTF-8 file the tokens and issues are
+ * exactly the ones {@link Scanner} produces for the decoded file, line numbers
+ * included.
+ * <p>
+ * Lox's syntax outside of string literals and comments is all ASCII, and
+ * UTF-8 never uses ASCII bytes inside a multi-byte character, so the scanner
+ * can work a byte at a time and only has to decode a character to report it
+ * as invalid.
+ * </p>
+ * <p>
+ * Data-as-code scripts repeat the same names and numbers over and over, so
+ * their lexemes go through a small cache that hands back the string decoded
+ * last time for the same bytes, rather than each token holding its own copy.
+ * </p>
+ */
+public class MappedScanner {
+    /**
+     * A single mapping can't be bigger than 2GB, so bigger files are mapped
+     * in segments of this size.
+     */
+    private static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+    private static final int LEXEME_CACHE_SIZE = 4096;
+
+    private final MappedByteBuffer[] segments;
+    private final int segmentShift;
+    private final int segmentMask;
+    private final long length;
+    private final String[] lexemeCache = new String[LEXEME_CACHE_SIZE];
+    private final List<Token> tokens = new ArrayList<>();
+    private final List<InterpreterIssue> errors = new ArrayList<>();
+    private long start;
+    private long current;
+    private int line = 1;
+
+    public MappedScanner(final Path path) throws IOException {
+        this(path, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * {@code segmentSize} must be a power of two. Only tests use anything but
+     * the default, to get tokens that straddle two segments.
+     */
+    MappedScanner(final Path path, final int segmentSize) throws IOException {
+        segmentShift = Integer.numberOfTrailingZeros(segmentSize);
+        segmentMask = segmentSize - 1;
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            length = channel.size();
+            segments = new MappedByteBuffer[(int) ((length + segmentMask) >>> segmentShift)];
+            for (int i = 0; i < segments.length; ++i) {
+                final long offset = (long) i << segmentShift;
+                // the mapping stays valid after the channel is closed
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                        Math.min(segmentSize, length - offset));
+            }
+        }
+    }
+
+    public List<Token> scanTokens() throws InterpreterException {
+        while (!isAtEnd()) {
+            start = current;
+            final byte b = advance();
+            switch (b) {
+                case '/' -> {
+                    if (match('/')) {
+                        // comments are skipped without decoding them
+                        while (peek() != '\n' && !isAtEnd()) {
+                            advance();
+                        }
+                    } else {
+                        tokens.add(Scanner.singleCharacter('/', line));
+                    }
+                }
+                case ' ', '\r', '\t' -> {
+                    /* ignore whitespace */
+                }
+                case '\n' -> line++;
+                case '"' -> {
+                    while (peek() != '"' && !isAtEnd()) {
+                        if (peek() == '\n') {
+                            line++;
+                        }
+                        advance();
+                    }
+                    if (isAtEnd()) {
+                        errors.add(new InterpreterIssue.UnterminatedString(line));
+                    } else {
+                        advance();
+                        final String literalValue = decode(start + 1, current - 1);
+                        tokens.add(new Token.StringLiteral('"' + literalValue + '"', line, literalValue));
+                    }
+                }
+                default -> {
+                    if (isDigit(b)) {
+                        while (isDigit(peek())) {
+                            advance();
+                        }
+                        if (peek() == '.' && isDigit(peekNext())) {
+                            advance();
+                            while (isDigit(peek())) {
+                                advance();
+                            }
+                        }
+                        final String lexeme = lexeme();
+                        tokens.add(new Token.Number(lexeme, line, Double.parseDouble(lexeme)));
+                    } else if (isAlpha(b)) {
+                        while (isAlphaNumeric(peek())) {
+                            advance();
+                        }
+                        tokens.add(Scanner.keywordOrIdentifier(lexeme(), line));
+                    } else {
+                        // (char) keeps ASCII as it is and turns the bytes of other
+                        // characters into chars that aren't tokens
+                        final Token operator = peek() == '=' ? Scanner.withEqual((char) b, line) : null;
+                        final Token single = operator == null ? Scanner.singleCharacter((char) b, line) : null;
+                        if (operator != null) {
+                            // the =
+                            advance();
+                            tokens.add(operator);
+                        } else if (single != null) {
+                            tokens.add(single);
+                        } else {
+                            invalidCharacter(b);
+                        }
+                    }
+                }
+            }
+        }
+        tokens.add(new Token.EndOfFile(line));
+        if (!errors.isEmpty()) {
+            throw new InterpreterException(errors);
+        }
+        return tokens;
+    }
+
+    /**
+     * Reports the character starting with byte {@code b}, which the
+     * {@link Scanner} would have seen as one char, or two for characters
+     * outside the Basic Multilingual Plane.
+     */
+    private void invalidCharacter(final byte b) {
+        if (b >= 0) {
+            errors.add(new InterpreterIssue.InvalidCharacter((char) b, line));
+            return;
+        }
+        // a lead byte says how many continuation bytes follow
+        final int continuationBytes = (b & 0xE0) == 0xC0 ? 1
+                : (b & 0xF0) == 0xE0 ? 2
+                : (b & 0xF8) == 0xF0 ? 3
+                : 0;
+        for (int i = 0; i < continuationBytes; ++i) {
+            if (isAtEnd() || (peek() & 0xC0) != 0x80) {
+                break;
+            }
+            advance();
+        }
+        final String decoded = decode(start, current);
+        for (int i = 0; i < decoded.length(); ++i) {
+            errors.add(new InterpreterIssue.InvalidCharacter(decoded.charAt(i), line));
+        }
+    }
+
+    /**
+     * Returns the (ASCII) text of the current token, reusing the string from
+     * last time if the same bytes were seen before.
+     */
+    private String lexeme() {
+        final int tokenLength = (int) (current - start);
+        int hash = 0;
+        for (long i = start; i < current; ++i) {
+            hash = 31 * hash + byteAt(i);
+        }
+        final int slot = (hash ^ (hash >>> 16)) & (LEXEME_CACHE_SIZE - 1);
+        final String cached = lexemeCache[slot];
+        if (cached != null && cached.length() == tokenLength && matches(cached)) {
+            return cached;
+        }
+        final char[] chars = new char[tokenLength];
+        for (int i = 0; i < tokenLength; ++i) {
+            chars[i] = (char) byteAt(start + i);
+        }
+        final String lexeme = new String(chars);
+        lexemeCache[slot] = lexeme;
+        return lexeme;
+    }
+
+    private boolean matches(final String cached) {
+        for (int i = 0; i < cached.length(); ++i) {
+            if (cached.charAt(i) != byteAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String decode(final long from, final long to) {
+        final byte[] bytes = new byte[(int) (to - from)];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = byteAt(from + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private byte byteAt(final long position) {
+        return segments[(int) (position >>> segmentShift)].get((int) (position & segmentMask));
+    }
+
+    private static boolean isAlpha(final byte b) {
+        return (b >= 'a' && b <= 'z')
+                || (b >= 'A' && b <= 'Z')
+                || b == '_';
+    }
+
+    private static boolean isAlphaNumeric(final byte b) {
+        return isAlpha(b) || isDigit(b);
+    }
+
+    private static boolean isDigit(final byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private byte peekNext() {
+        if (current + 1 >= length) {
+            return '\0';
+        }
+        return byteAt(current + 1);
+    }
+
+    private boolean match(final char expected) {
+        if (isAtEnd()) {
+            return false;
+        }
+        if (byteAt(current) != expected) {
+            return false;
+        }
+        current++;
+        return true;
+    }
+
+    private byte peek() {
+        if (isAtEnd()) {
+            return '\0';
+        }
+        return byteAt(current);
+    }
+
+    private byte advance() {
+        return byteAt(current++);
+    }
+
+    private boolean isAtEnd() {
+        return current >= length;
+    }
+}
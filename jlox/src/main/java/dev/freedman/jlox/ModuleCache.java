@@ -0,0 +1,152 @@
+package dev.freedman.jlox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The parsed (and optimized) statements of every file imported so far, shared
+ * by every interpreter in the process. A module's syntax tree is only read,
+ * never changed, by running it, so any number of interpreters can run the same
+ * one at once; each still runs it itself, since every interpreter has its own
+ * globals (see {@link Interpreter#importModule}).
+ * <p>
+ * Modules are looked up by their real path, and only reused while the file's
+ * contents hash the same, so an edited file gets parsed again and replaces
+ * the old entry. The first thread to import a module parses it while any
+ * others importing it at the same time wait for that parse instead of doing
+ * their own. Syntax errors are cached along with everything else, until the
+ * file changes.
+ * </p>
+ * <p>
+ * A long running process like the daemon can import any number of files over
+ * its life, so the cache doesn't keep them all: every time a module has to be
+ * parsed, entries whose files have since been deleted or renamed are dropped,
+ * and past {@link #DEFAULT_MAX_ENTRIES} modules so are the ones used least
+ * recently.
+ * </p>
+ */
+final class ModuleCache {
+    /**
+     * How many modules are kept at most, unless overridden by the
+     * {@code jlox.moduleCache.maxEntries} system property.
+     */
+    static final int DEFAULT_MAX_ENTRIES = Integer.getInteger("jlox.moduleCache.maxEntries", 1024);
+    static final ModuleCache SHARED = new ModuleCache();
+
+    /**
+     * A parsed module. {@code path} is its real path, which is how
+     * interpreters tell modules apart.
+     */
+    record Module(Path path, List<Statement> statements) {
+    }
+
+    private static final class Entry {
+        final String hash;
+        final FutureTask<Module> parse;
+        // when the entry was last loaded, on the cache's clock
+        volatile long lastUsed;
+
+        Entry(final String hash, final FutureTask<Module> parse) {
+            this.hash = hash;
+            this.parse = parse;
+        }
+    }
+
+    private final ConcurrentHashMap<Path, Entry> modules = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+    private final int maxEntries;
+
+    ModuleCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    ModuleCache(final int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * How many modules are cached right now.
+     */
+    int size() {
+        return modules.size();
+    }
+
+    /**
+     * Returns the module in {@code file}, parsing it unless it's already been
+     * parsed with the same contents.
+     *
+     * @throws IOException          if the file can't be read
+     * @throws InterpreterException with the module's syntax errors
+     */
+    Module load(final Path file) throws IOException, InterpreterException {
+        final Path path = file.toRealPath();
+        final byte[] contents = Files.readAllBytes(path);
+        final String hash = hash(contents);
+        // only makes a task, so it's cheap enough to do under the map's lock
+        final Entry entry = modules.compute(path, (key, existing) -> existing != null && existing.hash.equals(hash)
+                ? existing
+                : new Entry(hash, new FutureTask<>(() -> new Module(path,
+                        JLox.getExecutableStatements(new String(contents, Charset.defaultCharset()))))));
+        entry.lastUsed = clock.incrementAndGet();
+        if (!entry.parse.isDone()) {
+            // a new (or changed) module, which is a good time to tidy up
+            evict(path);
+        }
+        // running a task that has already started (or finished) does nothing
+        entry.parse.run();
+        try {
+            return entry.parse.get();
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof InterpreterException syntaxErrors) {
+                throw syntaxErrors;
+            }
+            throw new IllegalStateException("Parsing " + path + " failed", e.getCause());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while parsing " + path, e);
+        }
+    }
+
+    /**
+     * Drops the entries of files that are gone, then the least recently used
+     * ones until the cache is back down to its size. {@code keep} is the
+     * module being loaded, which stays no matter what.
+     */
+    private void evict(final Path keep) {
+        modules.keySet().removeIf((path) -> !path.equals(keep) && !Files.exists(path));
+        while (modules.size() > maxEntries) {
+            Path oldest = null;
+            long oldestUse = Long.MAX_VALUE;
+            for (final Map.Entry<Path, Entry> candidate : modules.entrySet()) {
+                if (!candidate.getKey().equals(keep) && candidate.getValue().lastUsed < oldestUse) {
+                    oldest = candidate.getKey();
+                    oldestUse = candidate.getValue().lastUsed;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            modules.remove(oldest);
+        }
+    }
+
+    private static String hash(final byte[] contents) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(contents));
+        } catch (final NoSuchAlgorithmException e) {
+            // every JVM has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
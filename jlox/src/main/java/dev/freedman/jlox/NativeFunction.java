@@ -0,0 +1,114 @@
+package dev.freedman.jlox;
+
+/**
+ * A function implemented in Java that Lox code can call, like {@code clock}.
+ * <p>
+ * Natives are built with the {@code of} factories, which take the function's
+ * body as a lambda of the matching arity. The result overrides the matching
+ * fixed-arity entry point of {@link LoxCallable}, so calling a native never
+ * boxes its arguments into an array. Natives don't hold any state of their
+ * own, so one instance is shared by every interpreter.
+ * </p>
+ */
+public abstract class NativeFunction implements LoxCallable {
+    @FunctionalInterface
+    public interface Body0 {
+        Object call(Interpreter interpreter) throws InterpreterException;
+    }
+
+    @FunctionalInterface
+    public interface Body1 {
+        Object call(Interpreter interpreter, Object argument0) throws InterpreterException;
+    }
+
+    @FunctionalInterface
+    public interface Body2 {
+        Object call(Interpreter interpreter, Object argument0, Object argument1) throws InterpreterException;
+    }
+
+    @FunctionalInterface
+    public interface Body3 {
+        Object call(Interpreter interpreter, Object argument0, Object argument1, Object argument2)
+                throws InterpreterException;
+    }
+
+    private final String name;
+    private final int arity;
+
+    private NativeFunction(final String name, final int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<native fun %s>", name);
+    }
+
+    public static NativeFunction of(final String name, final Body0 body) {
+        return new NativeFunction(name, 0) {
+            @Override
+            public Object call0(final Interpreter interpreter) throws InterpreterException {
+                return body.call(interpreter);
+            }
+
+            @Override
+            public Object call(final Interpreter interpreter, final Object[] arguments) throws InterpreterException {
+                return body.call(interpreter);
+            }
+        };
+    }
+
+    public static NativeFunction of(final String name, final Body1 body) {
+        return new NativeFunction(name, 1) {
+            @Override
+            public Object call1(final Interpreter interpreter, final Object argument0) throws InterpreterException {
+                return body.call(interpreter, argument0);
+            }
+
+            @Override
+            public Object call(final Interpreter interpreter, final Object[] arguments) throws InterpreterException {
+                return body.call(interpreter, arguments[0]);
+            }
+        };
+    }
+
+    public static NativeFunction of(final String name, final Body2 body) {
+        return new NativeFunction(name, 2) {
+            @Override
+            public Object call2(final Interpreter interpreter, final Object argument0, final Object argument1)
+                    throws InterpreterException {
+                return body.call(interpreter, argument0, argument1);
+            }
+
+            @Override
+            public Object call(final Interpreter interpreter, final Object[] arguments) throws InterpreterException {
+                return body.call(interpreter, arguments[0], arguments[1]);
+            }
+        };
+    }
+
+    public static NativeFunction of(final String name, final Body3 body) {
+        return new NativeFunction(name, 3) {
+            @Override
+            public Object call3(final Interpreter interpreter, final Object argument0, final Object argument1,
+                    final Object argument2) throws InterpreterException {
+                return body.call(interpreter, argument0, argument1, argument2);
+            }
+
+            @Override
+            public Object call(final Interpreter interpreter, final Object[] arguments) throws InterpreterException {
+                return body.call(interpreter, arguments[0], arguments[1], arguments[2]);
+            }
+        };
+    }
+}
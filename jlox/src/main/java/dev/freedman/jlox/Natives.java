@@ -0,0 +1,541 @@
+package dev.freedman.jlox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * The native functions every {@link Interpreter} declares as globals.
+ * <p>
+ * Natives can be handed anything, so they check their arguments themselves
+ * and fail with an {@link InterpreterIssue.InvalidArgument} or
+ * {@link InterpreterIssue.IndexOutOfBounds} (or a
+ * {@link InterpreterIssue.FileFailed} when a file can't be used). Memory they
+ * allocate is counted against the interpreter's limit like everything else,
+ * but since they don't know which line called them it's reported as line 0.
+ * </p>
+ */
+final class Natives {
+    static final List<NativeFunction> ALL = List.of(
+            NativeFunction.of("clock", (interpreter) -> System.currentTimeMillis() / 1000.0),
+            // nanoseconds from an arbitrary starting point, only good for
+            // measuring how long something took
+            NativeFunction.of("nanoClock", (interpreter) -> (double) System.nanoTime()),
+            // arrays, see LoxArray
+            NativeFunction.of("array", Natives::array),
+            NativeFunction.of("arrayLength",
+                    (interpreter, array) -> (double) checkArray("arrayLength", array).length()),
+            NativeFunction.of("arrayGet", Natives::arrayGet),
+            NativeFunction.of("arraySet", Natives::arraySet),
+            NativeFunction.of("arrayPush", Natives::arrayPush),
+            NativeFunction.of("arraySlice", Natives::arraySlice),
+            NativeFunction.of("arraySort", Natives::arraySort),
+            NativeFunction.of("arrayFill", Natives::arrayFill),
+            NativeFunction.of("arraySum", (interpreter, array) -> checkArray("arraySum", array).sum()),
+            // maps, see LoxMap
+            NativeFunction.of("map", Natives::map),
+            NativeFunction.of("mapSize", (interpreter, map) -> (double) checkMap("mapSize", map).size()),
+            NativeFunction.of("mapGet", (interpreter, map, key) -> checkMap("mapGet", map).get(key)),
+            NativeFunction.of("mapSet", Natives::mapSet),
+            NativeFunction.of("mapHas", (interpreter, map, key) -> checkMap("mapHas", map).containsKey(key)),
+            NativeFunction.of("mapRemove", (interpreter, map, key) -> checkMap("mapRemove", map).remove(key)),
+            NativeFunction.of("mapKeys", Natives::mapKeys),
+            NativeFunction.of("mapValues", Natives::mapValues),
+            // generators, see LoxGenerator
+            NativeFunction.of("generatorNext",
+                    (interpreter, generator) -> checkGenerator("generatorNext", generator).next(interpreter)),
+            NativeFunction.of("generatorDone",
+                    (interpreter, generator) -> checkGenerator("generatorDone", generator).isDone(interpreter)),
+            // files, see LoxReader and LoxWriter
+            NativeFunction.of("fileReader", Natives::fileReader),
+            NativeFunction.of("readerNext", Natives::readerNext),
+            NativeFunction.of("readerLine", Natives::readerLine),
+            NativeFunction.of("readerClose", Natives::readerClose),
+            NativeFunction.of("fileWriter", Natives::fileWriter),
+            NativeFunction.of("writerWrite",
+                    (interpreter, writer, value) -> write("writerWrite", writer, value, false)),
+            NativeFunction.of("writerLine",
+                    (interpreter, writer, value) -> write("writerLine", writer, value, true)),
+            NativeFunction.of("writerClose", Natives::writerClose),
+            // records, see RecordDecoder and RecordEncoder
+            NativeFunction.of("readerJson", Natives::readerJson),
+            NativeFunction.of("readerCsv", Natives::readerCsv),
+            NativeFunction.of("writerJson", Natives::writerJson),
+            NativeFunction.of("writerCsv", Natives::writerCsv),
+            NativeFunction.of("jsonDecode", Natives::jsonDecode),
+            NativeFunction.of("jsonEncode", Natives::jsonEncode),
+            // nil for anything but a string holding a number, written the
+            // way JSON (or print) writes them
+            NativeFunction.of("parseNumber", (interpreter, text) -> text instanceof String string
+                    ? new RecordDecoder().decodeNumber(string) : null),
+            // strings
+            NativeFunction.of("stringLength",
+                    (interpreter, string) -> (double) checkString("stringLength", string).length()),
+            NativeFunction.of("stringSlice", Natives::stringSlice));
+
+    private Natives() {
+    }
+
+    // region Arrays
+
+    /**
+     * {@code array(length, value)} makes an array of {@code length} copies of
+     * {@code value}. {@code array(0, nil)} is an empty array.
+     */
+    private static Object array(final Interpreter interpreter, final Object length, final Object value)
+            throws InterpreterException {
+        final int checkedLength = checkWhole("array", length, LoxArray.MAX_LENGTH);
+        // charged up front so a huge array fails the memory limit rather than the JVM
+        interpreter.allocate(LoxArray.estimatedBytes(checkedLength), 0);
+        return LoxArray.filled(checkedLength, value);
+    }
+
+    private static Object arrayGet(final Interpreter interpreter, final Object array, final Object index)
+            throws InterpreterException {
+        final LoxArray checkedArray = checkArray("arrayGet", array);
+        return checkedArray.get(checkIndex("arrayGet", checkedArray, index));
+    }
+
+    /**
+     * Returns the value, like an assignment does.
+     */
+    private static Object arraySet(final Interpreter interpreter, final Object array, final Object index,
+            final Object value) throws InterpreterException {
+        final LoxArray checkedArray = checkArray("arraySet", array);
+        checkedArray.set(checkIndex("arraySet", checkedArray, index), value);
+        return value;
+    }
+
+    /**
+     * Returns the array's new length.
+     */
+    private static Object arrayPush(final Interpreter interpreter, final Object array, final Object value)
+            throws InterpreterException {
+        final LoxArray checkedArray = checkArray("arrayPush", array);
+        if (checkedArray.length() == LoxArray.MAX_LENGTH) {
+            throw new InterpreterException(new InterpreterIssue.IndexOutOfBounds("arrayPush",
+                    (double) checkedArray.length(), LoxArray.MAX_LENGTH));
+        }
+        interpreter.allocate(checkedArray.pushBytes(), 0);
+        checkedArray.push(value);
+        return (double) checkedArray.length();
+    }
+
+    /**
+     * {@code arraySlice(array, from, to)} copies the elements from
+     * {@code from} up to, but not including, {@code to} into a new array.
+     */
+    private static Object arraySlice(final Interpreter interpreter, final Object array, final Object from,
+            final Object to) throws InterpreterException {
+        final LoxArray checkedArray = checkArray("arraySlice", array);
+        final int checkedTo = checkWhole("arraySlice", to, checkedArray.length());
+        final int checkedFrom = checkWhole("arraySlice", from, checkedTo);
+        interpreter.allocate(LoxArray.estimatedBytes(checkedTo - checkedFrom), 0);
+        return checkedArray.slice(checkedFrom, checkedTo);
+    }
+
+    /**
+     * Sorts in place and returns the array.
+     */
+    private static Object arraySort(final Interpreter interpreter, final Object array)
+            throws InterpreterException {
+        final LoxArray checkedArray = checkArray("arraySort", array);
+        checkedArray.sort();
+        return checkedArray;
+    }
+
+    /**
+     * Fills in place and returns the array.
+     */
+    private static Object arrayFill(final Interpreter interpreter, final Object array, final Object value)
+            throws InterpreterException {
+        final LoxArray checkedArray = checkArray("arrayFill", array);
+        checkedArray.fill(value);
+        return checkedArray;
+    }
+
+    private static LoxArray checkArray(final String functionName, final Object value) throws InterpreterException {
+        if (value instanceof LoxArray array) {
+            return array;
+        }
+        throw new InterpreterException(new InterpreterIssue.InvalidArgument(functionName, "an array", value));
+    }
+
+    private static int checkIndex(final String functionName, final LoxArray array, final Object index)
+            throws InterpreterException {
+        if (!(index instanceof Double number)) {
+            throw new InterpreterException(new InterpreterIssue.InvalidArgument(functionName, "a number", index));
+        }
+        if (number < 0 || number >= array.length() || number != Math.floor(number)) {
+            throw new InterpreterException(new InterpreterIssue.IndexOutOfBounds(functionName, index,
+                    array.length()));
+        }
+        return number.intValue();
+    }
+
+    /**
+     * Checks that {@code value} is a whole number from 0 to {@code max}.
+     */
+    private static int checkWhole(final String functionName, final Object value, final int max)
+            throws InterpreterException {
+        if (!(value instanceof Double number) || number < 0 || number > max || number != Math.floor(number)) {
+            throw new InterpreterException(new InterpreterIssue.InvalidArgument(functionName,
+                    "a whole number from 0 to " + max, value));
+        }
+        return number.intValue();
+    }
+    // endregion
+
+    // region Maps
+
+    private static Object map(final Interpreter interpreter) throws InterpreterException {
+        final LoxMap map = new LoxMap();
+        interpreter.allocate(map.estimatedBytes(), 0);
+        return map;
+    }
+
+    /**
+     * Returns the value, like an assignment does.
+     */
+    private static Object mapSet(final Interpreter interpreter, final Object map, final Object key,
+            final Object value) throws InterpreterException {
+        final LoxMap checkedMap = checkMap("mapSet", map);
+        if (key == null) {
+            throw new InterpreterException(new InterpreterIssue.InvalidArgument("mapSet", "a key other than nil",
+                    null));
+        }
+        interpreter.allocate(checkedMap.putBytes(key), 0);
+        checkedMap.put(key, value);
+        return value;
+    }
+
+    /**
+     * Returns a new array of the map's keys, in the order they were added.
+     */
+    private static Object mapKeys(final Interpreter interpreter, final Object map) throws InterpreterException {
+        final LoxMap checkedMap = checkMap("mapKeys", map);
+        interpreter.allocate(LoxArray.estimatedBytes(checkedMap.size()), 0);
+        return checkedMap.keys();
+    }
+
+    /**
+     * Returns a new array of the map's values, in the same order as
+     * {@code mapKeys}.
+     */
+    private static Object mapValues(final Interpreter interpreter, final Object map)
+            throws InterpreterException {
+        final LoxMap checkedMap = checkMap("mapValues", map);
+        interpreter.allocate(LoxArray.estimatedBytes(checkedMap.size()), 0);
+        return checkedMap.values();
+    }
+
+    private static LoxMap checkMap(final String functionName, final Object value) throws InterpreterException {
+        if (value instanceof LoxMap map) {
+            return map;
+        }
+        throw new InterpreterException(new InterpreterIssue.InvalidArgument(functionName, "a map", value));
+    }
+    // endregion
+
+    // region Generators
+
+    private static LoxGenerator checkGenerator(final String functionName, final Object value)
+            throws InterpreterException {
+        if (value instanceof LoxGenerator generator) {
+            return generator;
+        }
+        throw new InterpreterException(new InterpreterIssue.InvalidArgument(functionName, "a generator", value));
+    }
+    // endregion
+
+    // region Files
+
+    /**
+     * {@code fileReader(path)} opens a file for reading. Like imports, a
+     * relative {@code path} is relative to the running script.
+     */
+    private static Object fileReader(final Interpreter interpreter, final Object path)
+            throws InterpreterException {
+        final String checkedPath = checkPath("fileReader", path);
+        final LoxReader reader;
+        try {
+            reader = LoxReader.open(checkedPath, interpreter.moduleDirectory().resolve(checkedPath));
+        } catch (final IOException | InvalidPathException e) {
+            throw fileFailed("fileReader", checkedPath, e);
+        }
+        interpreter.opened(reader, reader.estimatedBytes(), 0);
+        return reader;
+    }
+
+    /**
+     * {@code readerNext(reader)} moves to the next line, returning
+     * {@code false} once there aren't any left. The line itself is only read
+     * into a string by {@code readerLine}.
+     */
+    private static Object readerNext(final Interpreter interpreter, final Object reader)
+            throws InterpreterException {
+        final LoxReader checkedReader = checkReader("readerNext", reader);
+        final long bytesBefore = checkedReader.estimatedBytes();
+        // the script is done with the current line's strings and records, or
+        // at least the budget treats it that way
+        interpreter.releaseLine(checkedReader);
+        final boolean found;
+        try {
+            found = checkedReader.next();
+        } catch (final IOException e) {
+            throw fileFailed("readerNext", checkedReader.path(), e);
+        }
+        interpreter.chargeFile(checkedReader, checkedReader.estimatedBytes() - bytesBefore, 0);
+        if (!found) {
+            // the reader closed itself at the end of the file
+            interpreter.closed(checkedReader);
+        }
+        return found;
+    }
+
+    /**
+     * {@code readerLine(reader)} returns the current line, or {@code nil} if
+     * there isn't one.
+     */
+    private static Object readerLine(final Interpreter interpreter, final Object reader)
+            throws InterpreterException {
+        final LoxReader checkedReader = checkReader("readerLine", reader);
+        if (checkedReader.hasLineString()) {
+            return checkedReader.line();
+        }
+        final String line = checkedReader.line();
+        if (line != null) {
+            interpreter.chargeLine(checkedReader, Interpreter.STRING_BYTES + 2L * line.length(), 0);
+        }
+        return line;
+    }
+
+    private static Object readerClose(final Interpreter interpreter, final Object reader)
+            throws InterpreterException {
+        final LoxReader checkedReader = checkReader("readerClose", reader);
+        try {
+            checkedReader.close();
+        } catch (final IOException e) {
+            throw fileFailed("readerClose", checkedReader.path(), e);
+        } finally {
+            interpreter.closed(checkedReader);
+        }
+        return null;
+    }
+
+    /**
+     * {@code fileWriter(path)} opens a file for writing, creating it or
+     * emptying it first. Nothing is certain to be in the file until the
+     * writer is closed with {@code writerClose}, or until the script ends if
+     * it's left open.
+     */
+    private static Object fileWriter(final Interpreter interpreter, final Object path)
+            throws InterpreterException {
+        final String checkedPath = checkPath("fileWriter", path);
+        final LoxWriter writer;
+        try {
+            writer = LoxWriter.open(checkedPath, interpreter.moduleDirectory().resolve(checkedPath));
+        } catch (final IOException | InvalidPathException e) {
+            throw fileFailed("fileWriter", checkedPath, e);
+        }
+        interpreter.opened(writer, writer.estimatedBytes(), 0);
+        return writer;
+    }
+
+    /**
+     * Writes {@code value} the way {@code print} would show it, followed by
+     * a {@code \n} if {@code line} is set.
+     */
+    private static Object write(final String functionName, final Object writer, final Object value,
+            final boolean line) throws InterpreterException {
+        final LoxWriter checkedWriter = checkOpenWriter(functionName, writer);
+        try {
+            checkedWriter.write(String.valueOf(value));
+            if (line) {
+                checkedWriter.write((byte) '\n');
+            }
+        } catch (final IOException e) {
+            throw fileFailed(functionName, checkedWriter.path(), e);
+        }
+        return null;
+    }
+
+    private static Object writerClose(final Interpreter interpreter, final Object writer)
+            throws InterpreterException {
+        final LoxWriter checkedWriter = checkWriter("writerClose", writer);
+        try {
+            checkedWriter.close();
+        } catch (final IOException e) {
+            throw fileFailed("writerClose", checkedWriter.path(), e);
+        } finally {
+            interpreter.closed(checkedWriter);
+        }
+        return null;
+    }
+
+    private static String checkPath(final String functionName, final Object value) throws InterpreterException {
+        if (value instanceof String path) {
+            return path;
+        }
+        throw new InterpreterException(new InterpreterIssue.InvalidArgument(functionName, "a path", value));
+    }
+
+    private static LoxReader checkReader(final String functionName, final Object value)
+            throws InterpreterException {
+        if (value instanceof LoxReader reader) {
+            return reader;
+        }
+        throw new InterpreterException(new InterpreterIssue.InvalidArgument(functionName, "a reader", value));
+    }
+
+    private static LoxWriter checkWriter(final String functionName, final Object value)
+            throws InterpreterException {
+        if (value instanceof LoxWriter writer) {
+            return writer;
+        }
+        throw new InterpreterException(new InterpreterIssue.InvalidArgument(functionName, "a writer", value));
+    }
+
+    /**
+     * Reading from a closed reader just finds no more lines, but writing to a
+     * closed writer would lose what's written, so it has to be open.
+     */
+    private static LoxWriter checkOpenWriter(final String functionName, final Object value)
+            throws InterpreterException {
+        final LoxWriter writer = checkWriter(functionName, value);
+        if (writer.isClosed()) {
+            throw new InterpreterException(new InterpreterIssue.InvalidArgument(functionName, "an open writer",
+                    writer));
+        }
+        return writer;
+    }
+
+    private static InterpreterException fileFailed(final String functionName, final String path,
+            final Exception cause) {
+        final String reason = cause instanceof NoSuchFileException ? "no such file" : cause.getMessage();
+        return new InterpreterException(new InterpreterIssue.FileFailed(functionName, path, reason));
+    }
+    // endregion
+
+    // region Records
+
+    /**
+     * {@code readerJson(reader)} decodes the current line as a JSON value, or
+     * returns {@code nil} if there isn't a current line.
+     */
+    private static Object readerJson(final Interpreter interpreter, final Object reader)
+            throws InterpreterException {
+        final LoxReader checkedReader = checkReader("readerJson", reader);
+        if (checkedReader.lineStart() < 0) {
+            return null;
+        }
+        final RecordDecoder decoder = checkedReader.decoder();
+        final Object value = decoder.decodeJson("readerJson", checkedReader.lineBytes(), checkedReader.lineStart(),
+                checkedReader.lineEnd(), checkedReader.lineNumber());
+        interpreter.chargeLine(checkedReader, decoder.allocatedBytes(), 0);
+        return value;
+    }
+
+    /**
+     * {@code readerCsv(reader)} decodes the CSV record starting at the
+     * current line into an array of strings, or returns {@code nil} if there
+     * isn't a current line. A record with line breaks in a quoted field moves
+     * the reader on to its last line.
+     */
+    private static Object readerCsv(final Interpreter interpreter, final Object reader)
+            throws InterpreterException {
+        final LoxReader checkedReader = checkReader("readerCsv", reader);
+        if (checkedReader.lineStart() < 0) {
+            return null;
+        }
+        final RecordDecoder decoder = checkedReader.decoder();
+        final long bytesBefore = checkedReader.estimatedBytes();
+        final LoxArray row = decoder.decodeCsv("readerCsv", checkedReader);
+        // a quoted field can run on over more lines, which may grow the buffer
+        interpreter.chargeFile(checkedReader, checkedReader.estimatedBytes() - bytesBefore, 0);
+        interpreter.chargeLine(checkedReader, decoder.allocatedBytes(), 0);
+        if (checkedReader.isClosed()) {
+            interpreter.closed(checkedReader);
+        }
+        return row;
+    }
+
+    /**
+     * {@code writerJson(writer, value)} writes {@code value} as JSON on a
+     * line of its own.
+     */
+    private static Object writerJson(final Interpreter interpreter, final Object writer, final Object value)
+            throws InterpreterException {
+        final LoxWriter checkedWriter = checkOpenWriter("writerJson", writer);
+        final RecordEncoder encoder = checkedWriter.encoder();
+        encoder.encodeJson("writerJson", value);
+        writeRecord(checkedWriter, encoder, "writerJson");
+        return null;
+    }
+
+    /**
+     * {@code writerCsv(writer, row)} writes an array as a CSV record.
+     */
+    private static Object writerCsv(final Interpreter interpreter, final Object writer, final Object row)
+            throws InterpreterException {
+        final LoxWriter checkedWriter = checkOpenWriter("writerCsv", writer);
+        final RecordEncoder encoder = checkedWriter.encoder();
+        encoder.encodeCsv("writerCsv", checkArray("writerCsv", row));
+        writeRecord(checkedWriter, encoder, "writerCsv");
+        return null;
+    }
+
+    private static Object jsonDecode(final Interpreter interpreter, final Object json) throws InterpreterException {
+        final byte[] bytes = checkString("jsonDecode", json).getBytes(StandardCharsets.UTF_8);
+        final RecordDecoder decoder = new RecordDecoder();
+        final Object value = decoder.decodeJson("jsonDecode", bytes, 0, bytes.length, 1);
+        interpreter.allocate(decoder.allocatedBytes(), 0);
+        return value;
+    }
+
+    private static Object jsonEncode(final Interpreter interpreter, final Object value) throws InterpreterException {
+        final RecordEncoder encoder = new RecordEncoder();
+        encoder.encodeJson("jsonEncode", value);
+        return interpreter.allocated(encoder.toString(), 0);
+    }
+
+    /**
+     * Writes what {@code encoder} encoded last as a line of its own.
+     */
+    private static void writeRecord(final LoxWriter writer, final RecordEncoder encoder, final String functionName)
+            throws InterpreterException {
+        try {
+            writer.write(encoder.bytes(), 0, encoder.length());
+            writer.write((byte) '\n');
+        } catch (final IOException e) {
+            throw fileFailed(functionName, writer.path(), e);
+        }
+    }
+    // endregion
+
+    // region Strings
+
+    /**
+     * {@code stringSlice(string, from, to)} returns the characters from
+     * {@code from} up to, but not including, {@code to}, like
+     * {@code arraySlice}.
+     */
+    private static Object stringSlice(final Interpreter interpreter, final Object string, final Object from,
+            final Object to) throws InterpreterException {
+        final String checkedString = checkString("stringSlice", string);
+        final int checkedTo = checkWhole("stringSlice", to, checkedString.length());
+        final int checkedFrom = checkWhole("stringSlice", from, checkedTo);
+        return interpreter.allocated(checkedString.substring(checkedFrom, checkedTo), 0);
+    }
+
+    private static String checkString(final String functionName, final Object value) throws InterpreterException {
+        if (value instanceof String string) {
+            return string;
+        }
+        throw new InterpreterException(new InterpreterIssue.InvalidArgument(functionName, "a string", value));
+    }
+    // endregion
+}
@@ -0,0 +1,150 @@
+package dev.freedman.jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Scans a big source on several threads at once, producing exactly the tokens
+ * and issues a single {@link Scanner} would.
+ * <p>
+ * The source is cut into chunks right after a newline, since a newline always
+ * ends whatever token came before it, except for a string literal (strings
+ * can span lines). Every chunk is scanned on a fork-join pool as if it started
+ * outside of a string. That guess is checked while stitching the results
+ * together in order: if a chunk ends inside a string, the next chunk's
+ * results are thrown away and it's scanned again from where that string
+ * started, which is then known to be outside of a string. Comments can't
+ * cause the same problem, since they end at the newline a chunk ends with.
+ * </p>
+ * <p>
+ * Line numbers don't depend on any of this, since every newline counts
+ * regardless of whether it's in code, a comment or a string. So each chunk's
+ * first line is worked out up front by counting newlines, also in parallel,
+ * and the chunks' tokens come out with the right lines straight away.
+ * </p>
+ */
+final class ParallelScanner {
+    /**
+     * Chunks smaller than this aren't worth a task of their own.
+     */
+    static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    private final String source;
+    private final int chunkSize;
+    private final ForkJoinPool pool;
+
+    ParallelScanner(final String source) {
+        this(source, DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    ParallelScanner(final String source, final int chunkSize, final ForkJoinPool pool) {
+        this.source = source;
+        this.chunkSize = chunkSize;
+        this.pool = pool;
+    }
+
+    List<Token> scanTokens() throws InterpreterException {
+        final int[] boundaries = chunkBoundaries();
+        final int chunks = boundaries.length - 1;
+        final int[] firstLines = new int[chunks];
+        final Scanner[] scanners = new Scanner[chunks];
+        pool.invoke(new ChunkTask(0, chunks, (chunk) -> firstLines[chunk] = newlines(boundaries[chunk],
+                boundaries[chunk + 1])));
+        // newline counts to the line each chunk starts on
+        int line = 1;
+        for (int chunk = 0; chunk < chunks; ++chunk) {
+            final int newlines = firstLines[chunk];
+            firstLines[chunk] = line;
+            line += newlines;
+        }
+        pool.invoke(new ChunkTask(0, chunks, (chunk) -> {
+            scanners[chunk] = new Scanner(source, boundaries[chunk], boundaries[chunk + 1], firstLines[chunk],
+                    chunk == chunks - 1);
+            scanners[chunk].scan();
+        }));
+        final List<Token> tokens = new ArrayList<>();
+        final List<InterpreterIssue> errors = new ArrayList<>();
+        for (int chunk = 0; chunk < chunks; ++chunk) {
+            final Scanner scanner = scanners[chunk];
+            tokens.addAll(scanner.tokens());
+            errors.addAll(scanner.errors());
+            if (scanner.openStringStart() >= 0) {
+                // the next chunk guessed wrong. scan it again starting with
+                // the string, which may in turn run into the chunk after it
+                scanners[chunk + 1] = new Scanner(source, scanner.openStringStart(), boundaries[chunk + 2],
+                        scanner.openStringLine(), chunk + 1 == chunks - 1);
+                scanners[chunk + 1].scan();
+            }
+        }
+        tokens.add(new Token.EndOfFile(scanners[chunks - 1].line()));
+        if (!errors.isEmpty()) {
+            throw new InterpreterException(errors);
+        }
+        return tokens;
+    }
+
+    /**
+     * Returns where every chunk starts, plus the end of the source. Every
+     * chunk but the last ends with a newline.
+     */
+    private int[] chunkBoundaries() {
+        final List<Integer> boundaries = new ArrayList<>();
+        boundaries.add(0);
+        int next = chunkSize;
+        while (next < source.length()) {
+            final int newline = source.indexOf('\n', next - 1);
+            if (newline < 0 || newline + 1 >= source.length()) {
+                break;
+            }
+            boundaries.add(newline + 1);
+            next = newline + 1 + chunkSize;
+        }
+        boundaries.add(source.length());
+        return boundaries.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private int newlines(final int from, final int to) {
+        int newlines = 0;
+        for (int i = from; i < to; ++i) {
+            if (source.charAt(i) == '\n') {
+                ++newlines;
+            }
+        }
+        return newlines;
+    }
+
+    @FunctionalInterface
+    private interface ChunkAction {
+        void run(int chunk);
+    }
+
+    /**
+     * Runs an action on a range of chunks, splitting the range in half until
+     * each task has a single chunk.
+     */
+    private static final class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final ChunkAction action;
+
+        private ChunkTask(final int from, final int to, final ChunkAction action) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                action.run(from);
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new ChunkTask(from, middle, action), new ChunkTask(middle, to, action));
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package dev.freedman.jlox;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Takes a list of tokens and produces a list of statements. This represents
@@ -14,18 +16,172 @@ import java.util.Objects;
  * explicitly
  * created as functions though, I may have inlined some of them.
  * </p>
+ * <p>
+ * Expressions are the exception: instead of one function per precedence
+ * level, they're parsed by a single Pratt parser driven by a table of how
+ * tightly each kind of token binds (see {@link #expression(Precedence)}). The
+ * trees and issues it produces are the same as the grammar's, it just gets
+ * there without descending through every level for every operand.
+ * </p>
  */
 public class Parser {
     private static final int MAX_NUMBER_OF_FUNCTION_PARAMETERS = 255;
+    /**
+     * Bodies with fewer tokens than this are parsed right away even when
+     * they could be deferred. Deferring one isn't free, and the small
+     * functions {@link GlobalFunctionOptimizer} inlines have to be parsed for
+     * it to see them.
+     */
+    static final int MIN_DEFERRED_BODY_TOKENS = 64;
+    /**
+     * How deeply expressions nest before the parser stops recursing for each
+     * level (see {@link #operand(Precedence)}).
+     */
+    static final int MAX_RECURSIVE_NESTING = 64;
+    /**
+     * How deeply statements and expressions may nest, unless overridden by
+     * the {@code jlox.parse.maxDepth} system property. Deep expressions are
+     * parsed without recursing, and so is everything that walks the trees
+     * before they run, so this is only there to turn absurd input into an
+     * error rather than a tree that fills the heap.
+     */
+    static final int DEFAULT_MAX_DEPTH = Integer.getInteger("jlox.parse.maxDepth", 100_000);
+    /**
+     * How deeply statements may nest, unless overridden by the
+     * {@code jlox.parse.maxStatementDepth} system property. Statements are
+     * still parsed (and interpreted) by recursing, and nested functions run a
+     * thread with the JVM's default stack size out not far past the default.
+     */
+    static final int MAX_STATEMENT_DEPTH = Integer.getInteger("jlox.parse.maxStatementDepth", 1000);
+
+    /**
+     * When the bodies of function declarations get parsed. Big libraries
+     * mostly consist of functions that a given run never calls, so not
+     * parsing those bodies up front gets to the first statement sooner.
+     */
+    public enum FunctionBodies {
+        /**
+         * Along with everything else, so every syntax error is reported
+         * before anything runs.
+         */
+        EAGER,
+        /**
+         * On the first call. Syntax errors in a body are only reported if
+         * it's called, by the call.
+         */
+        LAZY,
+        /**
+         * On the common fork-join pool, starting as soon as a body's braces
+         * have been matched. A call that gets there first parses the body
+         * itself (or waits for the thread already on it), reporting syntax
+         * errors like {@link #LAZY} does.
+         */
+        BACKGROUND,
+        /**
+         * Like {@link #BACKGROUND}, but {@link #parse()} waits for the bodies
+         * and reports their syntax errors along with its own, so nothing runs
+         * if there are any. This only gains whatever parallelism the machine
+         * has.
+         */
+        STRICT
+    }
+
+    /**
+     * How tightly each infix operator binds, from loosest to tightest.
+     * {@code NONE} is for tokens that can't continue an expression, which
+     * makes the parser stop there.
+     */
+    private enum Precedence {
+        NONE, ASSIGNMENT, OR, AND, EQUALITY, COMPARISON, TERM, FACTOR, UNARY, CALL;
+
+        private static final Precedence[] VALUES = values();
 
-    private final List<Token> tokens;
+        Precedence next() {
+            return VALUES[ordinal() + 1];
+        }
+    }
+
+    /**
+     * The binding power of every kind of token when it shows up after an
+     * operand, looked up by the token's class.
+     */
+    private static final ClassValue<Precedence> INFIX_PRECEDENCE = new ClassValue<>() {
+        @Override
+        protected Precedence computeValue(final Class<?> tokenType) {
+            if (tokenType == Token.Equal.class) {
+                return Precedence.ASSIGNMENT;
+            } else if (tokenType == Token.Or.class) {
+                return Precedence.OR;
+            } else if (tokenType == Token.And.class) {
+                return Precedence.AND;
+            } else if (tokenType == Token.EqualEqual.class || tokenType == Token.BangEqual.class) {
+                return Precedence.EQUALITY;
+            } else if (tokenType == Token.Less.class || tokenType == Token.LessEqual.class
+                    || tokenType == Token.Greater.class || tokenType == Token.GreaterEqual.class) {
+                return Precedence.COMPARISON;
+            } else if (tokenType == Token.Plus.class || tokenType == Token.Minus.class) {
+                return Precedence.TERM;
+            } else if (tokenType == Token.Star.class || tokenType == Token.Slash.class) {
+                return Precedence.FACTOR;
+            } else if (tokenType == Token.LeftParenthesis.class) {
+                return Precedence.CALL;
+            }
+            return Precedence.NONE;
+        }
+    };
+
+    private final Token[] tokens;
     private final List<InterpreterIssue> issues;
+    private final FunctionBodies functionBodies;
+    // bodies being parsed in the background that parse() has to wait for
+    private final List<FunctionBody> pendingBodies;
+    private final int maxDepth;
+    private final int maxStatementDepth;
+    // how many statements the current one is nested in, starting from
+    // startDepth. expressions count their own nesting on top of this
+    private final int startDepth;
+    private int depth;
+    // how many operands the expression being parsed is nested in, and the
+    // operators waiting for theirs once that's too deep to recurse (see
+    // deepExpression)
+    private int nesting;
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
     private int current;
 
     public Parser(final List<Token> tokens) {
+        this(tokens, FunctionBodies.EAGER);
+    }
+
+    public Parser(final List<Token> tokens, final FunctionBodies functionBodies) {
+        this(tokens, functionBodies, DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * Creates a parser that reports a {@link InterpreterIssue.NestingTooDeep}
+     * for anything nested more than {@code maxDepth} levels deep, or
+     * statements nested more than {@link #MAX_STATEMENT_DEPTH} levels deep.
+     */
+    public Parser(final List<Token> tokens, final FunctionBodies functionBodies, final int maxDepth) {
+        // an array saves an interface call on every token looked at
+        this(tokens.toArray(new Token[0]), 0, functionBodies, maxDepth, 0);
+    }
+
+    /**
+     * Parses from {@code tokens[start]} on, as if already nested
+     * {@code depth} levels deep. Deferred function bodies are parsed by one of
+     * these, sharing the whole program's tokens.
+     */
+    private Parser(final Token[] tokens, final int start, final FunctionBodies functionBodies, final int maxDepth,
+            final int depth) {
         this.tokens = tokens;
-        this.current = 0;
+        this.current = start;
         this.issues = new ArrayList<>();
+        this.functionBodies = functionBodies;
+        this.pendingBodies = new ArrayList<>();
+        this.maxDepth = maxDepth;
+        this.maxStatementDepth = Math.min(maxDepth, MAX_STATEMENT_DEPTH);
+        this.startDepth = depth;
+        this.depth = depth;
     }
 
     public List<Statement> parse() throws InterpreterException {
@@ -36,6 +192,9 @@ public class Parser {
             } catch (final InternalParserException e) {
                 // track the issue
                 issues.add(e.issue);
+                // whatever was unfinished is abandoned
+                depth = startDepth;
+                nesting = 0;
                 // find the next "statement boundary" to keep going from.
                 // this way, we report as many errors to the user as we possibly
                 // can. this provides a better user experience than fixing errors
@@ -43,6 +202,15 @@ public class Parser {
                 synchronize();
             }
         }
+        if (functionBodies == FunctionBodies.STRICT) {
+            for (final FunctionBody body : pendingBodies) {
+                try {
+                    body.get();
+                } catch (final InterpreterException e) {
+                    issues.addAll(e.getErrors());
+                }
+            }
+        }
         if (!issues.isEmpty()) {
             throw new InterpreterException(issues);
         }
@@ -50,22 +218,37 @@ public class Parser {
     }
 
     private Statement declaration() {
-        final Token currentToken = tokens.get(current);
+        final Token currentToken = tokens[current];
         if (currentToken instanceof Token.Var) {
             advance();
             return variableDeclaration();
         } else if (currentToken instanceof Token.Fun) {
             advance();
             return function();
+        } else if (currentToken instanceof Token.Import importKeyword) {
+            advance();
+            return importStatement(importKeyword);
         }
         return statement();
     }
 
+    private Statement.Import importStatement(final Token.Import importKeyword) {
+        if (!(tokens[current] instanceof Token.StringLiteral path)) {
+            throw new InternalParserException(new InterpreterIssue.UnexpectedToken(tokens[current]));
+        }
+        advance();
+        if (!(tokens[current] instanceof Token.Semicolon)) {
+            throw new InternalParserException(new InterpreterIssue.UnexpectedToken(tokens[current]));
+        }
+        advance();
+        return new Statement.Import(importKeyword, path);
+    }
+
     private Statement.Function function() {
-        final Token potentialFunctionName = tokens.get(current);
+        final Token potentialFunctionName = tokens[current];
         if (potentialFunctionName instanceof Token.Identifier functionName) {
             advance();
-            Token currentToken = tokens.get(current);
+            Token currentToken = tokens[current];
             if (!(currentToken instanceof Token.LeftParenthesis)) {
                 throw new InternalParserException(new InterpreterIssue.UnexpectedToken(currentToken));
             }
@@ -73,7 +256,7 @@ public class Parser {
             // creating the parameter list
             final List<Token.Identifier> parameters = new ArrayList<>();
             while (true) {
-                currentToken = tokens.get(current);
+                currentToken = tokens[current];
                 if (currentToken instanceof Token.RightParenthesis) {
                     // we've reached the end of the parameter list, consume the token and break
                     advance();
@@ -82,10 +265,17 @@ public class Parser {
                     // we've found a parameter, add it to the list and
                     // consume the comma if there is one
                     advance();
+                    for (final Token.Identifier existingParameter : parameters) {
+                        if (existingParameter.lexeme().equals(parameter.lexeme())) {
+                            // not a syntax error, so record it and keep parsing
+                            issues.add(new InterpreterIssue.DuplicateParameter(parameter));
+                            break;
+                        }
+                    }
                     parameters.add(parameter);
-                    if (tokens.get(current) instanceof Token.Comma comma) {
+                    if (tokens[current] instanceof Token.Comma comma) {
                         // peek ahead to make sure we don't have a dangling comma
-                        if (tokens.get(current + 1) instanceof Token.RightParenthesis) {
+                        if (tokens[current + 1] instanceof Token.RightParenthesis) {
                             throw new InternalParserException(new InterpreterIssue.DanglingComma(comma));
                         }
                         // otherwise, just consume it and move on
@@ -95,12 +285,12 @@ public class Parser {
                     throw new InternalParserException(new InterpreterIssue.UnexpectedToken(currentToken));
                 }
             }
-            final Statement.Block body;
-            if (tokens.get(current) instanceof Token.LeftBrace openingBrace) {
+            final FunctionBody body;
+            if (tokens[current] instanceof Token.LeftBrace openingBrace) {
                 advance();
-                body = new Statement.Block(block(openingBrace));
+                body = functionBody(openingBrace);
             } else {
-                throw new InternalParserException(new InterpreterIssue.UnexpectedToken(tokens.get(current)));
+                throw new InternalParserException(new InterpreterIssue.UnexpectedToken(tokens[current]));
             }
             if (parameters.size() > MAX_NUMBER_OF_FUNCTION_PARAMETERS) {
                 issues.add(new InterpreterIssue.ExceededMaximumFunctionArguments(parameters.size(),
@@ -111,11 +301,90 @@ public class Parser {
         throw new InternalParserException(new InterpreterIssue.UnexpectedToken(potentialFunctionName));
     }
 
+    /**
+     * Parses a function's body, unless it's big enough to defer. Then this
+     * only finds the closing brace, skips to it, and leaves the rest for
+     * later (see {@link FunctionBodies}).
+     */
+    private FunctionBody functionBody(final Token.LeftBrace openingBrace) {
+        enter(openingBrace);
+        final FunctionBody body = unnestedFunctionBody(openingBrace);
+        leave();
+        return body;
+    }
+
+    private FunctionBody unnestedFunctionBody(final Token.LeftBrace openingBrace) {
+        if (functionBodies != FunctionBodies.EAGER) {
+            final int start = current;
+            final int closingBrace = closingBrace(start);
+            // a body without a closing brace gets parsed now, which reports it
+            if (closingBrace - start >= MIN_DEFERRED_BODY_TOKENS) {
+                current = closingBrace + 1;
+                final int bodyDepth = depth;
+                final FunctionBody body = FunctionBody.deferred(Arrays.asList(tokens).subList(start, closingBrace),
+                        () -> parseBody(start, closingBrace, bodyDepth));
+                if (functionBodies != FunctionBodies.LAZY) {
+                    body.parseOn(ForkJoinPool.commonPool());
+                    pendingBodies.add(body);
+                }
+                return body;
+            }
+        }
+        return FunctionBody.of(new Statement.Block(block(openingBrace)));
+    }
+
+    /**
+     * Returns the index of the brace that closes the block starting at
+     * {@code start} (just after its opening brace), or -1 if it's never
+     * closed.
+     */
+    private int closingBrace(final int start) {
+        int depth = 0;
+        for (int i = start; !(tokens[i] instanceof Token.EndOfFile); ++i) {
+            if (tokens[i] instanceof Token.LeftBrace) {
+                ++depth;
+            } else if (tokens[i] instanceof Token.RightBrace && depth-- == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a deferred body, from {@code start} up to the closing brace.
+     * Unlike a body parsed along with everything else, errors in it can't
+     * throw parsing off past the closing brace, so they're recovered from
+     * within the body.
+     */
+    private Statement.Block parseBody(final int start, final int closingBrace, final int bodyDepth)
+            throws InterpreterException {
+        // by the time a lazy body is parsed, it's being called. the bodies
+        // nested in it may well not be
+        final Parser parser = new Parser(tokens, start,
+                functionBodies == FunctionBodies.LAZY ? FunctionBodies.LAZY : FunctionBodies.EAGER, maxDepth,
+                bodyDepth);
+        final List<Statement> statements = new ArrayList<>();
+        while (parser.current < closingBrace) {
+            try {
+                statements.add(parser.declaration());
+            } catch (final InternalParserException e) {
+                parser.issues.add(e.issue);
+                parser.depth = bodyDepth;
+                parser.nesting = 0;
+                parser.synchronize();
+            }
+        }
+        if (!parser.issues.isEmpty()) {
+            throw new InterpreterException(parser.issues);
+        }
+        return new Statement.Block(statements);
+    }
+
     private Statement variableDeclaration() {
-        Token currentToken = tokens.get(current);
+        Token currentToken = tokens[current];
         if (currentToken instanceof Token.Identifier identifier) {
             advance();
-            currentToken = tokens.get(current);
+            currentToken = tokens[current];
             if (currentToken instanceof Token.Equal) {
                 advance();
                 // from the grammar's standpoint, this doesn't make much sense.
@@ -132,12 +401,35 @@ public class Parser {
         throw new InternalParserException(new InterpreterIssue.UnexpectedToken(currentToken));
     }
 
+    /**
+     * Every statement nested in another one comes through here (or through
+     * {@link #functionBody}), which is where the parser recurses, so this is
+     * where nesting gets counted.
+     */
     private Statement statement() {
-        final Token currentToken = tokens.get(current);
+        enter(tokens[current]);
+        final Statement statement = unnestedStatement();
+        leave();
+        return statement;
+    }
+
+    private void enter(final Token token) {
+        if (depth >= maxStatementDepth) {
+            throw new InternalParserException(new InterpreterIssue.NestingTooDeep(token, maxStatementDepth));
+        }
+        ++depth;
+    }
+
+    private void leave() {
+        --depth;
+    }
+
+    private Statement unnestedStatement() {
+        final Token currentToken = tokens[current];
         if (currentToken instanceof Token.Print printToken) {
             advance();
             final Expression valueToPrint = expression();
-            final Token nextToken = tokens.get(current);
+            final Token nextToken = tokens[current];
             if (nextToken instanceof Token.Semicolon) {
                 advance();
                 return new Statement.Print(valueToPrint);
@@ -159,6 +451,9 @@ public class Parser {
         } else if (currentToken instanceof Token.Return returnToken) {
             advance();
             return returnStatement(returnToken);
+        } else if (currentToken instanceof Token.Yield yieldToken) {
+            advance();
+            return new Statement.Yield(yieldToken, optionalValue());
         } else if (currentToken instanceof Token.Assert assertKeyword) {
             advance();
             // use the expressionStatement production so I don't have to check for a semicolon manually
@@ -169,29 +464,36 @@ public class Parser {
     }
 
     private Statement.Return returnStatement(final Token.Return returnKeyword) {
+        return new Statement.Return(returnKeyword, optionalValue());
+    }
+
+    /**
+     * The rest of a return or yield: an optional value, then a semicolon.
+     */
+    private Expression optionalValue() {
         final Expression value;
-        if (!(tokens.get(current) instanceof Token.Semicolon)) {
+        if (!(tokens[current] instanceof Token.Semicolon)) {
             value = expression();
         } else {
             value = null;
         }
-        if (!(tokens.get(current) instanceof Token.Semicolon)) {
-            throw new InternalParserException(new InterpreterIssue.UnexpectedToken(tokens.get(current)));
+        if (!(tokens[current] instanceof Token.Semicolon)) {
+            throw new InternalParserException(new InterpreterIssue.UnexpectedToken(tokens[current]));
         }
         advance(); // consume the trailing semicolon
-        return new Statement.Return(returnKeyword, value);
+        return value;
     }
 
     private Statement forLoop() {
         // read the opening parenthesis
-        final Token potentialOpeningParen = tokens.get(current);
+        final Token potentialOpeningParen = tokens[current];
         if (!(potentialOpeningParen instanceof Token.LeftParenthesis)) {
             throw new InternalParserException(new InterpreterIssue.UnexpectedToken(potentialOpeningParen));
         }
         advance();
         // read the initializer expression (if there is one)
         final Statement initializer;
-        Token currentToken = tokens.get(current);
+        Token currentToken = tokens[current];
         if (currentToken instanceof Token.Semicolon) {
             advance();
             initializer = null;
@@ -203,7 +505,7 @@ public class Parser {
         }
         // read the condition expression (if there is one)
         final Expression condition;
-        currentToken = tokens.get(current);
+        currentToken = tokens[current];
         if (currentToken instanceof Token.Semicolon) {
             // uhhhhhhhhhhhhhhhh, this feels weird. I'm saying that this "token"
             // is on the same line as the current one, even though it doesn't exist.
@@ -216,13 +518,13 @@ public class Parser {
         advance(); // consumes the semicolon
         // read the increment expression (if there is one)
         final Expression increment;
-        currentToken = tokens.get(current);
+        currentToken = tokens[current];
         if (!(currentToken instanceof Token.RightParenthesis)) {
             increment = expression();
         } else {
             increment = null;
         }
-        currentToken = tokens.get(current);
+        currentToken = tokens[current];
         if (!(currentToken instanceof Token.RightParenthesis)) {
             throw new InternalParserException(new InterpreterIssue.UnterminatedGrouping(potentialOpeningParen));
         }
@@ -237,13 +539,13 @@ public class Parser {
     }
 
     private Statement.WhileLoop whileLoop() {
-        final Token potentialOpeningParen = tokens.get(current);
+        final Token potentialOpeningParen = tokens[current];
         if (!(potentialOpeningParen instanceof Token.LeftParenthesis)) {
             throw new InternalParserException(new InterpreterIssue.UnexpectedToken(potentialOpeningParen));
         }
         advance();
         final Expression condition = expression();
-        final Token potentialClosingParen = tokens.get(current);
+        final Token potentialClosingParen = tokens[current];
         if (!(potentialClosingParen instanceof Token.RightParenthesis)) {
             throw new InternalParserException(new InterpreterIssue.UnterminatedGrouping(potentialOpeningParen));
         }
@@ -253,19 +555,19 @@ public class Parser {
     }
 
     private Statement.If ifStatement() {
-        final Token potentialOpeningParen = tokens.get(current);
+        final Token potentialOpeningParen = tokens[current];
         if (!(potentialOpeningParen instanceof Token.LeftParenthesis)) {
             throw new InternalParserException(new InterpreterIssue.UnexpectedToken(potentialOpeningParen));
         }
         advance();
         final Expression condition = expression();
-        final Token potentialClosingParen = tokens.get(current);
+        final Token potentialClosingParen = tokens[current];
         if (!(potentialClosingParen instanceof Token.RightParenthesis)) {
             throw new InternalParserException(new InterpreterIssue.UnterminatedGrouping(potentialOpeningParen));
         }
         advance();
         final Statement thenBranch = statement();
-        final Token potentialElse = tokens.get(current);
+        final Token potentialElse = tokens[current];
         final Statement elseBranch;
         if (potentialElse instanceof Token.Else elseToken) {
             advance();
@@ -278,12 +580,12 @@ public class Parser {
 
     private List<Statement> block(Token.LeftBrace starter) {
         final List<Statement> innerStatements = new ArrayList<>();
-        Token currentToken = tokens.get(current);
+        Token currentToken = tokens[current];
         while (!(currentToken instanceof Token.RightBrace) && !isAtEnd()) {
             innerStatements.add(declaration());
-            currentToken = tokens.get(current);
+            currentToken = tokens[current];
         }
-        final Token endingToken = tokens.get(current);
+        final Token endingToken = tokens[current];
         if (endingToken instanceof Token.RightBrace) {
             advance(); // consume the right brace
             return innerStatements;
@@ -292,9 +594,9 @@ public class Parser {
     }
 
     private Statement.ExpressionStatement expressionStatement() {
-        final Token firstToken = tokens.get(current);
+        final Token firstToken = tokens[current];
         final Expression expression = expression();
-        final Token nextToken = tokens.get(current);
+        final Token nextToken = tokens[current];
         if (nextToken instanceof Token.Semicolon) {
             advance();
             return new Statement.ExpressionStatement(expression);
@@ -303,167 +605,126 @@ public class Parser {
     }
 
     private Expression expression() {
-        return assignment();
+        return expression(Precedence.ASSIGNMENT);
     }
 
-    private Expression assignment() {
-        final Expression expression = or();
-        final Token currentToken = tokens.get(current);
-        if (currentToken instanceof Token.Equal equals) {
+    /**
+     * Parses an expression made of operators that bind at least as tightly as
+     * {@code minimum}, i.e. a Pratt parser. A prefix (a literal, variable,
+     * grouping or unary operator) comes first, then infix operators are folded
+     * in from the left for as long as they bind tightly enough. Each operand on
+     * the right only takes operators that bind tighter than its own operator,
+     * which makes everything left associative except for assignment.
+     */
+    private Expression expression(final Precedence minimum) {
+        Expression left = prefix();
+        while (true) {
+            final Token currentToken = tokens[current];
+            final Precedence precedence = INFIX_PRECEDENCE.get(currentToken.getClass());
+            if (precedence.ordinal() < minimum.ordinal()) {
+                return left;
+            }
             advance();
-            final Expression value = assignment();
-            if (expression instanceof Expression.Variable variableDeclaration) {
-                return new Expression.Assignment(variableDeclaration.identifier(), value);
+            // the table already says what kind of operator this is, which
+            // saves checking the token against each kind in turn
+            switch (precedence) {
+                case CALL -> left = finishCall(left);
+                case ASSIGNMENT -> {
+                    return assignment(left, (Token.Equal) currentToken, operand(Precedence.ASSIGNMENT));
+                }
+                case OR, AND -> left = new Expression.Logical(left, (Token.Logical) currentToken,
+                        operand(precedence.next()));
+                default -> left = new Expression.Binary(left, (Token.BinaryOperator) currentToken,
+                        operand(precedence.next()));
             }
-            // this doesn't need to bail out of parsing because we haven't gotten into
-            // an unworkable state. the syntax itself is fine so far, but it doesn't
-            // make any semantic sense. so, we report the error, but continue parsing
-            // as if nothing went wrong
-            this.issues.add(new InterpreterIssue.InvalidAssignmentTarget(equals));
         }
-        return expression;
     }
 
-    private Expression or() {
-        Expression expression = and();
-        Token currentToken = tokens.get(current);
-        while (currentToken instanceof Token.Or orToken) {
-            advance();
-            final Expression right = and();
-            expression = new Expression.Logical(expression, orToken, right);
-            currentToken = tokens.get(current);
-        }
+    /**
+     * Parses an expression that's part of the one being parsed, after the
+     * token that started it: an operator, an opening parenthesis or a comma.
+     * The first {@link #MAX_RECURSIVE_NESTING} levels recurse, since that's
+     * the fastest way to parse the expressions people write. Anything nested
+     * deeper is left to {@link #deepExpression(Precedence)}.
+     */
+    private Expression operand(final Precedence minimum) {
+        if (nesting == MAX_RECURSIVE_NESTING) {
+            return deepExpression(minimum);
+        }
+        checkDepth(nesting);
+        ++nesting;
+        final Expression expression = expression(minimum);
+        --nesting;
         return expression;
     }
 
-    private Expression and() {
-        Expression expression = equality();
-        Token currentToken = tokens.get(current);
-        while (currentToken instanceof Token.And andToken) {
-            advance();
-            final Expression right = equality();
-            expression = new Expression.Logical(expression, andToken, right);
-            currentToken = tokens.get(current);
+    private void checkDepth(final int expressionNesting) {
+        if (depth + expressionNesting >= maxDepth) {
+            throw new InternalParserException(new InterpreterIssue.NestingTooDeep(tokens[current - 1], maxDepth));
         }
-        return expression;
     }
 
-    private Expression equality() {
-        Expression left = comparison();
-        while (true) {
-            final Token currentToken = tokens.get(current);
-            if (currentToken instanceof Token.BangEqual bangEqual) {
-                advance();
-                left = new Expression.Binary(left, bangEqual, comparison());
-            } else if (currentToken instanceof Token.EqualEqual equalEqual) {
-                advance();
-                left = new Expression.Binary(left, equalEqual, comparison());
-            } else {
-                break;
-            }
-        }
-        return left;
+    private Expression assignment(final Expression target, final Token.Equal equals, final Expression value) {
+        // assignment is right associative, so the value can be another one
+        if (target instanceof Expression.Variable variableDeclaration) {
+            return new Expression.Assignment(variableDeclaration.identifier(), value);
+        }
+        // this doesn't need to bail out of parsing because we haven't gotten into
+        // an unworkable state. the syntax itself is fine so far, but it doesn't
+        // make any semantic sense. so, we report the error, but continue parsing
+        // as if nothing went wrong
+        this.issues.add(new InterpreterIssue.InvalidAssignmentTarget(equals));
+        return target;
     }
 
-    private Expression comparison() {
-        Expression left = term();
-        while (true) {
-            final Token currentToken = tokens.get(current);
-            if (currentToken instanceof Token.Less less) {
-                advance();
-                left = new Expression.Binary(left, less, term());
-            } else if (currentToken instanceof Token.LessEqual lessEqual) {
-                advance();
-                left = new Expression.Binary(left, lessEqual, term());
-            } else if (currentToken instanceof Token.Greater greater) {
-                advance();
-                left = new Expression.Binary(left, greater, term());
-            } else if (currentToken instanceof Token.GreaterEqual greaterEqual) {
-                advance();
-                left = new Expression.Binary(left, greaterEqual, term());
-            } else {
-                break;
-            }
-        }
-        return left;
-    }
-
-    private Expression term() {
-        Expression left = factor();
-        while (true) {
-            final Token currentToken = tokens.get(current);
-            if (currentToken instanceof Token.Minus minus) {
-                advance();
-                left = new Expression.Binary(left, minus, factor());
-            } else if (currentToken instanceof Token.Plus plus) {
-                advance();
-                left = new Expression.Binary(left, plus, factor());
-            } else {
-                break;
-            }
-        }
-        return left;
-    }
-
-    private Expression factor() {
-        Expression left = unary();
-        while (true) {
-            final Token currentToken = tokens.get(current);
-            if (currentToken instanceof Token.Slash slash) {
-                advance();
-                left = new Expression.Binary(left, slash, unary());
-            } else if (currentToken instanceof Token.Star star) {
-                advance();
-                left = new Expression.Binary(left, star, unary());
-            } else {
-                break;
-            }
+    private Expression prefix() {
+        final Token currentToken = tokens[current];
+        if (currentToken instanceof Token.Minus || currentToken instanceof Token.Bang) {
+            advance();
+            return new Expression.Unary((Token.UnaryOperator) currentToken, operand(Precedence.UNARY));
         }
-        return left;
-    }
-
-    private Expression unary() {
-        final Token currentToken = tokens.get(current);
-        if (currentToken instanceof Token.UnaryOperator unaryOperator) {
+        if (currentToken instanceof Token.LeftParenthesis leftParenthesis) {
             advance();
-            return new Expression.Unary(unaryOperator, unary());
+            return grouping(leftParenthesis, operand(Precedence.ASSIGNMENT));
         }
-        return call();
+        return primary();
     }
 
-    private Expression call() {
-        Expression expression = primary();
-        while (true) {
-            final Token currentToken = tokens.get(current);
-            if (currentToken instanceof Token.LeftParenthesis) {
-                advance();
-                expression = finishCall(expression);
-            } else {
-                break;
-            }
+    private Expression grouping(final Token.LeftParenthesis leftParenthesis, final Expression innerExpression) {
+        if (tokens[current] instanceof Token.RightParenthesis) {
+            advance();
+            return new Expression.Grouping(innerExpression);
         }
-        return expression;
+        throw new InternalParserException(new InterpreterIssue.UnterminatedGrouping(leftParenthesis));
     }
 
     private Expression finishCall(final Expression callee) {
         final List<Expression> arguments = new ArrayList<>();
-        final Token potentialClosingParen = tokens.get(current);
+        final Token potentialClosingParen = tokens[current];
         if (!(potentialClosingParen instanceof Token.RightParenthesis)) {
             Token currentToken;
             do {
-                arguments.add(expression());
-                currentToken = tokens.get(current);
+                arguments.add(operand(Precedence.ASSIGNMENT));
+                currentToken = tokens[current];
             } while (currentToken instanceof Token.Comma && advance() != null); // gross...
         }
+        return finishCall(callee, arguments, potentialClosingParen.line());
+    }
+
+    /**
+     * Checks the arguments of a call whose closing parenthesis is next.
+     * {@code firstLine} is the line of the token after the opening one.
+     */
+    private Expression finishCall(final Expression callee, final List<Expression> arguments, final int firstLine) {
         if (arguments.size() > MAX_NUMBER_OF_FUNCTION_PARAMETERS) {
             // again, don't throw since this isn't invalid syntax, just invalid semantics
             // that we don't want to reach the parser
             this.issues.add(
                     new InterpreterIssue.ExceededMaximumFunctionArguments(arguments.size(),
                             MAX_NUMBER_OF_FUNCTION_PARAMETERS,
-                            potentialClosingParen.line()));
+                            firstLine));
         }
-        final Token currentToken = tokens.get(current);
+        final Token currentToken = tokens[current];
         if (currentToken instanceof Token.RightParenthesis closingParen) {
             advance();
             return new Expression.Call(callee, closingParen, arguments);
@@ -471,8 +732,11 @@ public class Parser {
         throw new InternalParserException(new InterpreterIssue.UnexpectedToken(currentToken));
     }
 
+    /**
+     * A literal or a variable, the only expressions without any parts.
+     */
     private Expression primary() {
-        final Token currentToken = tokens.get(current);
+        final Token currentToken = tokens[current];
         if (currentToken instanceof Token.Literal literal) {
             advance();
             return new Expression.Literal(literal);
@@ -481,54 +745,172 @@ public class Parser {
             advance();
             return new Expression.Variable(identifier);
         }
-        if (currentToken instanceof Token.LeftParenthesis leftParenthesis) {
-            advance();
-            final Expression innerExpression = expression();
-            final Token nextToken = tokens.get(current);
-            if (nextToken instanceof Token.RightParenthesis) {
+        throw new InternalParserException(new InterpreterIssue.UnexpectedToken(currentToken));
+    }
+
+    // region Deep expressions
+
+    /**
+     * An operator (or grouping, or call) whose operand on the right is being
+     * parsed. {@code minimum} is what the expression it's part of was parsed
+     * with, to carry on with once it's complete.
+     */
+    private sealed interface Pending {
+        Precedence minimum();
+    }
+
+    private record PendingUnary(Token.UnaryOperator operator, Precedence minimum) implements Pending {
+    }
+
+    private record PendingBinary(Expression left, Token operator, Precedence minimum) implements Pending {
+    }
+
+    private record PendingAssignment(Expression target, Token.Equal equals, Precedence minimum) implements Pending {
+    }
+
+    private record PendingGrouping(Token.LeftParenthesis leftParenthesis, Precedence minimum) implements Pending {
+    }
+
+    private record PendingCall(Expression callee, List<Expression> arguments, int firstLine, Precedence minimum)
+            implements Pending {
+    }
+
+    /**
+     * The same Pratt parser as {@link #expression(Precedence)}, except that
+     * rather than recursing for each operand, the operator waiting for it goes
+     * on an explicit stack. So how deeply an expression can nest only depends
+     * on {@code maxDepth}, not on the Java stack. It's slower than recursing,
+     * which is why it only takes over past {@link #MAX_RECURSIVE_NESTING}.
+     */
+    private Expression deepExpression(final Precedence start) {
+        // left over if the last deep expression had a syntax error
+        pending.clear();
+        Precedence minimum = start;
+        while (true) {
+            // a prefix, which either is an operand or has to wait for one
+            final Token prefixToken = tokens[current];
+            if (prefixToken instanceof Token.Minus || prefixToken instanceof Token.Bang) {
+                advance();
+                push(new PendingUnary((Token.UnaryOperator) prefixToken, minimum));
+                minimum = Precedence.UNARY;
+                continue;
+            } else if (prefixToken instanceof Token.LeftParenthesis leftParenthesis) {
                 advance();
-                return new Expression.Grouping(innerExpression);
+                push(new PendingGrouping(leftParenthesis, minimum));
+                minimum = Precedence.ASSIGNMENT;
+                continue;
+            }
+            Expression left = primary();
+            // infix operators, until one has to wait for its right operand or
+            // nothing is waiting anymore
+            while (true) {
+                final Token currentToken = tokens[current];
+                final Precedence precedence = INFIX_PRECEDENCE.get(currentToken.getClass());
+                if (precedence.ordinal() >= minimum.ordinal()) {
+                    advance();
+                    if (precedence == Precedence.CALL) {
+                        final Token next = tokens[current];
+                        if (next instanceof Token.RightParenthesis) {
+                            left = finishCall(left, new ArrayList<>(), next.line());
+                            continue;
+                        }
+                        push(new PendingCall(left, new ArrayList<>(), next.line(), minimum));
+                    } else if (precedence == Precedence.ASSIGNMENT) {
+                        push(new PendingAssignment(left, (Token.Equal) currentToken, minimum));
+                    } else {
+                        push(new PendingBinary(left, currentToken, minimum));
+                        minimum = precedence.next();
+                        break;
+                    }
+                    minimum = Precedence.ASSIGNMENT;
+                    break;
+                }
+                // left is as complete as it gets at this level, so it's the
+                // operand the innermost waiting operator was after
+                final Pending waiting = pending.pollFirst();
+                if (Objects.isNull(waiting)) {
+                    return left;
+                }
+                minimum = waiting.minimum();
+                if (waiting instanceof PendingBinary binary) {
+                    if (binary.operator() instanceof Token.Logical logical) {
+                        left = new Expression.Logical(binary.left(), logical, left);
+                    } else {
+                        left = new Expression.Binary(binary.left(), (Token.BinaryOperator) binary.operator(), left);
+                    }
+                } else if (waiting instanceof PendingUnary unary) {
+                    left = new Expression.Unary(unary.operator(), left);
+                } else if (waiting instanceof PendingAssignment assignment) {
+                    left = assignment(assignment.target(), assignment.equals(), left);
+                } else if (waiting instanceof PendingGrouping grouping) {
+                    left = grouping(grouping.leftParenthesis(), left);
+                } else if (waiting instanceof PendingCall call) {
+                    call.arguments().add(left);
+                    if (tokens[current] instanceof Token.Comma) {
+                        advance();
+                        pending.push(call);
+                        minimum = Precedence.ASSIGNMENT;
+                        break;
+                    }
+                    left = finishCall(call.callee(), call.arguments(), call.firstLine());
+                }
             }
-            throw new InternalParserException(new InterpreterIssue.UnterminatedGrouping(leftParenthesis));
         }
-        throw new InternalParserException(new InterpreterIssue.UnexpectedToken(currentToken));
     }
 
+    private void push(final Pending operator) {
+        // the recursion that came before counts too
+        checkDepth(nesting + pending.size());
+        pending.push(operator);
+    }
+
+    // endregion
+
     private Token advance() {
         if (!isAtEnd()) {
             current++;
         }
-        return tokens.get(current - 1);
+        return tokens[current - 1];
     }
 
     private boolean isAtEnd() {
-        return tokens.get(current) instanceof Token.EndOfFile;
+        return tokens[current] instanceof Token.EndOfFile;
     }
 
     private void synchronize() {
         advance();
         while (!isAtEnd()) {
-            final Token previousToken = tokens.get(current - 1);
+            final Token previousToken = tokens[current - 1];
             if (previousToken instanceof Token.Semicolon) {
                 return;
             }
-            final Token currentToken = tokens.get(current);
+            final Token currentToken = tokens[current];
             if (currentToken instanceof Token.Class || currentToken instanceof Token.For
                     || currentToken instanceof Token.Fun || currentToken instanceof Token.If
                     || currentToken instanceof Token.Print || currentToken instanceof Token.Return
-                    || currentToken instanceof Token.Var || currentToken instanceof Token.While) {
+                    || currentToken instanceof Token.Var || currentToken instanceof Token.While
+                    || currentToken instanceof Token.Import || currentToken instanceof Token.Yield) {
                 return;
             }
             advance();
         }
     }
 
+    /**
+     * Only used to unwind to the nearest statement boundary, so it never
+     * needs a stack trace and its message is only built if someone asks.
+     */
     private static final class InternalParserException extends RuntimeException {
         public final InterpreterIssue issue;
 
         public InternalParserException(final InterpreterIssue issue) {
-            super(issue.toString());
+            super(null, null, false, false);
             this.issue = issue;
         }
+
+        @Override
+        public String getMessage() {
+            return issue.toString();
+        }
     }
 }
@@ -0,0 +1,358 @@
+package dev.freedman.jlox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The global variables of an interpreter that has already run some library
+ * code (the prelude), frozen so other interpreters can start from them instead
+ * of scanning, parsing and running that code again. See
+ * {@link Interpreter#Interpreter(PrintStream, PreludeSnapshot)}.
+ * <p>
+ * A snapshot never changes after it's captured. Plain values are stored as
+ * they are, since Lox can't modify them. Functions are stored as their
+ * declaration plus the variables their closure captured, and get turned back
+ * into {@link LoxFunction}s closing over the new interpreter's globals when
+ * that interpreter first uses them. The declarations are kept flattened in a
+ * {@link CompactTree}, which is a lot smaller than the parser's records and
+ * only gets turned back into them a function at a time, as they're called. Functions and captured variables that
+ * were shared before (like two closures over the same variable) are still
+ * shared afterwards, within each interpreter.
+ * </p>
+ * <p>
+ * Arrays and maps can be changed, so they're copied: every interpreter gets
+ * its own copy of each one, made when it first uses it.
+ * </p>
+ * <p>
+ * Native functions aren't stored at all, since every interpreter declares its
+ * own: a global holding one is restored as the new interpreter's native
+ * function of the same name.
+ * </p>
+ * <p>
+ * Snapshots are {@link Serializable}, so one can be captured once and written
+ * to disk with {@link #write} for later runs to {@link #read}.
+ * </p>
+ */
+public final class PreludeSnapshot implements Serializable {
+    private static final long serialVersionUID = 2L;
+
+    private final Map<String, Object> globals;
+    private final CompactTree declarations;
+
+    private PreludeSnapshot(final Map<String, Object> globals, final CompactTree declarations) {
+        this.globals = globals;
+        this.declarations = declarations;
+    }
+
+    /**
+     * Runs {@code source} in a fresh interpreter and captures the globals it
+     * ends up with. Anything the prelude prints is thrown away.
+     */
+    public static PreludeSnapshot of(final String source) throws InterpreterException {
+        final Interpreter interpreter = new Interpreter(new PrintStream(OutputStream.nullOutputStream()));
+        for (final Statement statement : JLox.getExecutableStatements(source)) {
+            interpreter.execute(statement);
+        }
+        return capture(interpreter);
+    }
+
+    /**
+     * Captures the current globals of an interpreter. The interpreter can keep
+     * running afterwards; nothing it does changes the snapshot.
+     *
+     * @throws IllegalArgumentException if a global holds a value that can't
+     *                                  be captured, like a function whose body
+     *                                  has syntax errors that haven't come up
+     *                                  yet
+     */
+    public static PreludeSnapshot capture(final Interpreter interpreter) {
+        final Capture capture = new Capture(interpreter);
+        final Map<String, Object> globals = new HashMap<>();
+        for (final String name : interpreter.globals.names()) {
+            final Object value = interpreter.globals.lookUpLocally(name);
+            if (value != null && value == interpreter.nativeFunction(name)) {
+                // every interpreter declares this one for itself
+                continue;
+            }
+            globals.put(name, capture.freeze(value));
+        }
+        return new PreludeSnapshot(Collections.unmodifiableMap(globals), capture.declarations.build());
+    }
+
+    public Set<String> names() {
+        return globals.keySet();
+    }
+
+    public void write(final Path path) throws IOException {
+        try (final ObjectOutputStream output = new ObjectOutputStream(Files.newOutputStream(path))) {
+            output.writeObject(this);
+        }
+    }
+
+    public static PreludeSnapshot read(final Path path) throws IOException {
+        try (final InputStream file = Files.newInputStream(path);
+                final ObjectInputStream input = new ObjectInputStream(file)) {
+            return (PreludeSnapshot) input.readObject();
+        } catch (final ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Not a prelude snapshot: " + path, e);
+        }
+    }
+
+    Restorer restorer(final Interpreter interpreter) {
+        return new Restorer(interpreter);
+    }
+
+    // region Frozen values
+
+    /**
+     * A function as it was captured. {@code declaration} is its node in the
+     * snapshot's {@link CompactTree}. {@code upvalues} is {@code null} for a
+     * function that closed over the globals, which covers every function
+     * declared at the top level.
+     * <p>
+     * These (and {@link FrozenUpvalue}s) can refer back to each other, e.g. a
+     * local function that calls itself, so they're built in two steps and
+     * can't be records, which don't support cycles when serialized.
+     * </p>
+     */
+    private static final class FrozenFunction implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int declaration;
+        private Map<String, FrozenUpvalue> upvalues;
+
+        private FrozenFunction(final int declaration) {
+            this.declaration = declaration;
+        }
+    }
+
+    private static final class FrozenUpvalue implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private Object value;
+    }
+
+    private static final class FrozenArray implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private Object[] elements;
+    }
+
+    private static final class FrozenMap implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private Object[] keys;
+        private Object[] values;
+    }
+
+    private record NativeReference(String name) implements Serializable {
+    }
+
+    private static final class Capture {
+        private final Interpreter interpreter;
+        private final Map<LoxFunction, FrozenFunction> functions = new IdentityHashMap<>();
+        private final Map<Upvalue, FrozenUpvalue> upvalues = new IdentityHashMap<>();
+        private final Map<LoxArray, FrozenArray> arrays = new IdentityHashMap<>();
+        private final Map<LoxMap, FrozenMap> maps = new IdentityHashMap<>();
+        private final CompactTree.Builder declarations = new CompactTree.Builder();
+
+        private Capture(final Interpreter interpreter) {
+            this.interpreter = interpreter;
+        }
+
+        private Object freeze(final Object value) {
+            if (value == null || value instanceof Double || value instanceof String || value instanceof Boolean) {
+                return value;
+            } else if (value instanceof LoxFunction function) {
+                return freeze(function);
+            } else if (value instanceof LoxArray array) {
+                return freeze(array);
+            } else if (value instanceof LoxMap map) {
+                return freeze(map);
+            }
+            final String nativeName = interpreter.nativeName(value);
+            if (nativeName != null) {
+                return new NativeReference(nativeName);
+            }
+            throw new IllegalArgumentException("Can't capture " + value + " in a prelude snapshot");
+        }
+
+        private FrozenFunction freeze(final LoxFunction function) {
+            final FrozenFunction existing = functions.get(function);
+            if (existing != null) {
+                return existing;
+            }
+            final FrozenFunction frozen = new FrozenFunction(declarations.add(function.declaration()));
+            // remember it before following the closure, which may lead back here
+            functions.put(function, frozen);
+            if (function.closure() != interpreter.globals) {
+                final Map<String, FrozenUpvalue> frozenUpvalues = new HashMap<>();
+                for (final String name : function.closure().names()) {
+                    frozenUpvalues.put(name, freeze(function.closure().upvalue(name)));
+                }
+                frozen.upvalues = frozenUpvalues;
+            }
+            return frozen;
+        }
+
+        private FrozenUpvalue freeze(final Upvalue upvalue) {
+            final FrozenUpvalue existing = upvalues.get(upvalue);
+            if (existing != null) {
+                return existing;
+            }
+            final FrozenUpvalue frozen = new FrozenUpvalue();
+            upvalues.put(upvalue, frozen);
+            frozen.value = freeze(upvalue.value);
+            return frozen;
+        }
+
+        private FrozenArray freeze(final LoxArray array) {
+            final FrozenArray existing = arrays.get(array);
+            if (existing != null) {
+                return existing;
+            }
+            final FrozenArray frozen = new FrozenArray();
+            // an array can hold itself
+            arrays.put(array, frozen);
+            final Object[] elements = new Object[array.length()];
+            for (int i = 0; i < elements.length; ++i) {
+                elements[i] = freeze(array.get(i));
+            }
+            frozen.elements = elements;
+            return frozen;
+        }
+
+        private FrozenMap freeze(final LoxMap map) {
+            final FrozenMap existing = maps.get(map);
+            if (existing != null) {
+                return existing;
+            }
+            final FrozenMap frozen = new FrozenMap();
+            maps.put(map, frozen);
+            final List<Object> keys = new ArrayList<>(map.size());
+            final List<Object> values = new ArrayList<>(map.size());
+            map.forEach((key, value) -> {
+                keys.add(freeze(key));
+                values.add(freeze(value));
+            });
+            frozen.keys = keys.toArray();
+            frozen.values = values.toArray();
+            return frozen;
+        }
+    }
+    // endregion
+
+    /**
+     * Turns the snapshot's values back into live ones for a single
+     * interpreter, as its globals ask for them.
+     */
+    final class Restorer {
+        private final Interpreter interpreter;
+        private final Map<FrozenFunction, LoxFunction> functions = new IdentityHashMap<>();
+        private final Map<FrozenUpvalue, Upvalue> upvalues = new IdentityHashMap<>();
+        private final Map<FrozenArray, LoxArray> arrays = new IdentityHashMap<>();
+        private final Map<FrozenMap, LoxMap> maps = new IdentityHashMap<>();
+
+        private Restorer(final Interpreter interpreter) {
+            this.interpreter = interpreter;
+        }
+
+        boolean contains(final String name) {
+            return globals.containsKey(name);
+        }
+
+        Set<String> names() {
+            return globals.keySet();
+        }
+
+        Object restore(final String name) {
+            return thaw(globals.get(name));
+        }
+
+        private Object thaw(final Object value) {
+            if (value instanceof FrozenFunction frozen) {
+                return thaw(frozen);
+            } else if (value instanceof FrozenArray frozen) {
+                return thaw(frozen);
+            } else if (value instanceof FrozenMap frozen) {
+                return thaw(frozen);
+            } else if (value instanceof NativeReference nativeReference) {
+                return interpreter.nativeFunction(nativeReference.name());
+            }
+            return value;
+        }
+
+        private LoxFunction thaw(final FrozenFunction frozen) {
+            final LoxFunction existing = functions.get(frozen);
+            if (existing != null) {
+                return existing;
+            }
+            if (Objects.isNull(frozen.upvalues)) {
+                final LoxFunction function = new LoxFunction(declarations.function(frozen.declaration),
+                        interpreter.globals);
+                functions.put(frozen, function);
+                return function;
+            }
+            final Environment closure = new Environment(interpreter.globals, frozen.upvalues.size());
+            final LoxFunction function = new LoxFunction(declarations.function(frozen.declaration), closure);
+            // remember it before filling in the closure, which may lead back here
+            functions.put(frozen, function);
+            for (final Map.Entry<String, FrozenUpvalue> entry : frozen.upvalues.entrySet()) {
+                closure.defineUpvalue(entry.getKey(), thaw(entry.getValue()));
+            }
+            return function;
+        }
+
+        private Upvalue thaw(final FrozenUpvalue frozen) {
+            final Upvalue existing = upvalues.get(frozen);
+            if (existing != null) {
+                return existing;
+            }
+            final Upvalue upvalue = new Upvalue(null);
+            upvalues.put(frozen, upvalue);
+            upvalue.value = thaw(frozen.value);
+            return upvalue;
+        }
+
+        private LoxArray thaw(final FrozenArray frozen) {
+            final LoxArray existing = arrays.get(frozen);
+            if (existing != null) {
+                return existing;
+            }
+            final LoxArray array = LoxArray.filled(frozen.elements.length, 0.0);
+            arrays.put(frozen, array);
+            for (int i = 0; i < frozen.elements.length; ++i) {
+                array.set(i, thaw(frozen.elements[i]));
+            }
+            return array;
+        }
+
+        private LoxMap thaw(final FrozenMap frozen) {
+            final LoxMap existing = maps.get(frozen);
+            if (existing != null) {
+                return existing;
+            }
+            final LoxMap map = new LoxMap();
+            maps.put(frozen, map);
+            for (int i = 0; i < frozen.keys.length; ++i) {
+                map.put(thaw(frozen.keys[i]), thaw(frozen.values[i]));
+            }
+            return map;
+        }
+    }
+}
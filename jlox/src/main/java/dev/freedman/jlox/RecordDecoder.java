@@ -0,0 +1,551 @@
+package dev.freedman.jlox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Turns JSON and CSV records into Lox values, for natives like
+ * {@code readerJson} and {@code readerCsv} (see {@link Natives}). JSON
+ * objects become {@link LoxMap}s, arrays become {@link LoxArray}s and
+ * {@code null} becomes {@code nil}. CSV rows become arrays of strings.
+ * <p>
+ * Records are decoded in a single pass straight off their UTF-8 bytes, which
+ * for a file are still in its {@link LoxReader}'s buffer, so the only objects
+ * made are the values themselves. Strings without escapes are made straight
+ * from their bytes, and the rest go through one {@link StringBuilder} that's
+ * reused. Numbers of up to 15 digits are worked out exactly without making a
+ * string of them first.
+ * </p>
+ * <p>
+ * Object keys are interned: a small table remembers the strings made for
+ * recent keys, found by hashing and comparing their bytes, so a file of a
+ * million records with the same ten keys makes ten key strings instead of ten
+ * million. It's a cache rather than a set, so a key that collides with
+ * another just replaces it.
+ * </p>
+ * <p>
+ * A decoder is meant to be kept for a whole file (see
+ * {@link LoxReader#decoder()}), so that its buffers and interned keys carry
+ * over from record to record, and isn't safe to share between threads.
+ * </p>
+ */
+final class RecordDecoder {
+    /**
+     * How deeply JSON arrays and objects may nest, unless overridden by the
+     * {@code jlox.records.maxDepth} system property. Decoding recurses, so
+     * this keeps a hostile record from running the Java stack out.
+     */
+    static final int MAX_DEPTH = Integer.getInteger("jlox.records.maxDepth", 500);
+    private static final int KEY_TABLE_SIZE = 1024;
+    // longer keys aren't worth remembering
+    private static final int MAX_INTERNED_KEY_BYTES = 64;
+    // every power of ten that's exactly a double
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    // what's being decoded, and what's reported if it's malformed
+    private String functionName;
+    private byte[] bytes;
+    private int position;
+    private int end;
+    private int lineStart;
+    private long line;
+    // made the first time they're needed
+    private StringBuilder builder;
+    private String[] keys;
+    private byte[][] keyBytes;
+    // estimated size of everything made so far for the current record
+    private long allocatedBytes;
+
+    /**
+     * Decodes {@code bytes[start, end)}, which must hold exactly one JSON
+     * value. {@code line} is the line it's reported as being on.
+     */
+    Object decodeJson(final String functionName, final byte[] bytes, final int start, final int end,
+            final long line) throws InterpreterException {
+        begin(functionName, bytes, start, end, line);
+        skipWhitespace();
+        final Object value = value(0);
+        skipWhitespace();
+        if (position != end) {
+            throw malformed("the end of the record");
+        }
+        return value;
+    }
+
+    /**
+     * Decodes the CSV record starting at {@code reader}'s current line. A
+     * quoted field can go on over the following lines, which are read from
+     * {@code reader} as well, so the reader ends up on the record's last
+     * line.
+     */
+    LoxArray decodeCsv(final String functionName, final LoxReader reader) throws InterpreterException {
+        begin(functionName, reader.lineBytes(), reader.lineStart(), reader.lineEnd(), reader.lineNumber());
+        final LoxArray row = LoxArray.filled(0, null);
+        while (true) {
+            final String field;
+            if (position < end && bytes[position] == '"') {
+                field = quotedField(reader);
+            } else {
+                final int start = position;
+                while (position < end && bytes[position] != ',') {
+                    ++position;
+                }
+                field = made(new String(bytes, start, position - start, StandardCharsets.UTF_8));
+            }
+            row.push(field);
+            if (position == end) {
+                break;
+            }
+            // the comma
+            ++position;
+        }
+        allocatedBytes += row.estimatedBytes();
+        return row;
+    }
+
+    /**
+     * Decodes {@code text} if it's a JSON number (which covers everything
+     * {@code print} shows numbers as), otherwise returns {@code null}.
+     */
+    Double decodeNumber(final String text) {
+        final byte[] textBytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        begin("parseNumber", textBytes, 0, textBytes.length, 1);
+        if (position == end || (bytes[position] != '-' && !isDigit(bytes[position]))) {
+            return null;
+        }
+        try {
+            final Double number = number();
+            return position == end ? number : null;
+        } catch (final InterpreterException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A rough estimate of how much memory the values made by the last call
+     * take up, for {@link Interpreter#allocate}.
+     */
+    long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    private void begin(final String functionName, final byte[] bytes, final int start, final int end,
+            final long line) {
+        this.functionName = functionName;
+        this.bytes = bytes;
+        this.position = start;
+        this.end = end;
+        this.lineStart = start;
+        this.line = line;
+        allocatedBytes = 0;
+    }
+
+    // region JSON
+
+    private Object value(final int depth) throws InterpreterException {
+        if (position == end) {
+            throw malformed("a value");
+        }
+        return switch (bytes[position]) {
+            case '{' -> object(depth + 1);
+            case '[' -> array(depth + 1);
+            case '"' -> made(string());
+            case 't' -> literal("true", Boolean.TRUE);
+            case 'f' -> literal("false", Boolean.FALSE);
+            case 'n' -> literal("null", null);
+            default -> number();
+        };
+    }
+
+    private LoxMap object(final int depth) throws InterpreterException {
+        checkDepth(depth);
+        // the {
+        ++position;
+        final LoxMap map = new LoxMap();
+        skipWhitespace();
+        if (position < end && bytes[position] == '}') {
+            ++position;
+        } else {
+            while (true) {
+                skipWhitespace();
+                if (position == end || bytes[position] != '"') {
+                    throw malformed("a key");
+                }
+                final String key = key();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                map.put(key, value(depth));
+                skipWhitespace();
+                if (position < end && bytes[position] == ',') {
+                    ++position;
+                    continue;
+                }
+                expect('}');
+                break;
+            }
+        }
+        allocatedBytes += map.estimatedBytes();
+        return map;
+    }
+
+    private LoxArray array(final int depth) throws InterpreterException {
+        checkDepth(depth);
+        // the [
+        ++position;
+        // starts out unboxed, since arrays of nothing but numbers are common
+        final LoxArray array = LoxArray.filled(0, 0.0);
+        skipWhitespace();
+        if (position < end && bytes[position] == ']') {
+            ++position;
+        } else {
+            while (true) {
+                skipWhitespace();
+                array.push(value(depth));
+                skipWhitespace();
+                if (position < end && bytes[position] == ',') {
+                    ++position;
+                    continue;
+                }
+                expect(']');
+                break;
+            }
+        }
+        allocatedBytes += array.estimatedBytes();
+        return array;
+    }
+
+    /**
+     * Decodes a key, reusing the string made for the same bytes last time if
+     * there was one.
+     */
+    private String key() throws InterpreterException {
+        final int start = position + 1;
+        int hash = 0;
+        int i = start;
+        while (i < end && bytes[i] != '"') {
+            if (bytes[i] == '\\') {
+                // keys with escapes are rare enough to not bother with
+                return made(string());
+            }
+            hash = 31 * hash + bytes[i];
+            ++i;
+        }
+        if (i == end || i - start > MAX_INTERNED_KEY_BYTES) {
+            return made(string());
+        }
+        position = i + 1;
+        if (keys == null) {
+            keys = new String[KEY_TABLE_SIZE];
+            keyBytes = new byte[KEY_TABLE_SIZE][];
+        }
+        final int slot = (hash ^ (hash >>> 16)) & (KEY_TABLE_SIZE - 1);
+        final byte[] known = keyBytes[slot];
+        if (known != null && Arrays.equals(known, 0, known.length, bytes, start, i)) {
+            return keys[slot];
+        }
+        final String key = made(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+        keys[slot] = key;
+        keyBytes[slot] = Arrays.copyOfRange(bytes, start, i);
+        return key;
+    }
+
+    private String string() throws InterpreterException {
+        final int start = ++position;
+        for (int i = start; i < end; ++i) {
+            final byte b = bytes[i];
+            if (b == '"') {
+                position = i + 1;
+                return new String(bytes, start, i - start, StandardCharsets.UTF_8);
+            }
+            if (b == '\\') {
+                position = i;
+                return escapedString(start);
+            }
+        }
+        position = end;
+        throw malformed("a closing quote");
+    }
+
+    /**
+     * Finishes a string that has escapes in it, the first of which is at
+     * {@link #position}.
+     */
+    private String escapedString(final int start) throws InterpreterException {
+        final StringBuilder text = builder();
+        appendUtf8(text, start, position);
+        int run = position;
+        while (position < end) {
+            final byte b = bytes[position];
+            if (b == '"') {
+                appendUtf8(text, run, position);
+                ++position;
+                return text.toString();
+            }
+            if (b != '\\') {
+                ++position;
+                continue;
+            }
+            appendUtf8(text, run, position);
+            if (++position == end) {
+                break;
+            }
+            switch (bytes[position]) {
+                case '"' -> text.append('"');
+                case '\\' -> text.append('\\');
+                case '/' -> text.append('/');
+                case 'b' -> text.append('\b');
+                case 'f' -> text.append('\f');
+                case 'n' -> text.append('\n');
+                case 'r' -> text.append('\r');
+                case 't' -> text.append('\t');
+                case 'u' -> text.append(unicodeEscape());
+                default -> throw malformed("an escape sequence");
+            }
+            run = ++position;
+        }
+        throw malformed("a closing quote");
+    }
+
+    /**
+     * Decodes the four hex digits of a {@code \\u} escape, leaving
+     * {@link #position} on the last one. Surrogate pairs come out as two
+     * escapes, which make the right character once they're both appended.
+     */
+    private char unicodeEscape() throws InterpreterException {
+        if (end - position < 5) {
+            throw malformed("four hex digits");
+        }
+        int value = 0;
+        for (int i = 0; i < 4; ++i) {
+            final int digit = Character.digit(bytes[++position], 16);
+            if (digit < 0) {
+                throw malformed("four hex digits");
+            }
+            value = value << 4 | digit;
+        }
+        return (char) value;
+    }
+
+    private Object literal(final String word, final Object value) throws InterpreterException {
+        final int length = word.length();
+        if (end - position < length) {
+            throw malformed("a value");
+        }
+        for (int i = 0; i < length; ++i) {
+            if (bytes[position + i] != word.charAt(i)) {
+                throw malformed("a value");
+            }
+        }
+        position += length;
+        return value;
+    }
+
+    /**
+     * Decodes a number with the usual fast path: a mantissa of up to 15
+     * digits and a power of ten up to 22 are both exact as doubles, so one
+     * multiplication or division of the two rounds correctly. Anything else
+     * goes through {@link Double#parseDouble}.
+     */
+    private Double number() throws InterpreterException {
+        final int start = position;
+        final boolean negative = bytes[position] == '-';
+        if (negative) {
+            ++position;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        final int integerStart = position;
+        while (position < end && isDigit(bytes[position])) {
+            // leading zeros don't count towards the digits
+            if (mantissa != 0 || bytes[position] != '0') {
+                if (digits < MAX_EXACT_DIGITS) {
+                    mantissa = mantissa * 10 + (bytes[position] - '0');
+                } else {
+                    ++exponent;
+                }
+                ++digits;
+            }
+            ++position;
+        }
+        if (position == integerStart) {
+            throw malformed("a value");
+        }
+        if (position < end && bytes[position] == '.') {
+            final int fractionStart = ++position;
+            while (position < end && isDigit(bytes[position])) {
+                if (mantissa != 0 || bytes[position] != '0') {
+                    if (digits < MAX_EXACT_DIGITS) {
+                        mantissa = mantissa * 10 + (bytes[position] - '0');
+                        --exponent;
+                    }
+                    ++digits;
+                } else {
+                    --exponent;
+                }
+                ++position;
+            }
+            if (position == fractionStart) {
+                throw malformed("a digit");
+            }
+        }
+        boolean hasExponent = false;
+        if (position < end && (bytes[position] == 'e' || bytes[position] == 'E')) {
+            hasExponent = true;
+            ++position;
+            if (position < end && (bytes[position] == '+' || bytes[position] == '-')) {
+                ++position;
+            }
+            final int exponentStart = position;
+            while (position < end && isDigit(bytes[position])) {
+                ++position;
+            }
+            if (position == exponentStart) {
+                throw malformed("a digit");
+            }
+        }
+        if (hasExponent || digits > MAX_EXACT_DIGITS || exponent < -22 || exponent > 22) {
+            return Double.parseDouble(new String(bytes, start, position - start, StandardCharsets.ISO_8859_1));
+        }
+        final double magnitude = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent]
+                : mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -magnitude : magnitude;
+    }
+    // endregion
+
+    // region CSV
+
+    /**
+     * Decodes a field in quotes, where {@code ""} stands for a quote and line
+     * breaks are part of the field.
+     */
+    private String quotedField(final LoxReader reader) throws InterpreterException {
+        final int start = ++position;
+        // only needed once the field turns out to not be a plain slice
+        StringBuilder text = null;
+        int run = start;
+        while (true) {
+            if (position == end) {
+                if (text == null) {
+                    text = builder();
+                }
+                appendUtf8(text, run, position);
+                text.append('\n');
+                if (!nextLine(reader)) {
+                    throw malformed("a closing quote");
+                }
+                run = position;
+                continue;
+            }
+            if (bytes[position] == '"') {
+                if (position + 1 < end && bytes[position + 1] == '"') {
+                    if (text == null) {
+                        text = builder();
+                    }
+                    // the first quote of the two goes in the field
+                    appendUtf8(text, run, position + 1);
+                    position += 2;
+                    run = position;
+                    continue;
+                }
+                break;
+            }
+            ++position;
+        }
+        final String field;
+        if (text == null) {
+            field = new String(bytes, start, position - start, StandardCharsets.UTF_8);
+        } else {
+            appendUtf8(text, run, position);
+            field = text.toString();
+        }
+        // the closing quote
+        ++position;
+        if (position < end && bytes[position] != ',') {
+            throw malformed("a comma after the closing quote");
+        }
+        return made(field);
+    }
+
+    private boolean nextLine(final LoxReader reader) throws InterpreterException {
+        final boolean found;
+        try {
+            found = reader.next();
+        } catch (final IOException e) {
+            throw new InterpreterException(new InterpreterIssue.FileFailed(functionName, reader.path(),
+                    e.getMessage()));
+        }
+        if (found) {
+            bytes = reader.lineBytes();
+            position = reader.lineStart();
+            end = reader.lineEnd();
+            lineStart = position;
+            line = reader.lineNumber();
+        }
+        return found;
+    }
+    // endregion
+
+    private StringBuilder builder() {
+        if (builder == null) {
+            builder = new StringBuilder();
+        }
+        builder.setLength(0);
+        return builder;
+    }
+
+    /**
+     * Appends {@code bytes[from, to)}, which is ASCII more often than not.
+     */
+    private void appendUtf8(final StringBuilder text, final int from, final int to) {
+        for (int i = from; i < to; ++i) {
+            if (bytes[i] < 0) {
+                text.append(new String(bytes, i, to - i, StandardCharsets.UTF_8));
+                return;
+            }
+            text.append((char) bytes[i]);
+        }
+    }
+
+    private String made(final String string) {
+        allocatedBytes += Interpreter.STRING_BYTES + 2L * string.length();
+        return string;
+    }
+
+    private void skipWhitespace() {
+        while (position < end) {
+            final byte b = bytes[position];
+            if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+                return;
+            }
+            ++position;
+        }
+    }
+
+    private void expect(final char expected) throws InterpreterException {
+        if (position == end || bytes[position] != expected) {
+            throw malformed("'" + expected + "'");
+        }
+        ++position;
+    }
+
+    private void checkDepth(final int depth) throws InterpreterException {
+        if (depth > MAX_DEPTH) {
+            throw malformed("nothing nested more than " + MAX_DEPTH + " deep");
+        }
+    }
+
+    private static boolean isDigit(final byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private InterpreterException malformed(final String expected) {
+        return new InterpreterException(new InterpreterIssue.MalformedRecord(functionName, expected, line,
+                position - lineStart + 1));
+    }
+}
@@ -0,0 +1,306 @@
+package dev.freedman.jlox;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Turns Lox values into JSON and CSV records, for natives like
+ * {@code writerJson} and {@code writerCsv} (see {@link Natives}). It's the
+ * other half of {@link RecordDecoder}, so {@link LoxMap}s become JSON objects,
+ * {@link LoxArray}s become arrays and {@code nil} becomes {@code null}.
+ * <p>
+ * Records are encoded as UTF-8 straight into one byte buffer that's reused
+ * from record to record, without making any strings along the way: not for
+ * escaping strings, and not for numbers either. Whole numbers are written
+ * without a fraction, which is what JSON readers expect for them, and other
+ * numbers the way Java writes doubles, which JSON can read back exactly.
+ * </p>
+ * <p>
+ * Like a decoder, an encoder is meant to be kept for a whole file (see
+ * {@link LoxWriter#encoder()}) and isn't safe to share between threads.
+ * </p>
+ */
+final class RecordEncoder {
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    // the biggest whole numbers that are written without a fraction
+    private static final double MAX_WHOLE = 1e15;
+
+    private String functionName;
+    private byte[] bytes = new byte[256];
+    private int length;
+
+    /**
+     * Encodes {@code value} as JSON, replacing whatever was encoded before.
+     */
+    void encodeJson(final String functionName, final Object value) throws InterpreterException {
+        this.functionName = functionName;
+        length = 0;
+        json(value, 0);
+    }
+
+    /**
+     * Encodes {@code row} as a CSV record, replacing whatever was encoded
+     * before. Strings are quoted if they need to be, and {@code nil} is an
+     * empty field.
+     */
+    void encodeCsv(final String functionName, final LoxArray row) throws InterpreterException {
+        this.functionName = functionName;
+        length = 0;
+        for (int i = 0; i < row.length(); ++i) {
+            if (i > 0) {
+                write((byte) ',');
+            }
+            final Object value = row.get(i);
+            if (value instanceof String string) {
+                csvString(string);
+            } else if (value instanceof Double number) {
+                number(number);
+            } else if (value instanceof Boolean bool) {
+                ascii(bool ? "true" : "false");
+            } else if (value != null) {
+                throw new InterpreterException(new InterpreterIssue.InvalidArgument(functionName,
+                        "a row of strings, numbers, booleans or nil", row));
+            }
+        }
+    }
+
+    /**
+     * The buffer holding what was encoded last, in its first
+     * {@link #length()} bytes.
+     */
+    byte[] bytes() {
+        return bytes;
+    }
+
+    int length() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // region JSON
+
+    private void json(final Object value, final int depth) throws InterpreterException {
+        if (value == null) {
+            ascii("null");
+        } else if (value instanceof Boolean bool) {
+            ascii(bool ? "true" : "false");
+        } else if (value instanceof Double number) {
+            number(number);
+        } else if (value instanceof String string) {
+            jsonString(string);
+        } else if (value instanceof LoxArray array) {
+            checkDepth(value, depth + 1);
+            write((byte) '[');
+            for (int i = 0; i < array.length(); ++i) {
+                if (i > 0) {
+                    write((byte) ',');
+                }
+                json(array.get(i), depth + 1);
+            }
+            write((byte) ']');
+        } else if (value instanceof LoxMap map) {
+            checkDepth(value, depth + 1);
+            write((byte) '{');
+            boolean first = true;
+            for (int entry = 0; entry < map.entryCount(); ++entry) {
+                final Object key = map.keyAt(entry);
+                if (key == null) {
+                    continue;
+                }
+                if (!first) {
+                    write((byte) ',');
+                }
+                first = false;
+                if (key instanceof String string) {
+                    jsonString(string);
+                } else if (key instanceof Double number) {
+                    // JSON keys are always strings
+                    write((byte) '"');
+                    number(number);
+                    write((byte) '"');
+                } else {
+                    throw new InterpreterException(new InterpreterIssue.InvalidArgument(functionName,
+                            "a map with string or number keys", map));
+                }
+                write((byte) ':');
+                json(map.valueAt(entry), depth + 1);
+            }
+            write((byte) '}');
+        } else {
+            throw new InterpreterException(new InterpreterIssue.InvalidArgument(functionName,
+                    "a value JSON can hold", value));
+        }
+    }
+
+    private void jsonString(final String string) {
+        write((byte) '"');
+        final int stringLength = string.length();
+        for (int i = 0; i < stringLength; ++i) {
+            final char c = string.charAt(i);
+            if (c == '"' || c == '\\') {
+                write((byte) '\\');
+                write((byte) c);
+            } else if (c == '\n') {
+                ascii("\\n");
+            } else if (c == '\r') {
+                ascii("\\r");
+            } else if (c == '\t') {
+                ascii("\\t");
+            } else if (c < 0x20) {
+                unicodeEscape(c);
+            } else if (c < 0x80) {
+                write((byte) c);
+            } else if (Character.isHighSurrogate(c) && i + 1 < stringLength
+                    && Character.isLowSurrogate(string.charAt(i + 1))) {
+                utf8(Character.toCodePoint(c, string.charAt(++i)));
+            } else if (Character.isSurrogate(c)) {
+                // only an escape can hold half a pair
+                unicodeEscape(c);
+            } else {
+                utf8(c);
+            }
+        }
+        write((byte) '"');
+    }
+
+    private void unicodeEscape(final char c) {
+        ascii("\\u");
+        for (int shift = 12; shift >= 0; shift -= 4) {
+            write(HEX_DIGITS[(c >> shift) & 0xf]);
+        }
+    }
+
+    private void checkDepth(final Object value, final int depth) throws InterpreterException {
+        // deeper than anything that could be read back in, so most likely a
+        // map or array that holds itself
+        if (depth > RecordDecoder.MAX_DEPTH) {
+            throw new InterpreterException(new InterpreterIssue.InvalidArgument(functionName,
+                    "a value nested at most " + RecordDecoder.MAX_DEPTH + " deep", value));
+        }
+    }
+    // endregion
+
+    // region CSV
+
+    private void csvString(final String string) {
+        boolean needsQuotes = false;
+        for (int i = 0; i < string.length() && !needsQuotes; ++i) {
+            final char c = string.charAt(i);
+            needsQuotes = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!needsQuotes) {
+            text(string);
+            return;
+        }
+        write((byte) '"');
+        for (int i = 0; i < string.length(); i = character(string, i)) {
+            if (string.charAt(i) == '"') {
+                // and again below
+                write((byte) '"');
+            }
+        }
+        write((byte) '"');
+    }
+    // endregion
+
+    /**
+     * Writes a number with no fraction if it's whole, so {@code 3} rather
+     * than {@code 3.0}.
+     */
+    private void number(final double number) throws InterpreterException {
+        if (Double.isNaN(number) || Double.isInfinite(number)) {
+            throw new InterpreterException(new InterpreterIssue.InvalidArgument(functionName, "a finite number",
+                    number));
+        }
+        if (number != Math.rint(number) || Math.abs(number) >= MAX_WHOLE) {
+            ascii(Double.toString(number));
+            return;
+        }
+        long whole = (long) number;
+        if (whole < 0) {
+            write((byte) '-');
+            whole = -whole;
+        }
+        int digits = 1;
+        for (long rest = whole / 10; rest > 0; rest /= 10) {
+            ++digits;
+        }
+        // fill in the digits backwards
+        ensureCapacity(digits);
+        for (int i = length + digits - 1; i >= length; --i) {
+            bytes[i] = (byte) ('0' + whole % 10);
+            whole /= 10;
+        }
+        length += digits;
+    }
+
+    private void text(final String text) {
+        int i = 0;
+        while (i < text.length()) {
+            i = character(text, i);
+        }
+    }
+
+    /**
+     * Writes the character at {@code index} of {@code text}, and returns the
+     * index of the one after it.
+     */
+    private int character(final String text, final int index) {
+        final char c = text.charAt(index);
+        if (c < 0x80) {
+            write((byte) c);
+        } else if (Character.isHighSurrogate(c) && index + 1 < text.length()
+                && Character.isLowSurrogate(text.charAt(index + 1))) {
+            utf8(Character.toCodePoint(c, text.charAt(index + 1)));
+            return index + 2;
+        } else {
+            // a lone surrogate comes out as '?', like String.getBytes
+            utf8(Character.isSurrogate(c) ? '?' : c);
+        }
+        return index + 1;
+    }
+
+    private void utf8(final int codePoint) {
+        if (codePoint < 0x80) {
+            write((byte) codePoint);
+        } else if (codePoint < 0x800) {
+            write((byte) (0xc0 | codePoint >> 6));
+            write((byte) (0x80 | codePoint & 0x3f));
+        } else if (codePoint < 0x10000) {
+            write((byte) (0xe0 | codePoint >> 12));
+            write((byte) (0x80 | codePoint >> 6 & 0x3f));
+            write((byte) (0x80 | codePoint & 0x3f));
+        } else {
+            write((byte) (0xf0 | codePoint >> 18));
+            write((byte) (0x80 | codePoint >> 12 & 0x3f));
+            write((byte) (0x80 | codePoint >> 6 & 0x3f));
+            write((byte) (0x80 | codePoint & 0x3f));
+        }
+    }
+
+    /**
+     * Writes {@code text}, which has to be ASCII.
+     */
+    private void ascii(final String text) {
+        for (int i = 0; i < text.length(); ++i) {
+            write((byte) text.charAt(i));
+        }
+    }
+
+    private void write(final byte b) {
+        if (length == bytes.length) {
+            ensureCapacity(1);
+        }
+        bytes[length++] = b;
+    }
+
+    private void ensureCapacity(final int extra) {
+        if (length + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+        }
+    }
+}
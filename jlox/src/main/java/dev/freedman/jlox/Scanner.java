@@ -14,62 +14,54 @@ public class Scanner {
     private final String source;
     private final List<Token> tokens;
     private final List<InterpreterIssue> errors;
+    private final int end;
+    private final boolean endsSource;
     private int start;
     private int current;
     private int line;
+    private int openStringStart = -1;
+    private int openStringLine;
 
     public Scanner(final String source) {
+        this(source, 0, source.length(), 1, true);
+    }
+
+    /**
+     * Scans only {@code source[from, to)}, which starts on line {@code line}.
+     * If that isn't the end of the source, a string that's still open at
+     * {@code to} isn't an error since it may well end later on; it's
+     * remembered instead (see {@link #openStringStart()}). Used by
+     * {@link ParallelScanner} to scan a chunk of a bigger source.
+     */
+    Scanner(final String source, final int from, final int to, final int line, final boolean endsSource) {
         this.source = source;
         this.tokens = new ArrayList<>();
         this.errors = new ArrayList<>();
-        this.start = 0;
-        this.current = 0;
-        this.line = 1;
+        this.end = to;
+        this.endsSource = endsSource;
+        this.start = from;
+        this.current = from;
+        this.line = line;
     }
 
     public List<Token> scanTokens() throws InterpreterException {
+        scan();
+        tokens.add(new Token.EndOfFile(line));
+        if (!errors.isEmpty()) {
+            throw new InterpreterException(errors);
+        }
+        return tokens;
+    }
+
+    /**
+     * Scans everything without adding an end of file token or throwing, for
+     * callers that stitch several scanners' results together.
+     */
+    void scan() {
         while (!isAtEnd()) {
             start = current;
             final char c = advance();
             switch (c) {
-                case '(' -> tokens.add(new Token.LeftParenthesis(c, line));
-                case ')' -> tokens.add(new Token.RightParenthesis(c, line));
-                case '{' -> tokens.add(new Token.LeftBrace(c, line));
-                case '}' -> tokens.add(new Token.RightBrace(c, line));
-                case ',' -> tokens.add(new Token.Comma(c, line));
-                case '.' -> tokens.add(new Token.Dot(c, line));
-                case '-' -> tokens.add(new Token.Minus(c, line));
-                case '+' -> tokens.add(new Token.Plus(c, line));
-                case ';' -> tokens.add(new Token.Semicolon(c, line));
-                case '*' -> tokens.add(new Token.Star(c, line));
-                case '!' -> {
-                    if (match('=')) {
-                        tokens.add(new Token.BangEqual(source.substring(start, current), line));
-                    } else {
-                        tokens.add(new Token.Bang(c, line));
-                    }
-                }
-                case '=' -> {
-                    if (match('=')) {
-                        tokens.add(new Token.EqualEqual(source.substring(start, current), line));
-                    } else {
-                        tokens.add(new Token.Equal(c, line));
-                    }
-                }
-                case '<' -> {
-                    if (match('=')) {
-                        tokens.add(new Token.LessEqual(source.substring(start, current), line));
-                    } else {
-                        tokens.add(new Token.Less(c, line));
-                    }
-                }
-                case '>' -> {
-                    if (match('=')) {
-                        tokens.add(new Token.GreaterEqual(source.substring(start, current), line));
-                    } else {
-                        tokens.add(new Token.Greater(c, line));
-                    }
-                }
                 case '/' -> {
                     if (match('/')) {
                         // skip a line that contains a comment entirely
@@ -77,7 +69,7 @@ public class Scanner {
                             advance();
                         }
                     } else {
-                        tokens.add(new Token.Slash(c, line));
+                        tokens.add(singleCharacter(c, line));
                     }
                 }
                 case ' ', '\r', '\t' -> {
@@ -88,13 +80,19 @@ public class Scanner {
                     // try to find the closing quote. if we can't find it,
                     // then the string is unterminated and we have a syntax error.
                     // otherwise, we have a string literal
+                    final int startLine = line;
                     while (peek() != '"' && !isAtEnd()) {
                         if (peek() == '\n') {
                             line++;
                         }
                         advance();
                     }
-                    if (isAtEnd()) {
+                    if (isAtEnd() && !endsSource) {
+                        // carries on in the next chunk, or was never closed.
+                        // either way whoever scans on from here has to decide
+                        openStringStart = start;
+                        openStringLine = startLine;
+                    } else if (isAtEnd()) {
                         errors.add(new InterpreterIssue.UnterminatedString(line));
                     } else {
                         advance();
@@ -121,41 +119,119 @@ public class Scanner {
                         while (isAlphaNumeric(peek())) {
                             advance();
                         }
-                        final String lexeme = source.substring(start, current);
-                        final Token token = switch (lexeme) {
-                            case "and" -> new Token.And(lexeme, line);
-                            case "class" -> new Token.Class(lexeme, line);
-                            case "else" -> new Token.Else(lexeme, line);
-                            case "false" -> new Token.False(lexeme, line);
-                            case "for" -> new Token.For(lexeme, line);
-                            case "fun" -> new Token.Fun(lexeme, line);
-                            case "if" -> new Token.If(lexeme, line);
-                            case "nil" -> new Token.Nil(lexeme, line);
-                            case "or" -> new Token.Or(lexeme, line);
-                            case "print" -> new Token.Print(lexeme, line);
-                            case "return" -> new Token.Return(lexeme, line);
-                            case "super" -> new Token.Super(lexeme, line);
-                            case "this" -> new Token.This(lexeme, line);
-                            case "true" -> new Token.True(lexeme, line);
-                            case "var" -> new Token.Var(lexeme, line);
-                            case "while" -> new Token.While(lexeme, line);
-                            case "assert" -> new Token.Assert(lexeme, line);
-                            default -> new Token.Identifier(lexeme, line);
-                        };
-                        tokens.add(token);
+                        tokens.add(keywordOrIdentifier(source.substring(start, current), line));
                     } else {
-                        errors.add(new InterpreterIssue.InvalidCharacter(c, line));
+                        final Token operator = peek() == '=' ? withEqual(c, line) : null;
+                        final Token single = operator == null ? singleCharacter(c, line) : null;
+                        if (operator != null) {
+                            // the =
+                            advance();
+                            tokens.add(operator);
+                        } else if (single != null) {
+                            tokens.add(single);
+                        } else {
+                            errors.add(new InterpreterIssue.InvalidCharacter(c, line));
+                        }
                     }
                 }
             }
         }
-        tokens.add(new Token.EndOfFile(line));
-        if (!errors.isEmpty()) {
-            throw new InterpreterException(errors);
-        }
+    }
+
+    List<Token> tokens() {
         return tokens;
     }
 
+    List<InterpreterIssue> errors() {
+        return errors;
+    }
+
+    int line() {
+        return line;
+    }
+
+    /**
+     * Where the string that was still open at the end of the range started,
+     * or -1 if there wasn't one.
+     */
+    int openStringStart() {
+        return openStringStart;
+    }
+
+    int openStringLine() {
+        return openStringLine;
+    }
+
+    /**
+     * The token that's just {@code c}, or {@code null} if there isn't one.
+     * Shared with {@link MappedScanner}, like {@link #withEqual} and
+     * {@link #keywordOrIdentifier}, so both scanners always agree on what
+     * the tokens are.
+     */
+    static Token singleCharacter(final char c, final int line) {
+        return switch (c) {
+            case '(' -> new Token.LeftParenthesis(c, line);
+            case ')' -> new Token.RightParenthesis(c, line);
+            case '{' -> new Token.LeftBrace(c, line);
+            case '}' -> new Token.RightBrace(c, line);
+            case ',' -> new Token.Comma(c, line);
+            case '.' -> new Token.Dot(c, line);
+            case '-' -> new Token.Minus(c, line);
+            case '+' -> new Token.Plus(c, line);
+            case ';' -> new Token.Semicolon(c, line);
+            case '*' -> new Token.Star(c, line);
+            case '/' -> new Token.Slash(c, line);
+            case '!' -> new Token.Bang(c, line);
+            case '=' -> new Token.Equal(c, line);
+            case '<' -> new Token.Less(c, line);
+            case '>' -> new Token.Greater(c, line);
+            default -> null;
+        };
+    }
+
+    /**
+     * The token that's {@code c} followed by {@code =}, or {@code null} if
+     * there isn't one.
+     */
+    static Token withEqual(final char c, final int line) {
+        return switch (c) {
+            case '!' -> new Token.BangEqual("!=", line);
+            case '=' -> new Token.EqualEqual("==", line);
+            case '<' -> new Token.LessEqual("<=", line);
+            case '>' -> new Token.GreaterEqual(">=", line);
+            default -> null;
+        };
+    }
+
+    /**
+     * The keyword token spelled {@code lexeme}, or an identifier if it isn't
+     * a keyword.
+     */
+    static Token keywordOrIdentifier(final String lexeme, final int line) {
+        return switch (lexeme) {
+            case "and" -> new Token.And(lexeme, line);
+            case "class" -> new Token.Class(lexeme, line);
+            case "else" -> new Token.Else(lexeme, line);
+            case "false" -> new Token.False(lexeme, line);
+            case "for" -> new Token.For(lexeme, line);
+            case "fun" -> new Token.Fun(lexeme, line);
+            case "if" -> new Token.If(lexeme, line);
+            case "nil" -> new Token.Nil(lexeme, line);
+            case "or" -> new Token.Or(lexeme, line);
+            case "print" -> new Token.Print(lexeme, line);
+            case "return" -> new Token.Return(lexeme, line);
+            case "super" -> new Token.Super(lexeme, line);
+            case "this" -> new Token.This(lexeme, line);
+            case "true" -> new Token.True(lexeme, line);
+            case "var" -> new Token.Var(lexeme, line);
+            case "while" -> new Token.While(lexeme, line);
+            case "assert" -> new Token.Assert(lexeme, line);
+            case "import" -> new Token.Import(lexeme, line);
+            case "yield" -> new Token.Yield(lexeme, line);
+            default -> new Token.Identifier(lexeme, line);
+        };
+    }
+
     private boolean isAlpha(char c) {
         return (c >= 'a' && c <= 'z')
                 || (c >= 'A' && c <= 'Z')
@@ -167,7 +243,7 @@ public class Scanner {
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) {
+        if (current + 1 >= end) {
             return '\0';
         }
         return source.charAt(current + 1);
@@ -200,6 +276,6 @@ public class Scanner {
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= end;
     }
 }
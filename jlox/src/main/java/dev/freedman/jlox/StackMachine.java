@@ -0,0 +1,633 @@
+package dev.freedman.jlox;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Runs statements without recursing on the Java stack. Where
+ * {@link Interpreter#execute(Statement)} and
+ * {@link Interpreter#executeExpression(Expression)} call themselves for every
+ * nested node and every Lox call, this keeps what's left to do on a work
+ * stack and the values computed so far on an operand stack, both plain arrays
+ * on the heap. A Lox call pushes a frame onto the work stack instead of a
+ * Java frame onto the thread's stack, so the depth of recursion (and of
+ * nesting) is only limited by {@code limitBytes}, how big the two stacks may
+ * get.
+ * <p>
+ * Each entry on the work stack is a node plus a phase: phase 0 means the node
+ * hasn't started yet, phase {@code k} means its first {@code k} parts are
+ * done. Nodes push their parts on top of a continuation of themselves, so an
+ * expression ends up having pushed exactly one value and a statement none.
+ * Markers on the work stack undo whatever the node that pushed them changed
+ * (the scope, the inlined arguments, the running module) once everything
+ * above them is done, or as a {@code return} or an error unwinds past them.
+ * </p>
+ * <p>
+ * Since all of the state is in the stacks, execution can stop after any
+ * number of steps and pick up later from the same place (see
+ * {@link #run(long)}). Lox functions are always interpreted here, never
+ * compiled by the {@link JitCompiler}, whose code runs on the Java stack.
+ * Natives still get called directly, so a native that calls back into Lox
+ * recurses like the tree walker does.
+ * </p>
+ * <p>
+ * That also makes a machine the natural home for a generator's body (see
+ * {@link LoxGenerator}): each generator runs on a machine of its own, and a
+ * {@code yield} simply stops {@link #run(long)} early.
+ * </p>
+ */
+final class StackMachine {
+    // rough sizes of an entry on each stack with compressed pointers: a node
+    // reference, a phase and a saved reference, or a single value reference
+    static final long WORK_ENTRY_BYTES = 12;
+    static final long VALUE_BYTES = 4;
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Work stack entries that aren't syntax. What each one needs to undo is
+     * in the entry's saved slot.
+     */
+    private enum Marker {
+        // a running Lox function, saved as a Frame
+        CALL_FRAME,
+        // the scope a block replaced
+        RESTORE_ENVIRONMENT,
+        // the inlined call's caller's arguments
+        RESTORE_INLINED,
+        // a running module, saved as a ModuleExit
+        MODULE_END
+    }
+
+    /**
+     * What to go back to after a call: the caller's scope and the height of
+     * the operand stack before the arguments were pushed, plus the bytes the
+     * frame counted against the memory limit.
+     */
+    private record Frame(Environment caller, int valueBase, long frameBytes, int callerLine) {
+    }
+
+    private record ModuleExit(Environment environment, Path directory) {
+    }
+
+    private final Interpreter interpreter;
+    private final long limitBytes;
+    // whether this machine runs a generator, the only place yield works
+    private final boolean generator;
+
+    // the work stack, as three parallel arrays
+    private Object[] nodes = new Object[INITIAL_CAPACITY];
+    private int[] phases = new int[INITIAL_CAPACITY];
+    private Object[] saved = new Object[INITIAL_CAPACITY];
+    private int top;
+
+    private Object[] values = new Object[INITIAL_CAPACITY];
+    private int valueTop;
+
+    // whether run is on the Java stack right now
+    private boolean running;
+    private int callDepth;
+    // line of the innermost running call, for reporting a full stack
+    private int callLine;
+    private Environment startEnvironment;
+    // set by a yield, which ends the current run early
+    private boolean yielded;
+    private Object yieldedValue;
+
+    StackMachine(final Interpreter interpreter, final long limitBytes) {
+        this(interpreter, limitBytes, false);
+    }
+
+    StackMachine(final Interpreter interpreter, final long limitBytes, final boolean generator) {
+        this.interpreter = interpreter;
+        this.limitBytes = limitBytes;
+        this.generator = generator;
+    }
+
+    long limitBytes() {
+        return limitBytes;
+    }
+
+    /**
+     * Whether there's a statement that started and hasn't finished yet,
+     * either because it's running right now or because {@link #run(long)}
+     * stopped it part way through.
+     */
+    boolean isBusy() {
+        return running || top > 0;
+    }
+
+    int callDepth() {
+        return callDepth;
+    }
+
+    /**
+     * Runs {@code statement} to the end.
+     */
+    void execute(final Statement statement) throws InterpreterException {
+        start(statement);
+        run(Long.MAX_VALUE);
+    }
+
+    /**
+     * Sets up {@code statement} to be run by {@link #run(long)}. Only one
+     * statement can be in progress at a time.
+     */
+    void start(final Statement statement) throws InterpreterException {
+        if (isBusy()) {
+            throw new IllegalStateException("Another statement is still running");
+        }
+        startEnvironment = interpreter.environment();
+        callLine = 0;
+        push(statement, 0, null);
+    }
+
+    /**
+     * Sets up a call of {@code function} to be run by {@link #run(long)}, like
+     * {@link #start(Statement)}. This always runs the function's body, even
+     * if it's a generator, and whatever it returns is thrown away.
+     */
+    void startCall(final LoxFunction function, final Object[] arguments) throws InterpreterException {
+        if (isBusy()) {
+            throw new IllegalStateException("Another statement is still running");
+        }
+        startEnvironment = interpreter.environment();
+        callLine = 0;
+        enter(function, arguments, 0);
+    }
+
+    /**
+     * Takes at most {@code maxSteps} steps of the statement that was
+     * {@link #start(Statement) started}, and returns whether it's finished.
+     * If it hasn't, calling this again carries on where it stopped. An error
+     * or a {@code return} outside of any function ends the statement, after
+     * unwinding everything it was in the middle of. On a machine that runs a
+     * generator, a {@code yield} stops it early instead, leaving the value
+     * for {@link #takeYielded()}; anywhere else it's an error.
+     */
+    boolean run(final long maxSteps) throws InterpreterException {
+        long steps = 0;
+        running = true;
+        try {
+            while (top > 0 && !yielded && steps++ < maxSteps) {
+                step();
+            }
+        } catch (final RuntimeException | InterpreterException e) {
+            unwind();
+            throw e;
+        } finally {
+            running = false;
+        }
+        if (top > 0) {
+            return false;
+        }
+        // a finished call leaves its result behind
+        clearValues(0);
+        startEnvironment = null;
+        return true;
+    }
+
+    /**
+     * Whether the last {@link #run(long)} stopped because of a yield.
+     */
+    boolean hasYielded() {
+        return yielded;
+    }
+
+    /**
+     * The value the last yield handed over, which lets {@link #run(long)}
+     * carry on past it.
+     */
+    Object takeYielded() {
+        final Object value = yieldedValue;
+        yielded = false;
+        yieldedValue = null;
+        return value;
+    }
+
+    /**
+     * Abandons the statement in progress, if any, as if it had failed.
+     */
+    void reset() {
+        unwind();
+    }
+
+    private void step() throws InterpreterException {
+        --top;
+        final Object node = nodes[top];
+        final int phase = phases[top];
+        final Object savedValue = saved[top];
+        nodes[top] = null;
+        saved[top] = null;
+        // only test for the records themselves: testing for the Expression
+        // and Statement interfaces over and over is surprisingly slow, since
+        // the JVM only caches one such answer per class
+        if (node instanceof Marker marker) {
+            finish(marker, savedValue);
+        } else if (node != null && !evaluate(node, phase, savedValue)) {
+            // a null is the missing initializer of a for loop
+            execute(node, phase);
+        }
+    }
+
+    // region Statements
+
+    private void execute(final Object statement, final int phase) throws InterpreterException {
+        if (statement instanceof Statement.Print print) {
+            if (phase == 0) {
+                push(print, 1, null);
+                push(print.expression(), 0, null);
+            } else {
+                interpreter.print(popValue());
+            }
+        } else if (statement instanceof Statement.ExpressionStatement expressionStatement) {
+            if (phase == 0) {
+                push(expressionStatement, 1, null);
+                push(expressionStatement.expression(), 0, null);
+            } else {
+                popValue();
+            }
+        } else if (statement instanceof Statement.VariableDeclaration variableDeclaration) {
+            if (phase == 0 && Objects.nonNull(variableDeclaration.expression())) {
+                push(variableDeclaration, 1, null);
+                push(variableDeclaration.expression(), 0, null);
+            } else {
+                final Object value = phase == 0 ? null : popValue();
+                interpreter.environment().declare(variableDeclaration.identifier(), value);
+            }
+        } else if (statement instanceof Statement.Block block) {
+            if (block.declarationCount() > 0) {
+                // no pooling here: a scope is cheap next to everything else
+                // this mode does per statement
+                push(Marker.RESTORE_ENVIRONMENT, 0, interpreter.environment());
+                interpreter.setEnvironment(new Environment(interpreter.environment(), block.declarationCount()));
+            }
+            pushAll(block.statements());
+        } else if (statement instanceof Statement.If ifStatement) {
+            if (phase == 0) {
+                push(ifStatement, 1, null);
+                push(ifStatement.condition(), 0, null);
+            } else if (Token.isTruthy(popValue())) {
+                push(ifStatement.thenBranch(), 0, null);
+            } else if (Objects.nonNull(ifStatement.elseBranch())) {
+                push(ifStatement.elseBranch(), 0, null);
+            }
+        } else if (statement instanceof Statement.WhileLoop whileLoop) {
+            if (phase == 0) {
+                push(whileLoop, 1, null);
+                push(whileLoop.condition(), 0, null);
+            } else if (Token.isTruthy(popValue())) {
+                // check the condition again once the body is done
+                push(whileLoop, 0, null);
+                push(whileLoop.body(), 0, null);
+            }
+        } else if (statement instanceof Statement.Function function) {
+            final Environment environment = interpreter.environment();
+            environment.declare(function.name(), null);
+            environment.assign(function.name(), new LoxFunction(function, interpreter.closureFor(function)));
+        } else if (statement instanceof Statement.Return returnStatement) {
+            if (phase == 0 && Objects.nonNull(returnStatement.value())) {
+                push(returnStatement, 1, null);
+                push(returnStatement.value(), 0, null);
+            } else {
+                returnFromCall(phase == 0 ? null : popValue(), returnStatement.returnKeyword());
+            }
+        } else if (statement instanceof Statement.Yield yieldStatement) {
+            if (!generator) {
+                throw new InterpreterException(
+                        new InterpreterIssue.YieldOutsideGenerator(yieldStatement.yieldKeyword()));
+            }
+            if (phase == 0 && Objects.nonNull(yieldStatement.value())) {
+                push(yieldStatement, 1, null);
+                push(yieldStatement.value(), 0, null);
+            } else {
+                yieldedValue = phase == 0 ? null : popValue();
+                yielded = true;
+            }
+        } else if (statement instanceof Statement.Import importStatement) {
+            final ModuleCache.Module module = interpreter.beginImport(importStatement);
+            if (Objects.nonNull(module)) {
+                push(Marker.MODULE_END, 0, new ModuleExit(interpreter.environment(), interpreter.moduleDirectory()));
+                interpreter.setEnvironment(interpreter.globals);
+                interpreter.setModuleDirectory(module.path().getParent());
+                pushAll(module.statements());
+            }
+        } else if (statement instanceof Statement.Assert assertStatement) {
+            if (phase == 0) {
+                push(assertStatement, 1, null);
+                push(assertStatement.expression(), 0, null);
+            } else {
+                CompiledFunction.checkAssertion(popValue(), assertStatement);
+            }
+        }
+    }
+
+    /**
+     * Leaves the innermost running call with {@code value} as its result, or,
+     * outside of any call, ends the statement the way the tree walker would.
+     */
+    private void returnFromCall(final Object value, final Token.Return keyword) throws InterpreterException {
+        while (top > 0) {
+            --top;
+            final Object node = nodes[top];
+            final Object savedValue = saved[top];
+            nodes[top] = null;
+            saved[top] = null;
+            if (node == Marker.CALL_FRAME) {
+                final Frame frame = (Frame) savedValue;
+                leave(frame);
+                clearValues(frame.valueBase());
+                pushValue(value);
+                return;
+            } else if (node instanceof Marker marker) {
+                finish(marker, savedValue);
+            }
+        }
+        clearValues(0);
+        throw new Return(value, keyword);
+    }
+
+    // endregion
+
+    // region Expressions
+
+    /**
+     * Takes a step of {@code expression}, or returns {@code false} if it's
+     * not an expression after all.
+     */
+    private boolean evaluate(final Object expression, final int phase, final Object savedValue)
+            throws InterpreterException {
+        if (expression instanceof Expression.Literal literal) {
+            pushValue(Interpreter.literalValue(literal.value()));
+        } else if (expression instanceof Expression.Variable variable) {
+            pushValue(interpreter.environment().retrieve(variable.identifier()));
+        } else if (expression instanceof Expression.Grouping grouping) {
+            push(grouping.expression(), 0, null);
+        } else if (expression instanceof Expression.Unary unary) {
+            if (phase == 0) {
+                push(unary, 1, null);
+                push(unary.right(), 0, null);
+            } else {
+                pushValue(unary.operator().evaluateUnaryOperation(popValue()));
+            }
+        } else if (expression instanceof Expression.Binary binary) {
+            if (phase == 0) {
+                // the stack runs the left operand first
+                push(binary, 1, null);
+                push(binary.right(), 0, null);
+                push(binary.left(), 0, null);
+            } else {
+                final Object right = popValue();
+                final Object left = popValue();
+                pushValue(interpreter.evaluateBinary(binary.operator(), left, right));
+            }
+        } else if (expression instanceof Expression.Assignment assignment) {
+            if (phase == 0) {
+                push(assignment, 1, null);
+                push(assignment.assignee(), 0, null);
+            } else {
+                // the assigned value stays on the stack as the result
+                interpreter.environment().assign(assignment.identifier(), values[valueTop - 1]);
+            }
+        } else if (expression instanceof Expression.Logical logical) {
+            if (phase == 0) {
+                push(logical, 1, null);
+                push(logical.left(), 0, null);
+            } else {
+                final Object left = values[valueTop - 1];
+                if (!((logical.operator() instanceof Token.And && !Token.isTruthy(left))
+                        || (logical.operator() instanceof Token.Or && Token.isTruthy(left)))) {
+                    popValue();
+                    push(logical.right(), 0, null);
+                }
+            }
+        } else if (expression instanceof Expression.Call call) {
+            if (phase == 0) {
+                push(call, 1, null);
+                pushAll(call.arguments());
+                push(call.callee(), 0, null);
+            } else {
+                final int count = call.arguments().size();
+                final LoxCallable callable = call.cache().lookup(values[valueTop - count - 1], count, call);
+                final Object[] arguments = popValues(count);
+                popValue();
+                invoke(callable, arguments, call.closingParen().line());
+            }
+        } else if (expression instanceof Expression.DirectCall directCall) {
+            if (phase == 0) {
+                final LoxFunction function = directCall.binding().resolve(interpreter);
+                if (Objects.isNull(function)) {
+                    push(directCall.call(), 0, null);
+                } else {
+                    push(directCall, 1, function);
+                    pushAll(directCall.call().arguments());
+                }
+            } else {
+                // the optimizer already made sure the number of arguments matches
+                final Object[] arguments = popValues(directCall.call().arguments().size());
+                invoke((LoxFunction) savedValue, arguments, directCall.call().closingParen().line());
+            }
+        } else if (expression instanceof Expression.InlinedCall inlinedCall) {
+            if (phase == 0) {
+                if (Objects.isNull(inlinedCall.binding().resolve(interpreter))) {
+                    push(inlinedCall.call(), 0, null);
+                } else {
+                    push(inlinedCall, 1, null);
+                    pushAll(inlinedCall.call().arguments());
+                }
+            } else {
+                final Object[] arguments = popValues(inlinedCall.call().arguments().size());
+                push(Marker.RESTORE_INLINED, 0, interpreter.inlinedArguments());
+                interpreter.setInlinedArguments(arguments);
+                push(inlinedCall.body(), 0, null);
+            }
+        } else if (expression instanceof Expression.InlinedParameter parameter) {
+            pushValue(interpreter.inlinedArguments()[parameter.index()]);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Calls {@code callable}. A Lox function's body gets pushed to run in a
+     * new frame; anything else (generators included, which only make a
+     * {@link LoxGenerator}) runs right away.
+     */
+    private void invoke(final LoxCallable callable, final Object[] arguments, final int line)
+            throws InterpreterException {
+        if (!(callable instanceof LoxFunction function) || function.isGenerator()) {
+            try {
+                pushValue(callable.call(interpreter, arguments));
+            } catch (final InterpreterException e) {
+                throw Interpreter.calledFrom(e, line);
+            }
+            return;
+        }
+        enter(function, arguments, line);
+    }
+
+    private void enter(final LoxFunction function, final Object[] arguments, final int line)
+            throws InterpreterException {
+        final Statement.Function declaration = function.declaration();
+        final List<Statement> body = declaration.body().get().statements();
+        final Environment frame = new Environment(function.closure(), function.frameSize());
+        final List<Token.Identifier> parameters = declaration.parameters();
+        for (int i = 0; i < arguments.length; ++i) {
+            frame.define(parameters.get(i), arguments[i]);
+        }
+        // make room first, so nothing can fail between counting the frame
+        // against the memory limit and pushing the marker that releases it
+        callLine = line;
+        reserve(body.size() + 1);
+        // a generator can be dropped while it's paused, and then nothing would
+        // ever release its frames. they're bounded by this machine's own stack
+        // limit instead
+        final long frameBytes = generator ? 0 : Interpreter.environmentBytes(function.frameSize());
+        interpreter.allocate(frameBytes, declaration.name().line());
+        push(Marker.CALL_FRAME, 0, new Frame(interpreter.environment(), valueTop, frameBytes, line));
+        ++callDepth;
+        interpreter.setEnvironment(frame);
+        pushAll(body);
+    }
+
+    // endregion
+
+    // region Markers
+
+    private void finish(final Marker marker, final Object savedValue) throws InterpreterException {
+        switch (marker) {
+            case CALL_FRAME -> {
+                // the body ran off its end without returning anything
+                leave((Frame) savedValue);
+                pushValue(null);
+            }
+            case RESTORE_ENVIRONMENT -> interpreter.setEnvironment((Environment) savedValue);
+            case RESTORE_INLINED -> interpreter.setInlinedArguments((Object[]) savedValue);
+            case MODULE_END -> {
+                final ModuleExit exit = (ModuleExit) savedValue;
+                interpreter.setEnvironment(exit.environment());
+                interpreter.setModuleDirectory(exit.directory());
+            }
+        }
+    }
+
+    private void leave(final Frame frame) {
+        interpreter.release(frame.frameBytes());
+        interpreter.setEnvironment(frame.caller());
+        callLine = frame.callerLine();
+        --callDepth;
+    }
+
+    /**
+     * Pops everything, undoing what each marker stands for on the way.
+     */
+    private void unwind() {
+        while (top > 0) {
+            --top;
+            final Object node = nodes[top];
+            final Object savedValue = saved[top];
+            nodes[top] = null;
+            saved[top] = null;
+            if (node == Marker.CALL_FRAME) {
+                leave((Frame) savedValue);
+            } else if (node instanceof Marker marker) {
+                try {
+                    finish(marker, savedValue);
+                } catch (final InterpreterException e) {
+                    // only CALL_FRAME pushes a value, which can't fail here
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        clearValues(0);
+        yielded = false;
+        yieldedValue = null;
+        if (Objects.nonNull(startEnvironment)) {
+            interpreter.setEnvironment(startEnvironment);
+            startEnvironment = null;
+        }
+        callDepth = 0;
+    }
+
+    // endregion
+
+    // region Stacks
+
+    private void push(final Object node, final int phase, final Object savedValue) throws InterpreterException {
+        if (top == nodes.length) {
+            reserve(1);
+        }
+        nodes[top] = node;
+        phases[top] = phase;
+        saved[top] = savedValue;
+        ++top;
+    }
+
+    /**
+     * Pushes {@code items} so the first one runs first.
+     */
+    private void pushAll(final List<?> items) throws InterpreterException {
+        reserve(items.size());
+        for (int i = items.size() - 1; i >= 0; --i) {
+            nodes[top] = items.get(i);
+            phases[top] = 0;
+            ++top;
+        }
+    }
+
+    /**
+     * Makes sure the work stack has room for {@code entries} more.
+     */
+    private void reserve(final int entries) throws InterpreterException {
+        if (top + entries <= nodes.length) {
+            return;
+        }
+        final int capacity = grow(nodes.length, top + entries, WORK_ENTRY_BYTES, values.length * VALUE_BYTES);
+        nodes = Arrays.copyOf(nodes, capacity);
+        phases = Arrays.copyOf(phases, capacity);
+        saved = Arrays.copyOf(saved, capacity);
+    }
+
+    private void pushValue(final Object value) throws InterpreterException {
+        if (valueTop == values.length) {
+            values = Arrays.copyOf(values,
+                    grow(values.length, valueTop + 1, VALUE_BYTES, nodes.length * WORK_ENTRY_BYTES));
+        }
+        values[valueTop++] = value;
+    }
+
+    private Object popValue() {
+        final Object value = values[--valueTop];
+        values[valueTop] = null;
+        return value;
+    }
+
+    private Object[] popValues(final int count) {
+        final Object[] popped = Arrays.copyOfRange(values, valueTop - count, valueTop);
+        clearValues(valueTop - count);
+        return popped;
+    }
+
+    private void clearValues(final int height) {
+        Arrays.fill(values, height, valueTop, null);
+        valueTop = height;
+    }
+
+    /**
+     * Returns a new capacity for a stack of {@code length} entries that needs
+     * at least {@code needed}: double, but no more than fits in the budget
+     * next to the other stack's {@code otherBytes}.
+     */
+    private int grow(final int length, final int needed, final long entryBytes, final long otherBytes)
+            throws InterpreterException {
+        final long room = Math.min((limitBytes - otherBytes) / entryBytes, Integer.MAX_VALUE - 8);
+        if (room < needed) {
+            throw new InterpreterException(new InterpreterIssue.StackLimitExceeded(limitBytes, callDepth, callLine));
+        }
+        return (int) Math.min(room, Math.max(needed, 2L * length));
+    }
+
+    // endregion
+}
@@ -1,8 +1,9 @@
 package dev.freedman.jlox;
 
+import java.io.Serializable;
 import java.util.List;
 
-public sealed interface Statement {
+public sealed interface Statement extends Serializable {
     public record Print(Expression expression) implements Statement {
     }
 
@@ -12,7 +13,26 @@ public sealed interface Statement {
     public record VariableDeclaration(Token.Identifier identifier, Expression expression) implements Statement {
     }
 
-    public record Block(List<Statement> statements) implements Statement {
+    /**
+     * Besides its statements, a block knows how many names it declares itself
+     * ({@code declarationCount}, not counting nested blocks). It's worked out
+     * once when the block is built, so the interpreter can size the block's
+     * scope without scanning it every time it runs.
+     */
+    public record Block(List<Statement> statements, int declarationCount) implements Statement {
+        public Block(final List<Statement> statements) {
+            this(statements, countDeclarations(statements));
+        }
+
+        private static int countDeclarations(final List<Statement> statements) {
+            int count = 0;
+            for (final Statement statement : statements) {
+                if (statement instanceof VariableDeclaration || statement instanceof Function) {
+                    count++;
+                }
+            }
+            return count;
+        }
     }
 
     public record If(Expression condition, Statement thenBranch, Statement elseBranch) implements Statement {
@@ -21,8 +41,27 @@ public sealed interface Statement {
     public record WhileLoop(Expression condition, Statement body) implements Statement {
     }
 
-    public record Function(Token.Identifier name, List<Token.Identifier> parameters, Statement.Block body)
-            implements Statement {
+    /**
+     * {@code freeVariables} are the names the body uses without declaring them
+     * (see {@link FreeVariables}), which are all a closure needs to capture.
+     * The body itself may not have been parsed yet (see {@link FunctionBody}).
+     * <p>
+     * {@code profile} is runtime bookkeeping shared by every {@link LoxFunction}
+     * made from this declaration (see {@link FunctionProfile}). It isn't part
+     * of the syntax, so it never affects equality.
+     * </p>
+     */
+    public record Function(Token.Identifier name, List<Token.Identifier> parameters, FunctionBody body,
+            List<String> freeVariables, FunctionProfile profile) implements Statement {
+        public Function(final Token.Identifier name, final List<Token.Identifier> parameters,
+                final Statement.Block body) {
+            this(name, parameters, FunctionBody.of(body));
+        }
+
+        public Function(final Token.Identifier name, final List<Token.Identifier> parameters,
+                final FunctionBody body) {
+            this(name, parameters, body, FreeVariables.of(parameters, body), new FunctionProfile());
+        }
     }
 
     public record Return(Token.Return returnKeyword, Expression value) implements Statement {
@@ -30,4 +69,21 @@ public sealed interface Statement {
 
     public record Assert(Token.Assert assertKeyword, Expression expression) implements Statement {
     }
+
+    /**
+     * {@code import "path";} runs another file's code in the global scope, at
+     * most once per interpreter (see {@link ModuleCache}). A relative path is
+     * relative to the directory of the file doing the importing.
+     */
+    public record Import(Token.Import importKeyword, Token.StringLiteral path) implements Statement {
+    }
+
+    /**
+     * {@code yield value;} hands {@code value} (or nil) to whoever is
+     * consuming the generator it runs in, and pauses the generator until
+     * they ask for the next one (see {@link LoxGenerator}). A function with a
+     * yield of its own, outside of any nested function, is a generator.
+     */
+    public record Yield(Token.Yield yieldKeyword, Expression value) implements Statement {
+    }
 }
@@ -1,10 +1,11 @@
 package dev.freedman.jlox;
 
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Objects;
 
-public sealed interface Token {
+public sealed interface Token extends Serializable {
     int line();
 
     public sealed interface Literal extends Token {
@@ -49,8 +50,8 @@ public sealed interface Token {
             throw new InterpreterException(
                     new InterpreterIssue.InvalidTypesForOperation(
                             "Minus operator (-)",
-                            Collections.singletonList("numbers"),
-                            Arrays.asList(Objects.toString(left), Objects.toString(right)),
+                            InterpreterIssue.InvalidTypesForOperation.NUMBERS,
+                            Arrays.asList(left, right),
                             line));
         }
 
@@ -62,8 +63,8 @@ public sealed interface Token {
             throw new InterpreterException(
                     new InterpreterIssue.InvalidTypesForOperation(
                             "Minus operator (-)",
-                            Collections.singletonList("numbers"),
-                            Collections.singletonList(Objects.toString(right)),
+                            InterpreterIssue.InvalidTypesForOperation.NUMBERS,
+                            Collections.singletonList(right),
                             line));
         }
     }
@@ -77,21 +78,13 @@ public sealed interface Token {
             } else if (left instanceof String leftString && right instanceof String rightString) {
                 return leftString + rightString;
             }
-            // handle invalid cases
-            if ((left instanceof Double && right instanceof String)
-                    || (left instanceof String && right instanceof Double)) {
-                throw new InterpreterException(
-                        new InterpreterIssue.InvalidTypesForOperation(
-                                "Plus operator (+)",
-                                Arrays.asList("numbers", "strings"),
-                                Arrays.asList(Objects.toString(left), Objects.toString(right)),
-                                line));
-            }
+            // handle invalid cases. the operands are kept as-is and only get
+            // turned into text if the issue is actually reported
             throw new InterpreterException(
                     new InterpreterIssue.InvalidTypesForOperation(
                             "Plus operator (+)",
-                            Arrays.asList(Objects.toString(left), Objects.toString(right)),
-                            Arrays.asList(Objects.toString(left), Objects.toString(right)),
+                            InterpreterIssue.InvalidTypesForOperation.NUMBERS_OR_STRINGS,
+                            Arrays.asList(left, right),
                             line));
         }
     }
@@ -108,8 +101,8 @@ public sealed interface Token {
             throw new InterpreterException(
                     new InterpreterIssue.InvalidTypesForOperation(
                             "Division operator (/)",
-                            Collections.singletonList("numbers"),
-                            Arrays.asList(Objects.toString(left), Objects.toString(right)),
+                            InterpreterIssue.InvalidTypesForOperation.NUMBERS,
+                            Arrays.asList(left, right),
                             line));
         }
     }
@@ -123,8 +116,8 @@ public sealed interface Token {
             throw new InterpreterException(
                     new InterpreterIssue.InvalidTypesForOperation(
                             "Multiplication operator (*)",
-                            Collections.singletonList("numbers"),
-                            Arrays.asList(Objects.toString(left), Objects.toString(right)),
+                            InterpreterIssue.InvalidTypesForOperation.NUMBERS,
+                            Arrays.asList(left, right),
                             line));
         }
     }
@@ -164,8 +157,8 @@ public sealed interface Token {
             throw new InterpreterException(
                     new InterpreterIssue.InvalidTypesForOperation(
                             "Greater Than operator (>)",
-                            Collections.singletonList("numbers"),
-                            Arrays.asList(Objects.toString(left), Objects.toString(right)),
+                            InterpreterIssue.InvalidTypesForOperation.NUMBERS,
+                            Arrays.asList(left, right),
                             line));
         }
     }
@@ -179,8 +172,8 @@ public sealed interface Token {
             throw new InterpreterException(
                     new InterpreterIssue.InvalidTypesForOperation(
                             "Greater Than Or Equal To operator (>=)",
-                            Collections.singletonList("numbers"),
-                            Arrays.asList(Objects.toString(left), Objects.toString(right)),
+                            InterpreterIssue.InvalidTypesForOperation.NUMBERS,
+                            Arrays.asList(left, right),
                             line));
         }
     }
@@ -194,8 +187,8 @@ public sealed interface Token {
             throw new InterpreterException(
                     new InterpreterIssue.InvalidTypesForOperation(
                             "Less Than operator (<)",
-                            Collections.singletonList("numbers"),
-                            Arrays.asList(Objects.toString(left), Objects.toString(right)),
+                            InterpreterIssue.InvalidTypesForOperation.NUMBERS,
+                            Arrays.asList(left, right),
                             line));
         }
     }
@@ -209,8 +202,8 @@ public sealed interface Token {
             throw new InterpreterException(
                     new InterpreterIssue.InvalidTypesForOperation(
                             "Less Than Or Equal To operator (<=)",
-                            Collections.singletonList("numbers"),
-                            Arrays.asList(Objects.toString(left), Objects.toString(right)),
+                            InterpreterIssue.InvalidTypesForOperation.NUMBERS,
+                            Arrays.asList(left, right),
                             line));
         }
     }
@@ -281,6 +274,18 @@ public sealed interface Token {
      */
     public record Assert(String lexeme, int line) implements Token {
     }
+
+    /**
+     * Also not part of the Lox spec, see {@link Statement.Import}
+     */
+    public record Import(String lexeme, int line) implements Token {
+    }
+
+    /**
+     * Also not part of the Lox spec, see {@link Statement.Yield}
+     */
+    public record Yield(String lexeme, int line) implements Token {
+    }
     // endregion
 
     public record EndOfFile(int line) implements Token {
@@ -295,7 +300,8 @@ public sealed interface Token {
         if (value instanceof Boolean bool) {
             return bool;
         }
-        // all other values coalesce to true (i.e. all other values are "truthy")
+        // all other values, empty strings, arrays and maps
+        // included, coalesce to true (i.e. all other values are "truthy")
         return true;
     }
 }
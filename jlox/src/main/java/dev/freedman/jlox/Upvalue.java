@@ -0,0 +1,18 @@
+package dev.freedman.jlox;
+
+/**
+ * A variable that a closure captured. Once captured, the variable's scope and
+ * every closure that captured it share this one cell, so an assignment made
+ * through any of them is seen by all the others.
+ * <p>
+ * {@link Environment} stores upvalues in place of the variable's value and
+ * unwraps them on the way in and out, so they never show up as Lox values.
+ * </p>
+ */
+final class Upvalue {
+    Object value;
+
+    Upvalue(final Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,49 @@
+package dev.freedman.jlox;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class BatchRunnerTest {
+    @Test
+    public void Batch_Runs_Every_Script_In_A_Directory(@TempDir final Path directory) throws IOException {
+        // Arrange
+        Files.writeString(directory.resolve("b.lox"), "print \"second\";");
+        Files.writeString(directory.resolve("a.lox"), "print \"first\";");
+        Files.writeString(directory.resolve("not_a_script.txt"), "print \"ignored\";");
+        final List<Path> scripts = BatchRunner.collectScripts(Collections.singletonList(directory.toString()));
+        // Act
+        final BatchRunner.BatchReport report = new BatchRunner(2).run(scripts);
+        // Assert
+        Assertions.assertEquals(Arrays.asList(directory.resolve("a.lox"), directory.resolve("b.lox")), scripts);
+        Assertions.assertEquals(0, report.failures());
+        Assertions.assertEquals("first\n", report.results().get(0).output());
+        Assertions.assertEquals("second\n", report.results().get(1).output());
+    }
+
+    @Test
+    public void Batch_Keeps_Going_After_A_Failing_Script(@TempDir final Path directory) throws IOException {
+        // Arrange
+        final Path failing = Files.writeString(directory.resolve("failing.lox"), "print \"before\";\nassert false;");
+        final Path passing = Files.writeString(directory.resolve("passing.lox"), "var x = 1;\nassert x == 1;");
+        final Path missing = directory.resolve("missing.lox");
+        // Act
+        final BatchRunner.BatchReport report = new BatchRunner().run(Arrays.asList(failing, passing, missing));
+        // Assert
+        Assertions.assertEquals(2, report.failures());
+        Assertions.assertEquals(65, report.exitCode());
+        final BatchRunner.ScriptResult failingResult = report.results().get(0);
+        Assertions.assertEquals(65, failingResult.exitCode());
+        Assertions.assertEquals("before\n", failingResult.output());
+        Assertions.assertTrue(failingResult.errors().get(0) instanceof InterpreterIssue.AssertionError);
+        Assertions.assertTrue(report.results().get(1).succeeded());
+        Assertions.assertEquals(66, report.results().get(2).exitCode());
+    }
+}
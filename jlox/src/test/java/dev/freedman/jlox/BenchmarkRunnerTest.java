@@ -0,0 +1,76 @@
+package dev.freedman.jlox;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class BenchmarkRunnerTest {
+    @Test
+    public void Runner_Measures_Every_Iteration() throws Exception {
+        // Arrange
+        final int[] calls = { 0 };
+        final BenchmarkRunner.Case counting = new BenchmarkRunner.Case() {
+            @Override
+            public String name() {
+                return "counting";
+            }
+
+            @Override
+            public void run() {
+                calls[0]++;
+            }
+        };
+        // Act
+        final BenchmarkRunner.Result result = new BenchmarkRunner(3, 7).run(counting);
+        // Assert
+        Assertions.assertEquals(10, calls[0]);
+        Assertions.assertEquals(7, result.iterations());
+        Assertions.assertTrue(result.p50Nanos() <= result.p90Nanos());
+        Assertions.assertTrue(result.p90Nanos() <= result.p99Nanos());
+    }
+
+    @Test
+    public void Slower_Than_Baseline_Is_A_Regression(@TempDir final Path directory) throws Exception {
+        // Arrange
+        final BenchmarkRunner.Report report = new BenchmarkRunner.Report(List.of(
+                new BenchmarkRunner.Result("steady", 1, 100.0, 0, 0, 0, 0),
+                new BenchmarkRunner.Result("slower", 1, 80.0, 0, 0, 0, 0),
+                new BenchmarkRunner.Result("new", 1, 1.0, 0, 0, 0, 0)));
+        final Path baselineFile = directory.resolve("baseline.properties");
+        BenchmarkRunner.writeBaseline(baselineFile, Map.of("steady", 105.0, "slower", 100.0));
+        // Act
+        final List<BenchmarkRunner.Result> regressions = report
+                .regressions(BenchmarkRunner.readBaseline(baselineFile), 10.0);
+        // Assert
+        Assertions.assertEquals(1, regressions.size());
+        Assertions.assertEquals("slower", regressions.get(0).name());
+    }
+
+    @Test
+    public void Record_Cases_Agree_With_Naive_Versions(@TempDir final Path directory) throws Exception {
+        // Arrange
+        BenchmarkRunner.recordCases(directory);
+        final Map<String, String> outputs = new HashMap<>();
+        // Act
+        for (final String name : BenchmarkRunner.RECORD_CASES) {
+            outputs.put(name, Scripts.run(directory, BenchmarkRunner.benchmarkSource(name)));
+        }
+        // Assert
+        Assertions.assertEquals(outputs.get("records_json"), outputs.get("records_json_naive"));
+        Assertions.assertEquals(outputs.get("records_csv"), outputs.get("records_csv_naive"));
+        Assertions.assertEquals(outputs.get("records_json"), outputs.get("records_csv"));
+        Assertions.assertTrue(outputs.get("records_json").endsWith("\n625.0\n"));
+    }
+
+    @Test
+    public void Corpus_Programs_Run() throws Exception {
+        // Act & Assert (a failing program fails its benchmark)
+        final BenchmarkRunner.Report report = new BenchmarkRunner(0, 1).run(BenchmarkRunner.corpus());
+        Assertions.assertEquals(BenchmarkRunner.CORPUS.size(), report.results().size());
+    }
+}
@@ -0,0 +1,133 @@
+package dev.freedman.jlox;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class CompactTreeTest {
+    @Test
+    public void Happy_Path_Files_Decode_To_Same_Trees() throws IOException, InterpreterException {
+        final File[] files = new File("src/test/resources/happy_path_files")
+                .listFiles((file) -> file.getName().endsWith(".lox"));
+        for (final File file : files) {
+            // Arrange
+            final List<Statement> statements = JLox
+                    .getExecutableStatements(new String(Files.readAllBytes(file.toPath()), Charset.defaultCharset()));
+            // Act
+            final CompactTree tree = CompactTree.of(statements);
+            final List<Statement> decoded = new ArrayList<>();
+            for (int i = 0; i < tree.rootCount(); ++i) {
+                decoded.add(tree.statement(tree.root(i)));
+            }
+            // Assert
+            Assertions.assertEquals(statements, decoded, file.getName());
+        }
+    }
+
+    @Test
+    public void Tree_Can_Be_Walked() throws InterpreterException {
+        // Arrange
+        final CompactTree tree = CompactTree.of(JLox.getExecutableStatements("""
+                var greeting = "hi";
+                fun greet(name) {
+                    if (name == nil) return greeting;
+                    return greeting + " " + name;
+                }
+                print greet("you");
+                """));
+        final Map<CompactTree.Kind, Integer> counts = new EnumMap<>(CompactTree.Kind.class);
+        // Act
+        for (int i = 0; i < tree.rootCount(); ++i) {
+            count(tree, tree.root(i), counts);
+        }
+        // Assert
+        Assertions.assertEquals(3, tree.rootCount());
+        Assertions.assertEquals(1, counts.get(CompactTree.Kind.FUNCTION));
+        Assertions.assertEquals(2, counts.get(CompactTree.Kind.RETURN));
+        Assertions.assertEquals(1, counts.get(CompactTree.Kind.DIRECT_CALL));
+        final int function = tree.root(1);
+        Assertions.assertEquals(new Token.Identifier("name", 2), tree.token(function, 1));
+        Assertions.assertEquals(List.of("greeting"), tree.freeVariables(function));
+        final int ifStatement = tree.child(tree.child(function, 0), 0);
+        Assertions.assertEquals(CompactTree.Kind.IF, tree.kind(ifStatement));
+        Assertions.assertEquals(CompactTree.NONE, tree.child(ifStatement, 2));
+        Assertions.assertEquals(function, tree.target(tree.child(tree.root(2), 0)));
+    }
+
+    @Test
+    public void Functions_Decode_Once_And_Calls_Still_Bind() throws InterpreterException {
+        // Arrange
+        final CompactTree tree = CompactTree.of(JLox.getExecutableStatements("""
+                fun twice(x) {
+                    return x + x;
+                }
+                fun quadruple(x) {
+                    return twice(twice(x));
+                }
+                """));
+        // Act
+        final Statement.Function quadruple = tree.function(tree.root(1));
+        final Statement.Return body = (Statement.Return) quadruple.body().get().statements().get(0);
+        final Expression.InlinedCall call = (Expression.InlinedCall) body.value();
+        // Assert
+        Assertions.assertSame(quadruple, tree.function(tree.root(1)));
+        Assertions.assertSame(tree.function(tree.root(0)).name(), call.binding().name());
+    }
+
+    @Test
+    public void Survives_Serialization() throws IOException, ClassNotFoundException, InterpreterException {
+        // Arrange
+        final List<Statement> statements = JLox.getExecutableStatements("""
+                for (var i = 0; i < 3; i = i + 1) {
+                    print -i * 2.50 >= 1 and !false;
+                }
+                import "module.lox";
+                """);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(CompactTree.of(statements));
+        }
+        // Act
+        final CompactTree tree;
+        try (final ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            tree = (CompactTree) input.readObject();
+        }
+        // Assert
+        Assertions.assertEquals(statements.get(0), tree.statement(tree.root(0)));
+        Assertions.assertEquals(statements.get(1), tree.statement(tree.root(1)));
+    }
+
+    @Test
+    public void Function_With_Syntax_Errors_Is_Refused() throws InterpreterException {
+        // Arrange
+        // only bodies this long get deferred
+        final String body = "print 1;".repeat(Parser.MIN_DEFERRED_BODY_TOKENS / 3) + "print ;";
+        final Parser parser = new Parser(new Scanner("fun broken() { " + body + " }").scanTokens(),
+                Parser.FunctionBodies.LAZY);
+        final List<Statement> statements = parser.parse();
+        // Act & Assert
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CompactTree.of(statements));
+    }
+
+    private static void count(final CompactTree tree, final int node, final Map<CompactTree.Kind, Integer> counts) {
+        if (node == CompactTree.NONE) {
+            return;
+        }
+        counts.merge(tree.kind(node), 1, Integer::sum);
+        for (int i = 0; i < tree.childCount(node); ++i) {
+            count(tree, tree.child(node, i), counts);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package dev.freedman.jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DaemonTest {
+    @Test
+    public void Daemon_Runs_Scripts_And_Reports_Exit_Codes(@TempDir final Path directory) throws Exception {
+        // Arrange
+        final Path socket = directory.resolve("jlox.sock");
+        try (final Daemon daemon = new Daemon(socket, 2, null)) {
+            final Thread server = new Thread(() -> {
+                try {
+                    daemon.serve();
+                } catch (final IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            server.start();
+            final ByteArrayOutputStream passingOutput = new ByteArrayOutputStream();
+            final ByteArrayOutputStream failingOutput = new ByteArrayOutputStream();
+            // Act
+            final int passing = Daemon.send(socket, directory, "print \"hello\"; print 1 + 2;", passingOutput);
+            final int failing = Daemon.send(socket, directory, "print \"before\"; print undefined;", failingOutput);
+            // Assert
+            Assertions.assertEquals(0, passing);
+            Assertions.assertEquals("hello\n3.0\n", passingOutput.toString(StandardCharsets.UTF_8));
+            Assertions.assertEquals(65, failing);
+            Assertions.assertTrue(failingOutput.toString(StandardCharsets.UTF_8)
+                    .startsWith("before\nThe following errors occurred:\n"));
+        }
+    }
+
+    @Test
+    public void Daemon_Serves_Concurrent_Clients(@TempDir final Path directory) throws Exception {
+        // Arrange
+        final Path socket = directory.resolve("jlox.sock");
+        try (final Daemon daemon = new Daemon(socket, 4, PreludeSnapshot.of("var greeting = \"hi\";"))) {
+            final Thread server = new Thread(() -> {
+                try {
+                    daemon.serve();
+                } catch (final IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            server.start();
+            // Act
+            final List<CompletableFuture<String>> clients = new ArrayList<>();
+            for (int i = 0; i < 8; ++i) {
+                final String source = "var n = " + i + "; print greeting; print n;";
+                clients.add(CompletableFuture.supplyAsync(() -> {
+                    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+                    try {
+                        Daemon.send(socket, directory, source, output);
+                    } catch (final IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return output.toString(StandardCharsets.UTF_8);
+                }));
+            }
+            // Assert
+            for (int i = 0; i < clients.size(); ++i) {
+                Assertions.assertEquals("hi\n" + i + ".0\n", clients.get(i).get());
+            }
+        }
+    }
+
+    @Test
+    public void Daemon_Imports_Relative_To_The_Client_Script(@TempDir final Path directory) throws Exception {
+        // Arrange
+        final Path socket = directory.resolve("jlox.sock");
+        final Path scripts = Files.createDirectory(directory.resolve("scripts"));
+        Files.writeString(scripts.resolve("greeting.lox"), "var greeting = \"hi\";");
+        try (final Daemon daemon = new Daemon(socket, 1, null)) {
+            final Thread server = new Thread(() -> {
+                try {
+                    daemon.serve();
+                } catch (final IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            server.start();
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            // Act
+            final int exitCode = Daemon.send(socket, scripts, "import \"greeting.lox\"; print greeting;", output);
+            // Assert
+            Assertions.assertEquals(0, exitCode, output.toString(StandardCharsets.UTF_8));
+            Assertions.assertEquals("hi\n", output.toString(StandardCharsets.UTF_8));
+        }
+    }
+}
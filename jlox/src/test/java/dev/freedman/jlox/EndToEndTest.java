@@ -1,14 +1,17 @@
 package dev.freedman.jlox;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.stream.Stream;
 
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Named;
 import org.junit.jupiter.api.extension.ExtensionContext;
@@ -59,4 +62,56 @@ public class EndToEndTest {
         // no distinct Assert state because all we expect is for everything to work.
         // if it makes it here, then everything is okay. otherwise, the test fails
     }
+
+    @DisplayName("Happy Path Test (compiled)")
+    @ParameterizedTest(name = "{index}: {0}")
+    @ArgumentsSource(HappyPathFileNamesArgumentsProvider.class)
+    public void HappyPathTests_Compiled(final String fileContents) throws InterpreterException {
+        // Act
+        final String interpretedOutput = run(fileContents, -1, false);
+        // a threshold of 0 compiles every function the first time it's called
+        final String compiledOutput = run(fileContents, 0, false);
+        // Assert
+        Assertions.assertEquals(interpretedOutput, compiledOutput);
+    }
+
+    @DisplayName("Happy Path Test (optimized)")
+    @ParameterizedTest(name = "{index}: {0}")
+    @ArgumentsSource(HappyPathFileNamesArgumentsProvider.class)
+    public void HappyPathTests_Optimized(final String fileContents) throws InterpreterException {
+        // Act
+        final String unoptimizedOutput = run(fileContents, -1, false);
+        final String optimizedOutput = run(fileContents, -1, true);
+        // Assert
+        Assertions.assertEquals(unoptimizedOutput, optimizedOutput);
+    }
+
+    @DisplayName("Happy Path Test (heap stack)")
+    @ParameterizedTest(name = "{index}: {0}")
+    @ArgumentsSource(HappyPathFileNamesArgumentsProvider.class)
+    public void HappyPathTests_HeapStack(final String fileContents) throws InterpreterException {
+        // Act
+        final String interpretedOutput = run(fileContents, -1, true);
+        final String heapStackOutput = run(fileContents, -1, true, 1 << 20);
+        // Assert
+        Assertions.assertEquals(interpretedOutput, heapStackOutput);
+    }
+
+    private static String run(final String fileContents, final int jitThreshold, final boolean optimize)
+            throws InterpreterException {
+        return run(fileContents, jitThreshold, optimize, 0);
+    }
+
+    private static String run(final String fileContents, final int jitThreshold, final boolean optimize,
+            final long heapStackLimit) throws InterpreterException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Interpreter interpreter = new Interpreter(new PrintStream(output, true, Charset.defaultCharset()));
+        interpreter.setJitThreshold(jitThreshold);
+        interpreter.setHeapStackLimit(heapStackLimit);
+        final List<Statement> statements = new Parser(new Scanner(fileContents).scanTokens()).parse();
+        for (final Statement statement : optimize ? GlobalFunctionOptimizer.optimize(statements) : statements) {
+            interpreter.execute(statement);
+        }
+        return output.toString(Charset.defaultCharset());
+    }
 }
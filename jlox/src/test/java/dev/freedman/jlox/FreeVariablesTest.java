@@ -0,0 +1,57 @@
+package dev.freedman.jlox;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class FreeVariablesTest {
+    @Test
+    public void Only_Undeclared_Names_Are_Free() throws InterpreterException {
+        // Arrange & Act
+        final Statement.Function function = parseFunction("""
+                fun f(parameter) {
+                    print before;
+                    var before = parameter;
+                    var local = before + outside;
+                    {
+                        var nested = local;
+                        fun g() {
+                            return nested + local + captured + g;
+                        }
+                    }
+                    return nested;
+                }
+                """);
+        // Assert
+        Assertions.assertEquals(List.of("before", "outside", "captured", "nested"), function.freeVariables());
+    }
+
+    @Test
+    public void Closure_Only_Keeps_What_It_Uses() throws InterpreterException {
+        // Arrange
+        final Interpreter interpreter = new Interpreter();
+        for (final Statement statement : JLox.getExecutableStatements("""
+                fun make() {
+                    var big = "a lot of data";
+                    var small = 1;
+                    fun useSmall() {
+                        return small;
+                    }
+                    return useSmall;
+                }
+                var closure = make();
+                """)) {
+            interpreter.execute(statement);
+        }
+        final Environment closure = ((LoxFunction) interpreter.globals
+                .retrieve(new Token.Identifier("closure", 0))).closure();
+        // Act & Assert
+        Assertions.assertEquals(1.0, closure.retrieve(new Token.Identifier("small", 0)));
+        Assertions.assertNull(closure.capture("big", interpreter.globals));
+    }
+
+    private static Statement.Function parseFunction(final String source) throws InterpreterException {
+        return (Statement.Function) new Parser(new Scanner(source).scanTokens()).parse().get(0);
+    }
+}
@@ -0,0 +1,78 @@
+package dev.freedman.jlox;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class GlobalFunctionOptimizerTest {
+    @Test
+    public void Calls_To_Stable_Globals_Are_Bound_Or_Inlined() throws InterpreterException {
+        // Arrange & Act
+        final List<Statement> statements = JLox.getExecutableStatements("""
+                fun square(x) { return x * x; }
+                fun loud(x) { print x; return x; }
+                fun reassigned() { return 1; }
+                reassigned = square;
+                square(2);
+                loud(3);
+                reassigned();
+                square(1, 2);
+                """);
+        // Assert
+        Assertions.assertTrue(expressionOf(statements.get(4)) instanceof Expression.InlinedCall);
+        Assertions.assertTrue(expressionOf(statements.get(5)) instanceof Expression.DirectCall);
+        Assertions.assertTrue(expressionOf(statements.get(6)) instanceof Expression.Call);
+        // a call with the wrong number of arguments has to keep failing
+        Assertions.assertTrue(expressionOf(statements.get(7)) instanceof Expression.Call);
+    }
+
+    @Test
+    public void Redefined_Function_Falls_Back_To_Regular_Call() throws InterpreterException {
+        // Arrange
+        final Interpreter interpreter = new Interpreter();
+        // like the REPL, each "line" is optimized on its own
+        run(interpreter, """
+                fun twice(x) { return x + x; }
+                fun useTwice(x) { return twice(x); }
+                """);
+        Assertions.assertEquals(8.0, run(interpreter, "useTwice(4);"));
+        // Act
+        run(interpreter, "twice = nil;");
+        final InterpreterException exception = Assertions.assertThrows(InterpreterException.class,
+                () -> run(interpreter, "useTwice(4);"));
+        // Assert
+        Assertions.assertTrue(exception.getErrors().get(0) instanceof InterpreterIssue.ValueNotCallable);
+    }
+
+    @Test
+    public void Call_Before_Declaration_Still_Fails() throws InterpreterException {
+        // Arrange
+        final List<Statement> statements = JLox.getExecutableStatements("""
+                early();
+                fun early() { return 1; }
+                """);
+        final Interpreter interpreter = new Interpreter();
+        // Act
+        final InterpreterException exception = Assertions.assertThrows(InterpreterException.class,
+                () -> interpreter.execute(statements.get(0)));
+        // Assert
+        Assertions.assertTrue(exception.getErrors().get(0) instanceof InterpreterIssue.VariableNotDefined);
+    }
+
+    private static Expression expressionOf(final Statement statement) {
+        return ((Statement.ExpressionStatement) statement).expression();
+    }
+
+    private static Object run(final Interpreter interpreter, final String source) throws InterpreterException {
+        Object result = null;
+        for (final Statement statement : JLox.getExecutableStatements(source)) {
+            if (statement instanceof Statement.ExpressionStatement expressionStatement) {
+                result = interpreter.executeExpression(expressionStatement.expression());
+            } else {
+                interpreter.execute(statement);
+            }
+        }
+        return result;
+    }
+}
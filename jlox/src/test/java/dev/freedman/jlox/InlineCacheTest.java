@@ -0,0 +1,61 @@
+package dev.freedman.jlox;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class InlineCacheTest {
+    @Test
+    public void Cache_Goes_From_Monomorphic_To_Megamorphic() throws InterpreterException {
+        // Arrange
+        final List<Statement> statements = new Parser(new Scanner("""
+                fun a() { return 1; }
+                fun b() { return 2; }
+                fun c() { return 3; }
+                fun d() { return 4; }
+                fun e() { return 5; }
+                fun callIt(f) {
+                    return f();
+                }
+                """).scanTokens()).parse();
+        final Interpreter interpreter = new Interpreter();
+        interpreter.setJitThreshold(-1);
+        for (final Statement statement : statements) {
+            interpreter.execute(statement);
+        }
+        final Statement.Function callIt = (Statement.Function) statements.get(5);
+        final Statement.Return returnStatement = (Statement.Return) callIt.body().parsed().statements().get(0);
+        final InlineCache cache = ((Expression.Call) returnStatement.value()).cache();
+        // Act & Assert
+        Assertions.assertEquals(0, cache.size());
+        for (final String name : List.of("a", "a", "b", "c", "d", "e", "a")) {
+            interpreter.execute(new Parser(new Scanner("callIt(" + name + ");").scanTokens()).parse().get(0));
+        }
+        Assertions.assertEquals(InlineCache.MAX_ENTRIES, cache.size());
+        Assertions.assertTrue(cache.isMegamorphic());
+    }
+
+    @Test
+    public void Cached_Call_Still_Checks_Other_Callees() throws InterpreterException {
+        // Arrange
+        final List<Statement> statements = new Parser(new Scanner("""
+                fun noArguments() { return 1; }
+                fun oneArgument(x) { return x; }
+                fun callIt(f) {
+                    return f();
+                }
+                callIt(noArguments);
+                callIt(oneArgument);
+                """).scanTokens()).parse();
+        final Interpreter interpreter = new Interpreter();
+        for (int i = 0; i < 4; ++i) {
+            interpreter.execute(statements.get(i));
+        }
+        // Act
+        final InterpreterException exception = Assertions.assertThrows(InterpreterException.class,
+                () -> interpreter.execute(statements.get(4)));
+        // Assert
+        Assertions.assertTrue(exception.getErrors().get(0) instanceof InterpreterIssue.InvalidNumberOfArguments);
+    }
+}
@@ -0,0 +1,81 @@
+package dev.freedman.jlox;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class JitCompilerTest {
+    @Test
+    public void Hot_Function_Gets_Compiled() throws InterpreterException {
+        // Arrange
+        final List<Statement> statements = parse("""
+                fun fib(n) {
+                    if (n <= 1) {
+                        return n;
+                    }
+                    return fib(n - 2) + fib(n - 1);
+                }
+                assert fib(20) == 6765;
+                """);
+        final Interpreter interpreter = new Interpreter();
+        interpreter.setJitThreshold(10);
+        // Act
+        for (final Statement statement : statements) {
+            interpreter.execute(statement);
+        }
+        // Assert
+        final Statement.Function fib = (Statement.Function) statements.get(0);
+        Assertions.assertTrue(fib.profile().isCompiled());
+    }
+
+    @Test
+    public void Compiled_Code_Reports_The_Same_Errors() throws InterpreterException {
+        // Arrange
+        final List<Statement> statements = parse("""
+                fun subtract(a, b) {
+                    return a - b;
+                }
+                subtract("one", 1);
+                """);
+        final Interpreter interpreter = new Interpreter();
+        interpreter.setJitThreshold(0);
+        interpreter.execute(statements.get(0));
+        // Act
+        final InterpreterException exception = Assertions.assertThrows(InterpreterException.class,
+                () -> interpreter.execute(statements.get(1)));
+        // Assert
+        Assertions.assertTrue(((Statement.Function) statements.get(0)).profile().isCompiled());
+        Assertions.assertEquals(
+                new InterpreterIssue.InvalidTypesForOperation("Minus operator (-)",
+                        InterpreterIssue.InvalidTypesForOperation.NUMBERS, List.of("one", 1.0), 2),
+                exception.getErrors().get(0));
+    }
+
+    @Test
+    public void Unsupported_Function_Falls_Back_To_Interpreter() throws InterpreterException {
+        // Arrange
+        final List<Statement> statements = parse("""
+                fun makeAdder(x) {
+                    fun add(y) {
+                        return x + y;
+                    }
+                    return add;
+                }
+                assert makeAdder(1)(2) == 3;
+                """);
+        final Interpreter interpreter = new Interpreter();
+        interpreter.setJitThreshold(0);
+        // Act
+        for (final Statement statement : statements) {
+            interpreter.execute(statement);
+        }
+        // Assert
+        Assertions.assertNull(JitCompiler.compile((Statement.Function) statements.get(0)));
+        Assertions.assertFalse(((Statement.Function) statements.get(0)).profile().isCompiled());
+    }
+
+    private static List<Statement> parse(final String source) throws InterpreterException {
+        return new Parser(new Scanner(source).scanTokens()).parse();
+    }
+}
@@ -0,0 +1,107 @@
+package dev.freedman.jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LoxArrayTest {
+    @Test
+    public void Numbers_Stay_Unboxed_Until_Something_Else_Is_Stored() throws InterpreterException {
+        // Arrange
+        final LoxArray array = LoxArray.filled(3, 1.0);
+        // Act
+        array.push(2.0);
+        final boolean numericAfterPush = array.isNumeric();
+        array.set(0, "one");
+        final boolean numericAfterString = array.isNumeric();
+        array.fill(4.0);
+        // Assert
+        Assertions.assertTrue(numericAfterPush);
+        Assertions.assertFalse(numericAfterString);
+        Assertions.assertTrue(array.isNumeric());
+        Assertions.assertEquals(16.0, array.sum());
+        Assertions.assertEquals("[4.0, 4.0, 4.0, 4.0]", array.toString());
+    }
+
+    @Test
+    public void Boxed_Arrays_Keep_Their_Elements() throws InterpreterException {
+        // Arrange
+        final LoxArray array = LoxArray.filled(0, 0.0);
+        for (int i = 0; i < 20; ++i) {
+            array.push((double) (20 - i));
+        }
+        // Act
+        array.push(null);
+        array.set(20, 0.0);
+        array.sort();
+        // Assert
+        Assertions.assertFalse(array.isNumeric());
+        Assertions.assertEquals(21, array.length());
+        Assertions.assertEquals(0.0, array.get(0));
+        Assertions.assertEquals(20.0, array.get(20));
+        Assertions.assertEquals(210.0, array.sum());
+    }
+
+    @Test
+    public void Natives_Reject_Bad_Arguments() {
+        // Arrange
+        final Interpreter interpreter = Scripts.interpreter(new ByteArrayOutputStream());
+        // Act
+        final InterpreterException outOfBounds = Assertions.assertThrows(InterpreterException.class,
+                () -> Scripts.run(interpreter, "arrayGet(array(2, 0), 2);"));
+        final InterpreterException notAnArray = Assertions.assertThrows(InterpreterException.class,
+                () -> Scripts.run(interpreter, "arrayPush(\"nope\", 1);"));
+        final InterpreterException mixed = Assertions.assertThrows(InterpreterException.class,
+                () -> Scripts.run(interpreter, """
+                        var a = array(1, 1);
+                        arrayPush(a, "two");
+                        arraySort(a);
+                        """));
+        // Assert
+        Assertions.assertEquals(new InterpreterIssue.IndexOutOfBounds("arrayGet", 2.0, 2),
+                outOfBounds.getErrors().get(0));
+        Assertions.assertEquals(new InterpreterIssue.InvalidArgument("arrayPush", "an array", "nope"),
+                notAnArray.getErrors().get(0));
+        Assertions.assertInstanceOf(InterpreterIssue.InvalidArgument.class, mixed.getErrors().get(0));
+    }
+
+    @Test
+    public void Arrays_Count_Against_The_Memory_Limit() {
+        // Arrange
+        final Interpreter interpreter = Scripts.interpreter(new ByteArrayOutputStream());
+        interpreter.setMemoryLimit(1_000_000);
+        // Act
+        final InterpreterException exception = Assertions.assertThrows(InterpreterException.class,
+                () -> Scripts.run(interpreter, """
+                        var a = array(0, nil);
+                        while (true) {
+                            arrayPush(a, 1);
+                        }
+                        """));
+        // Assert
+        Assertions.assertInstanceOf(InterpreterIssue.MemoryLimitExceeded.class, exception.getErrors().get(0));
+    }
+
+    @Test
+    public void Printing_Stops_At_Cycles_Through_Other_Containers() throws InterpreterException {
+        // Arrange
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Interpreter interpreter = Scripts.interpreter(output);
+        // Act
+        Scripts.run(interpreter, """
+                var a = array(1, nil);
+                var b = array(1, a);
+                arraySet(a, 0, b);
+                var m = map();
+                mapSet(m, "a", a);
+                arrayPush(a, m);
+                print a;
+                print b;
+                """);
+        // Assert
+        Assertions.assertEquals("[[[...]], {a: [...]}]\n[[[...], {a: [...]}]]\n",
+                output.toString(Charset.defaultCharset()));
+    }
+}
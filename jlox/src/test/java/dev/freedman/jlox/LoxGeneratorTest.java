@@ -0,0 +1,153 @@
+package dev.freedman.jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LoxGeneratorTest {
+    @Test
+    public void Body_Only_Runs_When_Asked() throws InterpreterException {
+        // Arrange
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Interpreter interpreter = Scripts.interpreter(output);
+        // Act
+        Scripts.run(interpreter, """
+                fun chatty() {
+                    print "first";
+                    yield 1;
+                    print "second";
+                    yield 2;
+                    print "done";
+                }
+                var g = chatty();
+                print "created";
+                print generatorNext(g);
+                print generatorNext(g);
+                print generatorDone(g);
+                """);
+        // Assert
+        Assertions.assertEquals("created\nfirst\n1.0\nsecond\n2.0\ndone\ntrue\n",
+                output.toString(Charset.defaultCharset()));
+        Assertions.assertSame(interpreter.globals, interpreter.environment());
+    }
+
+    @Test
+    public void Return_Ends_Generator() throws InterpreterException {
+        // Arrange
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Interpreter interpreter = Scripts.interpreter(output);
+        Scripts.run(interpreter, """
+                fun upTo(n) {
+                    for (var i = 0; ; i = i + 1) {
+                        if (i == n) return "ignored";
+                        yield i;
+                    }
+                }
+                var g = upTo(2);
+                while (!generatorDone(g)) print generatorNext(g);
+                """);
+        // Act
+        final InterpreterException exception = Assertions.assertThrows(InterpreterException.class,
+                () -> Scripts.run(interpreter, "generatorNext(g);"));
+        // Assert
+        Assertions.assertEquals("0.0\n1.0\n", output.toString(Charset.defaultCharset()));
+        Assertions.assertInstanceOf(InterpreterIssue.InvalidArgument.class, exception.getErrors().get(0));
+    }
+
+    @Test
+    public void Generator_Cannot_Resume_Itself() throws InterpreterException {
+        // Arrange
+        final Interpreter interpreter = Scripts.interpreter(new ByteArrayOutputStream());
+        Scripts.run(interpreter, """
+                var g;
+                fun selfish() {
+                    yield generatorNext(g);
+                }
+                g = selfish();
+                """);
+        // Act
+        final InterpreterException exception = Assertions.assertThrows(InterpreterException.class,
+                () -> Scripts.run(interpreter, "generatorNext(g);"));
+        // Assert
+        final InterpreterIssue.InvalidArgument issue = (InterpreterIssue.InvalidArgument) exception.getErrors()
+                .get(0);
+        Assertions.assertEquals("generatorNext", issue.functionName());
+        // the error ended it
+        Scripts.run(interpreter, "assert generatorDone(g);");
+        Assertions.assertSame(interpreter.globals, interpreter.environment());
+    }
+
+    @Test
+    public void Yield_Outside_Function_Is_Reported() {
+        for (final long heapStackLimit : new long[] { 0, 1 << 20 }) {
+            // Arrange
+            final Interpreter interpreter = Scripts.interpreter(new ByteArrayOutputStream());
+            interpreter.setHeapStackLimit(heapStackLimit);
+            // Act
+            final InterpreterException exception = Assertions.assertThrows(InterpreterException.class,
+                    () -> Scripts.run(interpreter, "{ yield 1; }"));
+            // Assert
+            Assertions.assertInstanceOf(InterpreterIssue.YieldOutsideGenerator.class, exception.getErrors().get(0));
+        }
+    }
+
+    @Test
+    public void Many_Yields_Work_With_Jit() throws InterpreterException {
+        // Arrange
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Interpreter interpreter = Scripts.interpreter(output);
+        interpreter.setJitThreshold(0);
+        // Act
+        Scripts.run(interpreter, """
+                fun square(x) {
+                    return x * x;
+                }
+                fun squares(n) {
+                    var i = 0;
+                    while (i < n) {
+                        yield square(i);
+                        i = i + 1;
+                    }
+                }
+                var g = squares(100000);
+                var total = 0;
+                while (!generatorDone(g)) total = total + generatorNext(g);
+                print total;
+                """);
+        // Assert
+        double expected = 0;
+        for (int i = 0; i < 100_000; ++i) {
+            expected += (double) i * i;
+        }
+        Assertions.assertEquals(expected + "\n", output.toString(Charset.defaultCharset()));
+    }
+
+    @Test
+    public void Dropped_Generators_Leave_Nothing_Counted() throws InterpreterException {
+        // Arrange
+        final Interpreter interpreter = Scripts.interpreter(new ByteArrayOutputStream());
+        interpreter.setMemoryLimit(Long.MAX_VALUE);
+        Scripts.run(interpreter, """
+                fun naturals() {
+                    var n = 0;
+                    while (true) {
+                        yield n;
+                        n = n + 1;
+                    }
+                }
+                """);
+        final long before = interpreter.getAllocatedBytes();
+        // Act
+        Scripts.run(interpreter, """
+                {
+                    var g = naturals();
+                    generatorNext(g);
+                    generatorNext(g);
+                }
+                """);
+        // Assert
+        Assertions.assertEquals(before, interpreter.getAllocatedBytes());
+    }
+}
@@ -0,0 +1,70 @@
+package dev.freedman.jlox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LoxMapTest {
+    @Test
+    public void Keys_Compare_Like_Lox_Equality() {
+        // Arrange
+        final LoxMap map = new LoxMap();
+        final LoxArray array = LoxArray.filled(1, 0.0);
+        // Act
+        map.put(1.0, "one");
+        map.put("1", "string one");
+        map.put(true, "yes");
+        map.put(array, "array");
+        map.put(1.0, "uno");
+        // Assert
+        Assertions.assertEquals(4, map.size());
+        Assertions.assertEquals("uno", map.get(1.0));
+        Assertions.assertEquals("uno", map.get((Object) 1.0));
+        Assertions.assertEquals("string one", map.get(new String("1")));
+        Assertions.assertEquals("yes", map.get(true));
+        Assertions.assertEquals("array", map.get(array));
+        Assertions.assertNull(map.get(LoxArray.filled(1, 0.0)));
+        Assertions.assertNull(map.get(null));
+        Assertions.assertFalse(map.containsKey(2.0));
+    }
+
+    @Test
+    public void Matches_HashMap_Through_Growth_And_Removal() {
+        // Arrange
+        final LoxMap map = new LoxMap();
+        final Map<Object, Object> expected = new HashMap<>();
+        // Act
+        for (int i = 0; i < 5_000; ++i) {
+            final Object key = i % 3 == 0 ? "key" + i : (double) (i * 7 % 1_000);
+            map.put(key, i);
+            expected.put(key, i);
+            if (i % 5 == 0) {
+                final Object removed = (double) (i % 1_000);
+                Assertions.assertEquals(expected.remove(removed) != null, map.remove(removed));
+            }
+        }
+        // Assert
+        Assertions.assertEquals(expected.size(), map.size());
+        for (final Map.Entry<Object, Object> entry : expected.entrySet()) {
+            Assertions.assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void Iterates_In_Insertion_Order() {
+        // Arrange
+        final LoxMap map = new LoxMap();
+        for (int i = 10; i > 0; --i) {
+            map.put((double) i, "v" + i);
+        }
+        // Act
+        map.remove(5.0);
+        map.put(10.0, "ten");
+        map.put(5.0, "five");
+        // Assert
+        Assertions.assertEquals("[10.0, 9.0, 8.0, 7.0, 6.0, 4.0, 3.0, 2.0, 1.0, 5.0]", map.keys().toString());
+        Assertions.assertEquals("[ten, v9, v8, v7, v6, v4, v3, v2, v1, five]", map.values().toString());
+    }
+}
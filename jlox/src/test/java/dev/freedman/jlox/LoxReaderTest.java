@@ -0,0 +1,119 @@
+package dev.freedman.jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class LoxReaderTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    public void Lines_Are_Read_Lazily_Across_Buffer_Refills() throws IOException {
+        // Arrange
+        final StringBuilder contents = new StringBuilder();
+        // longer than the buffer, so the lines straddle refills and one of
+        // them has to grow it
+        for (int i = 0; i < 20_000; ++i) {
+            contents.append("line ").append(i).append(i % 2 == 0 ? "\r\n" : "\n");
+        }
+        contents.append("é".repeat(LoxReader.BUFFER_BYTES)).append("\nlast");
+        final Path file = Files.writeString(directory.resolve("input.txt"), contents, StandardCharsets.UTF_8);
+        // Act
+        final LoxReader reader = LoxReader.open("input.txt", file);
+        int lines = 0;
+        String line = null;
+        String longLine = null;
+        while (reader.next()) {
+            ++lines;
+            if (lines == 12_345) {
+                line = reader.line();
+            } else if (lines == 20_001) {
+                longLine = reader.line();
+            }
+        }
+        // Assert
+        Assertions.assertEquals(20_002, lines);
+        Assertions.assertEquals("line 12344", line);
+        Assertions.assertEquals("é".repeat(LoxReader.BUFFER_BYTES), longLine);
+        Assertions.assertNull(reader.line());
+        Assertions.assertTrue(reader.isClosed());
+        Assertions.assertFalse(reader.next());
+    }
+
+    @Test
+    public void Script_Copies_File_Through_Writer() throws IOException, InterpreterException {
+        // Arrange
+        Files.writeString(directory.resolve("in.txt"), "keep 1\nskip\nkeep ünïcode\n\nkeep 3");
+        // Act
+        final String output = Scripts.run(directory, """
+                var reader = fileReader("in.txt");
+                var writer = fileWriter("out.txt");
+                var kept = 0;
+                while (readerNext(reader)) {
+                    var line = readerLine(reader);
+                    if (line != "skip" and line != "") {
+                        writerLine(writer, line);
+                        kept = kept + 1;
+                    }
+                }
+                writerWrite(writer, kept);
+                writerClose(writer);
+                writerClose(writer);
+                print readerLine(reader);
+                """);
+        // Assert
+        Assertions.assertEquals("null\n", output);
+        Assertions.assertEquals("keep 1\nkeep ünïcode\nkeep 3\n3.0", Files.readString(directory.resolve("out.txt")));
+    }
+
+    @Test
+    public void Missing_File_Is_Reported() {
+        // Act
+        final InterpreterException exception = Assertions.assertThrows(InterpreterException.class,
+                () -> Scripts.run(directory, "fileReader(\"missing.txt\");"));
+        // Assert
+        Assertions.assertEquals(new InterpreterIssue.FileFailed("fileReader", "missing.txt", "no such file"),
+                exception.getErrors().get(0));
+    }
+
+    @Test
+    public void Closed_Writer_Is_Refused() throws IOException {
+        // Act
+        final InterpreterException exception = Assertions.assertThrows(InterpreterException.class,
+                () -> Scripts.run(directory, """
+                        var writer = fileWriter("out.txt");
+                        writerClose(writer);
+                        writerLine(writer, "too late");
+                        """));
+        // Assert
+        final InterpreterIssue.InvalidArgument issue = (InterpreterIssue.InvalidArgument) exception.getErrors()
+                .get(0);
+        Assertions.assertEquals("writerLine", issue.functionName());
+        Assertions.assertEquals("", Files.readString(directory.resolve("out.txt")));
+    }
+
+    @Test
+    public void Writers_Left_Open_Are_Closed_When_The_Script_Fails() throws IOException {
+        // Arrange
+        final Path script = Files.writeString(directory.resolve("main.lox"), """
+                var writer = fileWriter("out.txt");
+                writerLine(writer, "written");
+                print undefined;
+                """);
+        // Act
+        final int exitCode = JLox.runScript(script,
+                new PrintStream(new ByteArrayOutputStream(), true, Charset.defaultCharset()), null);
+        // Assert
+        Assertions.assertEquals(65, exitCode);
+        Assertions.assertEquals("written\n", Files.readString(directory.resolve("out.txt")));
+    }
+}
@@ -0,0 +1,67 @@
+package dev.freedman.jlox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class MappedScannerTest {
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @ValueSource(ints = { 16, 1 << 30 })
+    public void Matches_Scanner_On_Happy_Path_Files(final int segmentSize) throws IOException, InterpreterException {
+        try (final Stream<Path> files = Files.list(Path.of("src/test/resources/happy_path_files"))) {
+            for (final Path file : files.toList()) {
+                // Arrange
+                final String source = Files.readString(file, StandardCharsets.UTF_8);
+                // Act
+                final List<Token> actual = new MappedScanner(file, segmentSize).scanTokens();
+                // Assert
+                Assertions.assertEquals(new Scanner(source).scanTokens(), actual, file.toString());
+            }
+        }
+    }
+
+    @Test
+    public void Decodes_Strings_And_Reports_Invalid_Characters_Like_Scanner() throws IOException {
+        // Arrange
+        final String source = """
+                // comments can say anything: naïve ☃
+                var greeting = "héllo, 世界 🌍";
+                var café = 1;
+                print 🌍;
+                print "never
+                closed;
+                """;
+        final Path file = Files.writeString(directory.resolve("unicode.lox"), source, StandardCharsets.UTF_8);
+        // Act
+        final InterpreterException actual = Assertions.assertThrows(InterpreterException.class,
+                () -> new MappedScanner(file, 16).scanTokens());
+        // Assert
+        final InterpreterException expected = Assertions.assertThrows(InterpreterException.class,
+                () -> new Scanner(source).scanTokens());
+        Assertions.assertEquals(expected.getErrors(), actual.getErrors());
+        // é, both halves of the emoji and the unterminated string
+        Assertions.assertEquals(4, actual.getErrors().size());
+    }
+
+    @Test
+    public void Scans_Empty_File() throws IOException, InterpreterException {
+        // Arrange
+        final Path file = Files.writeString(directory.resolve("empty.lox"), "");
+        // Act
+        final List<Token> actual = new MappedScanner(file).scanTokens();
+        // Assert
+        Assertions.assertEquals(List.of(new Token.EndOfFile(1)), actual);
+    }
+}
@@ -0,0 +1,156 @@
+package dev.freedman.jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class MemoryLimitTest {
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @ValueSource(ints = { -1, 0 })
+    public void Growing_String_Hits_Limit(final int jitThreshold) throws InterpreterException {
+        // Arrange
+        final Interpreter interpreter = Scripts.interpreter(new ByteArrayOutputStream());
+        interpreter.setJitThreshold(jitThreshold);
+        interpreter.setMemoryLimit(1_000_000);
+        Scripts.run(interpreter, """
+                fun grow(s) {
+                    return s + s;
+                }
+                """);
+        // Act
+        final InterpreterException exception = Assertions.assertThrows(InterpreterException.class,
+                () -> Scripts.run(interpreter, """
+                        var s = "x";
+                        while (true) {
+                            s = grow(s);
+                        }
+                        """));
+        // Assert
+        final InterpreterIssue.MemoryLimitExceeded issue = (InterpreterIssue.MemoryLimitExceeded) exception
+                .getErrors().get(0);
+        Assertions.assertEquals(1_000_000, issue.limitBytes());
+        Assertions.assertTrue(issue.requestedBytes() > issue.limitBytes());
+        Assertions.assertEquals(2, issue.line());
+        Assertions.assertTrue(interpreter.getPeakAllocatedBytes() <= 1_000_000);
+    }
+
+    @Test
+    public void Frames_Are_Released_After_Calls() throws InterpreterException {
+        // Arrange
+        final Interpreter interpreter = new Interpreter();
+        interpreter.setJitThreshold(-1);
+        interpreter.setMemoryLimit(Long.MAX_VALUE);
+        Scripts.run(interpreter, """
+                fun countDown(n) {
+                    if (n > 0) countDown(n - 1);
+                }
+                """);
+        final long before = interpreter.getAllocatedBytes();
+        // Act
+        Scripts.run(interpreter, "countDown(100);");
+        // Assert
+        Assertions.assertEquals(before, interpreter.getAllocatedBytes());
+        Assertions.assertTrue(interpreter.getPeakAllocatedBytes() >= before + 100 * Interpreter.environmentBytes(1));
+    }
+
+    @Test
+    public void No_Accounting_Without_Limit() throws InterpreterException {
+        // Arrange
+        final Interpreter interpreter = new Interpreter();
+        interpreter.setMemoryLimit(0);
+        // Act
+        Scripts.run(interpreter, "var s = \"a\" + \"b\";");
+        // Assert
+        Assertions.assertEquals(0, interpreter.getAllocatedBytes());
+        Assertions.assertEquals(0, interpreter.getPeakAllocatedBytes());
+    }
+
+    @Test
+    public void Containers_Are_Charged_Before_They_Are_Allocated() throws InterpreterException {
+        // Arrange
+        final Interpreter interpreter = Scripts.interpreter(new ByteArrayOutputStream());
+        interpreter.setMemoryLimit(1_000_000);
+        Scripts.run(interpreter, """
+                var small = array(0, 0);
+                var m = map();
+                """);
+        // Act
+        final InterpreterException hugeArray = Assertions.assertThrows(InterpreterException.class,
+                () -> Scripts.run(interpreter, "array(200000000, 0);"));
+        final InterpreterException growingArray = Assertions.assertThrows(InterpreterException.class,
+                () -> Scripts.run(interpreter, "while (true) arrayPush(small, 0);"));
+        final long beforeMap = interpreter.getAllocatedBytes();
+        final InterpreterException growingMap = Assertions.assertThrows(InterpreterException.class,
+                () -> Scripts.run(interpreter, """
+                        for (var i = 0; true; i = i + 1) mapSet(m, i, i);
+                        """));
+        // Assert
+        Assertions.assertInstanceOf(InterpreterIssue.MemoryLimitExceeded.class, hugeArray.getErrors().get(0));
+        Assertions.assertInstanceOf(InterpreterIssue.MemoryLimitExceeded.class, growingArray.getErrors().get(0));
+        Assertions.assertInstanceOf(InterpreterIssue.MemoryLimitExceeded.class, growingMap.getErrors().get(0));
+        Assertions.assertTrue(interpreter.getAllocatedBytes() > beforeMap);
+        Assertions.assertTrue(interpreter.getPeakAllocatedBytes() <= 1_000_000);
+    }
+
+    @Test
+    public void Streaming_A_File_Only_Needs_Room_For_A_Line() throws IOException, InterpreterException {
+        // Arrange
+        final StringBuilder contents = new StringBuilder();
+        for (int i = 0; i < 20_000; ++i) {
+            contents.append("{\"line\": ").append(i).append(", \"text\": \"").append("x".repeat(40)).append("\"}\n");
+        }
+        Files.writeString(directory.resolve("big.jsonl"), contents);
+        final Interpreter interpreter = Scripts.interpreter(new ByteArrayOutputStream());
+        interpreter.setModuleDirectory(directory);
+        interpreter.setMemoryLimit(LoxReader.BUFFER_BYTES + 100_000);
+        final long before = interpreter.getAllocatedBytes();
+        // Act
+        Scripts.run(interpreter, """
+                var reader = fileReader("big.jsonl");
+                var total = 0;
+                while (readerNext(reader)) {
+                    total = total + stringLength(readerLine(reader));
+                    total = total + mapGet(readerJson(reader), "line");
+                }
+                """);
+        // Assert
+        Assertions.assertTrue(contents.length() > interpreter.getMemoryLimit());
+        Assertions.assertEquals(before, interpreter.getAllocatedBytes());
+        Assertions.assertTrue(interpreter.getPeakAllocatedBytes() > before + LoxReader.BUFFER_BYTES);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { -1, 0 })
+    public void Natives_Report_The_Line_They_Were_Called_From(final int jitThreshold) throws InterpreterException {
+        // Arrange
+        final Interpreter interpreter = Scripts.interpreter(new ByteArrayOutputStream());
+        interpreter.setJitThreshold(jitThreshold);
+        interpreter.setMemoryLimit(1_000_000);
+        Scripts.run(interpreter, """
+                fun make(length) {
+                    return array(length, 0);
+                }
+                make(1);
+                """);
+        // Act
+        final InterpreterException inFunction = Assertions.assertThrows(InterpreterException.class,
+                () -> Scripts.run(interpreter, "make(200000000);"));
+        final InterpreterException atTopLevel = Assertions.assertThrows(InterpreterException.class,
+                () -> Scripts.run(interpreter, "\n\narray(200000000, 0);"));
+        // Assert
+        Assertions.assertEquals(2,
+                ((InterpreterIssue.MemoryLimitExceeded) inFunction.getErrors().get(0)).line());
+        Assertions.assertEquals(3,
+                ((InterpreterIssue.MemoryLimitExceeded) atTopLevel.getErrors().get(0)).line());
+    }
+}
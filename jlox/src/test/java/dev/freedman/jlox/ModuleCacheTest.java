@@ -0,0 +1,139 @@
+package dev.freedman.jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ModuleCacheTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    public void Modules_Run_Once_Per_Interpreter() throws IOException {
+        // Arrange
+        Files.createDirectory(directory.resolve("lib"));
+        Files.writeString(directory.resolve("lib/a.lox"), """
+                import "b.lox";
+                print "a";
+                fun twice(x) { return x * 2; }
+                """);
+        Files.writeString(directory.resolve("lib/b.lox"), """
+                import "a.lox";
+                print "b";
+                var counter = 0;
+                """);
+        final Path script = Files.writeString(directory.resolve("main.lox"), """
+                import "lib/a.lox";
+                import "lib/b.lox";
+                {
+                    import "lib/a.lox";
+                    counter = counter + 1;
+                }
+                print twice(counter);
+                """);
+        // Act
+        final String first = run(script);
+        final String second = run(script);
+        // Assert
+        Assertions.assertEquals("b\na\n2.0\n", first);
+        Assertions.assertEquals(first, second);
+    }
+
+    @Test
+    public void Concurrent_First_Imports_Share_One_Parse() throws Exception {
+        // Arrange
+        final StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 2_000; ++i) {
+            source.append("var x").append(i).append(" = ").append(i).append(" * 2;\n");
+        }
+        final Path module = Files.writeString(directory.resolve("big.lox"), source);
+        final ModuleCache cache = new ModuleCache();
+        final ExecutorService pool = Executors.newFixedThreadPool(8);
+        final List<Future<ModuleCache.Module>> loads = new ArrayList<>();
+        try {
+            // Act
+            final Callable<ModuleCache.Module> load = () -> cache.load(module);
+            for (int i = 0; i < 8; ++i) {
+                loads.add(pool.submit(load));
+            }
+            // Assert
+            final ModuleCache.Module loaded = loads.get(0).get();
+            for (final Future<ModuleCache.Module> other : loads) {
+                Assertions.assertSame(loaded, other.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void Changed_Module_Is_Parsed_Again() throws IOException, InterpreterException {
+        // Arrange
+        final Path module = Files.writeString(directory.resolve("m.lox"), "print 1;");
+        final ModuleCache cache = new ModuleCache();
+        final ModuleCache.Module before = cache.load(module);
+        // Act
+        Files.writeString(module, "print 2;");
+        final ModuleCache.Module after = cache.load(module);
+        // Assert
+        Assertions.assertSame(after, cache.load(module));
+        Assertions.assertNotEquals(before.statements(), after.statements());
+    }
+
+    @Test
+    public void Deleted_And_Least_Recently_Used_Modules_Are_Dropped() throws IOException, InterpreterException {
+        // Arrange
+        final ModuleCache cache = new ModuleCache(2);
+        final Path deleted = Files.writeString(directory.resolve("deleted.lox"), "print 1;");
+        final Path old = Files.writeString(directory.resolve("old.lox"), "print 2;");
+        final Path recent = Files.writeString(directory.resolve("recent.lox"), "print 3;");
+        final Path latest = Files.writeString(directory.resolve("latest.lox"), "print 4;");
+        cache.load(deleted);
+        cache.load(old);
+        // Act
+        Files.delete(deleted);
+        final ModuleCache.Module recentModule = cache.load(recent);
+        final int sizeAfterDelete = cache.size();
+        cache.load(latest);
+        // Assert
+        Assertions.assertEquals(2, sizeAfterDelete);
+        Assertions.assertEquals(2, cache.size());
+        Assertions.assertSame(recentModule, cache.load(recent));
+        Assertions.assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void Reports_Missing_And_Invalid_Modules() throws IOException {
+        // Arrange
+        Files.writeString(directory.resolve("broken.lox"), "print 1 +;");
+        final Path missing = Files.writeString(directory.resolve("missing.lox"), "import \"nowhere.lox\";");
+        final Path broken = Files.writeString(directory.resolve("main.lox"), "import \"broken.lox\";");
+        // Act
+        final String missingOutput = run(missing);
+        final String brokenOutput = run(broken);
+        // Assert
+        Assertions.assertTrue(missingOutput.contains("ModuleNotReadable[importKeyword=Import[lexeme=import, line=1], "
+                + "path=nowhere.lox, reason=no such file]"), missingOutput);
+        Assertions.assertTrue(brokenOutput.contains("InvalidModule[importKeyword=Import[lexeme=import, line=1], "
+                + "path=broken.lox, errors=[UnexpectedToken[token=Semicolon[lexeme=;, line=1]]]]"), brokenOutput);
+    }
+
+    private static String run(final Path script) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JLox.runScript(script, new PrintStream(output, true, Charset.defaultCharset()), null);
+        return output.toString(Charset.defaultCharset());
+    }
+}
@@ -0,0 +1,106 @@
+package dev.freedman.jlox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class ParallelScannerTest {
+    @ParameterizedTest
+    @ValueSource(ints = { 1, 16, 256 })
+    public void Matches_Scanner_On_Happy_Path_Files(final int chunkSize) throws IOException, InterpreterException {
+        try (final Stream<Path> files = Files.list(Path.of("src/test/resources/happy_path_files"))) {
+            for (final Path file : files.toList()) {
+                // Arrange
+                final String source = Files.readString(file, StandardCharsets.UTF_8);
+                // Act
+                final List<Token> actual = new ParallelScanner(source, chunkSize, ForkJoinPool.commonPool())
+                        .scanTokens();
+                // Assert
+                Assertions.assertEquals(new Scanner(source).scanTokens(), actual, file.toString());
+            }
+        }
+    }
+
+    @Test
+    public void Strings_Spanning_Chunks_Keep_Their_Lines() throws InterpreterException {
+        // Arrange
+        final String source = """
+                var a = "one
+                // not a comment
+                two \\" three
+                four";
+                // a "quote in a comment
+                print a; // and "another
+                var b = "// not a comment either";
+                """;
+        // Act
+        final List<Token> actual = new ParallelScanner(source, 1, ForkJoinPool.commonPool()).scanTokens();
+        // Assert
+        Assertions.assertEquals(new Scanner(source).scanTokens(), actual);
+        Assertions.assertEquals(new Token.EndOfFile(8), actual.get(actual.size() - 1));
+    }
+
+    @Test
+    public void Reports_Issues_In_Source_Order() {
+        // Arrange
+        final String source = """
+                var a = 1 @ 2;
+                print "fine";
+                var b = # 3;
+                print "never
+                closed;
+                """;
+        // Act
+        final InterpreterException actual = Assertions.assertThrows(InterpreterException.class,
+                () -> new ParallelScanner(source, 1, ForkJoinPool.commonPool()).scanTokens());
+        // Assert
+        final InterpreterException expected = Assertions.assertThrows(InterpreterException.class,
+                () -> new Scanner(source).scanTokens());
+        Assertions.assertEquals(expected.getErrors(), actual.getErrors());
+        Assertions.assertEquals(3, actual.getErrors().size());
+    }
+
+    @Test
+    public void Matches_Scanner_On_Random_Sources() {
+        // Arrange
+        final String[] pieces = { "var", " ", "x", "1.5", "\"", "\n", "//", "+", "(", ")", ";", "@", "!=", "\r\n" };
+        final Random random = new Random(42);
+        for (int i = 0; i < 500; ++i) {
+            final StringBuilder source = new StringBuilder();
+            final int length = random.nextInt(60);
+            for (int j = 0; j < length; ++j) {
+                source.append(pieces[random.nextInt(pieces.length)]);
+            }
+            final int chunkSize = 1 + random.nextInt(8);
+            // Act
+            final Object actual = scanOrErrors(() -> new ParallelScanner(source.toString(), chunkSize,
+                    ForkJoinPool.commonPool()).scanTokens());
+            // Assert
+            final Object expected = scanOrErrors(() -> new Scanner(source.toString()).scanTokens());
+            Assertions.assertEquals(expected, actual, source.toString());
+        }
+    }
+
+    @FunctionalInterface
+    private interface TokenSource {
+        List<Token> scanTokens() throws InterpreterException;
+    }
+
+    private static Object scanOrErrors(final TokenSource tokens) {
+        try {
+            return tokens.scanTokens();
+        } catch (final InterpreterException e) {
+            return e.getErrors();
+        }
+    }
+}
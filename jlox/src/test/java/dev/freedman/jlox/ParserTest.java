@@ -0,0 +1,226 @@
+package dev.freedman.jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class ParserTest {
+    @Test
+    public void Operators_Bind_By_Precedence_And_Associate_Left() throws InterpreterException {
+        // Act
+        final Expression actual = parseExpression("a - b - c * -d(e) or f and g == h;");
+        // Assert
+        final Expression difference = new Expression.Binary(
+                new Expression.Binary(variable("a"), new Token.Minus('-', 1), variable("b")),
+                new Token.Minus('-', 1),
+                new Expression.Binary(variable("c"), new Token.Star('*', 1),
+                        new Expression.Unary(new Token.Minus('-', 1),
+                                new Expression.Call(variable("d"), new Token.RightParenthesis(')', 1),
+                                        List.of(variable("e"))))));
+        final Expression expected = new Expression.Logical(difference, new Token.Or("or", 1),
+                new Expression.Logical(variable("f"), new Token.And("and", 1),
+                        new Expression.Binary(variable("g"), new Token.EqualEqual("==", 1), variable("h"))));
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void Assignment_Associates_Right() throws InterpreterException {
+        // Act
+        final Expression actual = parseExpression("a = b = 1 < 2;");
+        // Assert
+        final Expression expected = new Expression.Assignment(new Token.Identifier("a", 1),
+                new Expression.Assignment(new Token.Identifier("b", 1),
+                        new Expression.Binary(number(1), new Token.Less('<', 1), number(2))));
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void Reports_Same_Issues_As_Grammar() {
+        // Act
+        final InterpreterException exception = Assertions.assertThrows(InterpreterException.class,
+                () -> parse("""
+                        a + b = c;
+                        -a = 1;
+                        f(1, 2;
+                        print (1 + 2;
+                        """));
+        // Assert
+        Assertions.assertEquals(List.of(
+                new InterpreterIssue.InvalidAssignmentTarget(new Token.Equal('=', 1)),
+                new InterpreterIssue.InvalidAssignmentTarget(new Token.Equal('=', 2)),
+                new InterpreterIssue.UnexpectedToken(new Token.Semicolon(';', 3)),
+                new InterpreterIssue.UnterminatedGrouping(new Token.LeftParenthesis('(', 4))),
+                exception.getErrors());
+    }
+
+    @ParameterizedTest
+    @EnumSource(Parser.FunctionBodies.class)
+    public void Deferred_Bodies_Parse_To_Same_Tree(final Parser.FunctionBodies functionBodies)
+            throws InterpreterException {
+        // Arrange
+        final String source = bigFunction("sum", "") + "fun small(a) { return a; }\nprint sum(1) + small(2);\n";
+        final List<Token> tokens = new Scanner(source).scanTokens();
+        // Act
+        final List<Statement> actual = new Parser(tokens, functionBodies).parse();
+        // Assert
+        final Statement.Function sum = (Statement.Function) actual.get(0);
+        final Statement.Function small = (Statement.Function) actual.get(1);
+        // a background parse may or may not be done yet
+        if (functionBodies == Parser.FunctionBodies.LAZY) {
+            Assertions.assertNull(sum.body().parsed());
+        } else if (functionBodies != Parser.FunctionBodies.BACKGROUND) {
+            Assertions.assertNotNull(sum.body().parsed());
+        }
+        Assertions.assertNotNull(small.body().parsed());
+        // free variables are only guessed for a body that wasn't parsed up
+        // front, so compare everything else
+        final List<Statement> expected = new Parser(tokens).parse();
+        Assertions.assertEquals(((Statement.Function) expected.get(0)).body(), sum.body());
+        Assertions.assertEquals(expected.subList(1, expected.size()), actual.subList(1, actual.size()));
+    }
+
+    @Test
+    public void Lazy_Body_Reports_Syntax_Errors_When_Called() throws InterpreterException {
+        // Arrange
+        final String source = bigFunction("broken", "total = ;") + "print 1;\n";
+        final List<Statement> statements = new Parser(new Scanner(source).scanTokens(), Parser.FunctionBodies.LAZY)
+                .parse();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Interpreter interpreter = new Interpreter(new PrintStream(output, true, Charset.defaultCharset()));
+        for (final Statement statement : statements) {
+            interpreter.execute(statement);
+        }
+        final List<Statement> call = new Parser(new Scanner("broken(1);").scanTokens()).parse();
+        // Act
+        final InterpreterException exception = Assertions.assertThrows(InterpreterException.class,
+                () -> interpreter.execute(call.get(0)));
+        // Assert
+        Assertions.assertEquals("1.0\n", output.toString(Charset.defaultCharset()));
+        Assertions.assertEquals(List.of(new InterpreterIssue.UnexpectedToken(new Token.Semicolon(';', 2))),
+                exception.getErrors());
+    }
+
+    @Test
+    public void Strict_Reports_Syntax_Errors_In_Deferred_Bodies_Before_Running() {
+        // Arrange
+        final String source = bigFunction("broken", "total = ;") + "print 1 +;\n";
+        // Act
+        final InterpreterException exception = Assertions.assertThrows(InterpreterException.class,
+                () -> new Parser(new Scanner(source).scanTokens(), Parser.FunctionBodies.STRICT).parse());
+        // Assert
+        Assertions.assertEquals(List.of(new InterpreterIssue.UnexpectedToken(new Token.Semicolon(';', 6)),
+                new InterpreterIssue.UnexpectedToken(new Token.Semicolon(';', 2))), exception.getErrors());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "a - b - c * -d(e) or f and g == h", "a = b = 1 < 2", "f(1, g(-!x), (h))()",
+            "-(a + (b * (c - (d / e))))" })
+    public void Deep_Expressions_Parse_To_Same_Tree(final String expression) throws InterpreterException {
+        // Arrange
+        final int wrapping = Parser.MAX_RECURSIVE_NESTING + 1;
+        final String deep = "(".repeat(wrapping) + expression + ")".repeat(wrapping) + ";";
+        // Act
+        Expression actual = parseExpression(deep);
+        for (int i = 0; i < wrapping; ++i) {
+            actual = ((Expression.Grouping) actual).expression();
+        }
+        // Assert
+        Assertions.assertEquals(parseExpression(expression + ";"), actual);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "(", "a + (", "-", "f(" })
+    public void Nesting_Too_Deep_Is_Reported(final String level) {
+        // Arrange
+        final String source = "print " + level.repeat(Parser.DEFAULT_MAX_DEPTH + 1) + "1;";
+        // Act
+        final InterpreterException exception = Assertions.assertThrows(InterpreterException.class,
+                () -> parse(source));
+        // Assert
+        final InterpreterIssue.NestingTooDeep issue = (InterpreterIssue.NestingTooDeep) exception.getErrors().get(0);
+        Assertions.assertEquals(Parser.DEFAULT_MAX_DEPTH, issue.maxDepth());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "{", "if (true) ", "fun f() {" })
+    public void Statements_Nested_Too_Deep_Are_Reported(final String level) {
+        // Arrange
+        final String source = level.repeat(Parser.MAX_STATEMENT_DEPTH + 1) + "1;";
+        // Act
+        final InterpreterException exception = Assertions.assertThrows(InterpreterException.class,
+                () -> parse(source));
+        // Assert
+        final InterpreterIssue.NestingTooDeep issue = (InterpreterIssue.NestingTooDeep) exception.getErrors().get(0);
+        Assertions.assertEquals(Parser.MAX_STATEMENT_DEPTH, issue.maxDepth());
+    }
+
+    @Test
+    public void Deep_Expressions_Make_It_Through_Every_Pass() throws InterpreterException {
+        // Arrange
+        final int levels = 20_000;
+        final String source = "fun f(a) { return " + "a + (".repeat(levels) + "a" + ")".repeat(levels) + "; }\n"
+                + "var a = 1;\n"
+                + "print " + "a + (".repeat(levels) + "f(a)" + ")".repeat(levels) + ";\n";
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Interpreter interpreter = Scripts.interpreter(output);
+        // the tree walker still recurses when it runs them
+        interpreter.setHeapStackLimit(100_000_000);
+        // Act
+        final CompactTree tree = CompactTree.of(JLox.getExecutableStatements(source));
+        for (int i = 0; i < tree.rootCount(); ++i) {
+            interpreter.execute(tree.statement(tree.root(i)));
+        }
+        // Assert
+        Assertions.assertEquals("40001.0\n", output.toString(Charset.defaultCharset()));
+    }
+
+    @Test
+    public void Max_Depth_Counts_Statements_And_Expressions() throws InterpreterException {
+        // Arrange
+        final List<Token> shallowEnough = new Scanner("{ print (1); }").scanTokens();
+        final List<Token> tooDeep = new Scanner("{ print ((1)); }").scanTokens();
+        // Act
+        new Parser(shallowEnough, Parser.FunctionBodies.EAGER, 3).parse();
+        final InterpreterException exception = Assertions.assertThrows(InterpreterException.class,
+                () -> new Parser(tooDeep, Parser.FunctionBodies.EAGER, 3).parse());
+        // Assert
+        Assertions.assertEquals(new InterpreterIssue.NestingTooDeep(new Token.LeftParenthesis('(', 1), 3),
+                exception.getErrors().get(0));
+    }
+
+    /**
+     * A function too big to be parsed right away, with {@code extra} as the
+     * first statement on its second line.
+     */
+    private static String bigFunction(final String name, final String extra) {
+        final StringBuilder source = new StringBuilder("fun ").append(name).append("(n) {\n")
+                .append("    ").append(extra).append(" var total = 0;\n    ");
+        for (int i = 0; i < Parser.MIN_DEFERRED_BODY_TOKENS / 4; ++i) {
+            source.append("total = total + n; ");
+        }
+        return source.append("\n    return total;\n}\n").toString();
+    }
+
+    private static Expression parseExpression(final String source) throws InterpreterException {
+        return ((Statement.ExpressionStatement) parse(source).get(0)).expression();
+    }
+
+    private static List<Statement> parse(final String source) throws InterpreterException {
+        return new Parser(new Scanner(source).scanTokens()).parse();
+    }
+
+    private static Expression variable(final String name) {
+        return new Expression.Variable(new Token.Identifier(name, 1));
+    }
+
+    private static Expression number(final double value) {
+        return new Expression.Literal(new Token.Number(String.valueOf((int) value), 1, value));
+    }
+}
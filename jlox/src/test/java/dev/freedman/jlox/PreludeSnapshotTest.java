@@ -0,0 +1,94 @@
+package dev.freedman.jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PreludeSnapshotTest {
+    private static final String PRELUDE = """
+            fun square(x) {
+                return x * x;
+            }
+
+            fun makeCounter() {
+                var count = 0;
+                fun increment() {
+                    count = count + 1;
+                    return count;
+                }
+                fun factorial(n) {
+                    if (n <= 1) return 1;
+                    return n * factorial(n - 1);
+                }
+                // both closures share count, and factorial refers to itself
+                fun check() {
+                    return count + factorial(3);
+                }
+                increment();
+                return check;
+            }
+
+            var counter = makeCounter();
+            var greeting = "hello";
+            var now = clock;
+            var table = array(3, 1);
+            """;
+
+    @Test
+    public void Interpreters_Start_From_Prelude_Without_Sharing_State() throws InterpreterException {
+        // Arrange
+        final PreludeSnapshot prelude = PreludeSnapshot.of(PRELUDE);
+        // Act
+        final String first = run(prelude, """
+                print square(4);
+                print counter();
+                greeting = "changed";
+                print greeting;
+                print now == clock;
+                arraySet(table, 0, 5);
+                print arraySum(table);
+                """);
+        final String second = run(prelude, """
+                print greeting;
+                print arraySum(table);
+                """);
+        // Assert
+        Assertions.assertEquals("16.0\n7.0\nchanged\ntrue\n7.0\n", first);
+        Assertions.assertEquals("hello\n3.0\n", second);
+    }
+
+    @Test
+    public void Snapshot_Survives_Round_Trip_Through_Disk(@TempDir final Path directory)
+            throws InterpreterException, IOException {
+        // Arrange
+        final Path file = directory.resolve("prelude.snapshot");
+        PreludeSnapshot.of(PRELUDE).write(file);
+        // Act
+        final String output = run(PreludeSnapshot.read(file), "print square(3) + counter();");
+        // Assert
+        Assertions.assertEquals("16.0\n", output);
+    }
+
+    @Test
+    public void Prelude_Names_Cannot_Be_Redeclared() throws InterpreterException {
+        // Arrange
+        final PreludeSnapshot prelude = PreludeSnapshot.of(PRELUDE);
+        // Act
+        final InterpreterException exception = Assertions.assertThrows(InterpreterException.class,
+                () -> run(prelude, "var square = 1;"));
+        // Assert
+        Assertions.assertTrue(exception.getErrors().get(0) instanceof InterpreterIssue.VariableAlreadyDefined);
+    }
+
+    private static String run(final PreludeSnapshot prelude, final String source) throws InterpreterException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Scripts.run(new Interpreter(new PrintStream(output, true, Charset.defaultCharset()), prelude), source);
+        return output.toString(Charset.defaultCharset());
+    }
+}
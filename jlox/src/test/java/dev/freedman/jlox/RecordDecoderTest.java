@@ -0,0 +1,121 @@
+package dev.freedman.jlox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class RecordDecoderTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    public void Json_Decodes_To_Lox_Values() throws InterpreterException {
+        // Act
+        final LoxMap record = (LoxMap) decodeJson("""
+                { "id": 12, "ratio": -0.125, "big": 12345678901234567890, "tiny": 1e-300,
+                  "name": "tab\\there \\"q\\" \\u00e9\\ud83d\\ude00", "tags": ["a", 1, false, null], "empty": {} }""");
+        // Assert
+        Assertions.assertEquals(12.0, record.get("id"));
+        Assertions.assertEquals(-0.125, record.get("ratio"));
+        Assertions.assertEquals(12345678901234567890.0, record.get("big"));
+        Assertions.assertEquals(1e-300, record.get("tiny"));
+        Assertions.assertEquals("tab\there \"q\" é😀", record.get("name"));
+        final LoxArray tags = (LoxArray) record.get("tags");
+        Assertions.assertEquals(4, tags.length());
+        Assertions.assertEquals("a", tags.get(0));
+        Assertions.assertEquals(1.0, tags.get(1));
+        Assertions.assertEquals(false, tags.get(2));
+        Assertions.assertNull(tags.get(3));
+        Assertions.assertEquals(0, ((LoxMap) record.get("empty")).size());
+    }
+
+    @Test
+    public void Numbers_Decode_Like_Double_Parse_Double() throws InterpreterException {
+        for (final String number : new String[] { "0", "-0", "0.1", "0.3", "123.456", "999999999999999",
+                "9999999999999999", "0.000001", "3.14159265358979", "1E22", "4.9e-324", "1.7976931348623157e308" }) {
+            // Act
+            final Object decoded = decodeJson(number);
+            // Assert
+            Assertions.assertEquals(Double.parseDouble(number), decoded, number);
+        }
+    }
+
+    @Test
+    public void Repeated_Keys_Are_Interned() throws InterpreterException {
+        // Arrange
+        final RecordDecoder decoder = new RecordDecoder();
+        final byte[] first = "{\"name\": 1}".getBytes(StandardCharsets.UTF_8);
+        final byte[] second = "{\"name\": 2}".getBytes(StandardCharsets.UTF_8);
+        // Act
+        final LoxMap one = (LoxMap) decoder.decodeJson("test", first, 0, first.length, 1);
+        final LoxMap two = (LoxMap) decoder.decodeJson("test", second, 0, second.length, 2);
+        // Assert
+        Assertions.assertSame(one.keyAt(0), two.keyAt(0));
+        Assertions.assertEquals(2.0, two.get("name"));
+    }
+
+    @Test
+    public void Malformed_Json_Is_Reported_Where_It_Goes_Wrong() {
+        // Act
+        final InterpreterException exception = Assertions.assertThrows(InterpreterException.class,
+                () -> decodeJson("{\"a\": [1, 2}"));
+        // Assert
+        Assertions.assertEquals(new InterpreterIssue.MalformedRecord("test", "']'", 1, 12),
+                exception.getErrors().get(0));
+        Assertions.assertThrows(InterpreterException.class,
+                () -> decodeJson("[".repeat(RecordDecoder.MAX_DEPTH + 1)));
+        Assertions.assertThrows(InterpreterException.class, () -> decodeJson("1 2"));
+        Assertions.assertThrows(InterpreterException.class, () -> decodeJson("\"open"));
+    }
+
+    @Test
+    public void Csv_Fields_Can_Be_Quoted_Across_Lines() throws IOException, InterpreterException {
+        // Arrange
+        final Path file = Files.writeString(directory.resolve("rows.csv"),
+                "id,note,\r\n1,\"says \"\"hi\"\", twice\",x\n2,\"two\nlines\",\n3,unterminated \"quote");
+        final LoxReader reader = LoxReader.open("rows.csv", file);
+        final RecordDecoder decoder = reader.decoder();
+        // Act
+        reader.next();
+        final LoxArray header = decoder.decodeCsv("test", reader);
+        reader.next();
+        final LoxArray first = decoder.decodeCsv("test", reader);
+        reader.next();
+        final LoxArray second = decoder.decodeCsv("test", reader);
+        final long secondEndsOn = reader.lineNumber();
+        reader.next();
+        final LoxArray third = decoder.decodeCsv("test", reader);
+        // Assert
+        Assertions.assertEquals("[id, note, ]", header.toString());
+        Assertions.assertEquals("says \"hi\", twice", first.get(1));
+        Assertions.assertEquals("two\nlines", second.get(1));
+        Assertions.assertEquals(4, secondEndsOn);
+        Assertions.assertEquals("unterminated \"quote", third.get(1));
+        Assertions.assertFalse(reader.next());
+    }
+
+    @Test
+    public void Unclosed_Csv_Quote_Is_Reported() throws IOException {
+        // Arrange
+        final Path file = Files.writeString(directory.resolve("rows.csv"), "1,\"never\nclosed");
+        final LoxReader reader = LoxReader.open("rows.csv", file);
+        reader.next();
+        // Act
+        final InterpreterException exception = Assertions.assertThrows(InterpreterException.class,
+                () -> reader.decoder().decodeCsv("test", reader));
+        // Assert
+        final InterpreterIssue.MalformedRecord issue = (InterpreterIssue.MalformedRecord) exception.getErrors()
+                .get(0);
+        Assertions.assertEquals("a closing quote", issue.expected());
+    }
+
+    private static Object decodeJson(final String json) throws InterpreterException {
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        return new RecordDecoder().decodeJson("test", bytes, 0, bytes.length, 1);
+    }
+}
@@ -0,0 +1,98 @@
+package dev.freedman.jlox;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class RecordEncoderTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    public void Json_Encodes_Compactly() throws InterpreterException {
+        // Arrange
+        final LoxMap record = new LoxMap();
+        record.put("id", 42.0);
+        record.put("ratio", 0.1);
+        record.put(7.0, "number key");
+        record.put("text", "line\nbreak \"q\" \\ é😀\u0001");
+        final LoxArray list = LoxArray.filled(0, 0.0);
+        list.push(-1.0);
+        list.push(1e20);
+        list.push(null);
+        list.push(true);
+        record.put("list", list);
+        record.put("gone", 1.0);
+        record.remove("gone");
+        final RecordEncoder encoder = new RecordEncoder();
+        // Act
+        encoder.encodeJson("test", record);
+        // Assert
+        Assertions.assertEquals("{\"id\":42,\"ratio\":0.1,\"7\":\"number key\","
+                + "\"text\":\"line\\nbreak \\\"q\\\" \\\\ é😀\\u0001\",\"list\":[-1,1.0E20,null,true]}",
+                encoder.toString());
+    }
+
+    @Test
+    public void Unencodable_Values_Are_Refused() {
+        // Arrange
+        final LoxArray cycle = LoxArray.filled(1, null);
+        cycle.set(0, cycle);
+        final RecordEncoder encoder = new RecordEncoder();
+        // Act & Assert
+        Assertions.assertThrows(InterpreterException.class, () -> encoder.encodeJson("test", cycle));
+        Assertions.assertThrows(InterpreterException.class, () -> encoder.encodeJson("test", Double.NaN));
+        Assertions.assertThrows(InterpreterException.class, () -> encoder.encodeJson("test",
+                NativeFunction.of("f", (interpreter) -> null)));
+        Assertions.assertThrows(InterpreterException.class, () -> encoder.encodeCsv("test", cycle));
+    }
+
+    @Test
+    public void Script_Round_Trips_Records_Through_Files() throws IOException, InterpreterException {
+        // Arrange
+        Files.writeString(directory.resolve("in.jsonl"), """
+                {"name": "ann", "score": 3.5, "tags": ["a", "b,c"]}
+                {"name": "bob \\"the\\" builder", "score": 10, "tags": []}
+                """);
+        // Act
+        final String output = Scripts.run(directory, """
+                var reader = fileReader("in.jsonl");
+                var json = fileWriter("out.jsonl");
+                var csv = fileWriter("out.csv");
+                var total = 0;
+                while (readerNext(reader)) {
+                    var record = readerJson(reader);
+                    total = total + mapGet(record, "score");
+                    writerJson(json, record);
+                    var row = array(0, nil);
+                    arrayPush(row, mapGet(record, "name"));
+                    arrayPush(row, mapGet(record, "score"));
+                    arrayPush(row, jsonEncode(mapGet(record, "tags")));
+                    writerCsv(csv, row);
+                }
+                writerClose(json);
+                writerClose(csv);
+                reader = fileReader("out.csv");
+                while (readerNext(reader)) {
+                    var row = readerCsv(reader);
+                    print arrayGet(row, 0);
+                    print parseNumber(arrayGet(row, 1)) * 2;
+                }
+                print total;
+                """);
+        // Assert
+        Assertions.assertEquals("ann\n7.0\nbob \"the\" builder\n20.0\n13.5\n", output);
+        Assertions.assertEquals("""
+                {"name":"ann","score":3.5,"tags":["a","b,c"]}
+                {"name":"bob \\"the\\" builder","score":10,"tags":[]}
+                """, Files.readString(directory.resolve("out.jsonl")));
+        Assertions.assertEquals("""
+                ann,3.5,"[""a"",""b,c""]"
+                "bob ""the"" builder",10,[]
+                """, Files.readString(directory.resolve("out.csv")));
+    }
+}
@@ -0,0 +1,44 @@
+package dev.freedman.jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+/**
+ * The fixture shared by tests that run Lox source on an {@link Interpreter}
+ * they set up themselves.
+ */
+final class Scripts {
+    private Scripts() {
+    }
+
+    /**
+     * An interpreter whose {@code print} statements write to {@code output}.
+     */
+    static Interpreter interpreter(final ByteArrayOutputStream output) {
+        return new Interpreter(new PrintStream(output, true, Charset.defaultCharset()));
+    }
+
+    /**
+     * Parses {@code source} the way {@link JLox} does and runs it on
+     * {@code interpreter}.
+     */
+    static void run(final Interpreter interpreter, final String source) throws InterpreterException {
+        for (final Statement statement : JLox.getExecutableStatements(source)) {
+            interpreter.execute(statement);
+        }
+    }
+
+    /**
+     * Runs {@code source} on a new interpreter whose imports and files are
+     * relative to {@code directory}, and returns what it printed.
+     */
+    static String run(final Path directory, final String source) throws InterpreterException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Interpreter interpreter = interpreter(output);
+        interpreter.setModuleDirectory(directory);
+        run(interpreter, source);
+        return output.toString(Charset.defaultCharset());
+    }
+}
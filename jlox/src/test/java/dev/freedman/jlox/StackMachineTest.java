@@ -0,0 +1,120 @@
+package dev.freedman.jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class StackMachineTest {
+    @Test
+    public void Deep_Recursion_Stays_Off_The_Java_Stack() throws InterpreterException {
+        // Arrange
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Interpreter interpreter = interpreter(output, 64 << 20);
+        // Act
+        Scripts.run(interpreter, """
+                fun sum(n) {
+                    if (n == 0) return 0;
+                    return n + sum(n - 1);
+                }
+                print sum(200000);
+                """);
+        // Assert
+        Assertions.assertEquals(200_000.0 * 200_001 / 2 + "\n", output.toString(Charset.defaultCharset()));
+        Assertions.assertFalse(interpreter.heapStack().isBusy());
+        Assertions.assertEquals(0, interpreter.heapStack().callDepth());
+    }
+
+    @Test
+    public void Deeply_Nested_Expression_Evaluates() throws InterpreterException {
+        // Arrange
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Interpreter interpreter = interpreter(output, 64 << 20);
+        // the parser recurses, so build the tree by hand
+        Expression expression = new Expression.Literal(new Token.Number("1", 1, 1.0));
+        for (int i = 0; i < 100_000; ++i) {
+            expression = new Expression.Binary(new Expression.Literal(new Token.Number("1", 1, 1.0)),
+                    new Token.Plus('+', 1), new Expression.Grouping(expression));
+        }
+        // Act
+        interpreter.execute(new Statement.Print(expression));
+        // Assert
+        Assertions.assertEquals("100001.0\n", output.toString(Charset.defaultCharset()));
+    }
+
+    @Test
+    public void Runaway_Recursion_Hits_Limit() throws InterpreterException {
+        // Arrange
+        final Interpreter interpreter = interpreter(new ByteArrayOutputStream(), 1 << 16);
+        Scripts.run(interpreter, """
+                var depth = 0;
+                fun forever() {
+                    depth = depth + 1;
+                    forever();
+                }
+                """);
+        // Act
+        final InterpreterException exception = Assertions.assertThrows(InterpreterException.class,
+                () -> Scripts.run(interpreter, "forever();"));
+        // Assert
+        final InterpreterIssue.StackLimitExceeded issue = (InterpreterIssue.StackLimitExceeded) exception
+                .getErrors().get(0);
+        Assertions.assertEquals(1 << 16, issue.limitBytes());
+        Assertions.assertTrue(issue.callDepth() > 1000);
+        Assertions.assertEquals(4, issue.line());
+        // everything got unwound, so the interpreter is good to keep using
+        Assertions.assertFalse(interpreter.heapStack().isBusy());
+        Assertions.assertSame(interpreter.globals, interpreter.environment());
+        Scripts.run(interpreter, "print depth;");
+    }
+
+    @Test
+    public void Suspends_And_Resumes() throws InterpreterException {
+        // Arrange
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Interpreter interpreter = interpreter(output, 1 << 20);
+        final List<Statement> statements = JLox.getExecutableStatements("""
+                fun count(n) {
+                    var i = 0;
+                    while (i < n) {
+                        print i;
+                        i = i + 1;
+                    }
+                }
+                count(5);
+                """);
+        interpreter.execute(statements.get(0));
+        final StackMachine machine = interpreter.heapStack();
+        // Act
+        machine.start(statements.get(1));
+        int slices = 0;
+        while (!machine.run(3)) {
+            ++slices;
+        }
+        // Assert
+        Assertions.assertTrue(slices > 5);
+        Assertions.assertEquals("0.0\n1.0\n2.0\n3.0\n4.0\n", output.toString(Charset.defaultCharset()));
+        Assertions.assertSame(interpreter.globals, interpreter.environment());
+    }
+
+    @Test
+    public void Return_Outside_Function_Unwinds() throws InterpreterException {
+        // Arrange
+        final Interpreter interpreter = interpreter(new ByteArrayOutputStream(), 1 << 20);
+        // Act
+        final Return returnValue = Assertions.assertThrows(Return.class,
+                () -> Scripts.run(interpreter, "{ var a = 1; return a + 1; }"));
+        // Assert
+        Assertions.assertEquals(2.0, returnValue.getValue());
+        Assertions.assertFalse(interpreter.heapStack().isBusy());
+        Assertions.assertSame(interpreter.globals, interpreter.environment());
+    }
+
+    private static Interpreter interpreter(final ByteArrayOutputStream output, final long heapStackLimit) {
+        final Interpreter interpreter = Scripts.interpreter(output);
+        interpreter.setHeapStackLimit(heapStackLimit);
+        return interpreter;
+    }
+}